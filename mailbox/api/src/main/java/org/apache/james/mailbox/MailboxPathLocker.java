@@ -19,6 +19,7 @@
 
 package org.apache.james.mailbox;
 
+import java.util.List;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.james.mailbox.exception.MailboxException;
@@ -53,6 +54,36 @@ public interface MailboxPathLocker {
      */
     public <T> T executeWithLock(MailboxSession session, MailboxPath path, LockAwareExecution<T> execution, boolean writeLock) throws MailboxException;
 
+    /**
+     * Execute the {@link LockAwareExecution} while holding a lock on both {@link MailboxPath}'s. This should be used by operations which
+     * touch two mailboxes, like copy and rename. The implementation needs to make sure that the locks are always acquired in the same order,
+     * so two threads which lock the same paths can not deadlock.
+     * 
+     * @param session
+     * @param first
+     * @param second
+     * @param execution
+     * @param writeLock
+     * 
+     * @throws MailboxException
+     */
+    public <T> T executeWithLocks(MailboxSession session, MailboxPath first, MailboxPath second, LockAwareExecution<T> execution, boolean writeLock) throws MailboxException;
+
+    /**
+     * Execute the {@link LockAwareExecution} while holding a lock on all given {@link MailboxPath}'s. The locks are acquired in the same
+     * order as by {@link #executeWithLocks(MailboxSession, MailboxPath, MailboxPath, LockAwareExecution, boolean)}, no matter in which
+     * order the paths are given. Operations which need more than one lock must get all of them with one call, as nested calls can
+     * acquire the locks in different orders.
+     * 
+     * @param session
+     * @param paths
+     * @param execution
+     * @param writeLock
+     * 
+     * @throws MailboxException
+     */
+    public <T> T executeWithLocks(MailboxSession session, List<MailboxPath> paths, LockAwareExecution<T> execution, boolean writeLock) throws MailboxException;
+
     /**
      * Execute code while holding a lock
      */
@@ -37,6 +37,7 @@ import org.apache.james.mailbox.model.MailboxACL.MailboxACLRights;
 import org.apache.james.mailbox.model.MessageRange;
 import org.apache.james.mailbox.model.MessageResult;
 import org.apache.james.mailbox.model.MessageResultIterator;
+import org.apache.james.mailbox.model.MessageToAppend;
 import org.apache.james.mailbox.model.SearchQuery;
 import org.apache.james.mailbox.model.SimpleMailboxACL;
 import org.apache.james.mailbox.model.MailboxACL.MailboxACLRight;
@@ -152,6 +153,31 @@ public interface MessageManager {
      */
     long appendMessage(InputStream msgIn, Date internalDate, MailboxSession mailboxSession, boolean isRecent, Flags flags) throws MailboxException;
 
+    /**
+     * Appends all given messages to this mailbox at once. The messages get
+     * consecutive UIDs in the order they are returned by the {@link Iterator}.
+     * Listeners are notified once for the whole batch.
+     * 
+     * Whether the batch is atomic depends on the implementation. If the
+     * storage is not transactional (for example maildir or HBase) some of the
+     * messages may have been appended when a {@link MailboxException} is
+     * thrown.
+     * 
+     * Be aware that the content of all messages may be buffered until the
+     * batch is stored, so the caller should limit the count of messages
+     * per call.
+     * 
+     * @param messages
+     *            the messages to append, not null
+     * @param mailboxSession
+     *            not null
+     * @return uids of the appended messages, in the same order as the given
+     *         messages
+     * @throws MailboxException
+     *             when the messages cannot be appended
+     */
+    List<Long> appendMessages(Iterator<MessageToAppend> messages, MailboxSession mailboxSession) throws MailboxException;
+
     /**
      * Gets messages in the given range. The messages may get fetched under
      * the-hood in batches so the caller should check if
@@ -169,6 +195,34 @@ public interface MessageManager {
      */
     MessageResultIterator getMessages(MessageRange set, FetchGroup fetchGroup, MailboxSession mailboxSession) throws MailboxException;
 
+    /**
+     * Return the uids of all messages in this mailbox, ordered ascending.
+     * 
+     * This is much cheaper than calling
+     * {@link #getMessages(MessageRange, FetchGroup, MailboxSession)} for
+     * {@link MessageRange#all()} if only the uids are needed, for example when
+     * a mailbox gets selected.
+     * 
+     * @param mailboxSession
+     *            not null
+     * @return uid iterator
+     * @throws MailboxException
+     */
+    Iterator<Long> listUids(MailboxSession mailboxSession) throws MailboxException;
+
+    /**
+     * Return the flags which are applicable for this mailbox. These are the
+     * system flags which can be stored, plus all user flags which are in use by
+     * at least one message. {@link javax.mail.Flags.Flag#RECENT} is never
+     * included.
+     * 
+     * @param mailboxSession
+     *            not null
+     * @return flags
+     * @throws MailboxException
+     */
+    Flags getApplicableFlags(MailboxSession mailboxSession) throws MailboxException;
+
     /**
      * Tells whether the given {@link MailboxSession}'s user has the given
      * {@link MailboxACLRight} for this {@link MessageManager}'s mailbox.
@@ -20,7 +20,10 @@ package org.apache.james.mailbox;
 
 import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
 
 import javax.mail.Flags;
 
@@ -31,6 +34,7 @@ import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.mock.MockMailboxManager;
 import org.apache.james.mailbox.model.MailboxConstants;
 import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.MessageToAppend;
 import org.junit.Test;
 import org.slf4j.LoggerFactory;
 
@@ -47,6 +51,8 @@ public abstract class AbstractMailboxManagerTest {
     
     private final static String USER_1 = "USER_1";
     private final static String USER_2 = "USER_2";
+    private final static String USER_3 = "USER_3";
+    private final static String USER_4 = "USER_4";
 
     /**
      * The mailboxManager that needs to get instanciated
@@ -127,6 +133,71 @@ public abstract class AbstractMailboxManagerTest {
 
     }
 
+    @Test
+    public void testListUidsAndApplicableFlags() throws BadCredentialsException, MailboxException {
+
+        MailboxSession session = getMailboxManager().createSystemSession(USER_3, LoggerFactory.getLogger("Test"));
+        getMailboxManager().startProcessingRequest(session);
+        MailboxPath inbox = MailboxPath.inbox(session);
+        getMailboxManager().createMailbox(inbox, session);
+        MessageManager messageManager = getMailboxManager().getMailbox(inbox, session);
+
+        Flags flags = new Flags(Flags.Flag.FLAGGED);
+        flags.add("keyword");
+        long uid1 = messageManager.appendMessage(new ByteArrayInputStream("Subject: test1\r\n\r\ntestmail".getBytes()), new Date(), session, true, new Flags());
+        long uid2 = messageManager.appendMessage(new ByteArrayInputStream("Subject: test2\r\n\r\ntestmail".getBytes()), new Date(), session, true, flags);
+        long uid3 = messageManager.appendMessage(new ByteArrayInputStream("Subject: test3\r\n\r\ntestmail".getBytes()), new Date(), session, false, new Flags(Flags.Flag.SEEN));
+
+        Iterator<Long> uids = messageManager.listUids(session);
+        Assert.assertEquals(uid1, uids.next().longValue());
+        Assert.assertEquals(uid2, uids.next().longValue());
+        Assert.assertEquals(uid3, uids.next().longValue());
+        Assert.assertFalse(uids.hasNext());
+
+        Flags applicableFlags = messageManager.getApplicableFlags(session);
+        Assert.assertTrue(applicableFlags.contains(Flags.Flag.SEEN));
+        Assert.assertTrue(applicableFlags.contains(Flags.Flag.FLAGGED));
+        Assert.assertFalse(applicableFlags.contains(Flags.Flag.RECENT));
+        if (messageManager.getMetaData(false, session, MessageManager.MetaData.FetchGroup.NO_COUNT).getPermanentFlags().contains(Flags.Flag.USER)) {
+            Assert.assertTrue(applicableFlags.contains("keyword"));
+        }
+
+        getMailboxManager().endProcessingRequest(session);
+    }
+
+    @Test
+    public void testAppendMessages() throws BadCredentialsException, MailboxException {
+
+        MailboxSession session = getMailboxManager().createSystemSession(USER_4, LoggerFactory.getLogger("Test"));
+        getMailboxManager().startProcessingRequest(session);
+        MailboxPath inbox = MailboxPath.inbox(session);
+        getMailboxManager().createMailbox(inbox, session);
+        MessageManager messageManager = getMailboxManager().getMailbox(inbox, session);
+
+        long first = messageManager.appendMessage(new ByteArrayInputStream("Subject: test\r\n\r\ntestmail".getBytes()), new Date(), session, true, new Flags());
+
+        List<MessageToAppend> messages = new ArrayList<MessageToAppend>();
+        for (int i = 0; i < 3; i++) {
+            messages.add(new MessageToAppend(new ByteArrayInputStream(("Subject: test" + i + "\r\n\r\ntestmail").getBytes()), new Date(), i == 0, new Flags(Flags.Flag.SEEN)));
+        }
+        List<Long> appended = messageManager.appendMessages(messages.iterator(), session);
+        Assert.assertEquals(3, appended.size());
+        Assert.assertTrue(appended.get(0) > first);
+        Assert.assertEquals(appended.get(0) + 1, appended.get(1).longValue());
+        Assert.assertEquals(appended.get(0) + 2, appended.get(2).longValue());
+
+        Iterator<Long> uids = messageManager.listUids(session);
+        Assert.assertEquals(first, uids.next().longValue());
+        for (Long uid: appended) {
+            Assert.assertEquals(uid, uids.next());
+        }
+        Assert.assertFalse(uids.hasNext());
+        Assert.assertEquals(4, messageManager.getMessageCount(session));
+        Assert.assertTrue(messageManager.appendMessages(new ArrayList<MessageToAppend>().iterator(), session).isEmpty());
+
+        getMailboxManager().endProcessingRequest(session);
+    }
+
     /**
      * Implement this method to create the mailboxManager.
      * 
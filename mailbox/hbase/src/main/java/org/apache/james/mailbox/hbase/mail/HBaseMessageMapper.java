@@ -36,7 +36,12 @@ import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.ColumnPrefixFilter;
 import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
 import org.apache.hadoop.hbase.filter.PrefixFilter;
 import org.apache.hadoop.hbase.filter.SingleColumnValueExcludeFilter;
 import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
@@ -455,6 +460,90 @@ public class HBaseMessageMapper extends NonTransactionalMapper implements Messag
         }
     }
 
+    @Override
+    public Iterator<Long> listAllMessageUids(Mailbox<UUID> mailbox) throws MailboxException {
+        HTable messages = null;
+        ResultScanner scanner = null;
+        try {
+            messages = new HTable(conf, MESSAGES_TABLE);
+            /* Limit the number of entries scanned to just the mails in this mailbox */
+            Scan scan = new Scan(messageRowKey(mailbox.getMailboxId(), Long.MAX_VALUE),
+                    messageRowKey(mailbox.getMailboxId(), 0));
+            scan.addFamily(MESSAGES_META_CF);
+            // we only need the row keys as they contain the uid
+            FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+            filters.addFilter(new FirstKeyOnlyFilter());
+            filters.addFilter(new KeyOnlyFilter());
+            scan.setFilter(filters);
+            scan.setCaching(messages.getScannerCaching() * 2);
+            scan.setMaxVersions(1);
+
+            scanner = messages.getScanner(scan);
+            Result result;
+            List<Long> uids = new ArrayList<Long>();
+            while ((result = scanner.next()) != null) {
+                uids.add(Long.MAX_VALUE - Bytes.toLong(result.getRow(), 16, 8));
+            }
+            // we store uids in reverse order, we send them ascending
+            Collections.reverse(uids);
+            return uids.iterator();
+        } catch (IOException e) {
+            throw new MailboxException("Search of uids failed in mailbox " + mailbox, e);
+        } finally {
+            if (scanner != null) {
+                scanner.close();
+            }
+            if (messages != null) {
+                try {
+                    messages.close();
+                } catch (IOException ex) {
+                    throw new MailboxException("Error closing table " + messages, ex);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Flags getApplicableFlag(Mailbox<UUID> mailbox) throws MailboxException {
+        HTable messages = null;
+        ResultScanner scanner = null;
+        try {
+            messages = new HTable(conf, MESSAGES_TABLE);
+            /* Limit the number of entries scanned to just the mails in this mailbox */
+            Scan scan = new Scan(messageRowKey(mailbox.getMailboxId(), Long.MAX_VALUE),
+                    messageRowKey(mailbox.getMailboxId(), 0));
+            scan.addFamily(MESSAGES_META_CF);
+            // the system flags can always be stored, so we only need the qualifiers of the user flags.
+            // their values are just markers, so there is no need to strip them.
+            scan.setFilter(new ColumnPrefixFilter(PREFIX_UFLAGS_B));
+            scan.setCaching(messages.getScannerCaching() * 2);
+            scan.setMaxVersions(1);
+
+            scanner = messages.getScanner(scan);
+            Result result;
+            Flags flags = new Flags();
+            while ((result = scanner.next()) != null) {
+                for (KeyValue kv : result.raw()) {
+                    flags.add(userFlagFromBytes(kv.getQualifier()));
+                }
+            }
+            return flags;
+        } catch (IOException e) {
+            throw new MailboxException("Search of user flags failed in mailbox " + mailbox, e);
+        } finally {
+            if (scanner != null) {
+                scanner.close();
+            }
+            if (messages != null) {
+                try {
+                    messages.close();
+                } catch (IOException ex) {
+                    throw new MailboxException("Error closing table " + messages, ex);
+                }
+            }
+        }
+    }
+
     /*
      * (non-Javadoc)
      * @see org.apache.james.mailbox.store.mail.MessageMapper#add(org.apache.james.mailbox.store.mail.model.Mailbox, org.apache.james.mailbox.store.mail.model.Message)
@@ -471,6 +560,32 @@ public class HBaseMessageMapper extends NonTransactionalMapper implements Messag
         return data;
     }
 
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.mailbox.store.mail.MessageMapper#addAll(org.apache.james.mailbox.store.mail.model.Mailbox, java.util.List)
+     */
+    @Override
+    public List<MessageMetaData> addAll(Mailbox<UUID> mailbox, List<Message<UUID>> messages) throws MailboxException {
+        List<MessageMetaData> data = new ArrayList<MessageMetaData>(messages.size());
+        if (messages.isEmpty()) {
+            return data;
+        }
+        long uid = uidProvider.nextUids(mailboxSession, mailbox, messages.size());
+        // if a mailbox does not support mod-sequences the provider may be null
+        long modSeq = -1;
+        if (modSeqProvider != null) {
+            modSeq = modSeqProvider.nextModSeq(mailboxSession, mailbox);
+        }
+        for (Message<UUID> message : messages) {
+            message.setUid(uid++);
+            if (modSeqProvider != null) {
+                message.setModSeq(modSeq);
+            }
+            data.add(save(mailbox, message));
+        }
+        return data;
+    }
+
     /*
      * (non-Javadoc)
      * @see org.apache.james.mailbox.store.mail.MessageMapper#updateFlags(org.apache.james.mailbox.store.mail.model.Mailbox, javax.mail.Flags, boolean, boolean, org.apache.james.mailbox.MessageRange)
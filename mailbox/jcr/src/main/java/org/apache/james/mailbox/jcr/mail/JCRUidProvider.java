@@ -53,14 +53,18 @@ public class JCRUidProvider extends AbstractLockingUidProvider<String>{
 
     @Override
     protected long lockedNextUid(MailboxSession session, Mailbox<String> mailbox) throws MailboxException {
+        return lockedNextUids(session, mailbox, 1);
+    }
+
+    @Override
+    protected long lockedNextUids(MailboxSession session, Mailbox<String> mailbox, int count) throws MailboxException {
         try {
             Session s = repository.login(session);
             Node node = s.getNodeByIdentifier(mailbox.getMailboxId());
             long uid = node.getProperty(JCRMailbox.LASTUID_PROPERTY).getLong();
-            uid++;
-            node.setProperty(JCRMailbox.LASTUID_PROPERTY, uid);
+            node.setProperty(JCRMailbox.LASTUID_PROPERTY, uid + count);
             s.save();
-            return uid;
+            return uid + 1;
         } catch (RepositoryException e) {
             throw new MailboxException("Unable to consume next uid for mailbox " + mailbox, e);
         }
@@ -29,6 +29,7 @@ import javax.jcr.Binary;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
+import javax.jcr.Value;
 import javax.mail.Flags;
 import javax.mail.internet.SharedInputStream;
 import javax.mail.util.SharedByteArrayInputStream;
@@ -344,6 +345,21 @@ public class JCRMessage extends AbstractMessage<String> implements JCRImapConsta
     
     @Override
     protected String[] createUserFlags() {
+        if (isPersistent()) {
+            try {
+                if (node.hasProperty(USERFLAGS_PROPERTY)) {
+                    Value[] values = node.getProperty(USERFLAGS_PROPERTY).getValues();
+                    String[] flags = new String[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        flags[i] = values[i].getString();
+                    }
+                    return flags;
+                }
+            } catch (RepositoryException e) {
+                logger.error("Unable to access property " + USERFLAGS_PROPERTY, e);
+            }
+            return null;
+        }
         return userFlags;
     }
 
@@ -23,6 +23,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import javax.mail.Flags;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
@@ -316,6 +317,41 @@ public class JPAMessageMapper extends AbstractMessageMapper<Long> implements Mes
     }
 
 
+    /**
+     * Only select the uids instead of loading all the {@link Message}'s
+     * 
+     * @see org.apache.james.mailbox.store.mail.MessageMapper#listAllMessageUids(Mailbox)
+     */
+    @SuppressWarnings("unchecked")
+    public Iterator<Long> listAllMessageUids(Mailbox<Long> mailbox) throws MailboxException {
+        try {
+            Query query = getEntityManager().createNamedQuery("listUidsInMailbox").setParameter("idParam", mailbox.getMailboxId());
+            List<Long> uids = query.getResultList();
+            return uids.iterator();
+        } catch (PersistenceException e) {
+            throw new MailboxException("Search of uids failed in mailbox " + mailbox, e);
+        }
+    }
+
+    /**
+     * The system flags can always be stored, so only the distinct user flags need to get selected
+     * 
+     * @see org.apache.james.mailbox.store.mail.MessageMapper#getApplicableFlag(Mailbox)
+     */
+    @SuppressWarnings("unchecked")
+    public Flags getApplicableFlag(Mailbox<Long> mailbox) throws MailboxException {
+        try {
+            Query query = getEntityManager().createNamedQuery("listUserFlagsInMailbox").setParameter("idParam", mailbox.getMailboxId());
+            List<String> userFlags = query.getResultList();
+            Flags flags = new Flags();
+            for (int i = 0; i < userFlags.size(); i++) {
+                flags.add(userFlags.get(i));
+            }
+            return flags;
+        } catch (PersistenceException e) {
+            throw new MailboxException("Search of user flags failed in mailbox " + mailbox, e);
+        }
+    }
 
     /**
      * @see org.apache.james.mailbox.store.mail.AbstractMessageMapper#copy(Mailbox, long, long, Message)
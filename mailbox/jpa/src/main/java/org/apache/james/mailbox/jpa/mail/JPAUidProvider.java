@@ -62,12 +62,17 @@ public class JPAUidProvider extends AbstractLockingUidProvider<Long>{
 
     @Override
     protected long lockedNextUid(MailboxSession session, Mailbox<Long> mailbox) throws MailboxException {
+        return lockedNextUids(session, mailbox, 1);
+    }
+
+    @Override
+    protected long lockedNextUids(MailboxSession session, Mailbox<Long> mailbox, int count) throws MailboxException {
         EntityManager manager = null;
         try {
             manager = factory.createEntityManager();
             manager.getTransaction().begin();
             JPAMailbox m = manager.find(JPAMailbox.class, mailbox.getMailboxId());
-            long uid = m.consumeUid();
+            long uid = m.consumeUids(count);
             manager.persist(m);
             manager.getTransaction().commit();
             return uid;
@@ -210,6 +210,18 @@ public class JPAMailbox implements Mailbox<Long> {
     public long consumeUid() {
         return ++lastUid;
     }
+
+    /**
+     * Consume the given count of uids and return the first of them
+     * 
+     * @param count
+     * @return firstUid
+     */
+    public long consumeUids(int count) {
+        long first = lastUid + 1;
+        lastUid += count;
+        return first;
+    }
     
     public long consumeModSeq() {
         return ++highestModSeq;
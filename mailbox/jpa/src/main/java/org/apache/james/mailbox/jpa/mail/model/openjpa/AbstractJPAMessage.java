@@ -60,6 +60,10 @@ import org.apache.openjpa.persistence.jdbc.Index;
             query="SELECT message FROM Message message WHERE message.mailbox.mailboxId = :idParam AND message.seen = FALSE ORDER BY message.uid ASC"),
     @NamedQuery(name="findMessagesInMailbox",
             query="SELECT message FROM Message message WHERE message.mailbox.mailboxId = :idParam"),
+    @NamedQuery(name="listUidsInMailbox",
+            query="SELECT message.uid FROM Message message WHERE message.mailbox.mailboxId = :idParam ORDER BY message.uid ASC"),
+    @NamedQuery(name="listUserFlagsInMailbox",
+            query="SELECT DISTINCT flag.name FROM Message message JOIN message.userFlags flag WHERE message.mailbox.mailboxId = :idParam"),
     @NamedQuery(name="findMessagesInMailboxBetweenUIDs",
             query="SELECT message FROM Message message WHERE message.mailbox.mailboxId = :idParam AND message.uid BETWEEN :fromParam AND :toParam"),        
     @NamedQuery(name="findMessagesInMailboxWithUID",
@@ -35,6 +35,9 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.mail.Flags;
 import javax.mail.Flags.Flag;
@@ -56,6 +59,7 @@ import org.apache.james.mailbox.model.SearchQuery.HeaderOperator;
 import org.apache.james.mailbox.model.SearchQuery.NumericOperator;
 import org.apache.james.mailbox.model.SearchQuery.NumericRange;
 import org.apache.james.mailbox.model.SearchQuery.UidCriterion;
+import org.apache.james.mailbox.model.UpdatedFlags;
 import org.apache.james.mailbox.store.mail.MessageMapperFactory;
 import org.apache.james.mailbox.store.mail.model.Mailbox;
 import org.apache.james.mailbox.store.mail.model.Message;
@@ -90,6 +94,7 @@ import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
@@ -132,6 +137,16 @@ public class LuceneMessageSearchIndex<Id> extends ListeningMessageSearchIndex<Id
      */
     public final static int DEFAULT_MAX_QUERY_RESULTS = 100000;
     
+    /**
+     * Default max time (in ms) between two commits of the index
+     */
+    public final static long DEFAULT_COMMIT_INTERVAL = 1000;
+    
+    /**
+     * Default max count of changes before the index is committed
+     */
+    public final static int DEFAULT_COMMIT_CHANGES = 1000;
+    
     /**
      * {@link Field} which will contain the unique index of the {@link Document}
      */
@@ -298,6 +313,26 @@ public class LuceneMessageSearchIndex<Id> extends ListeningMessageSearchIndex<Id
     
     private int maxQueryResults = DEFAULT_MAX_QUERY_RESULTS;
 
+    private long refreshInterval = 0;
+    private long commitInterval = DEFAULT_COMMIT_INTERVAL;
+    private int commitChanges = DEFAULT_COMMIT_CHANGES;
+
+    /**
+     * The near-real-time {@link IndexReader} which is shared by all searches
+     */
+    private IndexReader reader;
+    private long readerOpened;
+    private final Object readerLock = new Object();
+
+    /**
+     * Set after every change of the index, so the shared {@link IndexReader} only gets reopened if needed
+     */
+    private volatile boolean changed = false;
+    
+    private final AtomicInteger uncommittedChanges = new AtomicInteger();
+    private final Object commitLock = new Object();
+    private Timer commitTimer;
+
     private boolean suffixMatch = false;
     
     private final static SortField UID_SORT = new SortField(UID_FIELD, SortField.LONG);
@@ -357,6 +392,181 @@ public class LuceneMessageSearchIndex<Id> extends ListeningMessageSearchIndex<Id
         this.maxQueryResults = maxQueryResults;
     }
     
+    /**
+     * Set the max time (in ms) for which a search may use a shared {@link IndexReader} which does not contain the latest changes. 
+     * The default is 0, which means that the reader is reopened for every search after the index was changed. Higher values
+     * reduce the cost of reopening during bursts of changes, but searches may not see messages which were changed in this time. 
+     * 
+     * @param refreshInterval
+     */
+    public void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+    
+    /**
+     * Set the max time (in ms) after which the changes to the index get committed. Use 0 to only commit after
+     * {@link #setCommitChanges(int)} changes. The default is {@link #DEFAULT_COMMIT_INTERVAL}
+     * 
+     * @param commitInterval
+     */
+    public void setCommitInterval(long commitInterval) {
+        this.commitInterval = commitInterval;
+    }
+    
+    /**
+     * Set the max count of changes after which the index gets committed. Use 0 to only commit every
+     * {@link #setCommitInterval(long)} ms. The default is {@link #DEFAULT_COMMIT_CHANGES}
+     * 
+     * @param commitChanges
+     */
+    public void setCommitChanges(int commitChanges) {
+        this.commitChanges = commitChanges;
+    }
+    
+    /**
+     * Commit all pending changes to the index
+     * 
+     * @throws MailboxException
+     */
+    public void commit() throws MailboxException {
+        synchronized (commitLock) {
+            if (uncommittedChanges.getAndSet(0) > 0) {
+                try {
+                    writer.commit();
+                } catch (IOException e) {
+                    throw new MailboxException("Unable to commit index", e);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Remove all {@link Document}'s from the index, for example to rebuild it
+     * 
+     * @throws MailboxException
+     */
+    public void clear() throws MailboxException {
+        try {
+            writer.deleteAll();
+            changed(1);
+        } catch (IOException e) {
+            throw new MailboxException("Unable to clear index", e);
+        }
+    }
+    
+    /**
+     * Commit all pending changes and close the index. This should get called on shutdown.
+     * 
+     * @throws MailboxException
+     */
+    public void close() throws MailboxException {
+        synchronized (commitLock) {
+            if (commitTimer != null) {
+                commitTimer.cancel();
+                commitTimer = null;
+            }
+        }
+        commit();
+        try {
+            synchronized (readerLock) {
+                if (reader != null) {
+                    reader.decRef();
+                    reader = null;
+                }
+            }
+            writer.close();
+        } catch (IOException e) {
+            throw new MailboxException("Unable to close index", e);
+        }
+    }
+    
+    /**
+     * Return a {@link IndexSearcher} for the shared near-real-time {@link IndexReader}. The {@link IndexReader} is reopened 
+     * if the index was changed and it is older then the refresh interval. The returned {@link IndexSearcher} must be released via 
+     * {@link #releaseSearcher(IndexSearcher)}
+     * 
+     * @return searcher
+     * @throws IOException
+     */
+    private IndexSearcher acquireSearcher() throws IOException {
+        return acquireSearcher(false);
+    }
+
+    /**
+     * Return a {@link IndexSearcher} like {@link #acquireSearcher()}. If current is true the {@link IndexReader} is reopened
+     * on every change, regardless of the refresh interval. This is needed for updates, which must not miss a document.
+     * 
+     * @param current
+     * @return searcher
+     * @throws IOException
+     */
+    private IndexSearcher acquireSearcher(boolean current) throws IOException {
+        synchronized (readerLock) {
+            long now = System.currentTimeMillis();
+            if (reader == null) {
+                changed = false;
+                reader = IndexReader.open(writer, true);
+                readerOpened = now;
+            } else if (changed && (current || now - readerOpened >= refreshInterval)) {
+                changed = false;
+                IndexReader newReader = reader.reopen();
+                if (newReader != reader) {
+                    reader.decRef();
+                    reader = newReader;
+                }
+                readerOpened = now;
+            }
+            reader.incRef();
+            return new IndexSearcher(reader);
+        }
+    }
+    
+    /**
+     * Release a {@link IndexSearcher} which was returned by {@link #acquireSearcher()}
+     * 
+     * @param searcher
+     */
+    private void releaseSearcher(IndexSearcher searcher) {
+        try {
+            searcher.close();
+            searcher.getIndexReader().decRef();
+        } catch (IOException e) {
+            // ignore on close
+        }
+    }
+    
+    /**
+     * Record the given count of changes to the index. This will commit the index if there are enough uncommitted changes and 
+     * make sure that the commit timer is running.
+     * 
+     * @param count
+     * @throws MailboxException
+     */
+    private void changed(int count) throws MailboxException {
+        changed = true;
+        int uncommitted = uncommittedChanges.addAndGet(count);
+        if (commitChanges > 0 && uncommitted >= commitChanges) {
+            commit();
+        } else if (commitInterval > 0) {
+            synchronized (commitLock) {
+                if (commitTimer == null) {
+                    commitTimer = new Timer("LuceneCommit", true);
+                    commitTimer.schedule(new TimerTask() {
+                        
+                        @Override
+                        public void run() {
+                            try {
+                                commit();
+                            } catch (MailboxException e) {
+                                // try again on the next run
+                            }
+                        }
+                    }, commitInterval, commitInterval);
+                }
+            }
+        }
+    }
+    
     protected IndexWriterConfig createConfig(Analyzer analyzer, boolean dropIndexOnStart) {
         IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_31, analyzer);
         if (dropIndexOnStart) {
@@ -406,7 +616,7 @@ public class LuceneMessageSearchIndex<Id> extends ListeningMessageSearchIndex<Id
         IndexSearcher searcher = null;
 
         try {
-            searcher = new IndexSearcher(IndexReader.open(writer, true));
+            searcher = acquireSearcher();
             BooleanQuery query = new BooleanQuery();
             query.add(new TermQuery(new Term(MAILBOX_ID_FIELD, mailbox.getMailboxId().toString())), BooleanClause.Occur.MUST);
             // Not return flags documents
@@ -427,11 +637,7 @@ public class LuceneMessageSearchIndex<Id> extends ListeningMessageSearchIndex<Id
             throw new MailboxException("Unable to search the mailbox", e);
         } finally {
             if (searcher != null) {
-                try {
-                    searcher.close();
-                } catch (IOException e) {
-                    // ignore on close
-                }
+                releaseSearcher(searcher);
             }
         }
         return uids.iterator();
@@ -898,7 +1104,7 @@ public class LuceneMessageSearchIndex<Id> extends ListeningMessageSearchIndex<Id
 
         try {
             Set<Long> uids = new HashSet<Long>();
-            searcher = new IndexSearcher(IndexReader.open(writer, true));
+            searcher = acquireSearcher();
             
             // query for all the documents sorted by uid
             TopDocs docs = searcher.search(query, null, maxQueryResults, new Sort(UID_SORT));
@@ -928,11 +1134,7 @@ public class LuceneMessageSearchIndex<Id> extends ListeningMessageSearchIndex<Id
             throw new MailboxException("Unable to search mailbox " + mailbox, e);
         } finally {
             if (searcher != null) {
-                try {
-                    searcher.close();
-                } catch (IOException e) {
-                    // ignore on close
-                }
+                releaseSearcher(searcher);
             }
         }
     }
@@ -1190,6 +1392,7 @@ public class LuceneMessageSearchIndex<Id> extends ListeningMessageSearchIndex<Id
         try {
             writer.addDocument(doc);
             writer.addDocument(flagsDoc);
+            changed(1);
         } catch (CorruptIndexException e) {
             throw new MailboxException("Unable to add message to index", e);
         } catch (IOException e) {
@@ -1201,26 +1404,46 @@ public class LuceneMessageSearchIndex<Id> extends ListeningMessageSearchIndex<Id
      * @see org.apache.james.mailbox.store.search.ListeningMessageSearchIndex#update(org.apache.james.mailbox.MailboxSession, org.apache.james.mailbox.store.mail.model.Mailbox, org.apache.james.mailbox.model.MessageRange, javax.mail.Flags)
      */
     public void update(MailboxSession session, Mailbox<Id> mailbox, MessageRange range, Flags f) throws MailboxException {
+        String mailboxId = mailbox.getMailboxId().toString();
         try {
-            IndexSearcher searcher = new IndexSearcher(IndexReader.open(writer, true));
-            BooleanQuery query = new BooleanQuery();
-            query.add(new TermQuery(new Term(MAILBOX_ID_FIELD, mailbox.getMailboxId().toString())), BooleanClause.Occur.MUST);
-            query.add(createQuery(range), BooleanClause.Occur.MUST);
-            query.add( new PrefixQuery(new Term(FLAGS_FIELD, "")), BooleanClause.Occur.MUST);
-
-            TopDocs docs = searcher.search(query, 100000);
-            ScoreDoc[] sDocs = docs.scoreDocs;
-            for (int i = 0; i < sDocs.length; i++) {
-                Document doc = searcher.doc(sDocs[i].doc);
-                
-                if (doc.getField(FLAGS_FIELD) == null) {
-                    doc.removeFields(FLAGS_FIELD);
-                    indexFlags(doc, f);
+            if (range.getType() == MessageRange.Type.ONE) {
+                // the id of the flags document is known, so there is no need to search for it. Only
+                // replace it if it exists, as the message may be expunged or not indexed yet
+                long uid = range.getUidFrom();
+                boolean exists;
+                IndexSearcher searcher = acquireSearcher(true);
+                try {
+                    exists = hasFlagsDocument(searcher.getIndexReader(), mailboxId, uid);
+                } finally {
+                    releaseSearcher(searcher);
+                }
+                if (exists) {
+                    updateFlagsDocument(mailboxId, uid, f);
+                    changed(1);
+                }
+                return;
+            }
 
-                    writer.updateDocument(new Term(ID_FIELD, doc.get(ID_FIELD)), doc);
-            
+            List<Long> uids = new ArrayList<Long>();
+            IndexSearcher searcher = acquireSearcher(true);
+            try {
+                BooleanQuery query = new BooleanQuery();
+                query.add(new TermQuery(new Term(MAILBOX_ID_FIELD, mailboxId)), BooleanClause.Occur.MUST);
+                query.add(createQuery(range), BooleanClause.Occur.MUST);
+                query.add( new PrefixQuery(new Term(FLAGS_FIELD, "")), BooleanClause.Occur.MUST);
+
+                TopDocs docs = searcher.search(query, maxQueryResults);
+                ScoreDoc[] sDocs = docs.scoreDocs;
+                for (int i = 0; i < sDocs.length; i++) {
+                    uids.add(Long.valueOf(searcher.doc(sDocs[i].doc).get(UID_FIELD)));
                 }
+            } finally {
+                releaseSearcher(searcher);
+            }
+            for (int i = 0; i < uids.size(); i++) {
+                updateFlagsDocument(mailboxId, uids.get(i), f);
             }
+            changed(uids.size());
         } catch (IOException e) {
             throw new MailboxException("Unable to add messages in index", e);
 
@@ -1228,6 +1451,63 @@ public class LuceneMessageSearchIndex<Id> extends ListeningMessageSearchIndex<Id
         
     }
 
+    /**
+     * Update the flags of all messages of one flags update. The {@link IndexReader} is reopened at most once for all of
+     * them, instead of once per message.
+     * 
+     * @see org.apache.james.mailbox.store.search.ListeningMessageSearchIndex#update(org.apache.james.mailbox.MailboxSession, org.apache.james.mailbox.store.mail.model.Mailbox, java.util.List)
+     */
+    @Override
+    public void update(MailboxSession session, Mailbox<Id> mailbox, List<UpdatedFlags> updatedFlags) throws MailboxException {
+        String mailboxId = mailbox.getMailboxId().toString();
+        try {
+            // only replace existing flags documents, as the messages may be expunged or not indexed yet
+            List<UpdatedFlags> indexed = new ArrayList<UpdatedFlags>(updatedFlags.size());
+            IndexSearcher searcher = acquireSearcher(true);
+            try {
+                IndexReader reader = searcher.getIndexReader();
+                for (int i = 0; i < updatedFlags.size(); i++) {
+                    UpdatedFlags uFlags = updatedFlags.get(i);
+                    if (hasFlagsDocument(reader, mailboxId, uFlags.getUid())) {
+                        indexed.add(uFlags);
+                    }
+                }
+            } finally {
+                releaseSearcher(searcher);
+            }
+            for (int i = 0; i < indexed.size(); i++) {
+                UpdatedFlags uFlags = indexed.get(i);
+                updateFlagsDocument(mailboxId, uFlags.getUid(), uFlags.getNewFlags());
+            }
+            if (!indexed.isEmpty()) {
+                changed(indexed.size());
+            }
+        } catch (IOException e) {
+            throw new MailboxException("Unable to update flags in index", e);
+        }
+    }
+
+    /**
+     * Return true if the {@link IndexReader} contains the flags {@link Document} of the message
+     */
+    private boolean hasFlagsDocument(IndexReader reader, String mailboxId, long uid) throws IOException {
+        TermDocs docs = reader.termDocs(new Term(ID_FIELD, flagsDocumentId(mailboxId, uid)));
+        try {
+            return docs.next();
+        } finally {
+            docs.close();
+        }
+    }
+
+    /**
+     * Replace the flags {@link Document} of the message. Only this small {@link Document} is rewritten, the {@link Document} 
+     * which holds the headers and body of the message is not touched.
+     */
+    private void updateFlagsDocument(String mailboxId, long uid, Flags f) throws IOException {
+        Document doc = createFlagsDocument(mailboxId, uid, f);
+        writer.updateDocument(new Term(ID_FIELD, doc.get(ID_FIELD)), doc);
+    }
+
     /**
      * Index the {@link Flags} and add it to the {@link Document}
      * 
@@ -1235,15 +1515,23 @@ public class LuceneMessageSearchIndex<Id> extends ListeningMessageSearchIndex<Id
      * @param doc
      */
     private Document createFlagsDocument(Message<?> message) {
+        return createFlagsDocument(message.getMailboxId().toString(), message.getUid(), message.createFlags());
+    }
+
+    private Document createFlagsDocument(String mailboxId, long uid, Flags f) {
         Document doc = new Document();
-        doc.add(new Field(ID_FIELD, "flags-" + message.getMailboxId().toString() +"-" + Long.toString(message.getUid()), Store.YES, Index.NOT_ANALYZED));
-        doc.add(new Field(MAILBOX_ID_FIELD, message.getMailboxId().toString(), Store.YES, Index.NOT_ANALYZED));
-        doc.add(new NumericField(UID_FIELD,Store.YES, true).setLongValue(message.getUid()));
+        doc.add(new Field(ID_FIELD, flagsDocumentId(mailboxId, uid), Store.YES, Index.NOT_ANALYZED));
+        doc.add(new Field(MAILBOX_ID_FIELD, mailboxId, Store.YES, Index.NOT_ANALYZED));
+        doc.add(new NumericField(UID_FIELD,Store.YES, true).setLongValue(uid));
         
-        indexFlags(doc, message.createFlags());
+        indexFlags(doc, f);
         return doc;
     }
     
+    private static String flagsDocumentId(String mailboxId, long uid) {
+        return "flags-" + mailboxId + "-" + Long.toString(uid);
+    }
+
     /**
      * Add the given {@link Flags} to the {@link Document}
      * 
@@ -1276,6 +1564,8 @@ public class LuceneMessageSearchIndex<Id> extends ListeningMessageSearchIndex<Id
             return NumericRangeQuery.newLongRange(UID_FIELD, range.getUidFrom(), range.getUidTo(), true, true);
         case FROM:
             return NumericRangeQuery.newLongRange(UID_FIELD, range.getUidFrom(), Long.MAX_VALUE, true, true);
+        case RANGE:
+            return NumericRangeQuery.newLongRange(UID_FIELD, range.getUidFrom(), range.getUidTo(), true, true);
         default:
             return NumericRangeQuery.newLongRange(UID_FIELD, 0L, Long.MAX_VALUE, true, true);
         }
@@ -1290,6 +1580,7 @@ public class LuceneMessageSearchIndex<Id> extends ListeningMessageSearchIndex<Id
         
         try {
             writer.deleteDocuments(query);
+            changed(1);
         } catch (CorruptIndexException e) {
             throw new MailboxException("Unable to delete message from index", e);
 
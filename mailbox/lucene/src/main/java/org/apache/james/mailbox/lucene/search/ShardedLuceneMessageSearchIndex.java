@@ -0,0 +1,493 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.lucene.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.mail.Flags;
+
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.model.SearchQuery;
+import org.apache.james.mailbox.model.UpdatedFlags;
+import org.apache.james.mailbox.store.mail.MessageMapper.FetchType;
+import org.apache.james.mailbox.store.mail.MessageMapperFactory;
+import org.apache.james.mailbox.store.mail.model.Mailbox;
+import org.apache.james.mailbox.store.mail.model.Message;
+import org.apache.james.mailbox.store.search.ListeningMessageSearchIndex;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ListeningMessageSearchIndex} which splits the index in shards, each
+ * of them an own {@link LuceneMessageSearchIndex} in an own directory. By
+ * default every user gets an own shard, so a search only needs to look at the
+ * messages of the user and merges stay small. Alternatively the mailboxes can
+ * be spread over a fixed count of shards by the hash of their id.
+ * 
+ * Only the most recently used shards are kept open. Shards which are not used
+ * anymore get closed once there are more then {@link #setMaxOpenShards(int)}
+ * open or once they were idle for {@link #setIdleTimeout(long)} ms. They get
+ * opened again on the next access.
+ * 
+ * {@link #close()} needs to get called on shutdown.
+ * 
+ * @param <Id>
+ */
+public class ShardedLuceneMessageSearchIndex<Id> extends ListeningMessageSearchIndex<Id> {
+
+    public final static int DEFAULT_MAX_OPEN_SHARDS = 100;
+    public final static long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000;
+
+    private final static String SHARED_SHARD = "shared";
+
+    private final Logger logger = LoggerFactory.getLogger(ShardedLuceneMessageSearchIndex.class);
+
+    private final File baseDirectory;
+    private final boolean lenient;
+
+    private int shardCount = 0;
+    private int maxOpenShards = DEFAULT_MAX_OPEN_SHARDS;
+    private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private long commitInterval = LuceneMessageSearchIndex.DEFAULT_COMMIT_INTERVAL;
+    private int commitChanges = LuceneMessageSearchIndex.DEFAULT_COMMIT_CHANGES;
+    private int maxQueryResults = LuceneMessageSearchIndex.DEFAULT_MAX_QUERY_RESULTS;
+    private boolean suffixMatch = false;
+
+    /**
+     * The open shards, ordered from the least to the most recently used
+     */
+    private final LinkedHashMap<String, Shard> shards = new LinkedHashMap<String, Shard>(16, 0.75f, true);
+    private Timer timer;
+
+    /**
+     * @param factory
+     * @param baseDirectory
+     *            directory in which a sub-directory is created for each shard
+     * @param lenient
+     *            see {@link LuceneMessageSearchIndex#createAnalyzer(boolean)}
+     */
+    public ShardedLuceneMessageSearchIndex(MessageMapperFactory<Id> factory, File baseDirectory, boolean lenient) {
+        super(factory);
+        this.baseDirectory = baseDirectory;
+        this.lenient = lenient;
+    }
+
+    /**
+     * Set the count of shards over which the mailboxes are spread by the hash
+     * of their id. The default is 0, which means that there is one shard per
+     * user. Changing this requires to rebuild all shards.
+     * 
+     * @param shardCount
+     */
+    public void setShardCount(int shardCount) {
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * Set the max count of shards which are kept open. The default is
+     * {@link #DEFAULT_MAX_OPEN_SHARDS}
+     * 
+     * @param maxOpenShards
+     */
+    public void setMaxOpenShards(int maxOpenShards) {
+        this.maxOpenShards = maxOpenShards;
+    }
+
+    /**
+     * Set the time (in ms) after which an unused shard gets closed. Use 0 to
+     * only close shards if there are too many open. The default is
+     * {@link #DEFAULT_IDLE_TIMEOUT}
+     * 
+     * @param idleTimeout
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @see LuceneMessageSearchIndex#setCommitInterval(long)
+     */
+    public void setCommitInterval(long commitInterval) {
+        this.commitInterval = commitInterval;
+    }
+
+    /**
+     * @see LuceneMessageSearchIndex#setCommitChanges(int)
+     */
+    public void setCommitChanges(int commitChanges) {
+        this.commitChanges = commitChanges;
+    }
+
+    /**
+     * @see LuceneMessageSearchIndex#setMaxQueryResults(int)
+     */
+    public void setMaxQueryResults(int maxQueryResults) {
+        this.maxQueryResults = maxQueryResults;
+    }
+
+    /**
+     * @see LuceneMessageSearchIndex#setEnableSuffixMatch(boolean)
+     */
+    public void setEnableSuffixMatch(boolean suffixMatch) {
+        this.suffixMatch = suffixMatch;
+    }
+
+    /**
+     * Return the count of currently open shards
+     * 
+     * @return openShards
+     */
+    public int getOpenShards() {
+        synchronized (shards) {
+            return shards.size();
+        }
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.search.MessageSearchIndex#search(org.apache.james.mailbox.MailboxSession, org.apache.james.mailbox.store.mail.model.Mailbox, org.apache.james.mailbox.model.SearchQuery)
+     */
+    public Iterator<Long> search(MailboxSession session, Mailbox<Id> mailbox, SearchQuery searchQuery) throws MailboxException {
+        Shard shard = acquire(getShard(mailbox));
+        try {
+            return shard.index.search(session, mailbox, searchQuery);
+        } finally {
+            release(shard);
+        }
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.search.ListeningMessageSearchIndex#add(org.apache.james.mailbox.MailboxSession, org.apache.james.mailbox.store.mail.model.Mailbox, org.apache.james.mailbox.store.mail.model.Message)
+     */
+    public void add(MailboxSession session, Mailbox<Id> mailbox, Message<Id> message) throws MailboxException {
+        Shard shard = acquire(getShard(mailbox));
+        try {
+            shard.index.add(session, mailbox, message);
+        } finally {
+            release(shard);
+        }
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.search.ListeningMessageSearchIndex#delete(org.apache.james.mailbox.MailboxSession, org.apache.james.mailbox.store.mail.model.Mailbox, org.apache.james.mailbox.model.MessageRange)
+     */
+    public void delete(MailboxSession session, Mailbox<Id> mailbox, MessageRange range) throws MailboxException {
+        Shard shard = acquire(getShard(mailbox));
+        try {
+            shard.index.delete(session, mailbox, range);
+        } finally {
+            release(shard);
+        }
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.search.ListeningMessageSearchIndex#update(org.apache.james.mailbox.MailboxSession, org.apache.james.mailbox.store.mail.model.Mailbox, org.apache.james.mailbox.model.MessageRange, javax.mail.Flags)
+     */
+    public void update(MailboxSession session, Mailbox<Id> mailbox, MessageRange range, Flags flags) throws MailboxException {
+        Shard shard = acquire(getShard(mailbox));
+        try {
+            shard.index.update(session, mailbox, range, flags);
+        } finally {
+            release(shard);
+        }
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.search.ListeningMessageSearchIndex#update(org.apache.james.mailbox.MailboxSession, org.apache.james.mailbox.store.mail.model.Mailbox, java.util.List)
+     */
+    @Override
+    public void update(MailboxSession session, Mailbox<Id> mailbox, List<UpdatedFlags> updatedFlags) throws MailboxException {
+        Shard shard = acquire(getShard(mailbox));
+        try {
+            shard.index.update(session, mailbox, updatedFlags);
+        } finally {
+            release(shard);
+        }
+    }
+
+    /**
+     * Rebuild the index of the given {@link Mailbox} from the messages which
+     * are returned by the {@link org.apache.james.mailbox.store.mail.MessageMapper}
+     * 
+     * @param session
+     * @param mailbox
+     * @throws MailboxException
+     */
+    public void rebuild(MailboxSession session, Mailbox<Id> mailbox) throws MailboxException {
+        Shard shard = acquire(getShard(mailbox));
+        try {
+            shard.index.delete(session, mailbox, MessageRange.all());
+            index(session, shard, mailbox);
+            shard.index.commit();
+        } finally {
+            release(shard);
+        }
+    }
+
+    /**
+     * Rebuild the whole shard to which the given {@link Mailbox}'s belong from
+     * the messages which are returned by the
+     * {@link org.apache.james.mailbox.store.mail.MessageMapper}. All other
+     * shards stay untouched.
+     * 
+     * @param session
+     * @param shardName
+     *            name of the shard as returned by {@link #getShard(Mailbox)}
+     * @param mailboxes
+     *            all {@link Mailbox}'s of the shard
+     * @throws MailboxException
+     */
+    public void rebuildShard(MailboxSession session, String shardName, Iterator<Mailbox<Id>> mailboxes) throws MailboxException {
+        Shard shard = acquire(shardName);
+        try {
+            shard.index.clear();
+            while (mailboxes.hasNext()) {
+                Mailbox<Id> mailbox = mailboxes.next();
+                if (!shardName.equals(getShard(mailbox))) {
+                    throw new MailboxException("Mailbox " + mailbox + " does not belong to shard " + shardName);
+                }
+                index(session, shard, mailbox);
+            }
+            shard.index.commit();
+        } finally {
+            release(shard);
+        }
+    }
+
+    /**
+     * Close all open shards. This should get called on shutdown.
+     * 
+     * @throws MailboxException
+     */
+    public void close() throws MailboxException {
+        synchronized (shards) {
+            if (timer != null) {
+                timer.cancel();
+                timer = null;
+            }
+            Iterator<Shard> it = shards.values().iterator();
+            while (it.hasNext()) {
+                Shard shard = it.next();
+                it.remove();
+                closeShard(shard);
+            }
+        }
+    }
+
+    /**
+     * Return the name of the shard to which the given {@link Mailbox} belongs.
+     * This is also used as the name of the directory of the shard.
+     * 
+     * @param mailbox
+     * @return shard
+     */
+    protected String getShard(Mailbox<Id> mailbox) {
+        if (shardCount > 0) {
+            return "shard-" + ((mailbox.getMailboxId().hashCode() & Integer.MAX_VALUE) % shardCount);
+        }
+        String user = mailbox.getUser();
+        if (user == null) {
+            return SHARED_SHARD;
+        }
+        try {
+            return "user-" + URLEncoder.encode(user, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Create the {@link Directory} for the given shard
+     * 
+     * @param shardName
+     * @return directory
+     * @throws IOException
+     */
+    protected Directory createDirectory(String shardName) throws IOException {
+        return FSDirectory.open(new File(baseDirectory, shardName));
+    }
+
+    private void index(MailboxSession session, Shard shard, Mailbox<Id> mailbox) throws MailboxException {
+        Iterator<Message<Id>> messages = getFactory().getMessageMapper(session).findInMailbox(mailbox, MessageRange.all(), FetchType.Full, -1);
+        while (messages.hasNext()) {
+            shard.index.add(session, mailbox, messages.next());
+        }
+    }
+
+    /**
+     * Return the open shard with the given name or open it. The shard must be
+     * released via {@link #release(Shard)} after use.
+     */
+    private Shard acquire(String shardName) throws MailboxException {
+        synchronized (shards) {
+            Shard shard = shards.get(shardName);
+            if (shard == null) {
+                shard = openShard(shardName);
+                shards.put(shardName, shard);
+                startTimer();
+            }
+            shard.refs++;
+            shard.lastUsed = System.currentTimeMillis();
+            evict();
+            return shard;
+        }
+    }
+
+    private void release(Shard shard) {
+        synchronized (shards) {
+            shard.refs--;
+        }
+    }
+
+    private Shard openShard(String shardName) throws MailboxException {
+        Directory directory = null;
+        try {
+            directory = createDirectory(shardName);
+            LuceneMessageSearchIndex<Id> index = new LuceneMessageSearchIndex<Id>(getFactory(), directory, false, lenient);
+            // the shards get committed by the timer of this class
+            index.setCommitInterval(0);
+            index.setCommitChanges(commitChanges);
+            index.setMaxQueryResults(maxQueryResults);
+            index.setEnableSuffixMatch(suffixMatch);
+            return new Shard(shardName, directory, index);
+        } catch (IOException e) {
+            if (directory != null) {
+                try {
+                    directory.close();
+                } catch (IOException e1) {
+                    // ignore on close
+                }
+            }
+            throw new MailboxException("Unable to open index shard " + shardName, e);
+        }
+    }
+
+    /**
+     * Close the least recently used shards which are not in use until there
+     * are not more then the max count open. Needs to be called while holding
+     * the lock on the shards.
+     */
+    private void evict() {
+        Iterator<Shard> it = shards.values().iterator();
+        while (shards.size() > maxOpenShards && it.hasNext()) {
+            Shard shard = it.next();
+            if (shard.refs == 0) {
+                it.remove();
+                closeShard(shard);
+            }
+        }
+    }
+
+    /**
+     * Commit all open shards and close the ones which are idle for too long
+     */
+    private void maintain() {
+        List<Shard> open;
+        synchronized (shards) {
+            long now = System.currentTimeMillis();
+            Iterator<Shard> it = shards.values().iterator();
+            while (it.hasNext()) {
+                Shard shard = it.next();
+                if (idleTimeout > 0 && shard.refs == 0 && now - shard.lastUsed >= idleTimeout) {
+                    it.remove();
+                    closeShard(shard);
+                }
+            }
+            open = new ArrayList<Shard>(shards.values());
+        }
+        for (int i = 0; i < open.size(); i++) {
+            Shard shard = open.get(i);
+            try {
+                shard.index.commit();
+            } catch (MailboxException e) {
+                // the shard may have been closed in the meantime, it is
+                // committed then anyway
+                logger.debug("Unable to commit index shard " + shard.name, e);
+            }
+        }
+    }
+
+    /**
+     * Start the timer which commits and closes the shards if needed. Needs to
+     * be called while holding the lock on the shards.
+     */
+    private void startTimer() {
+        if (timer == null) {
+            long period = commitInterval > 0 ? commitInterval : idleTimeout;
+            if (period > 0) {
+                timer = new Timer("LuceneShards", true);
+                timer.schedule(new TimerTask() {
+
+                    @Override
+                    public void run() {
+                        maintain();
+                    }
+                }, period, period);
+            }
+        }
+    }
+
+    /**
+     * Close the shard. The lock on the shards needs to be held, so it can not
+     * be opened again before it was closed.
+     */
+    private void closeShard(Shard shard) {
+        try {
+            shard.index.close();
+        } catch (MailboxException e) {
+            logger.warn("Unable to close index shard " + shard.name, e);
+        }
+        try {
+            shard.directory.close();
+        } catch (IOException e) {
+            logger.warn("Unable to close directory of index shard " + shard.name, e);
+        }
+    }
+
+    /**
+     * An open shard
+     */
+    private final class Shard {
+        private final String name;
+        private final Directory directory;
+        private final LuceneMessageSearchIndex<Id> index;
+        private int refs = 0;
+        private long lastUsed;
+
+        public Shard(String name, Directory directory, LuceneMessageSearchIndex<Id> index) {
+            this.name = name;
+            this.directory = directory;
+            this.index = index;
+        }
+    }
+}
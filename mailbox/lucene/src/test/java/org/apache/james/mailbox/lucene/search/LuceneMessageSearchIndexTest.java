@@ -35,11 +35,13 @@ import javax.mail.Flags;
 import javax.mail.Flags.Flag;
 
 import org.apache.james.mailbox.model.MailboxACL;
+import org.apache.james.mailbox.model.MessageRange;
 import org.apache.james.mailbox.model.SearchQuery;
 import org.apache.james.mailbox.model.SimpleMailboxACL;
 import org.apache.james.mailbox.model.SearchQuery.AddressType;
 import org.apache.james.mailbox.model.SearchQuery.DateResolution;
 import org.apache.james.mailbox.model.SearchQuery.Sort.SortClause;
+import org.apache.james.mailbox.model.UpdatedFlags;
 import org.apache.james.mailbox.store.MessageBuilder;
 import org.apache.james.mailbox.store.SimpleMailboxMembership;
 import org.apache.james.mailbox.store.mail.model.Mailbox;
@@ -261,6 +263,70 @@ public class LuceneMessageSearchIndexTest {
         assertFalse(it3.hasNext());
     }
     
+    @Test
+    public void testSearchFlagAfterUpdate() throws Exception {
+        index.update(null, mailbox, MessageRange.one(1), new Flags(Flag.SEEN));
+        // a second update of the same message must find its flags again
+        index.update(null, mailbox, MessageRange.one(1), new Flags(Flag.DELETED));
+        index.update(null, mailbox, MessageRange.one(2), new Flags(Flag.SEEN));
+
+        SearchQuery q = new SearchQuery();
+        q.andCriteria(SearchQuery.flagIsSet(Flag.DELETED));
+        Iterator<Long> it = index.search(null, mailbox, q);
+        assertEquals(1L, it.next().longValue());
+        assertEquals(3L, it.next().longValue());
+        assertFalse(it.hasNext());
+    }
+    
+    @Test
+    public void testUpdateOfUnknownMessageShouldNotAddFlags() throws Exception {
+        // the flag update is received before the message was indexed
+        index.update(null, mailbox, MessageRange.one(4), new Flags(Flag.FLAGGED));
+        SimpleMailboxMembership m = new SimpleMailboxMembership(mailbox.getMailboxId(), 4, 0, new Date(), 20, new Flags(), "My Body".getBytes(), new HashMap<String, String>());
+        index.add(null, mailbox, m);
+
+        SearchQuery q = new SearchQuery();
+        q.andCriteria(SearchQuery.flagIsSet(Flag.FLAGGED));
+        assertFalse(index.search(null, mailbox, q).hasNext());
+    }
+
+    @Test
+    public void testUpdateOfSeveralMessages() throws Exception {
+        // uid 4 is not indexed and so must not get a flags document
+        index.update(null, mailbox, Arrays.asList(
+                new UpdatedFlags(1, 0, new Flags(Flag.ANSWERED), new Flags(Flag.FLAGGED)),
+                new UpdatedFlags(3, 0, new Flags(Flag.DELETED), new Flags(Flag.FLAGGED)),
+                new UpdatedFlags(4, 0, new Flags(), new Flags(Flag.FLAGGED))));
+        SimpleMailboxMembership m = new SimpleMailboxMembership(mailbox.getMailboxId(), 4, 0, new Date(), 20, new Flags(), "My Body".getBytes(), new HashMap<String, String>());
+        index.add(null, mailbox, m);
+
+        SearchQuery q = new SearchQuery();
+        q.andCriteria(SearchQuery.flagIsSet(Flag.FLAGGED));
+        Iterator<Long> it = index.search(null, mailbox, q);
+        assertEquals(1L, it.next().longValue());
+        assertEquals(3L, it.next().longValue());
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void testSearchFlagAfterRangeUpdate() throws Exception {
+        index.update(null, mailbox, MessageRange.range(1, 2), new Flags(Flag.FLAGGED));
+        index.update(null, mailbox, MessageRange.from(2), new Flags(Flag.SEEN));
+
+        SearchQuery q = new SearchQuery();
+        q.andCriteria(SearchQuery.flagIsSet(Flag.FLAGGED));
+        Iterator<Long> it = index.search(null, mailbox, q);
+        assertEquals(1L, it.next().longValue());
+        assertFalse(it.hasNext());
+
+        q = new SearchQuery();
+        q.andCriteria(SearchQuery.flagIsSet(Flag.SEEN));
+        it = index.search(null, mailbox, q);
+        assertEquals(2L, it.next().longValue());
+        assertEquals(3L, it.next().longValue());
+        assertFalse(it.hasNext());
+    }
+    
     @Test
     public void testSearchBody() throws Exception {    
         SearchQuery q2 = new SearchQuery();
@@ -0,0 +1,128 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.lucene.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import javax.mail.Flags;
+import javax.mail.Flags.Flag;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.model.SearchQuery;
+import org.apache.james.mailbox.store.SimpleMailboxMembership;
+import org.apache.james.mailbox.store.mail.model.impl.SimpleMailbox;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShardedLuceneMessageSearchIndexTest {
+
+    private final static File BASE_DIRECTORY = new File("target/shards");
+
+    private ShardedLuceneMessageSearchIndex<Long> index;
+
+    private TestMailbox userMailbox = new TestMailbox(1, new MailboxPath("#private", "user", "INBOX"));
+    private TestMailbox otherUserMailbox = new TestMailbox(2, new MailboxPath("#private", "other", "INBOX"));
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.deleteDirectory(BASE_DIRECTORY);
+        index = new ShardedLuceneMessageSearchIndex<Long>(null, BASE_DIRECTORY, true);
+        index.add(null, userMailbox, createMessage(userMailbox, 1, "user body"));
+        index.add(null, userMailbox, createMessage(userMailbox, 2, "user body"));
+        index.add(null, otherUserMailbox, createMessage(otherUserMailbox, 1, "other body"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        index.close();
+        FileUtils.deleteDirectory(BASE_DIRECTORY);
+    }
+
+    @Test
+    public void testUsersShouldGetOwnShards() throws Exception {
+        assertEquals(2, index.getOpenShards());
+        assertTrue(new File(BASE_DIRECTORY, index.getShard(userMailbox)).isDirectory());
+        assertTrue(new File(BASE_DIRECTORY, index.getShard(otherUserMailbox)).isDirectory());
+
+        SearchQuery query = new SearchQuery();
+        query.andCriteria(SearchQuery.bodyContains("user"));
+        Iterator<Long> result = index.search(null, userMailbox, query);
+        assertEquals(1L, result.next().longValue());
+        assertEquals(2L, result.next().longValue());
+        assertFalse(result.hasNext());
+        assertFalse(index.search(null, otherUserMailbox, query).hasNext());
+    }
+
+    @Test
+    public void testShardsShouldGetReopenedAfterEviction() throws Exception {
+        index.setMaxOpenShards(1);
+        index.update(null, userMailbox, MessageRange.one(2), new Flags(Flag.SEEN));
+        assertEquals(1, index.getOpenShards());
+
+        SearchQuery query = new SearchQuery();
+        query.andCriteria(SearchQuery.flagIsSet(Flag.SEEN));
+        Iterator<Long> result = index.search(null, userMailbox, query);
+        assertEquals(2L, result.next().longValue());
+        assertFalse(result.hasNext());
+
+        // this closes the shard of the user and opens the one of the other user again
+        query = new SearchQuery();
+        query.andCriteria(SearchQuery.bodyContains("other"));
+        result = index.search(null, otherUserMailbox, query);
+        assertEquals(1L, result.next().longValue());
+        assertFalse(result.hasNext());
+        assertEquals(1, index.getOpenShards());
+    }
+
+    @Test
+    public void testMailboxesShouldBeSpreadOverShardCount() throws Exception {
+        index.setShardCount(4);
+        assertEquals("shard-1", index.getShard(userMailbox));
+        assertEquals("shard-2", index.getShard(otherUserMailbox));
+    }
+
+    private SimpleMailboxMembership createMessage(TestMailbox mailbox, long uid, String body) throws Exception {
+        return new SimpleMailboxMembership(mailbox.getMailboxId(), uid, 0, new Date(), body.length(), new Flags(), body.getBytes(), new HashMap<String, String>());
+    }
+
+    private final static class TestMailbox extends SimpleMailbox<Long> {
+        private final long id;
+
+        public TestMailbox(long id, MailboxPath path) {
+            super(path, 1);
+            this.id = id;
+        }
+
+        @Override
+        public Long getMailboxId() {
+            return id;
+        }
+    }
+}
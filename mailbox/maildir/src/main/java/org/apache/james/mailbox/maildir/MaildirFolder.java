@@ -31,8 +31,10 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
@@ -714,12 +716,24 @@ public class MaildirFolder {
      * @throws IOException
      */
     public long appendMessage(final MailboxSession session, final String name) throws MailboxException {
-        return locker.executeWithLock(session, path, new LockAwareExecution<Long>() {
+        return appendMessages(session, Collections.singletonList(name)).get(0);
+    }
+
+    /**
+     * Appends messages to the uidlist and returns their uids. The uidlist is
+     * only written once for all of them.
+     * @param session
+     * @param names The names of the message's files
+     * @return The uids of the messages, in the same order as the names
+     * @throws MailboxException
+     */
+    public List<Long> appendMessages(final MailboxSession session, final List<String> names) throws MailboxException {
+        return locker.executeWithLock(session, path, new LockAwareExecution<List<Long>>() {
             
             @Override
-            public Long execute() throws MailboxException {
+            public List<Long> execute() throws MailboxException {
                 File uidList = uidFile;
-                long uid = -1;
+                List<Long> uids = new ArrayList<Long>(names.size());
                 FileReader fileReader = null;
                 BufferedReader reader = null;
                 PrintWriter pw = null;
@@ -734,9 +748,12 @@ public class MaildirFolder {
                         ArrayList<String> lines = new ArrayList<String>();
                         while ((line = reader.readLine()) != null)
                             lines.add(line);
-                        uid = getNextUid();
-                        lines.add(String.valueOf(uid) + " " + name);
-                        messageCount++;
+                        for (String name : names) {
+                            long uid = getNextUid();
+                            lines.add(String.valueOf(uid) + " " + name);
+                            messageCount++;
+                            uids.add(uid);
+                        }
                         pw = new PrintWriter(uidList);
                         pw.println(createUidListHeader());
                         for (String entry : lines)
@@ -750,18 +767,24 @@ public class MaildirFolder {
                         String[] newFiles = newFolder.list();
                         messageCount = curFiles.length + newFiles.length;
                         ArrayList<String> lines = new ArrayList<String>();
+                        Map<String, Long> assigned = new HashMap<String, Long>();
                         String[] allFiles = (String[]) ArrayUtils.addAll(curFiles, newFiles);
                         for (String file : allFiles) {
                             long theUid = getNextUid();
                             lines.add(String.valueOf(theUid) + " " + file);
-                            // the listed names already include the message to append
-                            if (file.equals(name))
-                                uid = theUid;
+                            assigned.put(file, theUid);
                         }
                         pw = new PrintWriter(uidList);
                         pw.println(createUidListHeader());
                         for (String line : lines)
                             pw.println(line);
+                        // the listed names already include the messages to append
+                        for (String name : names) {
+                            Long uid = assigned.get(name);
+                            if (uid == null)
+                                throw new MailboxException("Unable to append msg");
+                            uids.add(uid);
+                        }
                     }
                 } catch (IOException e) {
                     throw new MailboxException("Unable to append msg", e);
@@ -770,11 +793,7 @@ public class MaildirFolder {
                     IOUtils.closeQuietly(reader);
                     IOUtils.closeQuietly(fileReader);
                 }
-                if (uid == -1) {
-                    throw new MailboxException("Unable to append msg");
-                } else {
-                   return uid;
-                }
+                return uids;
             }
         }, true);
 
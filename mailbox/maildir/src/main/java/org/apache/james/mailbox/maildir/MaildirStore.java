@@ -243,6 +243,17 @@ public class MaildirStore implements UidProvider<Integer>, ModSeqProvider<Intege
         }
     }
 
+    /**
+     * The uids get assigned by the {@link MaildirFolder} when the messages are
+     * stored, so this just returns the first uid which will be used.
+     * 
+     * @see org.apache.james.mailbox.store.mail.UidProvider#nextUids(org.apache.james.mailbox.MailboxSession, org.apache.james.mailbox.store.mail.model.Mailbox, int)
+     */
+    @Override
+    public long nextUids(MailboxSession session, Mailbox<Integer> mailbox, int count) throws MailboxException {
+        return nextUid(session, mailbox);
+    }
+
     @Override
     public long nextModSeq(MailboxSession session, Mailbox<Integer> mailbox) throws MailboxException {
         return System.currentTimeMillis();
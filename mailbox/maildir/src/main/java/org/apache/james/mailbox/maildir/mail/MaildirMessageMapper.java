@@ -228,6 +228,34 @@ public class MaildirMessageMapper extends AbstractMessageMapper<Integer> {
         
     }
 
+    /**
+     * Only scan the uidlist without creating a {@link MaildirMessage} for every entry
+     * 
+     * @see org.apache.james.mailbox.store.mail.MessageMapper#listAllMessageUids(org.apache.james.mailbox.store.mail.model.Mailbox)
+     */
+    @Override
+    public Iterator<Long> listAllMessageUids(Mailbox<Integer> mailbox) throws MailboxException {
+        MaildirFolder folder = maildirStore.createMaildirFolder(mailbox);
+        SortedMap<Long, MaildirMessageName> uidMap = folder.getUidMap(mailboxSession, 0, -1);
+        return new ArrayList<Long>(uidMap.keySet()).iterator();
+    }
+
+    /**
+     * The flags are encoded in the file names, so there is no need to read the messages
+     * 
+     * @see org.apache.james.mailbox.store.mail.MessageMapper#getApplicableFlag(org.apache.james.mailbox.store.mail.model.Mailbox)
+     */
+    @Override
+    public Flags getApplicableFlag(Mailbox<Integer> mailbox) throws MailboxException {
+        MaildirFolder folder = maildirStore.createMaildirFolder(mailbox);
+        SortedMap<Long, MaildirMessageName> uidMap = folder.getUidMap(mailboxSession, 0, -1);
+        Flags flags = new Flags();
+        for (MaildirMessageName name : uidMap.values()) {
+            flags.add(name.getFlags());
+        }
+        return flags;
+    }
+
     /**
      * @see org.apache.james.mailbox.store.mail.MessageMapper#findFirstUnseenMessageUid(org.apache.james.mailbox.store.mail.model.Mailbox)
      */
@@ -273,7 +301,64 @@ public class MaildirMessageMapper extends AbstractMessageMapper<Integer> {
     @Override
     protected MessageMetaData save(Mailbox<Integer> mailbox, Message<Integer> message) throws MailboxException {
         MaildirFolder folder = maildirStore.createMaildirFolder(mailbox);
-        long uid = 0;
+        File newMessageFile = writeMessageFile(folder, mailbox, message);
+        try {
+            long uid = folder.appendMessage(mailboxSession, newMessageFile.getName());
+            message.setUid(uid);
+            message.setModSeq(newMessageFile.lastModified());
+            return new SimpleMessageMetaData(message);
+        } catch (MailboxException e) {
+            throw new MailboxException("Failure while save Message " + message + " in Mailbox " + mailbox, e);
+        }
+
+    }
+
+    /**
+     * Write all messages to their folders first and add them to the uid list
+     * at once, so the list only needs to get rewritten one time.
+     * 
+     * @see org.apache.james.mailbox.store.mail.AbstractMessageMapper#addAll(org.apache.james.mailbox.store.mail.model.Mailbox,
+     * java.util.List)
+     */
+    @Override
+    public List<MessageMetaData> addAll(Mailbox<Integer> mailbox, List<Message<Integer>> messages) throws MailboxException {
+        List<MessageMetaData> data = new ArrayList<MessageMetaData>(messages.size());
+        if (messages.isEmpty()) {
+            return data;
+        }
+        MaildirFolder folder = maildirStore.createMaildirFolder(mailbox);
+        List<File> files = new ArrayList<File>(messages.size());
+        List<String> names = new ArrayList<String>(messages.size());
+        for (Message<Integer> message : messages) {
+            File file = writeMessageFile(folder, mailbox, message);
+            files.add(file);
+            names.add(file.getName());
+        }
+        try {
+            List<Long> uids = folder.appendMessages(mailboxSession, names);
+            for (int i = 0; i < messages.size(); i++) {
+                Message<Integer> message = messages.get(i);
+                message.setUid(uids.get(i));
+                message.setModSeq(files.get(i).lastModified());
+                data.add(new SimpleMessageMetaData(message));
+            }
+            return data;
+        } catch (MailboxException e) {
+            throw new MailboxException("Failure while save Messages in Mailbox " + mailbox, e);
+        }
+    }
+
+    /**
+     * Write the {@link Message} to the "tmp" folder and move it to the "new"
+     * or "cur" folder afterwards.
+     * 
+     * @param folder
+     * @param mailbox
+     * @param message
+     * @return file of the message
+     * @throws MailboxException
+     */
+    private File writeMessageFile(MaildirFolder folder, Mailbox<Integer> mailbox, Message<Integer> message) throws MailboxException {
         // a new message
         // save file to "tmp" folder
         File tmpFolder = folder.getTmpFolder();
@@ -337,15 +422,7 @@ public class MaildirMessageMapper extends AbstractMessageMapper<Integer> {
             // TODO: Try copy and delete
             throw new MailboxException("Failure while save Message " + message + " in Mailbox " + mailbox, e);
         }
-        try {
-            uid = folder.appendMessage(mailboxSession, newMessageFile.getName());
-            message.setUid(uid);
-            message.setModSeq(newMessageFile.lastModified());
-            return new SimpleMessageMetaData(message);
-        } catch (MailboxException e) {
-            throw new MailboxException("Failure while save Message " + message + " in Mailbox " + mailbox, e);
-        }
-
+        return newMessageFile;
     }
 
 
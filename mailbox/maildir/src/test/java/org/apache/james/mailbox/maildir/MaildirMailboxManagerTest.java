@@ -169,6 +169,72 @@ public class MaildirMailboxManagerTest extends AbstractMailboxManagerTest {
 
     }
 
+    /**
+     * @see org.apache.james.mailbox.AbstractMailboxManagerTest#testListUidsAndApplicableFlags()
+     */
+    @Test
+    @Override
+    public void testListUidsAndApplicableFlags() throws BadCredentialsException, MailboxException {
+
+        if (OsDetector.isWindows()) {
+            System.out.println("Maildir tests work only on non-windows systems. So skip the test");
+        } else {
+
+            MaildirStore store = new MaildirStore(MAILDIR_HOME + "/%domain/%user", new JVMMailboxPathLocker());
+            MaildirMailboxSessionMapperFactory mf = new MaildirMailboxSessionMapperFactory(store);
+            MailboxACLResolver aclResolver = new UnionMailboxACLResolver();
+            GroupMembershipResolver groupMembershipResolver = new SimpleGroupMembershipResolver();
+
+            StoreMailboxManager<Integer> manager = new StoreMailboxManager<Integer>(mf, null, new JVMMailboxPathLocker(), aclResolver, groupMembershipResolver);
+            manager.init();
+            setMailboxManager(manager);
+            try {
+                super.testListUidsAndApplicableFlags();
+            } finally {
+                try {
+                    deleteMaildirTestDirectory();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+
+        }
+
+    }
+
+    /**
+     * @see org.apache.james.mailbox.AbstractMailboxManagerTest#testAppendMessages()
+     */
+    @Test
+    @Override
+    public void testAppendMessages() throws BadCredentialsException, MailboxException {
+
+        if (OsDetector.isWindows()) {
+            System.out.println("Maildir tests work only on non-windows systems. So skip the test");
+        } else {
+
+            MaildirStore store = new MaildirStore(MAILDIR_HOME + "/%domain/%user", new JVMMailboxPathLocker());
+            MaildirMailboxSessionMapperFactory mf = new MaildirMailboxSessionMapperFactory(store);
+            MailboxACLResolver aclResolver = new UnionMailboxACLResolver();
+            GroupMembershipResolver groupMembershipResolver = new SimpleGroupMembershipResolver();
+
+            StoreMailboxManager<Integer> manager = new StoreMailboxManager<Integer>(mf, null, new JVMMailboxPathLocker(), aclResolver, groupMembershipResolver);
+            manager.init();
+            setMailboxManager(manager);
+            try {
+                super.testAppendMessages();
+            } finally {
+                try {
+                    deleteMaildirTestDirectory();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+
+        }
+
+    }
+
     /**
      * Create the maildirStore with the provided configuration and executes the list() tests.
      * Cleans the generated artifacts.
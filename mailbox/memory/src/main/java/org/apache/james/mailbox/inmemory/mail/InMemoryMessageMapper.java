@@ -152,6 +152,15 @@ public class InMemoryMessageMapper extends AbstractMessageMapper<Long> {
         return results;
     }
 
+    /**
+     * @see org.apache.james.mailbox.store.mail.MessageMapper#listAllMessageUids(org.apache.james.mailbox.store.mail.model.Mailbox)
+     */
+    public Iterator<Long> listAllMessageUids(Mailbox<Long> mailbox) throws MailboxException {
+        List<Long> uids = new ArrayList<Long>(getMembershipByUidForMailbox(mailbox).keySet());
+        Collections.sort(uids);
+        return uids.iterator();
+    }
+
     /**
      * @see org.apache.james.mailbox.store.mail.MessageMapper#findFirstUnseenMessageUid(org.apache.james.mailbox.store.mail.model.Mailbox)
      */
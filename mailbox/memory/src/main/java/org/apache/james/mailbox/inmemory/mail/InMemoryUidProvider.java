@@ -37,6 +37,11 @@ public class InMemoryUidProvider implements UidProvider<Long>{
         return getLast(mailbox.getMailboxId()).incrementAndGet();
     }
 
+    @Override
+    public long nextUids(MailboxSession session, Mailbox<Long> mailbox, int count) throws MailboxException {
+        return getLast(mailbox.getMailboxId()).addAndGet(count) - count + 1;
+    }
+
     @Override
     public long lastUid(MailboxSession session, Mailbox<Long> mailbox) throws MailboxException {
         return getLast(mailbox.getMailboxId()).get();
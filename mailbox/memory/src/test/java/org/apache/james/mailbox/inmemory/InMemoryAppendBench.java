@@ -0,0 +1,103 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.inmemory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.MessageManager;
+import org.apache.james.mailbox.acl.SimpleGroupMembershipResolver;
+import org.apache.james.mailbox.acl.UnionMailboxACLResolver;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.store.MockAuthenticator;
+import org.apache.james.mailbox.store.StoreMailboxManager;
+import org.apache.james.mailbox.store.streaming.DefaultAppendBufferFactory;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Simple benchmark which appends messages of different sizes to an in-memory
+ * mailbox with different append buffers:
+ * <ul>
+ * <li>the default, which keeps small messages in memory</li>
+ * <li>one which always uses a temporary file, like it was done before</li>
+ * <li>one which memory-maps the temporary file of big messages</li>
+ * </ul>
+ * Run it via its main method.
+ */
+public class InMemoryAppendBench {
+
+    private final static int[] SIZES = { 4 * 1024, 64 * 1024, 1024 * 1024 };
+    private final static int APPENDS = 500;
+
+    public static void main(String[] args) throws Exception {
+        DefaultAppendBufferFactory file = new DefaultAppendBufferFactory();
+        file.setMemoryThreshold(0);
+        DefaultAppendBufferFactory mapped = new DefaultAppendBufferFactory();
+        mapped.setMemoryMapping(true);
+
+        // warmup
+        for (int i = 0; i < 3; i++) {
+            run("default", new DefaultAppendBufferFactory(), SIZES[0], false);
+            run("temp file", file, SIZES[0], false);
+            run("mapped", mapped, SIZES[0], false);
+        }
+
+        for (int size : SIZES) {
+            run("default", new DefaultAppendBufferFactory(), size, true);
+            run("temp file", file, size, true);
+            run("mapped", mapped, size, true);
+        }
+    }
+
+    private static void run(String name, DefaultAppendBufferFactory factory, int size, boolean print) throws Exception {
+        StoreMailboxManager<Long> manager = new StoreMailboxManager<Long>(new InMemoryMailboxSessionMapperFactory(), new MockAuthenticator(), new UnionMailboxACLResolver(), new SimpleGroupMembershipResolver());
+        manager.setAppendBufferFactory(factory);
+        manager.init();
+        MailboxSession session = manager.createSystemSession("user", LoggerFactory.getLogger("Bench"));
+        MailboxPath inbox = MailboxPath.inbox(session);
+        manager.createMailbox(inbox, session);
+        MessageManager mailbox = manager.getMailbox(inbox, session);
+
+        byte[] body = new byte[size];
+        Arrays.fill(body, (byte) 'x');
+        for (int i = 76; i < size; i += 78) {
+            body[i - 1] = '\r';
+            body[i] = '\n';
+        }
+        byte[] header = "From: a@example.org\r\nTo: b@example.org\r\nSubject: bench\r\n\r\n".getBytes();
+        byte[] message = new byte[header.length + body.length];
+        System.arraycopy(header, 0, message, 0, header.length);
+        System.arraycopy(body, 0, message, header.length, body.length);
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < APPENDS; i++) {
+            // wrap the bytes, so the stream is not recognized as shared
+            mailbox.appendMessage(new BufferedInputStream(new ByteArrayInputStream(message)), new Date(), session, true, null);
+        }
+        long elapsed = System.nanoTime() - t0;
+
+        if (print) {
+            System.out.println(size / 1024 + "KB messages, " + name + ": " + (APPENDS * 1000000000L / elapsed) + " appends/s");
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.inmemory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Flags;
+
+import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.MessageManager;
+import org.apache.james.mailbox.acl.SimpleGroupMembershipResolver;
+import org.apache.james.mailbox.acl.UnionMailboxACLResolver;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.store.AsynchronousDelegatingMailboxListener;
+import org.apache.james.mailbox.store.MailboxEventDispatcher.AddedImpl;
+import org.apache.james.mailbox.store.MockAuthenticator;
+import org.apache.james.mailbox.store.StoreMailboxManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+public class InMemoryAsynchronousEventDeliveryTest {
+
+    private final List<MailboxSession> endedSessions = new CopyOnWriteArrayList<MailboxSession>();
+
+    private AsynchronousDelegatingMailboxListener delegating;
+    private StoreMailboxManager<Long> manager;
+    private MailboxSession session;
+    private MailboxPath inbox;
+
+    @Before
+    public void setUp() throws Exception {
+        InMemoryMailboxSessionMapperFactory factory = new InMemoryMailboxSessionMapperFactory() {
+
+            @Override
+            public void endProcessingRequest(MailboxSession session) {
+                endedSessions.add(session);
+                super.endProcessingRequest(session);
+            }
+        };
+        delegating = new AsynchronousDelegatingMailboxListener(2, 100);
+        manager = new StoreMailboxManager<Long>(factory, new MockAuthenticator(), new UnionMailboxACLResolver(), new SimpleGroupMembershipResolver());
+        manager.setDelegatingMailboxListener(delegating);
+        manager.init();
+
+        session = manager.createSystemSession("user", LoggerFactory.getLogger("Test"));
+        inbox = MailboxPath.inbox(session);
+        manager.createMailbox(inbox, session);
+    }
+
+    @After
+    public void tearDown() {
+        delegating.destroy();
+    }
+
+    @Test
+    public void testAsynchronousListenerShouldGetOwnSession() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<MailboxListener.Event> received = new CopyOnWriteArrayList<MailboxListener.Event>();
+        manager.addGlobalListener(new MailboxListener() {
+
+            public void event(Event event) {
+                if (event instanceof Added) {
+                    received.add(event);
+                    latch.countDown();
+                }
+            }
+        }, session);
+
+        MessageManager mailbox = manager.getMailbox(inbox, session);
+        long uid = mailbox.appendMessage(new ByteArrayInputStream("Subject: test\r\n\r\ntestmail".getBytes()), new Date(), session, true, new Flags());
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+        MailboxListener.Event event = received.get(0);
+        assertTrue(event instanceof AddedImpl);
+        assertEquals(Collections.singletonList(uid), ((AddedImpl) event).getUids());
+        MailboxSession eventSession = event.getSession();
+        assertNotSame(session, eventSession);
+        assertEquals(session.getUser().getUserName(), eventSession.getUser().getUserName());
+
+        // the request of the session is ended once the listener returned
+        long timeout = System.currentTimeMillis() + 10000;
+        while (!endedSessions.contains(eventSession) && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertTrue(endedSessions.contains(eventSession));
+    }
+}
@@ -0,0 +1,154 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.inmemory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.Date;
+
+import javax.mail.Flags;
+
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.MessageManager;
+import org.apache.james.mailbox.MessageManager.MetaData;
+import org.apache.james.mailbox.MessageManager.MetaData.FetchGroup;
+import org.apache.james.mailbox.acl.SimpleGroupMembershipResolver;
+import org.apache.james.mailbox.acl.UnionMailboxACLResolver;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.store.MailboxCountersCache;
+import org.apache.james.mailbox.store.MockAuthenticator;
+import org.apache.james.mailbox.store.StoreMailboxManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+public class InMemoryMailboxCountersCacheTest {
+
+    private StoreMailboxManager<Long> cachedManager;
+    private StoreMailboxManager<Long> uncachedManager;
+    private MailboxCountersCache<Long> cache;
+    private MailboxSession session;
+    private MailboxPath inbox;
+
+    @Before
+    public void setUp() throws Exception {
+        InMemoryMailboxSessionMapperFactory factory = new InMemoryMailboxSessionMapperFactory();
+        cache = new MailboxCountersCache<Long>();
+        cachedManager = new StoreMailboxManager<Long>(factory, new MockAuthenticator(), new UnionMailboxACLResolver(), new SimpleGroupMembershipResolver());
+        cachedManager.setMailboxCountersCache(cache);
+        cachedManager.init();
+        uncachedManager = new StoreMailboxManager<Long>(factory, new MockAuthenticator(), new UnionMailboxACLResolver(), new SimpleGroupMembershipResolver());
+        uncachedManager.init();
+
+        session = cachedManager.createSystemSession("user", LoggerFactory.getLogger("Test"));
+        inbox = MailboxPath.inbox(session);
+        cachedManager.createMailbox(inbox, session);
+    }
+
+    @Test
+    public void testSecondCallShouldBeServedFromCache() throws Exception {
+        MessageManager manager = cachedManager.getMailbox(inbox, session);
+        append(manager, new Flags());
+
+        manager.getMetaData(false, session, FetchGroup.UNSEEN_COUNT);
+        assertEquals(1, cache.getMissCount());
+        manager.getMetaData(false, session, FetchGroup.UNSEEN_COUNT);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testCountersShouldFollowChanges() throws Exception {
+        MessageManager manager = cachedManager.getMailbox(inbox, session);
+        assertSameCounters();
+
+        long uid1 = append(manager, new Flags());
+        append(manager, new Flags(Flags.Flag.SEEN));
+        long uid3 = append(manager, new Flags());
+        assertSameCounters();
+
+        manager.setFlags(new Flags(Flags.Flag.SEEN), true, false, MessageRange.one(uid1), session);
+        assertSameCounters();
+
+        manager.setFlags(new Flags(Flags.Flag.SEEN), false, false, MessageRange.one(uid1), session);
+        assertSameCounters();
+
+        manager.setFlags(new Flags(Flags.Flag.DELETED), true, false, MessageRange.one(uid3), session);
+        manager.expunge(MessageRange.all(), session);
+        assertSameCounters();
+
+        // the reset of the recent flag is not reported as event
+        manager.getMetaData(true, session, FetchGroup.NO_COUNT);
+        assertSameCounters();
+
+        assertTrue(cache.getHitCount() > 0);
+    }
+
+    @Test
+    public void testDeletedMailboxShouldBeEvicted() throws Exception {
+        MessageManager manager = cachedManager.getMailbox(inbox, session);
+        append(manager, new Flags());
+        manager.getMetaData(false, session, FetchGroup.UNSEEN_COUNT);
+        assertEquals(1, cache.size());
+
+        cachedManager.deleteMailbox(inbox, session);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        MessageManager manager = cachedManager.getMailbox(inbox, session);
+        append(manager, new Flags());
+        assertEquals(0, cache.getHitRatio(), 0);
+
+        manager.getMetaData(false, session, FetchGroup.UNSEEN_COUNT);
+        manager.getMetaData(false, session, FetchGroup.UNSEEN_COUNT);
+        assertEquals(0.5, cache.getHitRatio(), 0);
+        assertEquals(1, cache.getCachedMailboxCount());
+
+        cache.clear();
+        assertEquals(0, cache.getCachedMailboxCount());
+
+        cache.resetStatistics();
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    private long append(MessageManager manager, Flags flags) throws Exception {
+        return manager.appendMessage(new ByteArrayInputStream("Subject: test\r\n\r\ntestmail".getBytes()), new Date(), session, true, flags);
+    }
+
+    private void assertSameCounters() throws Exception {
+        // load the counters first, so the following calls may be served from the cache
+        cachedManager.getMailbox(inbox, session).getMetaData(false, session, FetchGroup.UNSEEN_COUNT);
+        for (FetchGroup group : new FetchGroup[] { FetchGroup.UNSEEN_COUNT, FetchGroup.FIRST_UNSEEN }) {
+            MetaData cached = cachedManager.getMailbox(inbox, session).getMetaData(false, session, group);
+            MetaData uncached = uncachedManager.getMailbox(inbox, session).getMetaData(false, session, group);
+            assertEquals(uncached.getMessageCount(), cached.getMessageCount());
+            assertEquals(uncached.getUnseenCount(), cached.getUnseenCount());
+            assertEquals(uncached.getFirstUnseen(), cached.getFirstUnseen());
+            assertEquals(uncached.getUidNext(), cached.getUidNext());
+            assertEquals(uncached.getHighestModSeq(), cached.getHighestModSeq());
+        }
+    }
+}
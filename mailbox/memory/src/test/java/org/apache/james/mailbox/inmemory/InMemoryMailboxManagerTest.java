@@ -18,6 +18,14 @@
  ****************************************************************/
 package org.apache.james.mailbox.inmemory;
 
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.util.Date;
+
+import javax.mail.Flags;
+import javax.mail.util.SharedByteArrayInputStream;
+
 import org.apache.james.mailbox.AbstractMailboxManagerTest;
 import org.apache.james.mailbox.MailboxSession;
 import org.apache.james.mailbox.acl.GroupMembershipResolver;
@@ -26,10 +34,12 @@ import org.apache.james.mailbox.acl.SimpleGroupMembershipResolver;
 import org.apache.james.mailbox.acl.UnionMailboxACLResolver;
 import org.apache.james.mailbox.exception.BadCredentialsException;
 import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.model.MailboxPath;
 import org.apache.james.mailbox.store.MockAuthenticator;
 import org.apache.james.mailbox.store.StoreMailboxManager;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Test;
 import org.slf4j.LoggerFactory;
 
 /**
@@ -75,5 +85,23 @@ public class InMemoryMailboxManagerTest extends AbstractMailboxManagerTest {
         setMailboxManager(mailboxManager);
 
     }
+
+    @Test
+    public void testAppendShouldNotCloseSharedInputStreamOfCaller() throws Exception {
+        MailboxSession session = getMailboxManager().createSystemSession("user", LoggerFactory.getLogger("Test"));
+        MailboxPath inbox = MailboxPath.inbox(session);
+        getMailboxManager().createMailbox(inbox, session);
+
+        final boolean[] closed = new boolean[1];
+        SharedByteArrayInputStream in = new SharedByteArrayInputStream("Subject: test\r\n\r\ntestmail".getBytes()) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                super.close();
+            }
+        };
+        getMailboxManager().getMailbox(inbox, session).appendMessage(in, new Date(), session, true, new Flags());
+        assertFalse(closed[0]);
+    }
     
 }
@@ -47,7 +47,7 @@ public abstract class AbstractDelegatingMailboxListener implements MailboxListen
                 int sz = mListeners.size();
                 for (int i = 0; i < sz; i++) {
                     MailboxListener l = mListeners.get(i);
-                    l.event(event);
+                    deliver(l, event);
                     
                 }
                 
@@ -77,7 +77,7 @@ public abstract class AbstractDelegatingMailboxListener implements MailboxListen
                     int sz = globalListeners.size();
                     for (int i = 0; i < sz; i++) {
                         MailboxListener l = globalListeners.get(i);
-                        l.event(event);
+                        deliver(l, event);
                         
                     }
                     
@@ -164,6 +164,18 @@ public abstract class AbstractDelegatingMailboxListener implements MailboxListen
         }
     }
 
+    /**
+     * Deliver the {@link Event} to the given {@link MailboxListener}. This implementation
+     * calls the listener directly. Subclasses may override it to deliver the event in
+     * an other way.
+     * 
+     * @param listener
+     * @param event
+     */
+    protected void deliver(MailboxListener listener, Event event) {
+        listener.event(event);
+    }
+
     /**
      * Return the {@link Map} which is used to store the {@link MailboxListener}
      * 
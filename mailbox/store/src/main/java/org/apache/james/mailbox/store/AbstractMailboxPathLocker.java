@@ -18,6 +18,12 @@
  ****************************************************************/
 package org.apache.james.mailbox.store;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
 import org.apache.james.mailbox.MailboxPathLocker;
 import org.apache.james.mailbox.MailboxSession;
 import org.apache.james.mailbox.exception.MailboxException;
@@ -35,14 +41,62 @@ public abstract class AbstractMailboxPathLocker implements MailboxPathLocker{
     
     @Override
     public <T> T executeWithLock(MailboxSession session, MailboxPath path, LockAwareExecution<T> execution, boolean writeLock) throws MailboxException {
+        lock(session, path, writeLock);
         try {
-            lock(session, path, writeLock);
             return execution.execute();
         } finally {
             unlock(session, path, writeLock);
         }
     }
 
+    /**
+     * @see org.apache.james.mailbox.MailboxPathLocker#executeWithLocks(org.apache.james.mailbox.MailboxSession, org.apache.james.mailbox.model.MailboxPath, org.apache.james.mailbox.model.MailboxPath, org.apache.james.mailbox.MailboxPathLocker.LockAwareExecution, boolean)
+     */
+    public <T> T executeWithLocks(MailboxSession session, MailboxPath first, MailboxPath second, LockAwareExecution<T> execution, boolean writeLock) throws MailboxException {
+        return executeWithLocks(session, Arrays.asList(first, second), execution, writeLock);
+    }
+
+    /**
+     * @see org.apache.james.mailbox.MailboxPathLocker#executeWithLocks(org.apache.james.mailbox.MailboxSession, java.util.List, org.apache.james.mailbox.MailboxPathLocker.LockAwareExecution, boolean)
+     */
+    public <T> T executeWithLocks(MailboxSession session, List<MailboxPath> paths, LockAwareExecution<T> execution, boolean writeLock) throws MailboxException {
+        List<MailboxPath> ordered = new ArrayList<MailboxPath>(paths);
+        Collections.sort(ordered, new Comparator<MailboxPath>() {
+
+            public int compare(MailboxPath first, MailboxPath second) {
+                return AbstractMailboxPathLocker.this.compare(first, second);
+            }
+        });
+
+        int locked = 0;
+        try {
+            for (MailboxPath path : ordered) {
+                lock(session, path, writeLock);
+                locked++;
+            }
+            return execution.execute();
+        } finally {
+            // release in the reverse order and only the locks we got
+            for (int i = locked - 1; i >= 0; i--) {
+                unlock(session, ordered.get(i), writeLock);
+            }
+        }
+    }
+
+    /**
+     * Compare the given {@link MailboxPath}'s to get the order in which their locks are acquired by
+     * {@link #executeWithLocks(MailboxSession, List, LockAwareExecution, boolean)}.
+     * 
+     * This implementation compares the String representation of the paths.
+     * 
+     * @param first
+     * @param second
+     * @return order
+     */
+    protected int compare(MailboxPath first, MailboxPath second) {
+        return first.toString().compareTo(second.toString());
+    }
+
     
     /**
      * Perform lock
@@ -0,0 +1,381 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.SynchronousMailboxListener;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ConcurrentDelegatingMailboxListener} which delivers the events
+ * asynchronously to all {@link MailboxListener}'s which are not a
+ * {@link SynchronousMailboxListener}. So slow listeners, like a search index,
+ * do not block the thread which changed the mailbox.
+ * 
+ * The events are queued to a fixed count of worker threads. All events of
+ * one {@link MailboxPath} are handled by the same worker, so every listener
+ * receives them in the order in which they were fired. If the queue of a
+ * worker is full, the firing thread blocks until there is space again. If a
+ * max block time is set, the event is dropped for the listener once the time
+ * has passed without space getting free.
+ * 
+ * The {@link MailboxSession} of an event must not be used by another thread,
+ * as the mappers are cached in it. So once a {@link StoreMailboxManager} is
+ * set, every queued event is delivered with its own system session of the
+ * same user, which is bracketed by
+ * {@link StoreMailboxManager#startProcessingRequest(MailboxSession)} and
+ * {@link StoreMailboxManager#endProcessingRequest(MailboxSession)}. Events
+ * which were not fired by a {@link MailboxEventDispatcher} can not be copied
+ * and are delivered directly in that case.
+ * 
+ * The queues and the time the listeners need are exposed via
+ * {@link AsynchronousDelegatingMailboxListenerMBean}. {@link #destroy()}
+ * needs to be called to stop the worker threads.
+ */
+public class AsynchronousDelegatingMailboxListener extends ConcurrentDelegatingMailboxListener implements AsynchronousDelegatingMailboxListenerMBean {
+
+    public final static int DEFAULT_WORKER_THREADS = 4;
+    public final static int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    private final Logger logger = LoggerFactory.getLogger(AsynchronousDelegatingMailboxListener.class);
+
+    private final Worker[] workers;
+    private final int queueCapacity;
+    private volatile long maxBlockTime = -1;
+    private volatile StoreMailboxManager<?> mailboxManager;
+
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final ConcurrentMap<String, ListenerStatistics> statistics = new ConcurrentHashMap<String, ListenerStatistics>();
+
+    public AsynchronousDelegatingMailboxListener() {
+        this(DEFAULT_WORKER_THREADS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param workerThreads
+     *            count of threads which deliver the events
+     * @param queueCapacity
+     *            max count of queued events per thread
+     */
+    public AsynchronousDelegatingMailboxListener(int workerThreads, int queueCapacity) {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("workerThreads must be > 0");
+        }
+        this.queueCapacity = queueCapacity;
+        this.workers = new Worker[workerThreads];
+        for (int i = 0; i < workerThreads; i++) {
+            workers[i] = new Worker("MailboxEventDelivery-" + (i + 1), queueCapacity);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Set the max time (in ms) to wait for space in a full queue before the
+     * event is dropped. Use -1 to wait until there is space, which is the
+     * default
+     * 
+     * @param maxBlockTime
+     */
+    public void setMaxBlockTime(long maxBlockTime) {
+        this.maxBlockTime = maxBlockTime;
+    }
+
+    /**
+     * Set the {@link StoreMailboxManager} which is used to create a
+     * {@link MailboxSession} for every queued event. This is done by
+     * {@link StoreMailboxManager#setDelegatingMailboxListener(AbstractDelegatingMailboxListener)}
+     * 
+     * @param mailboxManager
+     */
+    public void setMailboxManager(StoreMailboxManager<?> mailboxManager) {
+        this.mailboxManager = mailboxManager;
+    }
+
+    /**
+     * Stop the worker threads. Events which are still queued get dropped.
+     */
+    public void destroy() {
+        for (int i = 0; i < workers.length; i++) {
+            workers[i].interrupt();
+        }
+    }
+
+    /**
+     * Deliver the {@link Event} directly if the {@link MailboxListener} is a
+     * {@link SynchronousMailboxListener} and queue it otherwise.
+     * 
+     * @see org.apache.james.mailbox.store.AbstractDelegatingMailboxListener#deliver(org.apache.james.mailbox.MailboxListener,
+     *      org.apache.james.mailbox.MailboxListener.Event)
+     */
+    @Override
+    protected void deliver(MailboxListener listener, Event event) {
+        if (listener instanceof SynchronousMailboxListener) {
+            deliverNow(listener, event);
+        } else {
+            Delivery delivery = newDelivery(listener, event);
+            if (delivery == null) {
+                deliverNow(listener, event);
+                return;
+            }
+            Worker worker = workers[indexFor(event.getMailboxPath())];
+            boolean queued;
+            try {
+                if (maxBlockTime < 0) {
+                    worker.queue.put(delivery);
+                    queued = true;
+                } else {
+                    queued = worker.queue.offer(delivery, maxBlockTime, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queued = false;
+            }
+            if (!queued) {
+                delivery.close();
+                droppedEvents.incrementAndGet();
+                getStatistics(listener).dropped.incrementAndGet();
+                logger.warn("Dropped " + event.getClass().getSimpleName() + " event of mailbox " + event.getMailboxPath() + " for listener " + listener);
+            }
+        }
+    }
+
+    /**
+     * Create the {@link Delivery} of the {@link Event} to the
+     * {@link MailboxListener}, with its own {@link MailboxSession} if a
+     * {@link StoreMailboxManager} is set
+     * 
+     * @param listener
+     * @param event
+     * @return delivery or null if the event needs to get delivered directly
+     */
+    private Delivery newDelivery(MailboxListener listener, Event event) {
+        StoreMailboxManager<?> manager = mailboxManager;
+        MailboxSession eventSession = event.getSession();
+        if (manager == null || eventSession == null) {
+            return new Delivery(listener, event, null, null);
+        }
+        MailboxSession session = manager.createSystemSession(eventSession.getUser().getUserName(), eventSession.getLog());
+        Event copy = manager.getEventDispatcher().copy(event, session);
+        if (copy == null) {
+            return null;
+        }
+        return new Delivery(listener, copy, session, manager);
+    }
+
+    private void deliverNow(MailboxListener listener, Event event) {
+        ListenerStatistics stats = getStatistics(listener);
+        long start = System.nanoTime();
+        try {
+            listener.event(event);
+        } finally {
+            stats.record(System.nanoTime() - start);
+        }
+    }
+
+    private ListenerStatistics getStatistics(MailboxListener listener) {
+        String name = listener.getClass().getName();
+        ListenerStatistics stats = statistics.get(name);
+        if (stats == null) {
+            stats = new ListenerStatistics();
+            ListenerStatistics s = statistics.putIfAbsent(name, stats);
+            if (s != null) {
+                stats = s;
+            }
+        }
+        return stats;
+    }
+
+    private int indexFor(MailboxPath path) {
+        if (path == null) {
+            return 0;
+        }
+        return (path.hashCode() & Integer.MAX_VALUE) % workers.length;
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.AsynchronousDelegatingMailboxListenerMBean#getWorkerThreads()
+     */
+    public int getWorkerThreads() {
+        return workers.length;
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.AsynchronousDelegatingMailboxListenerMBean#getQueueCapacity()
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.AsynchronousDelegatingMailboxListenerMBean#getQueueDepth()
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (int i = 0; i < workers.length; i++) {
+            depth += workers[i].queue.size();
+        }
+        return depth;
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.AsynchronousDelegatingMailboxListenerMBean#getQueueDepths()
+     */
+    public int[] getQueueDepths() {
+        int[] depths = new int[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            depths[i] = workers[i].queue.size();
+        }
+        return depths;
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.AsynchronousDelegatingMailboxListenerMBean#getDroppedEvents()
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.AsynchronousDelegatingMailboxListenerMBean#getListenerStatistics()
+     */
+    public String[] getListenerStatistics() {
+        List<String> result = new ArrayList<String>();
+        for (Map.Entry<String, ListenerStatistics> entry : statistics.entrySet()) {
+            result.add(entry.getKey() + ": " + entry.getValue());
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.AsynchronousDelegatingMailboxListenerMBean#resetStatistics()
+     */
+    public void resetStatistics() {
+        droppedEvents.set(0);
+        statistics.clear();
+    }
+
+    /**
+     * An {@link Event} which needs to get delivered to a {@link MailboxListener}
+     */
+    private final static class Delivery {
+        private final MailboxListener listener;
+        private final Event event;
+        private final MailboxSession session;
+        private final StoreMailboxManager<?> manager;
+
+        public Delivery(MailboxListener listener, Event event, MailboxSession session, StoreMailboxManager<?> manager) {
+            this.listener = listener;
+            this.event = event;
+            this.session = session;
+            this.manager = manager;
+        }
+
+        public void start() {
+            if (session != null) {
+                manager.startProcessingRequest(session);
+            }
+        }
+
+        /**
+         * End the request of the own {@link MailboxSession}, which releases
+         * the mappers used by the listener
+         */
+        public void close() {
+            if (session != null) {
+                manager.endProcessingRequest(session);
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * Thread which delivers the queued events in order
+     */
+    private final class Worker extends Thread {
+        private final BlockingQueue<Delivery> queue;
+
+        public Worker(String name, int queueCapacity) {
+            super(name);
+            setDaemon(true);
+            this.queue = new ArrayBlockingQueue<Delivery>(queueCapacity);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                Delivery delivery;
+                try {
+                    delivery = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    delivery.start();
+                    deliverNow(delivery.listener, delivery.event);
+                } catch (RuntimeException e) {
+                    getStatistics(delivery.listener).failures.incrementAndGet();
+                    logger.error("Listener " + delivery.listener + " failed to handle " + delivery.event.getClass().getSimpleName() + " event of mailbox " + delivery.event.getMailboxPath(), e);
+                } finally {
+                    delivery.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Statistics of all {@link MailboxListener}'s of one type
+     */
+    private final static class ListenerStatistics {
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong totalTime = new AtomicLong();
+        private final AtomicLong maxTime = new AtomicLong();
+
+        public void record(long nanos) {
+            delivered.incrementAndGet();
+            totalTime.addAndGet(nanos);
+            long max = maxTime.get();
+            while (nanos > max && !maxTime.compareAndSet(max, nanos)) {
+                max = maxTime.get();
+            }
+        }
+
+        @Override
+        public String toString() {
+            long count = delivered.get();
+            double average = count == 0 ? 0 : (double) totalTime.get() / count / 1000000;
+            return "delivered=" + count + ", dropped=" + dropped.get() + ", failures=" + failures.get() + ", averageTime=" + average + ", maxTime=" + (maxTime.get() / 1000000);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.store;
+
+/**
+ * JMX MBean for the statistics of an
+ * {@link AsynchronousDelegatingMailboxListener}
+ */
+public interface AsynchronousDelegatingMailboxListenerMBean {
+
+    /**
+     * Return the count of threads which deliver the events
+     * 
+     * @return workerThreads
+     */
+    int getWorkerThreads();
+
+    /**
+     * Return the max count of queued events per worker thread
+     * 
+     * @return queueCapacity
+     */
+    int getQueueCapacity();
+
+    /**
+     * Return the count of all queued events
+     * 
+     * @return queueDepth
+     */
+    int getQueueDepth();
+
+    /**
+     * Return the count of queued events per worker thread
+     * 
+     * @return queueDepths
+     */
+    int[] getQueueDepths();
+
+    /**
+     * Return the count of events which were dropped because the queue was
+     * full
+     * 
+     * @return droppedEvents
+     */
+    long getDroppedEvents();
+
+    /**
+     * Return the statistics per listener type. These include the count of
+     * delivered and dropped events, failures and the average and maximal
+     * time (in ms) the listener needed to handle an event
+     * 
+     * @return statistics
+     */
+    String[] getListenerStatistics();
+
+    /**
+     * Reset all statistics
+     */
+    void resetStatistics();
+}
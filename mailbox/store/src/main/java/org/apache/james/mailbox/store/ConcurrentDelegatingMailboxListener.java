@@ -0,0 +1,352 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.model.MailboxPath;
+
+/**
+ * {@link AbstractDelegatingMailboxListener} which stores the registered
+ * {@link MailboxListener}'s in copy-on-write arrays. Dispatching an
+ * {@link org.apache.james.mailbox.MailboxListener.Event} only reads the
+ * current array of the {@link MailboxPath}, so it never blocks and never
+ * contends with threads which add or remove listeners. Changes to the
+ * registry are done via compare-and-set and are retried on conflicts.
+ * 
+ * {@link MailboxListener}'s which were added with a {@link MailboxSession}
+ * get removed once the session is closed. This is done on the next dispatch
+ * to the {@link MailboxPath} or via {@link #removeListeners(MailboxSession)}.
+ */
+public class ConcurrentDelegatingMailboxListener extends AbstractDelegatingMailboxListener {
+
+    private final static Registration[] EMPTY = new Registration[0];
+
+    private final ConcurrentMap<MailboxPath, Registration[]> listeners = new ConcurrentHashMap<MailboxPath, Registration[]>();
+    private final AtomicReference<Registration[]> globalListeners = new AtomicReference<Registration[]>(EMPTY);
+
+    /**
+     * The {@link MailboxPath}'s to which a session has added listeners, so
+     * they can get removed once it is closed
+     */
+    private final ConcurrentMap<Long, Set<MailboxPath>> sessionPaths = new ConcurrentHashMap<Long, Set<MailboxPath>>();
+
+    /**
+     * @see org.apache.james.mailbox.store.AbstractDelegatingMailboxListener#event(org.apache.james.mailbox.MailboxListener.Event)
+     */
+    @Override
+    public void event(Event event) {
+        MailboxPath path = event.getMailboxPath();
+        Registration[] registrations = listeners.get(path);
+        if (registrations != null) {
+            for (int i = 0; i < registrations.length; i++) {
+                Registration r = registrations[i];
+                if (r.isClosed()) {
+                    unregister(path, r.listener);
+                    moveSessionPath(r, path, null);
+                } else {
+                    deliver(r.listener, event);
+                }
+            }
+
+            if (event instanceof MailboxDeletion) {
+                // remove listeners if the mailbox was deleted
+                Registration[] removed = listeners.remove(path);
+                if (removed != null) {
+                    for (int i = 0; i < removed.length; i++) {
+                        moveSessionPath(removed[i], path, null);
+                    }
+                }
+            } else if (event instanceof MailboxRenamed) {
+                // move the listeners to the new path
+                MailboxRenamed renamed = (MailboxRenamed) event;
+                Registration[] moved = listeners.remove(path);
+                if (moved != null) {
+                    for (int i = 0; i < moved.length; i++) {
+                        register(renamed.getNewPath(), moved[i]);
+                        moveSessionPath(moved[i], path, renamed.getNewPath());
+                    }
+                }
+            }
+        }
+
+        Registration[] global = globalListeners.get();
+        for (int i = 0; i < global.length; i++) {
+            Registration r = global[i];
+            if (r.isClosed()) {
+                unregisterGlobal(r.listener);
+            } else {
+                deliver(r.listener, event);
+            }
+        }
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.AbstractDelegatingMailboxListener#addListener(org.apache.james.mailbox.model.MailboxPath, org.apache.james.mailbox.MailboxListener, org.apache.james.mailbox.MailboxSession)
+     */
+    @Override
+    public void addListener(MailboxPath path, MailboxListener listener, MailboxSession session) throws MailboxException {
+        if (session != null) {
+            Set<MailboxPath> paths = sessionPaths.get(session.getSessionId());
+            if (paths == null) {
+                paths = Collections.newSetFromMap(new ConcurrentHashMap<MailboxPath, Boolean>());
+                Set<MailboxPath> p = sessionPaths.putIfAbsent(session.getSessionId(), paths);
+                if (p != null) {
+                    paths = p;
+                }
+            }
+            paths.add(path);
+        }
+        register(path, new Registration(listener, session));
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.AbstractDelegatingMailboxListener#addGlobalListener(org.apache.james.mailbox.MailboxListener, org.apache.james.mailbox.MailboxSession)
+     */
+    @Override
+    public void addGlobalListener(MailboxListener listener, MailboxSession session) throws MailboxException {
+        Registration registration = new Registration(listener, session);
+        while (true) {
+            Registration[] current = globalListeners.get();
+            Registration[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = registration;
+            if (globalListeners.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.AbstractDelegatingMailboxListener#removeListener(org.apache.james.mailbox.model.MailboxPath, org.apache.james.mailbox.MailboxListener, org.apache.james.mailbox.MailboxSession)
+     */
+    @Override
+    public void removeListener(MailboxPath mailboxPath, MailboxListener listener, MailboxSession session) throws MailboxException {
+        unregister(mailboxPath, listener);
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.AbstractDelegatingMailboxListener#removeGlobalListener(org.apache.james.mailbox.MailboxListener, org.apache.james.mailbox.MailboxSession)
+     */
+    @Override
+    public void removeGlobalListener(MailboxListener listener, MailboxSession session) throws MailboxException {
+        unregisterGlobal(listener);
+    }
+
+    /**
+     * Remove all {@link MailboxListener}'s which were added with the given
+     * {@link MailboxSession}. This should get called once the session was
+     * closed.
+     * 
+     * @param session
+     */
+    public void removeListeners(MailboxSession session) {
+        Set<MailboxPath> paths = sessionPaths.remove(session.getSessionId());
+        if (paths != null) {
+            for (MailboxPath path : paths) {
+                removeRegistrations(path, session);
+            }
+        }
+    }
+
+    /**
+     * Return a snapshot of the registered {@link MailboxListener}'s. Changes
+     * to it are not reflected in this registry.
+     * 
+     * @see org.apache.james.mailbox.store.AbstractDelegatingMailboxListener#getListeners()
+     */
+    @Override
+    protected Map<MailboxPath, List<MailboxListener>> getListeners() {
+        Map<MailboxPath, List<MailboxListener>> snapshot = new HashMap<MailboxPath, List<MailboxListener>>();
+        for (Map.Entry<MailboxPath, Registration[]> entry : listeners.entrySet()) {
+            snapshot.put(entry.getKey(), toList(entry.getValue()));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Return a snapshot of the registered global {@link MailboxListener}'s.
+     * Changes to it are not reflected in this registry.
+     * 
+     * @see org.apache.james.mailbox.store.AbstractDelegatingMailboxListener#getGlobalListeners()
+     */
+    @Override
+    protected List<MailboxListener> getGlobalListeners() {
+        return toList(globalListeners.get());
+    }
+
+    private List<MailboxListener> toList(Registration[] registrations) {
+        List<MailboxListener> list = new ArrayList<MailboxListener>(registrations.length);
+        for (int i = 0; i < registrations.length; i++) {
+            list.add(registrations[i].listener);
+        }
+        return list;
+    }
+
+    private void register(MailboxPath path, Registration registration) {
+        while (true) {
+            Registration[] current = listeners.get(path);
+            if (current == null) {
+                if (listeners.putIfAbsent(path, new Registration[] { registration }) == null) {
+                    return;
+                }
+            } else {
+                for (int i = 0; i < current.length; i++) {
+                    if (current[i].listener.equals(registration.listener)) {
+                        return;
+                    }
+                }
+                Registration[] updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = registration;
+                if (listeners.replace(path, current, updated)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Update the {@link MailboxPath}'s which are remembered for the
+     * {@link MailboxSession} of the {@link Registration}, after it was moved
+     * to a new path or removed
+     * 
+     * @param registration
+     * @param oldPath
+     * @param newPath
+     *            the new path or null if the registration was removed
+     */
+    private void moveSessionPath(Registration registration, MailboxPath oldPath, MailboxPath newPath) {
+        if (registration.session == null) {
+            return;
+        }
+        long sessionId = registration.session.getSessionId();
+        Set<MailboxPath> paths = sessionPaths.get(sessionId);
+        if (paths != null) {
+            paths.remove(oldPath);
+            if (newPath != null) {
+                paths.add(newPath);
+            } else if (paths.isEmpty()) {
+                sessionPaths.remove(sessionId, paths);
+            }
+        }
+    }
+
+    private void unregister(MailboxPath path, MailboxListener listener) {
+        while (true) {
+            Registration[] current = listeners.get(path);
+            if (current == null) {
+                return;
+            }
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].listener.equals(listener)) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index == -1) {
+                return;
+            }
+            if (update(path, current, remove(current, index))) {
+                return;
+            }
+        }
+    }
+
+    private void removeRegistrations(MailboxPath path, MailboxSession session) {
+        while (true) {
+            Registration[] current = listeners.get(path);
+            if (current == null) {
+                return;
+            }
+            List<Registration> kept = new ArrayList<Registration>(current.length);
+            for (int i = 0; i < current.length; i++) {
+                MailboxSession owner = current[i].session;
+                if (owner == null || owner.getSessionId() != session.getSessionId()) {
+                    kept.add(current[i]);
+                }
+            }
+            if (kept.size() == current.length) {
+                return;
+            }
+            if (update(path, current, kept.toArray(new Registration[kept.size()]))) {
+                return;
+            }
+        }
+    }
+
+    private boolean update(MailboxPath path, Registration[] current, Registration[] updated) {
+        if (updated.length == 0) {
+            return listeners.remove(path, current);
+        }
+        return listeners.replace(path, current, updated);
+    }
+
+    private void unregisterGlobal(MailboxListener listener) {
+        while (true) {
+            Registration[] current = globalListeners.get();
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].listener.equals(listener)) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index == -1 || globalListeners.compareAndSet(current, remove(current, index))) {
+                return;
+            }
+        }
+    }
+
+    private static Registration[] remove(Registration[] registrations, int index) {
+        Registration[] updated = new Registration[registrations.length - 1];
+        System.arraycopy(registrations, 0, updated, 0, index);
+        System.arraycopy(registrations, index + 1, updated, index, updated.length - index);
+        return updated;
+    }
+
+    /**
+     * A {@link MailboxListener} and the {@link MailboxSession} which added it
+     */
+    private final static class Registration {
+        private final MailboxListener listener;
+        private final MailboxSession session;
+
+        public Registration(MailboxListener listener, MailboxSession session) {
+            this.listener = listener;
+            this.session = session;
+        }
+
+        public boolean isClosed() {
+            return session != null && !session.isOpen();
+        }
+    }
+}
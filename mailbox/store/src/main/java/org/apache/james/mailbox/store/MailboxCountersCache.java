@@ -0,0 +1,363 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.store;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.mail.Flags;
+
+import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.mailbox.SynchronousMailboxListener;
+import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.MessageMetaData;
+import org.apache.james.mailbox.model.UpdatedFlags;
+import org.apache.james.mailbox.store.mail.MessageMapper;
+import org.apache.james.mailbox.store.mail.model.Mailbox;
+
+/**
+ * Caches the counters of a {@link Mailbox} which are needed to answer a STATUS
+ * or SELECT, so they don't need to get calculated by the {@link MessageMapper}
+ * on every request.
+ *
+ * The cache needs to get registered as global {@link MailboxListener} and keeps
+ * itself in sync with the received events. Changes are only applied in place
+ * if the mod-sequence of the event proves that the cached counters don't
+ * reflect them yet, otherwise the entry of the {@link Mailbox} is just
+ * invalidated and will get loaded again on the next access. It receives the
+ * events synchronously, so a caller never sees counters which don't reflect its
+ * own changes.
+ *
+ * Only use this if all changes to the mailboxes are done through this JVM, as
+ * changes which are done by another process (for example an external delivery
+ * to a maildir or another node in a cluster) will not be noticed.
+ *
+ * The hit and miss counts can be monitored via
+ * {@link MailboxCountersCacheMBean}.
+ *
+ * @param <Id>
+ */
+public class MailboxCountersCache<Id> implements SynchronousMailboxListener, MailboxCountersCacheMBean {
+
+    private final static int STRIPES = 64;
+
+    private final ConcurrentMap<MailboxPath, Counters> counters = new ConcurrentHashMap<MailboxPath, Counters>();
+
+    /**
+     * Incremented for every event, so a load which raced with a change can
+     * detect that it may be stale
+     */
+    private final AtomicLongArray generations = new AtomicLongArray(STRIPES);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Return the {@link MailboxCounters} for the given {@link Mailbox}. If
+     * they are not cached yet they get loaded via the given
+     * {@link MessageMapper}
+     *
+     * @param mailbox
+     * @param mapper
+     * @return counters
+     * @throws MailboxException
+     */
+    public MailboxCounters getCounters(Mailbox<Id> mailbox, MessageMapper<Id> mapper) throws MailboxException {
+        MailboxPath path = new StoreMailboxPath<Id>(mailbox);
+        Counters cached = counters.get(path);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached.snapshot();
+        }
+        misses.incrementAndGet();
+
+        int stripe = stripe(path);
+        long generation = generations.get(stripe);
+
+        // load the mod-sequence last, so every change which is not reflected
+        // in the counts has a higher mod-sequence
+        Counters loaded = new Counters();
+        loaded.messageCount = mapper.countMessagesInMailbox(mailbox);
+        loaded.unseenCount = mapper.countUnseenMessagesInMailbox(mailbox);
+        loaded.firstUnseen = mapper.findFirstUnseenMessageUid(mailbox);
+        loaded.lastUid = mapper.getLastUid(mailbox);
+        loaded.highestModSeq = mapper.getHighestModSeq(mailbox);
+
+        MailboxPath key = new MailboxPath(path);
+        counters.putIfAbsent(key, loaded);
+        if (generations.get(stripe) != generation) {
+            // something changed while loading, so don't trust what we have
+            // loaded
+            counters.remove(key, loaded);
+        }
+        return loaded.snapshot();
+    }
+
+    /**
+     * Remove the cached counters of the given {@link Mailbox}. This needs to
+     * be called for every change which is not reported via an event.
+     *
+     * @param mailbox
+     */
+    public void invalidate(Mailbox<Id> mailbox) {
+        invalidate(new StoreMailboxPath<Id>(mailbox));
+    }
+
+    private void invalidate(MailboxPath path) {
+        generations.incrementAndGet(stripe(path));
+        counters.remove(path);
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.MailboxCountersCacheMBean#getHitCount()
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.MailboxCountersCacheMBean#getMissCount()
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.MailboxCountersCacheMBean#getHitRatio()
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        if (total == 0) {
+            return 0;
+        }
+        return (double) h / total;
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.MailboxCountersCacheMBean#getCachedMailboxCount()
+     */
+    public int getCachedMailboxCount() {
+        return counters.size();
+    }
+
+    /**
+     * Return the count of mailboxes for which counters are cached
+     *
+     * @return size
+     */
+    public int size() {
+        return counters.size();
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.MailboxCountersCacheMBean#clear()
+     */
+    public void clear() {
+        // let loads which are in progress drop what they have loaded
+        for (int i = 0; i < STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+        counters.clear();
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.MailboxCountersCacheMBean#resetStatistics()
+     */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * Update the cached counters for the {@link Mailbox} of the event
+     */
+    @Override
+    public void event(Event event) {
+        MailboxPath path = event.getMailboxPath();
+
+        if (event instanceof Added) {
+            generations.incrementAndGet(stripe(path));
+            Counters cached = counters.get(path);
+            if (cached != null && !cached.added((Added) event)) {
+                counters.remove(path, cached);
+            }
+        } else if (event instanceof FlagsUpdated) {
+            generations.incrementAndGet(stripe(path));
+            Counters cached = counters.get(path);
+            if (cached != null && !cached.flagsUpdated((FlagsUpdated) event)) {
+                counters.remove(path, cached);
+            }
+        } else if (event instanceof MailboxRenamed) {
+            invalidate(path);
+            invalidate(((MailboxRenamed) event).getNewPath());
+        } else {
+            // expunged, deleted, added mailboxes and everything we don't know
+            // about
+            invalidate(path);
+        }
+    }
+
+    private int stripe(MailboxPath path) {
+        return (path.hashCode() & 0x7fffffff) % STRIPES;
+    }
+
+    /**
+     * The cached counters of a {@link Mailbox}
+     */
+    private final static class Counters {
+        private long messageCount;
+        private long unseenCount;
+        private Long firstUnseen;
+        private long lastUid;
+        private long highestModSeq;
+
+        private synchronized MailboxCounters snapshot() {
+            return new MailboxCounters(messageCount, unseenCount, firstUnseen, lastUid + 1, highestModSeq);
+        }
+
+        /**
+         * Apply the added messages
+         *
+         * @param added
+         * @return false if the counters can not get updated and need to get
+         *         invalidated
+         */
+        private synchronized boolean added(Added added) {
+            List<Long> uids = added.getUids();
+            if (uids.isEmpty()) {
+                return true;
+            }
+            for (int i = 0; i < uids.size(); i++) {
+                MessageMetaData data = added.getMetaData(uids.get(i));
+                if (data == null || data.getModSeq() <= highestModSeq) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < uids.size(); i++) {
+                long uid = uids.get(i);
+                MessageMetaData data = added.getMetaData(uid);
+                messageCount++;
+                if (!data.getFlags().contains(Flags.Flag.SEEN)) {
+                    unseenCount++;
+                    if (firstUnseen == null || uid < firstUnseen) {
+                        firstUnseen = uid;
+                    }
+                }
+                lastUid = Math.max(lastUid, uid);
+                highestModSeq = Math.max(highestModSeq, data.getModSeq());
+            }
+            return true;
+        }
+
+        /**
+         * Apply the updated flags
+         *
+         * @param flagsUpdated
+         * @return false if the counters can not get updated and need to get
+         *         invalidated
+         */
+        private synchronized boolean flagsUpdated(FlagsUpdated flagsUpdated) {
+            List<UpdatedFlags> updated = flagsUpdated.getUpdatedFlags();
+            if (updated.isEmpty()) {
+                // the mod-sequence may have been incremented anyway
+                return false;
+            }
+            for (int i = 0; i < updated.size(); i++) {
+                UpdatedFlags u = updated.get(i);
+                if (u.getModSeq() <= highestModSeq) {
+                    return false;
+                }
+                boolean wasSeen = u.getOldFlags().contains(Flags.Flag.SEEN);
+                boolean isSeen = u.getNewFlags().contains(Flags.Flag.SEEN);
+                if (!wasSeen && isSeen && firstUnseen != null && firstUnseen == u.getUid()) {
+                    // we can not tell which one is the next unseen message
+                    return false;
+                }
+            }
+            for (int i = 0; i < updated.size(); i++) {
+                UpdatedFlags u = updated.get(i);
+                boolean wasSeen = u.getOldFlags().contains(Flags.Flag.SEEN);
+                boolean isSeen = u.getNewFlags().contains(Flags.Flag.SEEN);
+                if (wasSeen && !isSeen) {
+                    unseenCount++;
+                    if (firstUnseen == null || u.getUid() < firstUnseen) {
+                        firstUnseen = u.getUid();
+                    }
+                } else if (!wasSeen && isSeen) {
+                    unseenCount--;
+                    if (unseenCount == 0) {
+                        firstUnseen = null;
+                    }
+                }
+                highestModSeq = Math.max(highestModSeq, u.getModSeq());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Immutable snapshot of the counters of a {@link Mailbox}
+     */
+    public final static class MailboxCounters {
+        private final long messageCount;
+        private final long unseenCount;
+        private final Long firstUnseen;
+        private final long uidNext;
+        private final long highestModSeq;
+
+        public MailboxCounters(long messageCount, long unseenCount, Long firstUnseen, long uidNext, long highestModSeq) {
+            this.messageCount = messageCount;
+            this.unseenCount = unseenCount;
+            this.firstUnseen = firstUnseen;
+            this.uidNext = uidNext;
+            this.highestModSeq = highestModSeq;
+        }
+
+        public long getMessageCount() {
+            return messageCount;
+        }
+
+        public long getUnseenCount() {
+            return unseenCount;
+        }
+
+        /**
+         * Return the uid of the first unseen message or null if there is none
+         *
+         * @return firstUnseen
+         */
+        public Long getFirstUnseen() {
+            return firstUnseen;
+        }
+
+        public long getUidNext() {
+            return uidNext;
+        }
+
+        public long getHighestModSeq() {
+            return highestModSeq;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.store;
+
+/**
+ * JMX MBean for the statistics of a {@link MailboxCountersCache}
+ */
+public interface MailboxCountersCacheMBean {
+
+    /**
+     * Return how often the counters were served from the cache
+     * 
+     * @return hitCount
+     */
+    long getHitCount();
+
+    /**
+     * Return how often the counters needed to get loaded
+     * 
+     * @return missCount
+     */
+    long getMissCount();
+
+    /**
+     * Return the ratio of hits to all lookups, or 0 if there were no lookups
+     * yet
+     * 
+     * @return hitRatio
+     */
+    double getHitRatio();
+
+    /**
+     * Return the count of mailboxes for which counters are cached
+     * 
+     * @return cachedMailboxCount
+     */
+    int getCachedMailboxCount();
+
+    /**
+     * Remove all cached counters
+     */
+    void clear();
+
+    /**
+     * Reset the hit and miss counts
+     */
+    void resetStatistics();
+}
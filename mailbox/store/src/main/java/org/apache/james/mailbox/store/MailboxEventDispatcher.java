@@ -99,6 +99,36 @@ public class MailboxEventDispatcher<Id> {
         listener.event(new MailboxRenamedEventImpl(session, from, to));
     }
 
+    /**
+     * Return a copy of the given {@link org.apache.james.mailbox.MailboxListener.Event} which uses the given
+     * {@link MailboxSession}, or null if the event was not created by a {@link MailboxEventDispatcher}
+     * 
+     * @param event
+     * @param session
+     * @return copy
+     */
+    @SuppressWarnings("unchecked")
+    public MailboxListener.Event copy(MailboxListener.Event event, MailboxSession session) {
+        if (event instanceof MailboxEventDispatcher.AddedImpl) {
+            MailboxEventDispatcher<Id>.AddedImpl added = (MailboxEventDispatcher<Id>.AddedImpl) event;
+            return new AddedImpl(session, added.mailbox, added.added);
+        } else if (event instanceof MailboxEventDispatcher.ExpungedImpl) {
+            MailboxEventDispatcher<Id>.ExpungedImpl expunged = (MailboxEventDispatcher<Id>.ExpungedImpl) event;
+            return new ExpungedImpl(session, expunged.mailbox, expunged.uids);
+        } else if (event instanceof MailboxEventDispatcher.FlagsUpdatedImpl) {
+            MailboxEventDispatcher<Id>.FlagsUpdatedImpl flags = (MailboxEventDispatcher<Id>.FlagsUpdatedImpl) event;
+            return new FlagsUpdatedImpl(session, flags.mailbox, flags.uids, flags.uFlags);
+        } else if (event instanceof MailboxEventDispatcher.MailboxDeletionImpl) {
+            return new MailboxDeletionImpl(session, ((MailboxEventDispatcher<Id>.MailboxDeletionImpl) event).mailbox);
+        } else if (event instanceof MailboxEventDispatcher.MailboxAddedImpl) {
+            return new MailboxAddedImpl(session, ((MailboxEventDispatcher<Id>.MailboxAddedImpl) event).mailbox);
+        } else if (event instanceof MailboxEventDispatcher.MailboxRenamedEventImpl) {
+            MailboxEventDispatcher<Id>.MailboxRenamedEventImpl renamed = (MailboxEventDispatcher<Id>.MailboxRenamedEventImpl) event;
+            return new MailboxRenamedEventImpl(session, renamed.getMailboxPath(), renamed.newMailbox);
+        }
+        return null;
+    }
+
     public final class AddedImpl extends MailboxListener.Added {
 
         /**
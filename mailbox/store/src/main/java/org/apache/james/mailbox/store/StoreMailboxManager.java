@@ -20,6 +20,7 @@
 package org.apache.james.mailbox.store;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -53,6 +54,8 @@ import org.apache.james.mailbox.store.mail.model.impl.SimpleMailbox;
 import org.apache.james.mailbox.store.search.ListeningMessageSearchIndex;
 import org.apache.james.mailbox.store.search.MessageSearchIndex;
 import org.apache.james.mailbox.store.search.SimpleMessageSearchIndex;
+import org.apache.james.mailbox.store.streaming.AppendBufferFactory;
+import org.apache.james.mailbox.store.streaming.DefaultAppendBufferFactory;
 import org.apache.james.mailbox.store.transaction.Mapper;
 import org.apache.james.mailbox.store.transaction.TransactionalMapper;
 import org.slf4j.Logger;
@@ -93,6 +96,10 @@ public class StoreMailboxManager<Id> implements MailboxManager {
 
     private int fetchBatchSize = DEFAULT_FETCH_BATCH_SIZE;
 
+    private MailboxCountersCache<Id> countersCache;
+
+    private AppendBufferFactory appendBufferFactory = new DefaultAppendBufferFactory();
+
     
     public StoreMailboxManager(MailboxSessionMapperFactory<Id> mailboxSessionMapperFactory, final Authenticator authenticator, final MailboxPathLocker locker, final MailboxACLResolver aclResolver, final GroupMembershipResolver groupMembershipResolver) {
         this.authenticator = authenticator;
@@ -118,6 +125,28 @@ public class StoreMailboxManager<Id> implements MailboxManager {
         this.fetchBatchSize = fetchBatchSize;
     }
     
+    /**
+     * Set the {@link MailboxCountersCache} which should be used to answer STATUS and SELECT without
+     * asking the mappers every time. By default no cache is used.
+     * 
+     * Only set this if all changes to the mailboxes are done through this {@link MailboxManager}
+     * 
+     * @param countersCache
+     */
+    public void setMailboxCountersCache(MailboxCountersCache<Id> countersCache) {
+        this.countersCache = countersCache;
+    }
+    
+    /**
+     * Set the {@link AppendBufferFactory} which is used to buffer messages while they get appended. If none is set
+     * a {@link DefaultAppendBufferFactory} is used
+     * 
+     * @param appendBufferFactory
+     */
+    public void setAppendBufferFactory(AppendBufferFactory appendBufferFactory) {
+        this.appendBufferFactory = appendBufferFactory;
+    }
+    
     
     /**
      * Init the {@link MailboxManager}
@@ -139,6 +168,10 @@ public class StoreMailboxManager<Id> implements MailboxManager {
         if (idGenerator == null) {
             idGenerator = new RandomMailboxSessionIdGenerator();
         }
+        
+        if (countersCache != null) {
+            addGlobalListener(countersCache, null);
+        }
     }
     
     /**
@@ -148,7 +181,7 @@ public class StoreMailboxManager<Id> implements MailboxManager {
      */
     public AbstractDelegatingMailboxListener getDelegationListener() {
         if (delegatingListener == null) {
-            delegatingListener = new HashMapDelegatingMailboxListener();
+            delegatingListener = new ConcurrentDelegatingMailboxListener();
         }
         return delegatingListener;
     }
@@ -163,6 +196,15 @@ public class StoreMailboxManager<Id> implements MailboxManager {
         return index;
     }
     
+    /**
+     * Return the {@link MailboxCountersCache} used by this {@link MailboxManager} or null if none is used
+     * 
+     * @return countersCache
+     */
+    public MailboxCountersCache<Id> getMailboxCountersCache() {
+        return countersCache;
+    }
+    
     
     /**
      * Return the {@link MailboxEventDispatcher} used by thei {@link MailboxManager}
@@ -195,13 +237,16 @@ public class StoreMailboxManager<Id> implements MailboxManager {
     }
     
     /**
-     * Set the {@link AbstractDelegatingMailboxListener} to use with this {@link MailboxManager} instance. If none is set here a {@link HashMapDelegatingMailboxListener} instance will
+     * Set the {@link AbstractDelegatingMailboxListener} to use with this {@link MailboxManager} instance. If none is set here a {@link ConcurrentDelegatingMailboxListener} instance will
      * be created lazy
      * 
      * @param delegatingListener
      */
     public void setDelegatingMailboxListener(AbstractDelegatingMailboxListener delegatingListener) {
         this.delegatingListener = delegatingListener;
+        if (delegatingListener instanceof AsynchronousDelegatingMailboxListener) {
+            ((AsynchronousDelegatingMailboxListener) delegatingListener).setMailboxManager(this);
+        }
         dispatcher = new MailboxEventDispatcher<Id>(getDelegationListener());
     }
     
@@ -281,11 +326,15 @@ public class StoreMailboxManager<Id> implements MailboxManager {
     }
     
     /**
-     * Close the {@link MailboxSession} if not null
+     * Close the {@link MailboxSession} if not null and remove the {@link MailboxListener}'s which were added with it
      */
     public void logout(MailboxSession session, boolean force) throws MailboxException {
         if (session != null) {
             session.close();
+            AbstractDelegatingMailboxListener listener = getDelegationListener();
+            if (listener instanceof ConcurrentDelegatingMailboxListener) {
+                ((ConcurrentDelegatingMailboxListener) listener).removeListeners(session);
+            }
         }
     }
   
@@ -331,6 +380,8 @@ public class StoreMailboxManager<Id> implements MailboxManager {
             
             StoreMessageManager<Id>  m = createMessageManager(mailboxRow, session);
             m.setFetchBatchSize(fetchBatchSize);
+            m.setMailboxCountersCache(countersCache);
+            m.setAppendBufferFactory(appendBufferFactory);
             return m;
         }
     }
@@ -414,31 +465,34 @@ public class StoreMailboxManager<Id> implements MailboxManager {
         final Logger log = session.getLog();
         if (log.isDebugEnabled())
             log.debug("renameMailbox " + from + " to " + to);
-        if (mailboxExists(to, session)) {
-            throw new MailboxExistsException(to.toString());
-        }
-
         final MailboxMapper<Id> mapper = mailboxSessionMapperFactory.getMailboxMapper(session);
-        mapper.execute(new Mapper.VoidTransaction() {
+        final MailboxPath children = new MailboxPath(MailboxConstants.USER_NAMESPACE, from.getUser(), from.getName() + getDelimiter() + "%");
 
-            public void runVoid() throws MailboxException {
-                // TODO put this into a serilizable transaction
-                final Mailbox<Id> mailbox = mapper.findMailboxByPath(from);
-                if (mailbox == null) {
-                    throw new MailboxNotFoundException(from);
+        // get all locks with one call, so they are acquired in the order given
+        // by the locker and concurrent renames can not deadlock
+        locker.executeWithLocks(session, Arrays.asList(from, to, children), new LockAwareExecution<Void>() {
+
+            public Void execute() throws MailboxException {
+                if (mailboxExists(to, session)) {
+                    throw new MailboxExistsException(to.toString());
                 }
-                mailbox.setNamespace(to.getNamespace());
-                mailbox.setUser(to.getUser());
-                mailbox.setName(to.getName());
-                mapper.save(mailbox);
 
-                dispatcher.mailboxRenamed(session, from, mailbox);
+                mapper.execute(new Mapper.VoidTransaction() {
 
-                // rename submailboxes
-                final MailboxPath children = new MailboxPath(MailboxConstants.USER_NAMESPACE, from.getUser(), from.getName() + getDelimiter() + "%");
-                locker.executeWithLock(session, children, new LockAwareExecution<Void>() {
-                    
-                    public Void execute() throws MailboxException {
+                    public void runVoid() throws MailboxException {
+                        // TODO put this into a serilizable transaction
+                        final Mailbox<Id> mailbox = mapper.findMailboxByPath(from);
+                        if (mailbox == null) {
+                            throw new MailboxNotFoundException(from);
+                        }
+                        mailbox.setNamespace(to.getNamespace());
+                        mailbox.setUser(to.getUser());
+                        mailbox.setName(to.getName());
+                        mapper.save(mailbox);
+
+                        dispatcher.mailboxRenamed(session, from, mailbox);
+
+                        // rename submailboxes
                         final List<Mailbox<Id>> subMailboxes = mapper.findMailboxWithPathLike(children);
                         for (Mailbox<Id> sub : subMailboxes) {
                             final String subOriginalName = sub.getName();
@@ -451,16 +505,13 @@ public class StoreMailboxManager<Id> implements MailboxManager {
                             if (log.isDebugEnabled())
                                 log.debug("Rename mailbox sub-mailbox " + subOriginalName + " to " + subNewName);
                         }
-                        return null;
 
                     }
+
                 });
-    
-               
-                
+                return null;
             }
-
-        });
+        }, true);
 
     }
 
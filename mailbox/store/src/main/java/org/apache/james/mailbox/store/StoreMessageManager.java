@@ -19,8 +19,7 @@
 
 package org.apache.james.mailbox.store;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -34,7 +33,6 @@ import java.util.TreeMap;
 import javax.mail.Flags;
 import javax.mail.Flags.Flag;
 import javax.mail.internet.SharedInputStream;
-import javax.mail.util.SharedFileInputStream;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.TeeInputStream;
@@ -58,9 +56,11 @@ import org.apache.james.mailbox.model.MessageMetaData;
 import org.apache.james.mailbox.model.MessageRange;
 import org.apache.james.mailbox.model.MessageResult.FetchGroup;
 import org.apache.james.mailbox.model.MessageResultIterator;
+import org.apache.james.mailbox.model.MessageToAppend;
 import org.apache.james.mailbox.model.SearchQuery;
 import org.apache.james.mailbox.model.SimpleMailboxACL;
 import org.apache.james.mailbox.model.UpdatedFlags;
+import org.apache.james.mailbox.store.MailboxCountersCache.MailboxCounters;
 import org.apache.james.mailbox.store.mail.MessageMapper;
 import org.apache.james.mailbox.store.mail.MessageMapper.FetchType;
 import org.apache.james.mailbox.store.mail.MessageMapperFactory;
@@ -69,8 +69,11 @@ import org.apache.james.mailbox.store.mail.model.Message;
 import org.apache.james.mailbox.store.mail.model.impl.PropertyBuilder;
 import org.apache.james.mailbox.store.mail.model.impl.SimpleMessage;
 import org.apache.james.mailbox.store.search.MessageSearchIndex;
+import org.apache.james.mailbox.store.streaming.AppendBuffer;
+import org.apache.james.mailbox.store.streaming.AppendBufferFactory;
 import org.apache.james.mailbox.store.streaming.BodyOffsetInputStream;
 import org.apache.james.mailbox.store.streaming.CountingInputStream;
+import org.apache.james.mailbox.store.streaming.DefaultAppendBufferFactory;
 import org.apache.james.mailbox.store.transaction.Mapper;
 import org.apache.james.mime4j.MimeException;
 import org.apache.james.mime4j.message.DefaultBodyDescriptorBuilder;
@@ -126,6 +129,10 @@ public class StoreMessageManager<Id> implements org.apache.james.mailbox.Message
 
     private int fetchBatchSize;
 
+    private MailboxCountersCache<Id> countersCache;
+
+    private AppendBufferFactory appendBufferFactory = new DefaultAppendBufferFactory();
+
     public StoreMessageManager(final MessageMapperFactory<Id> mapperFactory, final MessageSearchIndex<Id> index, final MailboxEventDispatcher<Id> dispatcher, final MailboxPathLocker locker, final Mailbox<Id> mailbox, final MailboxACLResolver aclResolver,
             final GroupMembershipResolver groupMembershipResolver) throws MailboxException {
         this.mailbox = mailbox;
@@ -141,6 +148,27 @@ public class StoreMessageManager<Id> implements org.apache.james.mailbox.Message
         this.fetchBatchSize = fetchBatchSize;
     }
 
+    /**
+     * Set the {@link MailboxCountersCache} to use for the counters of the
+     * {@link MetaData}. If none is set they are calculated by the
+     * {@link MessageMapper} on every call
+     * 
+     * @param countersCache
+     */
+    public void setMailboxCountersCache(MailboxCountersCache<Id> countersCache) {
+        this.countersCache = countersCache;
+    }
+
+    /**
+     * Set the {@link AppendBufferFactory} to use for buffering appended
+     * messages
+     * 
+     * @param appendBufferFactory
+     */
+    public void setAppendBufferFactory(AppendBufferFactory appendBufferFactory) {
+        this.appendBufferFactory = appendBufferFactory;
+    }
+
     /**
      * Return the {@link MailboxPathLocker}
      * 
@@ -243,26 +271,113 @@ public class StoreMessageManager<Id> implements org.apache.james.mailbox.Message
      */
     public long appendMessage(final InputStream msgIn, Date internalDate, final MailboxSession mailboxSession, final boolean isRecent, final Flags flagsToBeSet) throws MailboxException {
 
-        File file = null;
-        TeeInputStream tmpMsgIn = null;
-        BodyOffsetInputStream bIn = null;
-        FileOutputStream out = null;
-        SharedFileInputStream contentIn = null;
+        if (!isWriteable(mailboxSession)) {
+            throw new ReadOnlyException(new StoreMailboxPath<Id>(getMailboxEntity()), mailboxSession.getPathDelimiter());
+        }
+
+        final PendingMessage pending = parseMessage(msgIn, internalDate, mailboxSession, isRecent, flagsToBeSet);
+        try {
+            return locker.executeWithLock(mailboxSession, new StoreMailboxPath<Id>(getMailboxEntity()), new MailboxPathLocker.LockAwareExecution<Long>() {
+
+                @Override
+                public Long execute() throws MailboxException {
+                    MessageMetaData data = appendMessageToStore(pending.message, mailboxSession);
+
+                    SortedMap<Long, MessageMetaData> uids = new TreeMap<Long, MessageMetaData>();
+                    uids.put(data.getUid(), data);
+                    dispatcher.added(mailboxSession, uids, getMailboxEntity());
+                    return data.getUid();
+                }
+            }, true);
+        } finally {
+            pending.release();
+        }
+
+    }
+
+    /**
+     * @see org.apache.james.mailbox.MessageManager#appendMessages(java.util.Iterator,
+     *      org.apache.james.mailbox.MailboxSession)
+     */
+    public List<Long> appendMessages(Iterator<MessageToAppend> messages, final MailboxSession mailboxSession) throws MailboxException {
 
         if (!isWriteable(mailboxSession)) {
             throw new ReadOnlyException(new StoreMailboxPath<Id>(getMailboxEntity()), mailboxSession.getPathDelimiter());
         }
 
+        final List<PendingMessage> pendings = new ArrayList<PendingMessage>();
         try {
-            // Create a temporary file and copy the message to it. We will work
-            // with the file as
-            // source for the InputStream
-            file = File.createTempFile("imap", ".msg");
-            out = new FileOutputStream(file);
+            while (messages.hasNext()) {
+                MessageToAppend m = messages.next();
+                pendings.add(parseMessage(m.getContent(), m.getInternalDate(), mailboxSession, m.isRecent(), m.getFlags()));
+            }
+            if (pendings.isEmpty()) {
+                return new ArrayList<Long>();
+            }
+            final List<Message<Id>> toAppend = new ArrayList<Message<Id>>(pendings.size());
+            for (PendingMessage pending : pendings) {
+                toAppend.add(pending.message);
+            }
+
+            return locker.executeWithLock(mailboxSession, new StoreMailboxPath<Id>(getMailboxEntity()), new MailboxPathLocker.LockAwareExecution<List<Long>>() {
+
+                @Override
+                public List<Long> execute() throws MailboxException {
+                    List<MessageMetaData> data = appendMessagesToStore(toAppend, mailboxSession);
+
+                    List<Long> appended = new ArrayList<Long>(data.size());
+                    SortedMap<Long, MessageMetaData> uids = new TreeMap<Long, MessageMetaData>();
+                    for (MessageMetaData d : data) {
+                        appended.add(d.getUid());
+                        uids.put(d.getUid(), d);
+                    }
+                    dispatcher.added(mailboxSession, uids, getMailboxEntity());
+                    return appended;
+                }
+            }, true);
+        } finally {
+            for (PendingMessage pending : pendings) {
+                pending.release();
+            }
+        }
+    }
 
-            tmpMsgIn = new TeeInputStream(msgIn, out);
+    /**
+     * Parse the given message and buffer its content if needed. The returned
+     * {@link PendingMessage} must be released after the message was stored.
+     * 
+     * @param msgIn
+     * @param internalDate
+     * @param mailboxSession
+     * @param isRecent
+     * @param flagsToBeSet
+     * @return pending
+     * @throws MailboxException
+     */
+    private PendingMessage parseMessage(final InputStream msgIn, Date internalDate, final MailboxSession mailboxSession, final boolean isRecent, final Flags flagsToBeSet) throws MailboxException {
+
+        AppendBuffer buffer = null;
+        InputStream in = null;
+        BodyOffsetInputStream bIn = null;
+        SharedInputStream contentIn = null;
+        boolean success = false;
 
-            bIn = new BodyOffsetInputStream(tmpMsgIn);
+        try {
+            if (msgIn instanceof SharedInputStream && ((SharedInputStream) msgIn).getPosition() == 0) {
+                // The content can be read again as often as needed, so there
+                // is no need to buffer it
+                contentIn = (SharedInputStream) msgIn;
+                in = contentIn.newStream(0, -1);
+            } else {
+                // Copy the message to the buffer while parsing it. We will
+                // work with the buffer as source for the InputStream
+                buffer = createAppendBuffer(mailboxSession);
+                in = new TeeInputStream(msgIn, buffer.getOutputStream());
+            }
+
+            // Read in chunks, so the buffer is not filled byte by byte while
+            // the headers are parsed
+            bIn = new BodyOffsetInputStream(new BufferedInputStream(in));
             // Disable line length... This should be handled by the smtp server
             // component and not the parser itself
             // https://issues.apache.org/jira/browse/IMAP-122
@@ -353,31 +468,27 @@ public class StoreMessageManager<Id> implements org.apache.james.mailbox.Message
                 internalDate = new Date();
             }
             byte[] discard = new byte[4096];
-            while (tmpMsgIn.read(discard) != -1) {
+            while (bIn.read(discard) != -1) {
                 // consume the rest of the stream so everything get copied to
-                // the file now
+                // the buffer now
                 // via the TeeInputStream
             }
             int bodyStartOctet = (int) bIn.getBodyStartOffset();
             if (bodyStartOctet == -1) {
                 bodyStartOctet = 0;
             }
-            contentIn = new SharedFileInputStream(file);
-            final int size = (int) file.length();
+            final int size;
+            if (buffer != null) {
+                buffer.getOutputStream().close();
+                contentIn = buffer.getContent();
+                size = (int) buffer.getSize();
+            } else {
+                size = (int) bIn.getReadBytes();
+            }
 
             final Message<Id> message = createMessage(internalDate, size, bodyStartOctet, contentIn, flags, propertyBuilder);
-            return locker.executeWithLock(mailboxSession, new StoreMailboxPath<Id>(getMailboxEntity()), new MailboxPathLocker.LockAwareExecution<Long>() {
-
-                @Override
-                public Long execute() throws MailboxException {
-                    MessageMetaData data = appendMessageToStore(message, mailboxSession);
-
-                    SortedMap<Long, MessageMetaData> uids = new TreeMap<Long, MessageMetaData>();
-                    uids.put(data.getUid(), data);
-                    dispatcher.added(mailboxSession, uids, getMailboxEntity());
-                    return data.getUid();
-                }
-            }, true);
+            success = true;
+            return new PendingMessage(message, buffer, contentIn);
 
         } catch (IOException e) {
             throw new MailboxException("Unable to parse message", e);
@@ -385,20 +496,54 @@ public class StoreMessageManager<Id> implements org.apache.james.mailbox.Message
             throw new MailboxException("Unable to parse message", e);
         } finally {
             IOUtils.closeQuietly(bIn);
-            IOUtils.closeQuietly(tmpMsgIn);
-            IOUtils.closeQuietly(out);
-            IOUtils.closeQuietly(contentIn);
-
-            // delete the temporary file if one was specified
-            if (file != null) {
-                if (!file.delete()) {
-                    // Don't throw an IOException. The message could be appended
-                    // and the temporary file
-                    // will be deleted hopefully some day
+            IOUtils.closeQuietly(in);
+            if (!success) {
+                new PendingMessage(null, buffer, contentIn).release();
+            }
+        }
+
+    }
+
+    /**
+     * A parsed {@link Message} which is not stored yet, together with the
+     * resources which hold its content.
+     */
+    private final class PendingMessage {
+        private final Message<Id> message;
+        private final AppendBuffer buffer;
+        private final SharedInputStream content;
+
+        private PendingMessage(Message<Id> message, AppendBuffer buffer, SharedInputStream content) {
+            this.message = message;
+            this.buffer = buffer;
+            this.content = content;
+        }
+
+        private void release() {
+            // the content is only owned by us if it was read from the buffer.
+            // A SharedInputStream which was passed in belongs to the caller
+            if (buffer != null) {
+                if (content instanceof InputStream) {
+                    IOUtils.closeQuietly((InputStream) content);
                 }
+
+                // release the buffer and so delete the temporary file if one was used
+                buffer.dispose();
             }
         }
+    }
 
+    /**
+     * Create the {@link AppendBuffer} which is used to buffer the content of
+     * a message while appending it. By default the configured
+     * {@link AppendBufferFactory} is used.
+     * 
+     * @param session
+     * @return buffer
+     * @throws IOException
+     */
+    protected AppendBuffer createAppendBuffer(MailboxSession session) throws IOException {
+        return appendBufferFactory.createAppendBuffer();
     }
 
     /**
@@ -434,22 +579,30 @@ public class StoreMessageManager<Id> implements org.apache.james.mailbox.Message
         final List<Long> recent;
         final Flags permanentFlags = getPermanentFlags(mailboxSession);
         final long uidValidity = getMailboxEntity().getUidValidity();
-        final long uidNext = mapperFactory.getMessageMapper(mailboxSession).getLastUid(mailbox) + 1;
-        final long highestModSeq = mapperFactory.getMessageMapper(mailboxSession).getHighestModSeq(mailbox);
+        final MailboxCounters counters = getCachedCounters(mailboxSession);
+        final long uidNext;
+        final long highestModSeq;
+        if (counters != null) {
+            uidNext = counters.getUidNext();
+            highestModSeq = counters.getHighestModSeq();
+        } else {
+            uidNext = mapperFactory.getMessageMapper(mailboxSession).getLastUid(mailbox) + 1;
+            highestModSeq = mapperFactory.getMessageMapper(mailboxSession).getHighestModSeq(mailbox);
+        }
         final long messageCount;
         final long unseenCount;
         final Long firstUnseen;
         switch (fetchGroup) {
         case UNSEEN_COUNT:
-            unseenCount = countUnseenMessagesInMailbox(mailboxSession);
-            messageCount = getMessageCount(mailboxSession);
+            unseenCount = counters != null ? counters.getUnseenCount() : countUnseenMessagesInMailbox(mailboxSession);
+            messageCount = counters != null ? counters.getMessageCount() : getMessageCount(mailboxSession);
             firstUnseen = null;
             recent = recent(resetRecent, mailboxSession);
 
             break;
         case FIRST_UNSEEN:
-            firstUnseen = findFirstUnseenMessageUid(mailboxSession);
-            messageCount = getMessageCount(mailboxSession);
+            firstUnseen = counters != null ? counters.getFirstUnseen() : findFirstUnseenMessageUid(mailboxSession);
+            messageCount = counters != null ? counters.getMessageCount() : getMessageCount(mailboxSession);
             unseenCount = 0;
             recent = recent(resetRecent, mailboxSession);
 
@@ -457,7 +610,7 @@ public class StoreMessageManager<Id> implements org.apache.james.mailbox.Message
         case NO_UNSEEN:
             firstUnseen = null;
             unseenCount = 0;
-            messageCount = getMessageCount(mailboxSession);
+            messageCount = counters != null ? counters.getMessageCount() : getMessageCount(mailboxSession);
             recent = recent(resetRecent, mailboxSession);
 
             break;
@@ -563,7 +716,8 @@ public class StoreMessageManager<Id> implements org.apache.james.mailbox.Message
             throw new ReadOnlyException(new StoreMailboxPath<Id>(toMailbox.getMailboxEntity()), session.getPathDelimiter());
         }
 
-        return locker.executeWithLock(session, new StoreMailboxPath<Id>(toMailbox.getMailboxEntity()), new MailboxPathLocker.LockAwareExecution<List<MessageRange>>() {
+        // lock both mailboxes in the order given by the locker, so concurrent copies can not deadlock
+        return locker.executeWithLocks(session, new StoreMailboxPath<Id>(getMailboxEntity()), new StoreMailboxPath<Id>(toMailbox.getMailboxEntity()), new MailboxPathLocker.LockAwareExecution<List<MessageRange>>() {
 
             @Override
             public List<MessageRange> execute() throws MailboxException {
@@ -585,10 +739,25 @@ public class StoreMessageManager<Id> implements org.apache.james.mailbox.Message
         });
     }
 
+    protected List<MessageMetaData> appendMessagesToStore(final List<Message<Id>> messages, MailboxSession session) throws MailboxException {
+        final MessageMapper<Id> mapper = mapperFactory.getMessageMapper(session);
+        return mapper.execute(new Mapper.Transaction<List<MessageMetaData>>() {
+
+            public List<MessageMetaData> run() throws MailboxException {
+                return mapper.addAll(getMailboxEntity(), messages);
+            }
+
+        });
+    }
+
     /**
      * @see org.apache.james.mailbox.MessageManager#getMessageCount(org.apache.james.mailbox.MailboxSession)
      */
     public long getMessageCount(MailboxSession mailboxSession) throws MailboxException {
+        MailboxCounters counters = getCachedCounters(mailboxSession);
+        if (counters != null) {
+            return counters.getMessageCount();
+        }
         return mapperFactory.getMessageMapper(mailboxSession).countMessagesInMailbox(getMailboxEntity());
     }
 
@@ -602,6 +771,25 @@ public class StoreMessageManager<Id> implements org.apache.james.mailbox.Message
         return new StoreMessageResultIterator<Id>(messageMapper, mailbox, set, fetchBatchSize, fetchGroup);
     }
 
+    /**
+     * @see org.apache.james.mailbox.MessageManager#listUids(org.apache.james.mailbox.MailboxSession)
+     */
+    public Iterator<Long> listUids(MailboxSession mailboxSession) throws MailboxException {
+        return mapperFactory.getMessageMapper(mailboxSession).listAllMessageUids(getMailboxEntity());
+    }
+
+    /**
+     * @see org.apache.james.mailbox.MessageManager#getApplicableFlags(org.apache.james.mailbox.MailboxSession)
+     */
+    public Flags getApplicableFlags(MailboxSession mailboxSession) throws MailboxException {
+        final Flags flags = new Flags(MINIMAL_PERMANET_FLAGS);
+        flags.add(mapperFactory.getMessageMapper(mailboxSession).getApplicableFlag(getMailboxEntity()));
+
+        // \RECENT is not a applicable flag in imap so remove it from the list
+        flags.remove(Flags.Flag.RECENT);
+        return flags;
+    }
+
     /**
      * Return a List which holds all uids of recent messages and optional reset
      * the recent flag on the messages for the uids
@@ -619,7 +807,7 @@ public class StoreMessageManager<Id> implements org.apache.james.mailbox.Message
         }
         final MessageMapper<Id> messageMapper = mapperFactory.getMessageMapper(mailboxSession);
 
-        return messageMapper.execute(new Mapper.Transaction<List<Long>>() {
+        final List<Long> recent = messageMapper.execute(new Mapper.Transaction<List<Long>>() {
 
             public List<Long> run() throws MailboxException {
                 final List<Long> members = messageMapper.findRecentMessageUidsInMailbox(getMailboxEntity());
@@ -638,6 +826,12 @@ public class StoreMessageManager<Id> implements org.apache.james.mailbox.Message
 
         });
 
+        if (reset && countersCache != null && !recent.isEmpty()) {
+            // no event is fired for the reset, but the mod-sequence was
+            // changed
+            countersCache.invalidate(getMailboxEntity());
+        }
+        return recent;
     }
 
     protected Map<Long, MessageMetaData> deleteMarkedInMailbox(final MessageRange range, final MailboxSession session) throws MailboxException {
@@ -698,6 +892,21 @@ public class StoreMessageManager<Id> implements org.apache.james.mailbox.Message
         return copiedMessages;
     }
 
+    /**
+     * Return the {@link MailboxCounters} from the {@link MailboxCountersCache}
+     * or null if no cache is used
+     * 
+     * @param session
+     * @return counters
+     * @throws MailboxException
+     */
+    private MailboxCounters getCachedCounters(MailboxSession session) throws MailboxException {
+        if (countersCache == null) {
+            return null;
+        }
+        return countersCache.getCounters(getMailboxEntity(), mapperFactory.getMessageMapper(session));
+    }
+
     /**
      * Return the count of unseen messages
      * 
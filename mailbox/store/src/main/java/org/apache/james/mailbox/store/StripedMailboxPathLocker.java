@@ -0,0 +1,259 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.store;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.james.mailbox.MailboxPathLocker;
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.model.MailboxPath;
+
+/**
+ * {@link MailboxPathLocker} implementation which uses a fixed count of
+ * {@link ReentrantReadWriteLock}'s. The lock of a {@link MailboxPath} is
+ * selected by its hash, so different paths may share the same lock. In
+ * contrast to {@link JVMMailboxPathLocker} the memory usage does not grow
+ * with the count of used mailboxes. As with {@link JVMMailboxPathLocker} its
+ * only usable in a single JVM.
+ * 
+ * Because paths can share a lock, a thread which holds a read lock must not
+ * try to get a write lock for another path. This is detected and results in a
+ * {@link MailboxException} instead of a deadlock.
+ * 
+ * If enabled the time threads need to wait for a lock gets recorded and is
+ * exposed via {@link StripedMailboxPathLockerMBean}.
+ */
+public class StripedMailboxPathLocker extends AbstractMailboxPathLocker implements StripedMailboxPathLockerMBean {
+
+    public final static int DEFAULT_STRIPES = 1024;
+
+    private final static long[] HISTOGRAM_BOUNDS = { 1, 10, 100, 1000 };
+
+    private final ReentrantReadWriteLock[] locks;
+    private final int mask;
+    private final boolean fair;
+    private volatile boolean recordWaitTimes = false;
+
+    private final AtomicLong lockCount = new AtomicLong();
+    private final AtomicLong contendedCount = new AtomicLong();
+    private final AtomicLong totalWaitTime = new AtomicLong();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BOUNDS.length + 1);
+
+    public StripedMailboxPathLocker() {
+        this(DEFAULT_STRIPES, false);
+    }
+
+    /**
+     * @param stripes
+     *            the count of locks, which is rounded up to the next power of
+     *            two
+     * @param fair
+     *            true if the locks should use a fair ordering policy
+     */
+    public StripedMailboxPathLocker(int stripes, boolean fair) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("stripes must be > 0");
+        }
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.locks = new ReentrantReadWriteLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantReadWriteLock(fair);
+        }
+        this.mask = size - 1;
+        this.fair = fair;
+    }
+
+    /**
+     * Set if the time threads need to wait for a lock should get recorded.
+     * This is disabled by default
+     * 
+     * @param recordWaitTimes
+     */
+    public void setRecordWaitTimes(boolean recordWaitTimes) {
+        this.recordWaitTimes = recordWaitTimes;
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.AbstractMailboxPathLocker#lock(org.apache.james.mailbox.MailboxSession, org.apache.james.mailbox.model.MailboxPath, boolean)
+     */
+    protected void lock(MailboxSession session, MailboxPath path, boolean writeLock) throws MailboxException {
+        ReentrantReadWriteLock lock = locks[indexFor(path)];
+        if (writeLock && lock.getReadHoldCount() > 0 && !lock.isWriteLockedByCurrentThread()) {
+            throw new MailboxException("Unable to get write lock for " + path + " while holding a read lock which uses the same stripe");
+        }
+        Lock l = getLock(lock, writeLock);
+        if (recordWaitTimes) {
+            lockAndRecord(l);
+        } else {
+            l.lock();
+        }
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.AbstractMailboxPathLocker#unlock(org.apache.james.mailbox.MailboxSession, org.apache.james.mailbox.model.MailboxPath, boolean)
+     */
+    protected void unlock(MailboxSession session, MailboxPath path, boolean writeLock) throws MailboxException {
+        getLock(locks[indexFor(path)], writeLock).unlock();
+    }
+
+    /**
+     * Order the paths by the index of their lock, so the locks are always
+     * acquired in the same order
+     * 
+     * @see org.apache.james.mailbox.store.AbstractMailboxPathLocker#compare(org.apache.james.mailbox.model.MailboxPath, org.apache.james.mailbox.model.MailboxPath)
+     */
+    @Override
+    protected int compare(MailboxPath first, MailboxPath second) {
+        int i1 = indexFor(first);
+        int i2 = indexFor(second);
+        return i1 < i2 ? -1 : (i1 == i2 ? 0 : 1);
+    }
+
+    private int indexFor(MailboxPath path) {
+        // spread the bits of the hash, as only the lower ones are used
+        int h = path.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return h & mask;
+    }
+
+    private Lock getLock(ReentrantReadWriteLock lock, boolean writeLock) {
+        if (writeLock) {
+            return lock.writeLock();
+        } else {
+            return lock.readLock();
+        }
+    }
+
+    private void lockAndRecord(Lock l) {
+        lockCount.incrementAndGet();
+        try {
+            // use a timeout of 0 instead of tryLock() as it respects the
+            // fairness of the lock
+            if (l.tryLock(0, TimeUnit.NANOSECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long start = System.nanoTime();
+        l.lock();
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        contendedCount.incrementAndGet();
+        totalWaitTime.addAndGet(waited);
+        long max = maxWaitTime.get();
+        while (waited > max && !maxWaitTime.compareAndSet(max, waited)) {
+            max = maxWaitTime.get();
+        }
+        int bucket = 0;
+        while (bucket < HISTOGRAM_BOUNDS.length && waited >= HISTOGRAM_BOUNDS[bucket]) {
+            bucket++;
+        }
+        histogram.incrementAndGet(bucket);
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.StripedMailboxPathLockerMBean#getStripes()
+     */
+    public int getStripes() {
+        return locks.length;
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.StripedMailboxPathLockerMBean#isFair()
+     */
+    public boolean isFair() {
+        return fair;
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.StripedMailboxPathLockerMBean#isRecordWaitTimes()
+     */
+    public boolean isRecordWaitTimes() {
+        return recordWaitTimes;
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.StripedMailboxPathLockerMBean#getLockCount()
+     */
+    public long getLockCount() {
+        return lockCount.get();
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.StripedMailboxPathLockerMBean#getContendedCount()
+     */
+    public long getContendedCount() {
+        return contendedCount.get();
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.StripedMailboxPathLockerMBean#getAverageWaitTime()
+     */
+    public double getAverageWaitTime() {
+        long count = contendedCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        return (double) totalWaitTime.get() / count;
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.StripedMailboxPathLockerMBean#getMaxWaitTime()
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime.get();
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.StripedMailboxPathLockerMBean#getWaitTimeHistogram()
+     */
+    public String[] getWaitTimeHistogram() {
+        String[] buckets = new String[HISTOGRAM_BOUNDS.length + 1];
+        for (int i = 0; i < HISTOGRAM_BOUNDS.length; i++) {
+            buckets[i] = "< " + HISTOGRAM_BOUNDS[i] + " ms: " + histogram.get(i);
+        }
+        buckets[HISTOGRAM_BOUNDS.length] = ">= " + HISTOGRAM_BOUNDS[HISTOGRAM_BOUNDS.length - 1] + " ms: " + histogram.get(HISTOGRAM_BOUNDS.length);
+        return buckets;
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.StripedMailboxPathLockerMBean#resetStatistics()
+     */
+    public void resetStatistics() {
+        lockCount.set(0);
+        contendedCount.set(0);
+        totalWaitTime.set(0);
+        maxWaitTime.set(0);
+        for (int i = 0; i < histogram.length(); i++) {
+            histogram.set(i, 0);
+        }
+    }
+}
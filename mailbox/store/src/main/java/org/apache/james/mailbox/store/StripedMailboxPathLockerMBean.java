@@ -0,0 +1,90 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.store;
+
+/**
+ * JMX MBean for the statistics of a {@link StripedMailboxPathLocker}
+ */
+public interface StripedMailboxPathLockerMBean {
+
+    /**
+     * Return the count of lock stripes
+     * 
+     * @return stripes
+     */
+    int getStripes();
+
+    /**
+     * Return true if the locks use a fair ordering policy
+     * 
+     * @return fair
+     */
+    boolean isFair();
+
+    /**
+     * Return true if the wait times get recorded
+     * 
+     * @return recordWaitTimes
+     */
+    boolean isRecordWaitTimes();
+
+    /**
+     * Return the count of all acquired locks since the last reset
+     * 
+     * @return lockCount
+     */
+    long getLockCount();
+
+    /**
+     * Return the count of locks for which the thread needed to wait since
+     * the last reset
+     * 
+     * @return contendedCount
+     */
+    long getContendedCount();
+
+    /**
+     * Return the average time a thread needed to wait for a contended lock
+     * (in ms)
+     * 
+     * @return averageWaitTime
+     */
+    double getAverageWaitTime();
+
+    /**
+     * Return the maximal time a thread needed to wait for a lock (in ms)
+     * 
+     * @return maxWaitTime
+     */
+    long getMaxWaitTime();
+
+    /**
+     * Return the histogram of the wait times for contended locks, one entry
+     * per bucket
+     * 
+     * @return histogram
+     */
+    String[] getWaitTimeHistogram();
+
+    /**
+     * Reset all statistics
+     */
+    void resetStatistics();
+}
@@ -51,6 +51,17 @@ public abstract class AbstractLockingUidProvider<Id> implements UidProvider<Id>{
             }
         });
     }
+
+    @Override
+    public long nextUids(final MailboxSession session, final Mailbox<Id> mailbox, final int count) throws MailboxException {
+        return locker.executeWithLock(session, new StoreMailboxPath<Id>(mailbox), new LockAwareExecution<Long>() {
+
+            @Override
+            public Long execute() throws MailboxException {
+                return lockedNextUids(session, mailbox, count);
+            }
+        });
+    }
     
     /**
      * Generate the next uid to use while the {@link Mailbox} is locked
@@ -62,4 +73,24 @@ public abstract class AbstractLockingUidProvider<Id> implements UidProvider<Id>{
      */
     protected abstract long lockedNextUid(MailboxSession session, Mailbox<Id> mailbox) throws MailboxException;
 
+    /**
+     * Reserve the given count of uids while the {@link Mailbox} is locked and return the first of them.
+     * 
+     * This implementation just calls {@link #lockedNextUid(MailboxSession, Mailbox)} for every uid. Subclasses should
+     * override it if the store allows to reserve them at once
+     * 
+     * @param session
+     * @param mailbox
+     * @param count
+     * @return firstUid
+     * @throws MailboxException
+     */
+    protected long lockedNextUids(MailboxSession session, Mailbox<Id> mailbox, int count) throws MailboxException {
+        long first = lockedNextUid(session, mailbox);
+        for (int i = 1; i < count; i++) {
+            lockedNextUid(session, mailbox);
+        }
+        return first;
+    }
+
 }
@@ -68,6 +68,35 @@ public abstract class AbstractMessageMapper<Id> extends TransactionalMapper impl
     
 
 
+    /**
+     * Fallback which walks all the messages of the mailbox. Implementations should override this if they are able
+     * to only load the uids.
+     * 
+     * @see org.apache.james.mailbox.store.mail.MessageMapper#listAllMessageUids(org.apache.james.mailbox.store.mail.model.Mailbox)
+     */
+    public Iterator<Long> listAllMessageUids(Mailbox<Id> mailbox) throws MailboxException {
+        final List<Long> uids = new ArrayList<Long>();
+        Iterator<Message<Id>> messages = findInMailbox(mailbox, MessageRange.all(), FetchType.Metadata, -1);
+        while (messages.hasNext()) {
+            uids.add(messages.next().getUid());
+        }
+        return uids.iterator();
+    }
+
+    /**
+     * Fallback which walks all the messages of the mailbox. Implementations should override this if they are able
+     * to only load the flags.
+     * 
+     * @see org.apache.james.mailbox.store.mail.MessageMapper#getApplicableFlag(org.apache.james.mailbox.store.mail.model.Mailbox)
+     */
+    public Flags getApplicableFlag(Mailbox<Id> mailbox) throws MailboxException {
+        final Flags flags = new Flags();
+        Iterator<Message<Id>> messages = findInMailbox(mailbox, MessageRange.all(), FetchType.Metadata, -1);
+        while (messages.hasNext()) {
+            flags.add(messages.next().createFlags());
+        }
+        return flags;
+    }
     
     /**
      * @see org.apache.james.mailbox.store.mail.MessageMapper#updateFlags(org.apache.james.mailbox.store.mail.model.Mailbox, javax.mail.Flags, boolean, boolean, org.apache.james.mailbox.model.MessageRange)
@@ -131,6 +160,31 @@ public abstract class AbstractMessageMapper<Id> extends TransactionalMapper impl
         
     }
 
+    /**
+     * @see org.apache.james.mailbox.store.mail.MessageMapper#addAll(org.apache.james.mailbox.store.mail.model.Mailbox, java.util.List)
+     */
+    public List<MessageMetaData> addAll(final Mailbox<Id> mailbox, List<Message<Id>> messages) throws MailboxException {
+        List<MessageMetaData> data = new ArrayList<MessageMetaData>(messages.size());
+        if (messages.isEmpty()) {
+            return data;
+        }
+        long uid = uidProvider.nextUids(mailboxSession, mailbox, messages.size());
+
+        // all messages are added by the same operation, so they can share the mod-sequence
+        long modSeq = -1;
+        if (modSeqProvider != null) {
+            modSeq = modSeqProvider.nextModSeq(mailboxSession, mailbox);
+        }
+        for (Message<Id> message: messages) {
+            message.setUid(uid++);
+            if (modSeqProvider != null) {
+                message.setModSeq(modSeq);
+            }
+            data.add(save(mailbox, message));
+        }
+        return data;
+    }
+
     
     /**
      * @see org.apache.james.mailbox.store.mail.MessageMapper#copy(org.apache.james.mailbox.store.mail.model.Mailbox, org.apache.james.mailbox.store.mail.model.Message)
@@ -115,6 +115,26 @@ public interface MessageMapper<Id> extends Mapper {
      */
     List<Long> findRecentMessageUidsInMailbox(Mailbox<Id> mailbox) throws MailboxException;
 
+    /**
+     * Return a {@link Iterator} which holds the uids of all messages in the {@link Mailbox}.
+     * The uids must be ordered ascending. Implementations should only load the uids and not
+     * materialize the whole {@link Message}.
+     * 
+     * @param mailbox
+     * @return uids
+     * @throws MailboxException
+     */
+    Iterator<Long> listAllMessageUids(Mailbox<Id> mailbox) throws MailboxException;
+
+    /**
+     * Return the {@link Flags} which are used by at least one message in the {@link Mailbox}.
+     * 
+     * @param mailbox
+     * @return flags
+     * @throws MailboxException
+     */
+    Flags getApplicableFlag(Mailbox<Id> mailbox) throws MailboxException;
+
 
     /**
      * Add the given {@link Message} to the underlying storage. Be aware that implementation may choose to replace the uid of the given message while storing.
@@ -127,6 +147,20 @@ public interface MessageMapper<Id> extends Mapper {
      * @throws StorageException
      */
     MessageMetaData add(Mailbox<Id> mailbox, Message<Id> message) throws MailboxException;
+
+    /**
+     * Add all the given {@link Message}'s to the underlying storage. The uids are reserved at once, so the messages get consecutive
+     * uids in the order of the given {@link List}. The same as for {@link #add(Mailbox, Message)} applies, so you should only depend
+     * on the returned uids.
+     * 
+     * Implementations which are not transactional may have stored some of the messages when an exception is thrown.
+     * 
+     * @param mailbox
+     * @param messages
+     * @return metaData of the added messages, in the same order as the given messages
+     * @throws MailboxException
+     */
+    List<MessageMetaData> addAll(Mailbox<Id> mailbox, List<Message<Id>> messages) throws MailboxException;
     
     /**
      * Update flags for the given {@link MessageRange}. Only the flags may be modified after a message was saved to a mailbox.
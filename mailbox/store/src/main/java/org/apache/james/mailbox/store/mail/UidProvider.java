@@ -42,6 +42,21 @@ public interface UidProvider<Id> {
      * @throws MailboxException
      */
     public long nextUid(MailboxSession session, Mailbox<Id> mailbox) throws MailboxException;
+
+    /**
+     * Reserve the given count of consecutive uids for the {@link Mailbox} and return the first of them. So the uids from the
+     * returned one up to returned + count - 1 can be used while appending Messages.
+     * 
+     * The same rules as for {@link #nextUid(MailboxSession, Mailbox)} apply, which means calling this method with a count of 1
+     * needs to be the same as calling {@link #nextUid(MailboxSession, Mailbox)}
+     * 
+     * @param session
+     * @param mailbox
+     * @param count
+     * @return firstUid
+     * @throws MailboxException
+     */
+    public long nextUids(MailboxSession session, Mailbox<Id> mailbox, int count) throws MailboxException;
     
     /**
      * Return the last uid which were used for storing a Message in the {@link Mailbox}
@@ -47,6 +47,7 @@ public class SimpleMessage<Id> extends AbstractMessage<Id> {
     private boolean flagged;
     private boolean recent;
     private boolean seen;
+    private String[] userFlags;
     private Date internalDate;
     private final String subType;
     private List<Property> properties;
@@ -142,6 +143,15 @@ public class SimpleMessage<Id> extends AbstractMessage<Id> {
         flagged = flags.contains(Flags.Flag.FLAGGED);
         recent = flags.contains(Flags.Flag.RECENT);
         seen = flags.contains(Flags.Flag.SEEN);
+        userFlags = flags.getUserFlags();
+    }
+
+    /**
+     * This implementation supports user flags
+     */
+    @Override
+    protected String[] createUserFlags() {
+        return userFlags.clone();
     }
 
     public InputStream getBodyContent() throws IOException {
@@ -77,11 +77,12 @@ public abstract class ListeningMessageSearchIndex<Id> implements MessageSearchIn
                 if (event instanceof AddedImpl) {
                     AddedImpl added = (AddedImpl) event;
                     final Mailbox<Id> mailbox = added.getMailbox();
-                    Iterator<Long> uids = added.getUids().iterator();
+                    // fetch the messages of a batch append per range and not one by one
+                    Iterator<MessageRange> ranges = MessageRange.toRanges(added.getUids()).iterator();
 
-                    while (uids.hasNext()) {
-                        long next = uids.next();
-                        Iterator<Message<Id>> messages = factory.getMessageMapper(session).findInMailbox(mailbox, MessageRange.one(next), FetchType.Full, -1);
+                    while (ranges.hasNext()) {
+                        MessageRange range = ranges.next();
+                        Iterator<Message<Id>> messages = factory.getMessageMapper(session).findInMailbox(mailbox, range, FetchType.Full, -1);
                         while(messages.hasNext()) {
                             Message<Id> message = messages.next();
                             try {
@@ -107,17 +108,7 @@ public abstract class ListeningMessageSearchIndex<Id> implements MessageSearchIn
                     }
                 } else if (event instanceof FlagsUpdatedImpl) {
                     FlagsUpdatedImpl flagsUpdated = (FlagsUpdatedImpl) event;
-                    final Mailbox<Id> mailbox = flagsUpdated.getMailbox();
-
-                    Iterator<UpdatedFlags> flags = flagsUpdated.getUpdatedFlags().iterator();
-                    while(flags.hasNext()) {
-                        UpdatedFlags uFlags = flags.next();
-                        try {
-                            update(session, mailbox, MessageRange.one(uFlags.getUid()), uFlags.getNewFlags());
-                        } catch (MailboxException e) {
-                            session.getLog().debug("Unable to update flags for message " + uFlags.getUid() + " in index for mailbox " + mailbox, e);
-                        }
-                    }
+                    update(session, flagsUpdated.getMailbox(), flagsUpdated.getUpdatedFlags());
                 }
             } else if (event instanceof MailboxDeletionImpl) {
                 // delete all indexed messages for the mailbox
@@ -167,4 +158,26 @@ public abstract class ListeningMessageSearchIndex<Id> implements MessageSearchIn
      * @throws MailboxException
      */
     public abstract void update(MailboxSession session, Mailbox<Id> mailbox, MessageRange range, Flags flags) throws MailboxException;
+
+    /**
+     * Update the index with all {@link UpdatedFlags} of one flags update of the given {@link Mailbox}. This implementation
+     * calls {@link #update(MailboxSession, Mailbox, MessageRange, Flags)} for each message, subclasses may override it to
+     * process all messages at once.
+     * 
+     * @param session
+     * @param mailbox
+     * @param updatedFlags
+     * @throws MailboxException
+     */
+    public void update(MailboxSession session, Mailbox<Id> mailbox, List<UpdatedFlags> updatedFlags) throws MailboxException {
+        Iterator<UpdatedFlags> flags = updatedFlags.iterator();
+        while(flags.hasNext()) {
+            UpdatedFlags uFlags = flags.next();
+            try {
+                update(session, mailbox, MessageRange.one(uFlags.getUid()), uFlags.getNewFlags());
+            } catch (MailboxException e) {
+                session.getLog().debug("Unable to update flags for message " + uFlags.getUid() + " in index for mailbox " + mailbox, e);
+            }
+        }
+    }
 }
@@ -0,0 +1,69 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.store.streaming;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.mail.internet.SharedInputStream;
+
+/**
+ * Buffers the content of a message while it gets appended to a mailbox, so it
+ * can be read again by the mapper once the headers were parsed.
+ *
+ * The content is first written to the {@link OutputStream} returned by
+ * {@link #getOutputStream()}. Once this was closed the content can be read via
+ * {@link #getContent()} as often as needed until {@link #dispose()} is called.
+ *
+ * IMPORTANT: Implementations are not thread-safe!
+ */
+public interface AppendBuffer {
+
+    /**
+     * Return the {@link OutputStream} to which the content needs to get
+     * written
+     *
+     * @return out
+     * @throws IOException
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Return the buffered content. This must only be called after the
+     * {@link OutputStream} was closed
+     *
+     * @return content
+     * @throws IOException
+     */
+    SharedInputStream getContent() throws IOException;
+
+    /**
+     * Return the count of buffered bytes
+     *
+     * @return size
+     */
+    long getSize();
+
+    /**
+     * Release all resources which are hold by this buffer. Streams returned
+     * by {@link #getContent()} must not be used anymore after this was called
+     */
+    void dispose();
+}
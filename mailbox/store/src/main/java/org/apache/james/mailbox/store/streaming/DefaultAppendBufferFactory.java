@@ -0,0 +1,74 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.store.streaming;
+
+import java.io.File;
+
+/**
+ * {@link AppendBufferFactory} which creates {@link SpillingAppendBuffer}'s. By
+ * default messages up to 100KB are kept in memory and bigger ones are spilled
+ * to a file in the temporary directory.
+ */
+public class DefaultAppendBufferFactory implements AppendBufferFactory {
+
+    public final static int DEFAULT_MEMORY_THRESHOLD = 100 * 1024;
+
+    private int memoryThreshold = DEFAULT_MEMORY_THRESHOLD;
+    private File directory;
+    private boolean memoryMapping = false;
+
+    /**
+     * Set the max count of bytes which are kept in memory. Use 0 to always
+     * use a temporary file
+     *
+     * @param memoryThreshold
+     */
+    public void setMemoryThreshold(int memoryThreshold) {
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    /**
+     * Set the directory in which the temporary files get created. If none is
+     * set the default temporary directory is used
+     *
+     * @param directory
+     */
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Set if temporary files should get memory-mapped for reading. This is
+     * off by default, as mapping and unmapping a file for every message costs
+     * more then reading it for messages of usual size.
+     *
+     * @param memoryMapping
+     */
+    public void setMemoryMapping(boolean memoryMapping) {
+        this.memoryMapping = memoryMapping;
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.streaming.AppendBufferFactory#createAppendBuffer()
+     */
+    public AppendBuffer createAppendBuffer() {
+        return new SpillingAppendBuffer(memoryThreshold, directory, memoryMapping);
+    }
+}
@@ -0,0 +1,142 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.store.streaming;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import javax.mail.internet.SharedInputStream;
+
+/**
+ * {@link SharedInputStream} which reads from a {@link ByteBuffer}, for example
+ * a memory-mapped file. All streams created via
+ * {@link #newStream(long, long)} share the same underlying memory.
+ *
+ * IMPORTANT: This class is not thread-safe!
+ */
+public class SharedByteBufferInputStream extends InputStream implements SharedInputStream {
+
+    private final ByteBuffer buffer;
+    private int mark = 0;
+
+    /**
+     * Create a stream for the remaining bytes of the given {@link ByteBuffer}.
+     * The position of the given buffer is not modified.
+     *
+     * @param buffer
+     */
+    public SharedByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+    }
+
+    /**
+     * @see java.io.InputStream#read()
+     */
+    public int read() {
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    /**
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int r = Math.min(len, buffer.remaining());
+        buffer.get(b, off, r);
+        return r;
+    }
+
+    /**
+     * @see java.io.InputStream#skip(long)
+     */
+    @Override
+    public long skip(long n) {
+        if (n <= 0) {
+            return 0;
+        }
+        int s = (int) Math.min(n, buffer.remaining());
+        buffer.position(buffer.position() + s);
+        return s;
+    }
+
+    /**
+     * @see java.io.InputStream#available()
+     */
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    /**
+     * @see java.io.InputStream#markSupported()
+     */
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    /**
+     * @see java.io.InputStream#mark(int)
+     */
+    @Override
+    public void mark(int readlimit) {
+        mark = buffer.position();
+    }
+
+    /**
+     * @see java.io.InputStream#reset()
+     */
+    @Override
+    public void reset() {
+        buffer.position(mark);
+    }
+
+    /**
+     * @see javax.mail.internet.SharedInputStream#getPosition()
+     */
+    public long getPosition() {
+        return buffer.position();
+    }
+
+    /**
+     * @see javax.mail.internet.SharedInputStream#newStream(long, long)
+     */
+    public InputStream newStream(long start, long end) {
+        if (start < 0) {
+            throw new IllegalArgumentException("start < 0");
+        }
+        if (end == -1) {
+            end = buffer.limit();
+        }
+        ByteBuffer dup = buffer.duplicate();
+        dup.limit((int) end);
+        dup.position((int) start);
+        return new SharedByteBufferInputStream(dup);
+    }
+}
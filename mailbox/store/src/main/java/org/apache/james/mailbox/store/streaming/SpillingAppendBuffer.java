@@ -0,0 +1,196 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.store.streaming;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import javax.mail.internet.SharedInputStream;
+import javax.mail.util.SharedByteArrayInputStream;
+import javax.mail.util.SharedFileInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * {@link AppendBuffer} which keeps the content in memory as long as it is not
+ * bigger then the configured threshold. Bigger content is spilled to a
+ * temporary file, which is memory-mapped for reading if configured.
+ *
+ * IMPORTANT: This class is not thread-safe!
+ */
+public class SpillingAppendBuffer implements AppendBuffer {
+
+    private final static int INITIAL_CAPACITY = 4096;
+    private final static int FILE_BUFFER_SIZE = 8192;
+
+    private final int memoryThreshold;
+    private final File directory;
+    private final boolean memoryMapping;
+
+    private byte[] buf = new byte[0];
+    private int count = 0;
+    private long size = 0;
+
+    private File file;
+    private OutputStream fileOut;
+    private SharedFileInputStream fileIn;
+
+    private final OutputStream out = new OutputStream() {
+
+        @Override
+        public void write(int b) throws IOException {
+            if (file == null && count < memoryThreshold) {
+                ensureCapacity(count + 1);
+                buf[count++] = (byte) b;
+            } else {
+                spill().write(b);
+            }
+            size++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (file == null && count + len <= memoryThreshold) {
+                ensureCapacity(count + len);
+                System.arraycopy(b, off, buf, count, len);
+                count += len;
+            } else {
+                spill().write(b, off, len);
+            }
+            size += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (fileOut != null) {
+                fileOut.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fileOut != null) {
+                fileOut.close();
+            }
+        }
+
+    };
+
+    /**
+     * @param memoryThreshold
+     *            max count of bytes to keep in memory
+     * @param directory
+     *            directory in which the temporary file is created or
+     *            <code>null</code> for the default temporary directory
+     * @param memoryMapping
+     *            true if a temporary file should be memory-mapped for reading
+     */
+    public SpillingAppendBuffer(int memoryThreshold, File directory, boolean memoryMapping) {
+        this.memoryThreshold = memoryThreshold;
+        this.directory = directory;
+        this.memoryMapping = memoryMapping;
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.streaming.AppendBuffer#getOutputStream()
+     */
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.streaming.AppendBuffer#getContent()
+     */
+    public SharedInputStream getContent() throws IOException {
+        if (file == null) {
+            return new SharedByteArrayInputStream(buf, 0, count);
+        }
+        if (memoryMapping && size <= Integer.MAX_VALUE) {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                // the mapping stays valid after the channel was closed
+                MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+                return new SharedByteBufferInputStream(mapped);
+            } finally {
+                raf.close();
+            }
+        }
+        if (fileIn == null) {
+            fileIn = new SharedFileInputStream(file);
+        }
+        return (SharedInputStream) fileIn.newStream(0, -1);
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.streaming.AppendBuffer#getSize()
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Return the temporary file to which the content was spilled or
+     * <code>null</code> if it was kept in memory
+     *
+     * @return file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @see org.apache.james.mailbox.store.streaming.AppendBuffer#dispose()
+     */
+    public void dispose() {
+        buf = null;
+        IOUtils.closeQuietly(fileOut);
+        IOUtils.closeQuietly(fileIn);
+        if (file != null && file.exists() && !file.delete()) {
+            // a mapped file can not be deleted on some platforms as long as the
+            // mapping was not garbage collected
+            file.deleteOnExit();
+        }
+    }
+
+    private OutputStream spill() throws IOException {
+        if (file == null) {
+            file = File.createTempFile("imap", ".msg", directory);
+            fileOut = new BufferedOutputStream(new FileOutputStream(file), FILE_BUFFER_SIZE);
+            fileOut.write(buf, 0, count);
+            buf = new byte[0];
+            count = 0;
+        }
+        return fileOut;
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity > buf.length) {
+            int newCapacity = Math.max(Math.max(buf.length << 1, INITIAL_CAPACITY), minCapacity);
+            buf = Arrays.copyOf(buf, Math.min(newCapacity, Math.max(memoryThreshold, minCapacity)));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.SynchronousMailboxListener;
+import org.apache.james.mailbox.mock.MockMailboxSession;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.junit.After;
+import org.junit.Test;
+
+public class AsynchronousDelegatingMailboxListenerTest {
+
+    private final MailboxSession session = new MockMailboxSession("test");
+    private final MailboxPath path = new MailboxPath("#private", "test", "INBOX");
+
+    private AsynchronousDelegatingMailboxListener delegating;
+
+    @After
+    public void tearDown() {
+        if (delegating != null) {
+            delegating.destroy();
+        }
+    }
+
+    @Test
+    public void testSynchronousListenerShouldReceiveEventsOnCallingThread() throws Exception {
+        delegating = new AsynchronousDelegatingMailboxListener(2, 10);
+        final List<Thread> threads = new ArrayList<Thread>();
+        delegating.addListener(path, new SynchronousMailboxListener() {
+
+            public void event(Event event) {
+                threads.add(Thread.currentThread());
+            }
+        }, session);
+
+        delegating.event(new TestEvent(session, path, 1));
+
+        assertEquals(1, threads.size());
+        assertSame(Thread.currentThread(), threads.get(0));
+    }
+
+    @Test
+    public void testAsynchronousListenerShouldReceiveEventsInOrder() throws Exception {
+        delegating = new AsynchronousDelegatingMailboxListener(4, 1000);
+        final int count = 500;
+        final CountDownLatch latch = new CountDownLatch(count);
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+        delegating.addGlobalListener(new MailboxListener() {
+
+            public void event(Event event) {
+                received.add(((TestEvent) event).number);
+                latch.countDown();
+            }
+        }, session);
+
+        for (int i = 0; i < count; i++) {
+            delegating.event(new TestEvent(session, path, i));
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, received.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void testEventsShouldGetDroppedIfQueueIsFull() throws Exception {
+        delegating = new AsynchronousDelegatingMailboxListener(1, 1);
+        delegating.setMaxBlockTime(0);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        delegating.addGlobalListener(new MailboxListener() {
+
+            public void event(Event event) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, session);
+
+        // the first event blocks the worker and the second fills the queue
+        delegating.event(new TestEvent(session, path, 1));
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        delegating.event(new TestEvent(session, path, 2));
+        delegating.event(new TestEvent(session, path, 3));
+
+        assertEquals(1, delegating.getDroppedEvents());
+        assertEquals(1, delegating.getQueueDepth());
+        release.countDown();
+    }
+
+    private final static class TestEvent extends MailboxListener.Event {
+        private static final long serialVersionUID = 1L;
+
+        private final int number;
+
+        public TestEvent(MailboxSession session, MailboxPath path, int number) {
+            super(session, path);
+            this.number = number;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.mock.MockMailboxSession;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.junit.Test;
+
+public class ConcurrentDelegatingMailboxListenerTest {
+
+    private final MailboxPath path = new MailboxPath("#private", "test", "INBOX");
+    private final MailboxPath otherPath = new MailboxPath("#private", "test", "other");
+
+    private final ConcurrentDelegatingMailboxListener delegating = new ConcurrentDelegatingMailboxListener();
+
+    @Test
+    public void testEventShouldBeDeliveredToListenersOfPath() throws Exception {
+        MailboxSession session = new MockMailboxSession("test");
+        CollectingListener listener = new CollectingListener();
+        CollectingListener otherListener = new CollectingListener();
+        CollectingListener globalListener = new CollectingListener();
+        delegating.addListener(path, listener, session);
+        delegating.addListener(otherPath, otherListener, session);
+        delegating.addGlobalListener(globalListener, null);
+
+        delegating.event(new TestEvent(session, path));
+
+        assertEquals(1, listener.events.size());
+        assertEquals(0, otherListener.events.size());
+        assertEquals(1, globalListener.events.size());
+    }
+
+    @Test
+    public void testListenerShouldOnlyBeAddedOnce() throws Exception {
+        MailboxSession session = new MockMailboxSession("test");
+        CollectingListener listener = new CollectingListener();
+        delegating.addListener(path, listener, session);
+        delegating.addListener(path, listener, session);
+
+        delegating.event(new TestEvent(session, path));
+
+        assertEquals(1, listener.events.size());
+    }
+
+    @Test
+    public void testRemovedListenerShouldNotReceiveEvents() throws Exception {
+        MailboxSession session = new MockMailboxSession("test");
+        CollectingListener listener = new CollectingListener();
+        CollectingListener globalListener = new CollectingListener();
+        delegating.addListener(path, listener, session);
+        delegating.addGlobalListener(globalListener, null);
+        delegating.removeListener(path, listener, session);
+        delegating.removeGlobalListener(globalListener, null);
+
+        delegating.event(new TestEvent(session, path));
+
+        assertEquals(0, listener.events.size());
+        assertEquals(0, globalListener.events.size());
+        assertTrue(delegating.getListeners().isEmpty());
+    }
+
+    @Test
+    public void testListenerOfClosedSessionShouldBeRemovedOnDispatch() throws Exception {
+        MailboxSession session = new MockMailboxSession("test");
+        MailboxSession closedSession = new MockMailboxSession("test");
+        CollectingListener listener = new CollectingListener();
+        CollectingListener closedListener = new CollectingListener();
+        delegating.addListener(path, listener, session);
+        delegating.addListener(path, closedListener, closedSession);
+        closedSession.close();
+
+        delegating.event(new TestEvent(session, path));
+
+        assertEquals(1, listener.events.size());
+        assertEquals(0, closedListener.events.size());
+        assertEquals(1, delegating.getListeners().get(path).size());
+    }
+
+    @Test
+    public void testRemoveListenersShouldRemoveAllListenersOfSession() throws Exception {
+        MailboxSession session = new MockMailboxSession("test");
+        MailboxSession otherSession = new MockMailboxSession("test");
+        CollectingListener otherListener = new CollectingListener();
+        delegating.addListener(path, new CollectingListener(), session);
+        delegating.addListener(otherPath, new CollectingListener(), session);
+        delegating.addListener(path, otherListener, otherSession);
+
+        session.close();
+        delegating.removeListeners(session);
+
+        assertEquals(1, delegating.getListeners().size());
+        assertEquals(otherListener, delegating.getListeners().get(path).get(0));
+    }
+
+    @Test
+    public void testListenersShouldMoveOnRename() throws Exception {
+        MailboxSession session = new MockMailboxSession("test");
+        CollectingListener listener = new CollectingListener();
+        delegating.addListener(path, listener, session);
+
+        delegating.event(new MailboxListener.MailboxRenamed(session, path) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public MailboxPath getNewPath() {
+                return otherPath;
+            }
+        });
+        delegating.event(new TestEvent(session, otherPath));
+
+        assertEquals(2, listener.events.size());
+        assertTrue(delegating.getListeners().containsKey(otherPath));
+        assertEquals(1, delegating.getListeners().size());
+    }
+
+    @Test
+    public void testRemoveListenersShouldRemoveRenamedListeners() throws Exception {
+        MailboxSession session = new MockMailboxSession("test");
+        delegating.addListener(path, new CollectingListener(), session);
+
+        delegating.event(new MailboxListener.MailboxRenamed(session, path) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public MailboxPath getNewPath() {
+                return otherPath;
+            }
+        });
+        session.close();
+        delegating.removeListeners(session);
+
+        assertTrue(delegating.getListeners().isEmpty());
+    }
+
+    @Test
+    public void testListenersShouldBeRemovedOnDeletion() throws Exception {
+        MailboxSession session = new MockMailboxSession("test");
+        delegating.addListener(path, new CollectingListener(), session);
+
+        delegating.event(new MailboxListener.MailboxDeletion(session, path));
+
+        assertTrue(delegating.getListeners().isEmpty());
+    }
+
+    private final static class CollectingListener implements MailboxListener {
+        private final List<Event> events = new ArrayList<Event>();
+
+        public void event(Event event) {
+            events.add(event);
+        }
+    }
+
+    private final static class TestEvent extends MailboxListener.Event {
+        private static final long serialVersionUID = 1L;
+
+        public TestEvent(MailboxSession session, MailboxPath path) {
+            super(session, path);
+        }
+    }
+}
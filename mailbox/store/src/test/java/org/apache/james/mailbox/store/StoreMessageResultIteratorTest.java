@@ -127,12 +127,30 @@ public class StoreMessageResultIteratorTest {
 
 			}
 
+			@Override
+			public Iterator<Long> listAllMessageUids(Mailbox<Long> mailbox)
+					throws MailboxException {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public Flags getApplicableFlag(Mailbox<Long> mailbox)
+					throws MailboxException {
+				throw new UnsupportedOperationException();
+			}
+
 			@Override
 			public MessageMetaData add(Mailbox<Long> mailbox,
 					Message<Long> message) throws MailboxException {
 				throw new UnsupportedOperationException();
 			}
 
+			@Override
+			public List<MessageMetaData> addAll(Mailbox<Long> mailbox,
+					List<Message<Long>> messages) throws MailboxException {
+				throw new UnsupportedOperationException();
+			}
+
 			@Override
 			public Iterator<UpdatedFlags> updateFlags(Mailbox<Long> mailbox,
 					Flags flags, boolean value, boolean replace,
@@ -0,0 +1,170 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.james.mailbox.MailboxPathLocker.LockAwareExecution;
+import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.junit.Test;
+
+public class StripedMailboxPathLockerTest {
+
+    private final static MailboxPath PATH_1 = new MailboxPath("#private", "user", "INBOX");
+    private final static MailboxPath PATH_2 = new MailboxPath("#private", "user", "Trash");
+    private final static MailboxPath PATH_3 = new MailboxPath("#private", "user", "Sent");
+
+    @Test
+    public void testStripesShouldBeRoundedToPowerOfTwo() {
+        assertEquals(16, new StripedMailboxPathLocker(10, false).getStripes());
+        assertEquals(1, new StripedMailboxPathLocker(1, true).getStripes());
+    }
+
+    @Test
+    public void testNestedLocksOnSharedStripe() throws MailboxException {
+        final StripedMailboxPathLocker locker = new StripedMailboxPathLocker(1, false);
+        String result = locker.executeWithLock(null, PATH_1, new LockAwareExecution<String>() {
+
+            public String execute() throws MailboxException {
+                return locker.executeWithLock(null, PATH_2, new LockAwareExecution<String>() {
+
+                    public String execute() throws MailboxException {
+                        return "done";
+                    }
+                }, true);
+            }
+        }, true);
+        assertEquals("done", result);
+    }
+
+    @Test
+    public void testWriteLockWhileHoldingReadLockShouldFail() throws MailboxException {
+        final StripedMailboxPathLocker locker = new StripedMailboxPathLocker(1, false);
+        locker.executeWithLock(null, PATH_1, new LockAwareExecution<Void>() {
+
+            public Void execute() throws MailboxException {
+                try {
+                    locker.executeWithLock(null, PATH_2, new LockAwareExecution<Void>() {
+
+                        public Void execute() throws MailboxException {
+                            return null;
+                        }
+                    }, true);
+                    fail();
+                } catch (MailboxException e) {
+                    // expected
+                }
+                return null;
+            }
+        }, false);
+    }
+
+    @Test(timeout = 20000)
+    public void testOrderedLocksShouldNotDeadlock() throws Exception {
+        final StripedMailboxPathLocker locker = new StripedMailboxPathLocker(16, false);
+        locker.setRecordWaitTimes(true);
+        assertTrue(locker.compare(PATH_1, PATH_2) != 0);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+        Thread t1 = new LockingThread(locker, new MailboxPath[] { PATH_1, PATH_2 }, start, error);
+        Thread t2 = new LockingThread(locker, new MailboxPath[] { PATH_2, PATH_1 }, start, error);
+        t1.start();
+        t2.start();
+        start.countDown();
+        t1.join();
+        t2.join();
+
+        if (error.get() != null) {
+            throw error.get();
+        }
+        assertEquals(2 * 2 * LockingThread.RUNS, locker.getLockCount());
+        assertEquals(5, locker.getWaitTimeHistogram().length);
+        locker.resetStatistics();
+        assertEquals(0, locker.getLockCount());
+    }
+
+    @Test(timeout = 20000)
+    public void testLocksOfSeveralPathsShouldNotDeadlock() throws Exception {
+        final StripedMailboxPathLocker locker = new StripedMailboxPathLocker(16, false);
+        locker.setRecordWaitTimes(true);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+        Thread t1 = new LockingThread(locker, new MailboxPath[] { PATH_1, PATH_2, PATH_3 }, start, error);
+        Thread t2 = new LockingThread(locker, new MailboxPath[] { PATH_3, PATH_2, PATH_1 }, start, error);
+        t1.start();
+        t2.start();
+        start.countDown();
+        t1.join();
+        t2.join();
+
+        if (error.get() != null) {
+            throw error.get();
+        }
+        assertEquals(2 * 3 * LockingThread.RUNS, locker.getLockCount());
+    }
+
+    private final static class LockingThread extends Thread {
+        private final static int RUNS = 1000;
+
+        private final StripedMailboxPathLocker locker;
+        private final MailboxPath[] paths;
+        private final CountDownLatch start;
+        private final AtomicReference<Exception> error;
+
+        public LockingThread(StripedMailboxPathLocker locker, MailboxPath[] paths, CountDownLatch start, AtomicReference<Exception> error) {
+            this.locker = locker;
+            this.paths = paths;
+            this.start = start;
+            this.error = error;
+        }
+
+        @Override
+        public void run() {
+            try {
+                start.await();
+                LockAwareExecution<Void> execution = new LockAwareExecution<Void>() {
+
+                    public Void execute() throws MailboxException {
+                        Thread.yield();
+                        return null;
+                    }
+                };
+                for (int i = 0; i < RUNS; i++) {
+                    if (paths.length == 2) {
+                        locker.executeWithLocks(null, paths[0], paths[1], execution, true);
+                    } else {
+                        locker.executeWithLocks(null, Arrays.asList(paths), execution, true);
+                    }
+                }
+            } catch (Exception e) {
+                error.set(e);
+            }
+        }
+    }
+}
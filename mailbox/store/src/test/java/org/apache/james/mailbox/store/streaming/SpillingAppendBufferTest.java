@@ -0,0 +1,109 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.store.streaming;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.mail.internet.SharedInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class SpillingAppendBufferTest {
+
+    private final static String MAIL = "Subject: test\r\n\r\nbody";
+
+    @Test
+    public void testSmallContentShouldStayInMemory() throws IOException {
+        SpillingAppendBuffer buffer = new SpillingAppendBuffer(1024, null, true);
+        write(buffer, MAIL);
+
+        assertNull(buffer.getFile());
+        assertContent(buffer);
+        buffer.dispose();
+    }
+
+    @Test
+    public void testBigContentShouldBeMapped() throws IOException {
+        SpillingAppendBuffer buffer = new SpillingAppendBuffer(8, null, true);
+        write(buffer, MAIL);
+
+        File file = buffer.getFile();
+        assertNotNull(file);
+        assertTrue(buffer.getContent() instanceof SharedByteBufferInputStream);
+        assertContent(buffer);
+        buffer.dispose();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testBigContentWithoutMapping() throws IOException {
+        SpillingAppendBuffer buffer = new SpillingAppendBuffer(8, null, false);
+        write(buffer, MAIL);
+
+        File file = buffer.getFile();
+        assertNotNull(file);
+        assertContent(buffer);
+        buffer.dispose();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testSingleBytesShouldSpill() throws IOException {
+        SpillingAppendBuffer buffer = new SpillingAppendBuffer(8, null, true);
+        OutputStream out = buffer.getOutputStream();
+        byte[] bytes = MAIL.getBytes();
+        for (int i = 0; i < bytes.length; i++) {
+            out.write(bytes[i]);
+        }
+        out.close();
+
+        assertNotNull(buffer.getFile());
+        assertContent(buffer);
+        buffer.dispose();
+    }
+
+    private void write(AppendBuffer buffer, String content) throws IOException {
+        OutputStream out = buffer.getOutputStream();
+        out.write(content.getBytes());
+        out.close();
+    }
+
+    private void assertContent(AppendBuffer buffer) throws IOException {
+        assertEquals(MAIL.length(), buffer.getSize());
+
+        SharedInputStream content = buffer.getContent();
+        assertEquals(MAIL, IOUtils.toString(content.newStream(0, -1)));
+        InputStream body = content.newStream(17, -1);
+        assertEquals("body", IOUtils.toString(body));
+        assertEquals("Subject", IOUtils.toString(content.newStream(0, 7)));
+        SharedInputStream sub = (SharedInputStream) content.newStream(9, -1);
+        assertEquals("test", IOUtils.toString(sub.newStream(0, 4)));
+    }
+}
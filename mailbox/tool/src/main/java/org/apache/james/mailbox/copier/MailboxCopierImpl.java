@@ -19,6 +19,7 @@
 package org.apache.james.mailbox.copier;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Iterator;
 import java.util.List;
@@ -35,6 +36,7 @@ import org.apache.james.mailbox.model.MailboxPath;
 import org.apache.james.mailbox.model.MessageRange;
 import org.apache.james.mailbox.model.MessageResult;
 import org.apache.james.mailbox.model.MessageResult.FetchGroup;
+import org.apache.james.mailbox.model.MessageToAppend;
 import org.apache.james.mailbox.store.streaming.InputStreamContent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +47,11 @@ import org.slf4j.LoggerFactory;
  */
 public class MailboxCopierImpl implements MailboxCopier {
 
+    /**
+     * The count of messages which are appended to the destination mailbox at once.
+     */
+    public final static int DEFAULT_APPEND_BATCH_SIZE = 100;
+
     private final static FetchGroup GROUP = new FetchGroup() {
 
         @Override
@@ -64,6 +71,8 @@ public class MailboxCopierImpl implements MailboxCopier {
      */
     private Logger log = LoggerFactory.getLogger(MailboxCopierImpl.class.getName());
 
+    private int appendBatchSize = DEFAULT_APPEND_BATCH_SIZE;
+
     /**
      * @see org.apache.james.mailbox.copier.MailboxCopier#copyMailboxes(org.apache.james.mailbox.MailboxManager, org.apache.james.mailbox.MailboxManager)
      */
@@ -119,17 +128,22 @@ public class MailboxCopierImpl implements MailboxCopier {
 
                 int j=0;
                 Iterator<MessageResult> messageResultIterator = srcMessageManager.getMessages(MessageRange.all(), GROUP, srcMailboxSession);
+                List<MessageToAppend> batch = new ArrayList<MessageToAppend>(appendBatchSize);
                 
                 while (messageResultIterator.hasNext()) {
 
                     MessageResult messageResult = messageResultIterator.next();
                     InputStreamContent content = (InputStreamContent) messageResult.getFullContent();
 
-                    dstMailboxManager.startProcessingRequest(dstMailboxSession);
-                    dstMessageManager.appendMessage(content.getInputStream(), messageResult.getInternalDate(), dstMailboxSession, messageResult.getFlags().contains(Flag.RECENT), messageResult.getFlags());
-                    dstMailboxManager.endProcessingRequest(dstMailboxSession);
-                    log.info("Message #" + j + " appended in destination mailbox with path=" + mailboxPath.toString());
-                    j++;
+                    batch.add(new MessageToAppend(content.getInputStream(), messageResult.getInternalDate(), messageResult.getFlags().contains(Flag.RECENT), messageResult.getFlags()));
+                    if (batch.size() >= appendBatchSize || !messageResultIterator.hasNext()) {
+                        dstMailboxManager.startProcessingRequest(dstMailboxSession);
+                        dstMessageManager.appendMessages(batch.iterator(), dstMailboxSession);
+                        dstMailboxManager.endProcessingRequest(dstMailboxSession);
+                        log.info("Messages #" + j + " to #" + (j + batch.size() - 1) + " appended in destination mailbox with path=" + mailboxPath.toString());
+                        j += batch.size();
+                        batch.clear();
+                    }
 
                 }
                 dstMailboxManager.endProcessingRequest(dstMailboxSession);
@@ -159,4 +173,13 @@ public class MailboxCopierImpl implements MailboxCopier {
         this.log = log;
     }
 
+    /**
+     * Set the count of messages which are appended to the destination mailbox at once.
+     * 
+     * @param appendBatchSize
+     */
+    public void setAppendBatchSize(int appendBatchSize) {
+        this.appendBatchSize = appendBatchSize;
+    }
+
 }
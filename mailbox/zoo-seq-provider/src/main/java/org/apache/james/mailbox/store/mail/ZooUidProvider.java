@@ -70,6 +70,24 @@ public class ZooUidProvider<E> implements UidProvider<E> {
         throw new MailboxException("Curator client is closed.");
     }
 
+    @Override
+    public long nextUids(MailboxSession session, Mailbox<E> mailbox, int count) throws MailboxException {
+        if (client.isStarted()) {
+            DistributedAtomicLong uid = new DistributedAtomicLong(client, pathForMailbox(mailbox), retryPolicy);
+            AtomicValue<Long> value = null;
+            try {
+                value = uid.add((long) count);
+            } catch (Exception e) {
+                throw new MailboxException("Exception incrementing UID for session " + session, e);
+            }
+            if (value != null && value.succeeded()) {
+                return value.postValue() - count + 1;
+            }
+            throw new MailboxException("Failed getting next UIDs for " + session);
+        }
+        throw new MailboxException("Curator client is closed.");
+    }
+
     @Override
     public long lastUid(MailboxSession session, Mailbox<E> mailbox) throws MailboxException {
         if (client.isStarted()) {
@@ -0,0 +1,45 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.handler;
+
+import java.nio.ByteBuffer;
+
+import org.apache.james.protocols.api.ProtocolSession;
+
+/**
+ * A special {@link LineHandler} which is able to handle more than one line per call of
+ * {@link #onLine(ProtocolSession, ByteBuffer)}. 
+ * 
+ * Transports which support it pass all complete lines which were received so far at once, up to and including the line
+ * returned by {@link #getTerminatingLine()}. After this line was received the lines are passed one by one again. 
+ * 
+ * Transports which do not support it just pass one line per call, so implementations need to handle both.
+ *
+ * @param <Session>
+ */
+public interface BulkLineHandler<Session extends ProtocolSession> extends LineHandler<Session> {
+
+    /**
+     * Return the line which ends the bulk of lines. The line includes the {@link ProtocolSession#getLineDelimiter()} delimiter.
+     * 
+     * @return terminatingLine
+     */
+    byte[] getTerminatingLine();
+}
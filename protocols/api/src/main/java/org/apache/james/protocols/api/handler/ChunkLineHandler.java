@@ -0,0 +1,40 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.handler;
+
+import java.nio.ByteBuffer;
+
+import org.apache.james.protocols.api.ProtocolSession;
+
+/**
+ * A special {@link LineHandler} which consumes the chunk of raw data that a command announced, for example the one of
+ * <code>BDAT</code>, instead of lines.
+ * 
+ * Transports which support it detect the chunk themselves and pass it to {@link #onLine(ProtocolSession, ByteBuffer)}
+ * as it is received, without scanning it for line delimiters. As the transport knows where the chunk ends, the data
+ * after it is handled as commands again, even if the handler was not removed yet.
+ * 
+ * Transports which do not support it just pass one line per call, so implementations need to handle both.
+ *
+ * @param <Session>
+ */
+public interface ChunkLineHandler<Session extends ProtocolSession> extends LineHandler<Session> {
+
+}
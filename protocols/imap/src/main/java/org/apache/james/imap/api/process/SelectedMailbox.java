@@ -161,6 +161,16 @@ public interface SelectedMailbox {
      */
     public int remove(Long uid);
 
+    /**
+     * Removes all the given UIDs at once. This is cheaper than calling
+     * {@link #remove(Long)} for every UID when the message sequence numbers are
+     * not needed, for example when sending a VANISHED response.
+     * 
+     * @param uids
+     *            not null
+     */
+    public void removeAll(Collection<Long> uids);
+
     /**
      * Return a Collection which holds all uids reflecting the Messages which
      * flags were updated
@@ -23,6 +23,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 
 import javax.mail.Flags;
 
@@ -170,23 +171,27 @@ abstract public class AbstractMailboxProcessor<M extends ImapRequest> extends Ab
     }
 
     private void addExpungedResponses(SelectedMailbox selected, Collection<Long> expungedUids, final ImapProcessor.Responder responder) {
-        for (final Long uid : expungedUids) {
-            final long uidValue = uid.longValue();
-
-            // we need to remove the message in the loop to the sequence numbers
-            // are updated correctly.
-            // See 7.4.1. EXPUNGE Response
-            final int msn = selected.remove(uidValue);
-            ExpungeResponse response = new ExpungeResponse(msn);
-            responder.respond(response);
+        // Every EXPUNGE response must use the sequence numbers as they are
+        // after the previous responses. See 7.4.1. EXPUNGE Response
+        //
+        // As we walk the uids in ascending order all messages expunged before
+        // had a lower msn, so we can just subtract their count and remove all
+        // the uids in one go afterwards.
+        int expunged = 0;
+        for (final Long uid : new TreeSet<Long>(expungedUids)) {
+            final int msn = selected.msn(uid.longValue());
+            if (msn == SelectedMailbox.NO_SUCH_MESSAGE) {
+                responder.respond(new ExpungeResponse(msn));
+            } else {
+                responder.respond(new ExpungeResponse(msn - expunged));
+                expunged++;
+            }
         }
+        selected.removeAll(expungedUids);
     }
     
     private void addVanishedResponse(SelectedMailbox selected, Collection<Long> expungedUids, final ImapProcessor.Responder responder) {
-        for (final Long uid : expungedUids) {
-            final long uidValue = uid.longValue();
-            selected.remove(uidValue);
-        }
+        selected.removeAll(expungedUids);
         IdRange[] uidRange = idRanges(MessageRange.toRanges(expungedUids));
         responder.respond(new VanishedResponse(uidRange, false));
     }
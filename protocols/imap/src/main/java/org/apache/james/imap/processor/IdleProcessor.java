@@ -45,6 +45,7 @@ import org.apache.james.imap.message.response.ContinuationResponse;
 import org.apache.james.mailbox.MailboxListener;
 import org.apache.james.mailbox.MailboxManager;
 import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.SynchronousMailboxListener;
 import org.apache.james.mailbox.exception.MailboxException;
 
 public class IdleProcessor extends AbstractMailboxProcessor<IdleRequest> implements CapabilityImplementingProcessor {
@@ -174,7 +175,7 @@ public class IdleProcessor extends AbstractMailboxProcessor<IdleRequest> impleme
         return CAPS;
     }
 
-    private class IdleMailboxListener implements MailboxListener {
+    private class IdleMailboxListener implements SynchronousMailboxListener {
 
         private final Responder responder;
         private final ImapSession session;
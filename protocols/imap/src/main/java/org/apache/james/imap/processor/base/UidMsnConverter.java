@@ -0,0 +1,209 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.imap.processor.base;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.james.imap.api.process.SelectedMailbox;
+
+/**
+ * Maps message sequence numbers to uids and back for a selected mailbox.
+ *
+ * The uids are stored in a sorted primitive <code>long</code> array, so the
+ * msn of a message is just its index in the array plus one. Lookups are done
+ * via binary search and expunged uids are removed by compacting the array in
+ * one pass. This costs 8 bytes per message instead of the two boxed
+ * {@link java.util.TreeMap} entries that were used before.
+ *
+ * This class is not thread-safe, callers need to synchronize on their own.
+ */
+public class UidMsnConverter {
+
+    private final static int INITIAL_CAPACITY = 16;
+
+    private long[] uids;
+    private int size = 0;
+
+    public UidMsnConverter() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public UidMsnConverter(int initialCapacity) {
+        uids = new long[Math.max(initialCapacity, INITIAL_CAPACITY)];
+    }
+
+    /**
+     * Add the given uid. As uids are assigned in ascending order this is an
+     * append in the common case. Adding a uid which is already present has no
+     * effect.
+     *
+     * @param uid
+     */
+    public void add(long uid) {
+        if (size == 0 || uid > uids[size - 1]) {
+            ensureCapacity(size + 1);
+            uids[size++] = uid;
+        } else {
+            int index = Arrays.binarySearch(uids, 0, size, uid);
+            if (index < 0) {
+                int insertAt = -(index + 1);
+                ensureCapacity(size + 1);
+                System.arraycopy(uids, insertAt, uids, insertAt + 1, size - insertAt);
+                uids[insertAt] = uid;
+                size++;
+            }
+        }
+    }
+
+    /**
+     * Remove the given uid and shift all following messages down by one msn.
+     *
+     * @param uid
+     * @return the msn the uid had before or
+     *         {@link SelectedMailbox#NO_SUCH_MESSAGE} if it was not found
+     */
+    public int remove(long uid) {
+        int index = Arrays.binarySearch(uids, 0, size, uid);
+        if (index < 0) {
+            return SelectedMailbox.NO_SUCH_MESSAGE;
+        }
+        System.arraycopy(uids, index + 1, uids, index, size - index - 1);
+        size--;
+        return index + 1;
+    }
+
+    /**
+     * Remove all the given uids at once. The remaining uids are compacted in a
+     * single pass over the array.
+     *
+     * @param toRemove
+     * @return count of uids which were really removed
+     */
+    public int removeAll(Collection<Long> toRemove) {
+        if (toRemove.isEmpty() || size == 0) {
+            return 0;
+        }
+        long[] sorted = new long[toRemove.size()];
+        int i = 0;
+        for (Long uid : toRemove) {
+            sorted[i++] = uid.longValue();
+        }
+        Arrays.sort(sorted);
+
+        int write = 0;
+        int r = 0;
+        for (int read = 0; read < size; read++) {
+            long uid = uids[read];
+            while (r < sorted.length && sorted[r] < uid) {
+                r++;
+            }
+            if (r < sorted.length && sorted[r] == uid) {
+                continue;
+            }
+            uids[write++] = uid;
+        }
+        int removed = size - write;
+        size = write;
+        return removed;
+    }
+
+    /**
+     * Return the msn of the given uid or
+     * {@link SelectedMailbox#NO_SUCH_MESSAGE} if no message with the given uid
+     * exists
+     *
+     * @param uid
+     * @return msn
+     */
+    public int getMsn(long uid) {
+        int index = Arrays.binarySearch(uids, 0, size, uid);
+        if (index < 0) {
+            return SelectedMailbox.NO_SUCH_MESSAGE;
+        }
+        return index + 1;
+    }
+
+    /**
+     * Return the uid of the given msn or
+     * {@link SelectedMailbox#NO_SUCH_MESSAGE} if no message with the given msn
+     * exists
+     *
+     * @param msn
+     * @return uid
+     */
+    public long getUid(int msn) {
+        if (msn < 1 || msn > size) {
+            return SelectedMailbox.NO_SUCH_MESSAGE;
+        }
+        return uids[msn - 1];
+    }
+
+    /**
+     * Return the first uid or -1 if there are no messages
+     *
+     * @return firstUid
+     */
+    public long getFirstUid() {
+        if (size == 0) {
+            return -1;
+        }
+        return uids[0];
+    }
+
+    /**
+     * Return the last uid or -1 if there are no messages
+     *
+     * @return lastUid
+     */
+    public long getLastUid() {
+        if (size == 0) {
+            return -1;
+        }
+        return uids[size - 1];
+    }
+
+    public boolean contains(long uid) {
+        return Arrays.binarySearch(uids, 0, size, uid) >= 0;
+    }
+
+    public int getNumMessage() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove all uids and release the backing array
+     */
+    public void clear() {
+        uids = new long[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity > uids.length) {
+            int newCapacity = Math.max(uids.length + (uids.length >> 1), minCapacity);
+            uids = Arrays.copyOf(uids, newCapacity);
+        }
+    }
+}
@@ -60,6 +60,7 @@ import org.apache.james.mailbox.model.MessageRange;
 import org.apache.james.mailbox.model.MessageResult;
 import org.apache.james.mailbox.model.MessageResult.FetchGroup;
 import org.apache.james.mailbox.model.MessageResultIterator;
+import org.apache.james.mailbox.model.MessageToAppend;
 import org.apache.james.mailbox.model.MimeDescriptor;
 import org.apache.james.mailbox.model.SearchQuery;
 import org.apache.james.mailbox.model.UpdatedFlags;
@@ -294,6 +295,21 @@ public class MailboxEventAnalyserTest {
                     };
                 }
 
+
+                public Iterator<Long> listUids(MailboxSession mailboxSession) throws MailboxException {
+                    return Arrays.asList(1L).iterator();
+                }
+
+
+                public Flags getApplicableFlags(MailboxSession mailboxSession) throws MailboxException {
+                    return new Flags();
+                }
+
+
+                public List<Long> appendMessages(Iterator<MessageToAppend> messages, MailboxSession mailboxSession) throws MailboxException {
+                    throw new UnsupportedOperationException("Not implemented");
+                }
+
                 
                 public MetaData getMetaData(boolean resetRecent, MailboxSession mailboxSession, org.apache.james.mailbox.MessageManager.MetaData.FetchGroup fetchGroup) throws MailboxException {
                     throw new UnsupportedOperationException("Not implemented");
@@ -0,0 +1,99 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.imap.processor.base;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Simple benchmark for {@link UidMsnConverter} which simulates SELECT, FETCH by
+ * msn and EXPUNGE on mailboxes of different sizes. Run it via its main
+ * method.
+ */
+public class UidMsnConverterBench {
+
+    private final static int[] SIZES = { 10000, 100000, 1000000 };
+
+    public static void main(String[] args) throws Exception {
+        // warmup
+        for (int i = 0; i < 5; i++) {
+            run(SIZES[0], false);
+        }
+        Thread.sleep(100);
+
+        for (int size : SIZES) {
+            run(size, true);
+        }
+    }
+
+    private static void run(int size, boolean print) {
+        Random random = new Random(size);
+
+        // select
+        long t0 = System.nanoTime();
+        UidMsnConverter converter = new UidMsnConverter();
+        long uid = 0;
+        for (int i = 0; i < size; i++) {
+            uid += 1 + random.nextInt(3);
+            converter.add(uid);
+        }
+        long select = System.nanoTime() - t0;
+
+        // fetch by msn
+        final int fetches = 1000000;
+        t0 = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < fetches; i++) {
+            int msn = 1 + random.nextInt(converter.getNumMessage());
+            sum += converter.getMsn(converter.getUid(msn));
+        }
+        long fetch = System.nanoTime() - t0;
+
+        // expunge 1% of the messages, one EXPUNGE response per message
+        int expunges = size / 100;
+        List<Long> expunged = new ArrayList<Long>(expunges);
+        for (int i = 0; i < expunges; i++) {
+            expunged.add(converter.getUid(1 + random.nextInt(converter.getNumMessage())));
+        }
+        t0 = System.nanoTime();
+        for (Long u : expunged) {
+            converter.remove(u);
+        }
+        long expunge = System.nanoTime() - t0;
+
+        // expunge another 1% in bulk, like for a VANISHED response
+        expunged.clear();
+        for (int i = 0; i < expunges; i++) {
+            expunged.add(converter.getUid(1 + random.nextInt(converter.getNumMessage())));
+        }
+        t0 = System.nanoTime();
+        converter.removeAll(expunged);
+        long bulkExpunge = System.nanoTime() - t0;
+
+        if (print) {
+            System.out.println(size + " messages (checksum " + sum + ")");
+            System.out.println("  select:        " + (select / 1000000) + " ms");
+            System.out.println("  fetch by msn:  " + (fetch / fetches) + " ns/op");
+            System.out.println("  expunge:       " + (expunge / expunges) + " ns/message");
+            System.out.println("  bulk expunge:  " + (bulkExpunge / expunges) + " ns/message");
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.imap.processor.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.apache.james.imap.api.process.SelectedMailbox;
+import org.junit.Test;
+
+public class UidMsnConverterTest {
+
+    @Test
+    public void testEmpty() {
+        UidMsnConverter converter = new UidMsnConverter();
+        assertTrue(converter.isEmpty());
+        assertEquals(-1, converter.getFirstUid());
+        assertEquals(-1, converter.getLastUid());
+        assertEquals(SelectedMailbox.NO_SUCH_MESSAGE, converter.getMsn(1));
+        assertEquals(SelectedMailbox.NO_SUCH_MESSAGE, converter.getUid(1));
+    }
+
+    @Test
+    public void testAddInOrder() {
+        UidMsnConverter converter = new UidMsnConverter();
+        for (long uid = 1; uid <= 100; uid++) {
+            converter.add(uid * 2);
+        }
+        assertEquals(100, converter.getNumMessage());
+        assertEquals(2, converter.getFirstUid());
+        assertEquals(200, converter.getLastUid());
+        assertEquals(50, converter.getMsn(100));
+        assertEquals(100, converter.getUid(50));
+        assertEquals(SelectedMailbox.NO_SUCH_MESSAGE, converter.getMsn(3));
+        assertEquals(SelectedMailbox.NO_SUCH_MESSAGE, converter.getUid(0));
+        assertEquals(SelectedMailbox.NO_SUCH_MESSAGE, converter.getUid(101));
+    }
+
+    @Test
+    public void testAddOutOfOrderAndDuplicates() {
+        UidMsnConverter converter = new UidMsnConverter();
+        converter.add(10);
+        converter.add(5);
+        converter.add(7);
+        converter.add(10);
+        converter.add(5);
+        assertEquals(3, converter.getNumMessage());
+        assertEquals(5, converter.getUid(1));
+        assertEquals(7, converter.getUid(2));
+        assertEquals(10, converter.getUid(3));
+    }
+
+    @Test
+    public void testRemoveShouldRenumber() {
+        UidMsnConverter converter = new UidMsnConverter();
+        converter.add(1);
+        converter.add(3);
+        converter.add(5);
+        converter.add(7);
+
+        assertEquals(2, converter.remove(3));
+        assertEquals(SelectedMailbox.NO_SUCH_MESSAGE, converter.remove(3));
+        assertFalse(converter.contains(3));
+        assertEquals(3, converter.getNumMessage());
+        assertEquals(2, converter.getMsn(5));
+        assertEquals(3, converter.getMsn(7));
+        assertEquals(7, converter.getUid(3));
+    }
+
+    @Test
+    public void testRemoveAll() {
+        UidMsnConverter converter = new UidMsnConverter();
+        for (long uid = 1; uid <= 10; uid++) {
+            converter.add(uid);
+        }
+        assertEquals(4, converter.removeAll(Arrays.asList(9L, 2L, 4L, 42L, 1L)));
+        assertEquals(6, converter.getNumMessage());
+        assertEquals(3, converter.getFirstUid());
+        assertEquals(10, converter.getLastUid());
+        assertEquals(1, converter.getMsn(3));
+        assertEquals(2, converter.getMsn(5));
+        assertEquals(6, converter.getMsn(10));
+    }
+
+    @Test
+    public void testClear() {
+        UidMsnConverter converter = new UidMsnConverter();
+        converter.add(1);
+        converter.clear();
+        assertTrue(converter.isEmpty());
+        converter.add(2);
+        assertEquals(1, converter.getMsn(2));
+    }
+}
@@ -20,6 +20,7 @@ package org.apache.james.protocols.netty;
 
 import static org.jboss.netty.channel.Channels.pipeline;
 
+import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.ChannelUpstreamHandler;
@@ -73,8 +74,7 @@ public abstract class AbstractChannelPipelineFactory implements ChannelPipelineF
         pipeline.addLast(HandlerConstants.CONNECTION_PER_IP_LIMIT_HANDLER, connectionPerIpLimitHandler);
 
         
-        // Add the text line decoder which limit the max line length, don't strip the delimiter and use CRLF as delimiter
-        pipeline.addLast(HandlerConstants.FRAMER, new DelimiterBasedFrameDecoder(MAX_LINE_LENGTH, false, Delimiters.lineDelimiter()));
+        pipeline.addLast(HandlerConstants.FRAMER, createFrameHandler());
        
         // Add the ChunkedWriteHandler to be able to write ChunkInput
         pipeline.addLast(HandlerConstants.CHUNK_HANDLER, new ChunkedWriteHandler());
@@ -93,6 +93,18 @@ public abstract class AbstractChannelPipelineFactory implements ChannelPipelineF
 
 
     
+    /**
+     * Create the {@link ChannelHandler} which splits the received data in frames. 
+     * 
+     * This implementation returns a text line decoder which limit the max line length, don't strip the delimiter and use CRLF as delimiter.
+     * Sub-classes may override this, for example to return a {@link ChunkingFrameDecoder}
+     * 
+     * @return framer
+     */
+    protected ChannelHandler createFrameHandler() {
+        return new DelimiterBasedFrameDecoder(MAX_LINE_LENGTH, false, Delimiters.lineDelimiter());
+    }
+
     /**
      * Create the core {@link ChannelUpstreamHandler} to use
      * 
@@ -0,0 +1,241 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.netty;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.frame.DelimiterBasedFrameDecoder;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+
+/**
+ * {@link FrameDecoder} which splits the received data in lines like a
+ * {@link DelimiterBasedFrameDecoder} with line delimiters (the delimiter is not
+ * stripped), but also supports commands which announce a chunk of raw data.
+ * 
+ * If a line starts with the configured chunk command followed by a space and
+ * the size of the chunk in octets (for example <code>BDAT 1024 LAST</code>),
+ * the next octets up to the given size are not scanned for line delimiters but
+ * passed on as they are received. So the chunk may contain binary data and the
+ * handlers get it in as few frames as possible.
+ * 
+ * Chunk frames never cross the end of the chunk, the data after it is split
+ * in lines again.
+ * 
+ * Chunks are only detected in command lines, so a line of a message body which
+ * looks like a chunk command is passed as a line. See
+ * {@link #setCommandMode(boolean)}. Receiving a chunk does not leave the
+ * command mode, so the lines after a chunk are always handled as commands.
+ * 
+ * In bulk mode, which is entered by calling {@link #startBulk(byte[])}, all
+ * complete lines which were received so far are passed as one frame. A bulk
+ * frame never crosses the given terminating line, after it the data is split in
+ * lines again.
+ */
+public class ChunkingFrameDecoder extends FrameDecoder {
+
+    private final static int MAX_SIZE_DIGITS = 18;
+
+    private final int maxLineLength;
+
+    private final byte[] chunkCommand;
+
+    private long chunkRemaining = 0;
+
+    private volatile byte[] bulkTerminator;
+
+    private volatile boolean commandMode = true;
+
+    /**
+     * @param maxLineLength
+     *            the maximum length of a line
+     * @param chunkCommand
+     *            the command which announces a chunk, matched case
+     *            insensitive
+     */
+    public ChunkingFrameDecoder(int maxLineLength, String chunkCommand) {
+        this.maxLineLength = maxLineLength;
+        this.chunkCommand = (chunkCommand.toUpperCase() + " ").getBytes();
+    }
+
+    /**
+     * Pass all complete lines as one frame until the given line was received.
+     * 
+     * This may be called by another thread than the one which decodes
+     * the data, but must be called before the client sends the lines.
+     * 
+     * @param terminatingLine
+     *            the line, including the line delimiter, which ends the bulk
+     */
+    public void startBulk(byte[] terminatingLine) {
+        this.bulkTerminator = terminatingLine;
+    }
+
+    /**
+     * Leave the bulk mode and pass every line as one frame again
+     */
+    public void stopBulk() {
+        this.bulkTerminator = null;
+    }
+
+    /**
+     * Set whether the received lines are commands, which is the case as long
+     * as no line handler which consumes lines, like the one of DATA, is
+     * pushed. Lines which are no commands never announce a chunk. The bulk
+     * mode ends with the command mode, as the terminating line ends the input
+     * of the handler.
+     * 
+     * This must not be called for the handler of a chunk. The client may send
+     * the next commands right after the chunk, and they may be decoded before
+     * the handler is removed on another thread.
+     * 
+     * Like {@link #startBulk(byte[])} this may be called by another thread than
+     * the one which decodes the data, but must be called before the client
+     * sends the lines.
+     * 
+     * @param commandMode
+     *            true if the received lines are commands
+     */
+    public void setCommandMode(boolean commandMode) {
+        this.commandMode = commandMode;
+    }
+
+    /**
+     * @see org.jboss.netty.handler.codec.frame.FrameDecoder#decode(org.jboss.netty.channel.ChannelHandlerContext,
+     *      org.jboss.netty.channel.Channel,
+     *      org.jboss.netty.buffer.ChannelBuffer)
+     */
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
+        if (chunkRemaining > 0) {
+            int length = (int) Math.min(buffer.readableBytes(), chunkRemaining);
+            if (length == 0) {
+                return null;
+            }
+            chunkRemaining -= length;
+            return buffer.readBytes(length);
+        }
+
+        byte[] terminator = bulkTerminator;
+        if (terminator != null) {
+            return decodeBulk(buffer, terminator);
+        }
+
+        int index = buffer.indexOf(buffer.readerIndex(), buffer.writerIndex(), (byte) '\n');
+        if (index < 0) {
+            if (buffer.readableBytes() > maxLineLength) {
+                fail(buffer, buffer.readableBytes());
+            }
+            return null;
+        }
+        int length = index - buffer.readerIndex() + 1;
+        if (length > maxLineLength) {
+            fail(buffer, length);
+        }
+        ChannelBuffer line = buffer.readBytes(length);
+        if (commandMode) {
+            chunkRemaining = getChunkSize(line);
+        }
+        return line;
+    }
+
+    /**
+     * Return all complete lines up to and including the terminating line
+     */
+    private ChannelBuffer decodeBulk(ChannelBuffer buffer, byte[] terminator) throws TooLongFrameException {
+        int start = buffer.readerIndex();
+        int lineStart = start;
+        while (true) {
+            int index = buffer.indexOf(lineStart, buffer.writerIndex(), (byte) '\n');
+            if (index < 0) {
+                if (lineStart == start && buffer.readableBytes() > maxLineLength) {
+                    fail(buffer, buffer.readableBytes());
+                }
+                break;
+            }
+            int length = index - lineStart + 1;
+            if (length > maxLineLength) {
+                if (lineStart == start) {
+                    fail(buffer, length);
+                }
+                // pass the lines before the too long one first
+                break;
+            }
+            lineStart = index + 1;
+            if (length == terminator.length && isTerminator(buffer, index + 1 - length, terminator)) {
+                // the lines after the terminating one are commands again,
+                // even if the handler was not removed yet
+                bulkTerminator = null;
+                commandMode = true;
+                break;
+            }
+        }
+        if (lineStart == start) {
+            return null;
+        }
+        return buffer.readBytes(lineStart - start);
+    }
+
+    private boolean isTerminator(ChannelBuffer buffer, int index, byte[] terminator) {
+        for (int i = 0; i < terminator.length; i++) {
+            if (buffer.getByte(index + i) != terminator[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void fail(ChannelBuffer buffer, int length) throws TooLongFrameException {
+        buffer.skipBytes(length);
+        throw new TooLongFrameException("frame length exceeds " + maxLineLength + ": " + length + " - discarded");
+    }
+
+    /**
+     * Return the size of the chunk announced by the given line or 0 if the
+     * line does not announce a chunk
+     */
+    private long getChunkSize(ChannelBuffer line) {
+        int length = line.readableBytes();
+        if (length <= chunkCommand.length) {
+            return 0;
+        }
+        for (int i = 0; i < chunkCommand.length; i++) {
+            if (Character.toUpperCase((char) line.getByte(i)) != chunkCommand[i]) {
+                return 0;
+            }
+        }
+        long size = 0;
+        int digits = 0;
+        for (int i = chunkCommand.length; i < length; i++) {
+            byte b = line.getByte(i);
+            if (b >= '0' && b <= '9') {
+                if (++digits > MAX_SIZE_DIGITS) {
+                    return 0;
+                }
+                size = size * 10 + (b - '0');
+            } else if (b == ' ' || b == '\r' || b == '\n') {
+                break;
+            } else {
+                return 0;
+            }
+        }
+        return digits > 0 ? size : 0;
+    }
+}
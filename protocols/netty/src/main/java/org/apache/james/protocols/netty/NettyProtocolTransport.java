@@ -31,9 +31,12 @@ import javax.net.ssl.SSLEngine;
 import org.apache.james.protocols.api.AbstractProtocolTransport;
 import org.apache.james.protocols.api.CombinedInputStream;
 import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.handler.BulkLineHandler;
+import org.apache.james.protocols.api.handler.ChunkLineHandler;
 import org.apache.james.protocols.api.handler.LineHandler;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.DefaultFileRegion;
 import org.jboss.netty.handler.ssl.SslHandler;
@@ -89,9 +92,28 @@ public class NettyProtocolTransport extends AbstractProtocolTransport {
         if (lineHandlerCount > 0) {
             channel.getPipeline().remove("lineHandler" + lineHandlerCount);
             lineHandlerCount--;
+
+            ChunkingFrameDecoder framer = getChunkingFrameDecoder();
+            if (framer != null) {
+                framer.stopBulk();
+                if (lineHandlerCount == 0) {
+                    framer.setCommandMode(true);
+                }
+            }
         }
     }
 
+    /**
+     * Return the {@link ChunkingFrameDecoder} of the pipeline or <code>null</code> if another framer is used
+     */
+    private ChunkingFrameDecoder getChunkingFrameDecoder() {
+        ChannelHandler framer = channel.getPipeline().get(HandlerConstants.FRAMER);
+        if (framer instanceof ChunkingFrameDecoder) {
+            return (ChunkingFrameDecoder) framer;
+        }
+        return null;
+    }
+
     /**
      * @see org.apache.james.protocols.api.ProtocolTransport#getPushedLineHandlerCount()
      */
@@ -196,6 +218,21 @@ public class NettyProtocolTransport extends AbstractProtocolTransport {
         // 
         // See JAMES-1277
         channel.getPipeline().addBefore(HandlerConstants.CORE_HANDLER, "lineHandler" + lineHandlerCount, new LineHandlerUpstreamHandler(session, overrideCommandHandler));
+
+        ChunkingFrameDecoder framer = getChunkingFrameDecoder();
+        if (framer != null) {
+            if (!(overrideCommandHandler instanceof ChunkLineHandler)) {
+                // the handler consumes the lines, they are no commands which
+                // may announce a chunk. The framer passes a chunk on its own
+                // and handles the data after it as commands
+                framer.setCommandMode(false);
+            }
+
+            // Let the framer pass the lines in bulk if the handler supports it
+            if (overrideCommandHandler instanceof BulkLineHandler) {
+                framer.startBulk(((BulkLineHandler) overrideCommandHandler).getTerminatingLine());
+            }
+        }
     }
     
    
@@ -24,6 +24,7 @@ import javax.net.ssl.SSLContext;
 import org.apache.james.protocols.api.Protocol;
 import org.apache.james.protocols.api.Encryption;
 import org.apache.james.protocols.api.handler.ProtocolHandler;
+import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.ChannelUpstreamHandler;
 import org.jboss.netty.channel.group.ChannelGroup;
@@ -96,6 +97,17 @@ public class NettyServer extends AbstractAsyncServer {
         return new BasicChannelUpstreamHandler(protocol, secure);
     }
     
+    /**
+     * Create the {@link ChannelHandler} which splits the received data in frames. This is called for every new connection.
+     * 
+     * This implementation returns <code>null</code>, which means that the default line based framer is used
+     * 
+     * @return framer
+     */
+    protected ChannelHandler createFrameHandler() {
+        return null;
+    }
+    
     @Override
     public synchronized void bind() throws Exception {
         coreHandler = createCoreHandler();
@@ -113,6 +125,15 @@ public class NettyServer extends AbstractAsyncServer {
                 return coreHandler;
             }
 
+            @Override
+            protected ChannelHandler createFrameHandler() {
+                ChannelHandler framer = NettyServer.this.createFrameHandler();
+                if (framer == null) {
+                    return super.createFrameHandler();
+                }
+                return framer;
+            }
+
             @Override
             protected boolean isSSLSocket() {
                 return getSSLContext() != null && secure != null && !secure.isStartTLS();
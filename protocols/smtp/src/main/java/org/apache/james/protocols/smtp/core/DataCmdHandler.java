@@ -29,6 +29,8 @@ import java.util.List;
 import org.apache.james.protocols.api.ProtocolSession;
 import org.apache.james.protocols.api.Request;
 import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.handler.BulkLineHandler;
+import org.apache.james.protocols.api.handler.ChunkLineHandler;
 import org.apache.james.protocols.api.handler.CommandHandler;
 import org.apache.james.protocols.api.handler.ExtensibleHandler;
 import org.apache.james.protocols.api.handler.LineHandler;
@@ -43,7 +45,21 @@ import org.apache.james.protocols.smtp.dsn.DSNStatus;
 
 
 /**
-  * handles DATA command
+  * handles DATA and BDAT command
+  * 
+  * The BDAT command of the CHUNKING extension (RFC 3030) is only usable if the
+  * transport delivers the announced chunks as raw frames, for example by using a
+  * <code>ChunkingFrameDecoder</code>. The received chunks are passed to the same
+  * {@link DataLineFilter} chain which is used for DATA.
+  * 
+  * The content of a message is not passed line by line to the chain. The header
+  * lines are collected and passed as one block after the separator line, so that
+  * the filters see the headers, the separator and the body in separate calls.
+  * The body is passed in the blocks it was received in, which are whole frames
+  * for BDAT and all available lines for DATA if the transport supports
+  * {@link BulkLineHandler}. Lines which start with a dot are stuffed again, so
+  * that {@link DataLineFilter} implementations can still rely on a three bytes
+  * long line which starts with a dot marking the end of the message.
  */
 public class DataCmdHandler implements CommandHandler<SMTPSession>, ExtensibleHandler {
 
@@ -51,7 +67,28 @@ public class DataCmdHandler implements CommandHandler<SMTPSession>, ExtensibleHa
     private static final Response NO_SENDER = new SMTPResponse(SMTPRetCode.BAD_SEQUENCE, DSNStatus.getStatus(DSNStatus.PERMANENT,DSNStatus.DELIVERY_OTHER)+" No sender specified").immutable();
     private static final Response UNEXPECTED_ARG = new SMTPResponse(SMTPRetCode.SYNTAX_ERROR_COMMAND_UNRECOGNIZED, DSNStatus.getStatus(DSNStatus.PERMANENT,DSNStatus.DELIVERY_INVALID_ARG)+" Unexpected argument provided with DATA command").immutable();
     private static final Response DATA_READY = new SMTPResponse(SMTPRetCode.DATA_READY, "Ok Send data ending with <CRLF>.<CRLF>").immutable();
-    private static final Collection<String> COMMANDS = Collections.unmodifiableCollection(Arrays.asList("DATA"));
+    private static final Response DATA_NOT_ALLOWED = new SMTPResponse(SMTPRetCode.BAD_SEQUENCE, DSNStatus.getStatus(DSNStatus.PERMANENT,DSNStatus.DELIVERY_OTHER)+" DATA not allowed for BINARYMIME, use BDAT").immutable();
+    private static final Response INVALID_BDAT_ARG = new SMTPResponse(SMTPRetCode.SYNTAX_ERROR_ARGUMENTS, DSNStatus.getStatus(DSNStatus.PERMANENT,DSNStatus.DELIVERY_INVALID_ARG)+" Invalid argument provided with BDAT command").immutable();
+    private static final Response CHUNKING_IN_PROGRESS = new SMTPResponse(SMTPRetCode.BAD_SEQUENCE, DSNStatus.getStatus(DSNStatus.PERMANENT,DSNStatus.DELIVERY_OTHER)+" DATA not allowed while receiving BDAT chunks").immutable();
+    private static final Collection<String> COMMANDS = Collections.unmodifiableCollection(Arrays.asList("DATA", "BDAT"));
+    private static final byte[] END_OF_DATA = ".\r\n".getBytes();
+    private static final byte[] DOT = "..".getBytes();
+    private static final byte[] CRLF = "\r\n".getBytes();
+    
+    /**
+     * Maximal size of a header line which is buffered while splitting the headers of a chunk in lines
+     */
+    private static final int MAX_HEADER_LINE_LENGTH = 8192;
+    
+    /**
+     * Size at which the collected header lines are passed to the chain, even if the headers are not complete yet
+     */
+    private static final int MAX_HEADER_BLOCK_SIZE = 65536;
+    
+    /**
+     * Maximal number of digits of a chunk size, this is the same limit as the one used by the transport
+     */
+    private static final int MAX_SIZE_DIGITS = 18;
 
     public static final class DataConsumerLineHandler implements LineHandler<SMTPSession> {
 
@@ -89,14 +126,24 @@ public class DataCmdHandler implements CommandHandler<SMTPSession>, ExtensibleHa
    
     public final static String MAILENV = "MAILENV";
     
+    /**
+     * Transaction attachment which holds the value of the BODY parameter of the MAIL command
+     */
+    public final static String BODY_TYPE = "BODY_TYPE";
+    
+    private final static String BDAT_STATE = "BDAT_STATE";
+    
     private LineHandler<SMTPSession> lineHandler;
     
     /**
-     * process DATA command
+     * process DATA or BDAT command
      *
      */
     public Response onCommand(SMTPSession session, Request request) {
         String parameters = request.getArgument();
+        if ("BDAT".equalsIgnoreCase(request.getCommand())) {
+            return doBDAT(session, parameters);
+        }
         Response response = doDATAFilter(session,parameters);
         
         if (response == null) {
@@ -115,13 +162,81 @@ public class DataCmdHandler implements CommandHandler<SMTPSession>, ExtensibleHa
      * @param session SMTP session object
      * @param argument the argument passed in with the command by the SMTP client
      */
-    @SuppressWarnings("unchecked")
     protected Response doDATA(SMTPSession session, String argument) {
+        Response response = prepareMessage(session);
+        if (response != null) {
+            return response;
+        }
+        session.pushLineHandler(new DataLineHandler());
+        
+        return DATA_READY;
+    }
+
+    /**
+     * Prepare the session for receiving the message content. This is called
+     * once per message, before the first line of DATA or the first chunk of
+     * BDAT is passed to the {@link DataLineFilter} chain.
+     * 
+     * @param session SMTP session object
+     * @return response to return to the client if the message can not be received, <code>null</code> otherwise
+     */
+    @SuppressWarnings("unchecked")
+    protected Response prepareMessage(SMTPSession session) {
         MailEnvelope env = createEnvelope(session, (MailAddress) session.getAttachment(SMTPSession.SENDER,ProtocolSession.State.Transaction), new ArrayList<MailAddress>((Collection<MailAddress>)session.getAttachment(SMTPSession.RCPT_LIST,ProtocolSession.State.Transaction)));
         session.setAttachment(MAILENV, env,ProtocolSession.State.Transaction);
-        session.pushLineHandler(lineHandler);
+        return null;
+    }
+
+    /**
+     * Handler method called upon receipt of a BDAT command. 
+     * 
+     * The chunk which follows the command is always consumed, even if the
+     * command is rejected, as the client sends it without waiting for a
+     * response.
+     * 
+     * @param session SMTP session object
+     * @param argument the argument passed in with the command by the SMTP client
+     */
+    protected Response doBDAT(SMTPSession session, String argument) {
+        if (argument == null) {
+            return INVALID_BDAT_ARG;
+        }
+        int sizeEnd = 0;
+        while (sizeEnd < argument.length() && argument.charAt(sizeEnd) >= '0' && argument.charAt(sizeEnd) <= '9') {
+            sizeEnd++;
+        }
+        if (sizeEnd == 0 || sizeEnd > MAX_SIZE_DIGITS || (sizeEnd < argument.length() && argument.charAt(sizeEnd) != ' ')) {
+            // the transport did not read a chunk for this command
+            return INVALID_BDAT_ARG;
+        }
+        long size = Long.parseLong(argument.substring(0, sizeEnd));
+        String rest = argument.substring(sizeEnd).trim();
+        boolean last = "LAST".equalsIgnoreCase(rest);
+
+        ContentState state = (ContentState) session.getAttachment(BDAT_STATE, ProtocolSession.State.Transaction);
+        Response response = null;
+        if (rest.length() > 0 && !last) {
+            response = INVALID_BDAT_ARG;
+        } else if (state == null) {
+            if (session.getAttachment(SMTPSession.SENDER, ProtocolSession.State.Transaction) == null) {
+                response = NO_SENDER;
+            } else if (session.getAttachment(SMTPSession.RCPT_LIST, ProtocolSession.State.Transaction) == null) {
+                response = NO_RECIPIENT;
+            } else {
+                response = prepareMessage(session);
+                if (response == null) {
+                    state = new ContentState();
+                    session.setAttachment(BDAT_STATE, state, ProtocolSession.State.Transaction);
+                }
+            }
+        }
         
-        return DATA_READY;
+        BdatLineHandler handler = new BdatLineHandler(state, size, last, response);
+        session.pushLineHandler(handler);
+        if (size == 0) {
+            return handler.complete(session);
+        }
+        return null;
     }
     
     protected MailEnvelope createEnvelope(SMTPSession session, MailAddress sender, List<MailAddress> recipients) {
@@ -171,6 +286,12 @@ public class DataCmdHandler implements CommandHandler<SMTPSession>, ExtensibleHa
         if ((argument != null) && (argument.length() > 0)) {
             return UNEXPECTED_ARG;
         }
+        if ("BINARYMIME".equals(session.getAttachment(BODY_TYPE, ProtocolSession.State.Transaction))) {
+            return DATA_NOT_ALLOWED;
+        }
+        if (session.getAttachment(BDAT_STATE, ProtocolSession.State.Transaction) != null) {
+            return CHUNKING_IN_PROGRESS;
+        }
         if (session.getAttachment(SMTPSession.SENDER, ProtocolSession.State.Transaction) == null) {
             return NO_SENDER;
         } else if (session.getAttachment(SMTPSession.RCPT_LIST, ProtocolSession.State.Transaction) == null) {
@@ -183,4 +304,305 @@ public class DataCmdHandler implements CommandHandler<SMTPSession>, ExtensibleHa
         return lineHandler;
     }
 
+    /**
+     * State of a message while its content is passed to the {@link DataLineFilter} chain
+     */
+    private final static class ContentState {
+        private boolean headersComplete = false;
+
+        /**
+         * Header lines which were not passed to the chain yet, the last line may be incomplete
+         */
+        private byte[] headers;
+        private int headersLength = 0;
+
+        /**
+         * Start of the last header line in the buffer
+         */
+        private int lineStart = 0;
+
+        /**
+         * Whether the start of the last header line was passed to the chain
+         * already, because the line is too long
+         */
+        private boolean lineOpen = false;
+
+        private void append(byte[] data, int offset, int length) {
+            if (headers == null) {
+                headers = new byte[Math.max(1024, length)];
+            } else if (headersLength + length > headers.length) {
+                headers = Arrays.copyOf(headers, Math.max(headers.length * 2, headersLength + length));
+            }
+            System.arraycopy(data, offset, headers, headersLength, length);
+            headersLength += length;
+        }
+    }
+
+    /**
+     * Pass message content to the {@link DataLineFilter} chain. The content
+     * does not need to end with a complete line. The header lines are
+     * collected and passed as one block once the separator line was received,
+     * the body is passed in the blocks it was received in.
+     */
+    private Response writeContent(SMTPSession session, ContentState state, byte[] data, int offset, int length) {
+        int end = offset + length;
+        int start = offset;
+        while (!state.headersComplete && start < end) {
+            int lineEnd = start;
+            while (lineEnd < end && data[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            if (lineEnd == end) {
+                state.append(data, start, end - start);
+                if (state.headersLength - state.lineStart > MAX_HEADER_LINE_LENGTH) {
+                    // the rest of the line still follows, so it can not be
+                    // the separator
+                    state.lineOpen = true;
+                    return flushHeaders(session, state);
+                }
+                return null;
+            }
+            lineEnd++;
+            
+            int partial = state.headersLength - state.lineStart;
+            if (!state.lineOpen && ((partial == 0 && lineEnd - start == 2 && data[start] == '\r') || (partial == 1 && lineEnd - start == 1 && state.headers[state.lineStart] == '\r'))) {
+                state.headersLength = state.lineStart;
+                Response response = flushHeaders(session, state);
+                if (response != null) {
+                    return response;
+                }
+                state.headersComplete = true;
+                response = lineHandler.onLine(session, ByteBuffer.wrap(CRLF));
+                if (response != null) {
+                    return response;
+                }
+            } else {
+                state.append(data, start, lineEnd - start);
+                state.lineStart = state.headersLength;
+                state.lineOpen = false;
+                if (state.headersLength > MAX_HEADER_BLOCK_SIZE) {
+                    Response response = flushHeaders(session, state);
+                    if (response != null) {
+                        return response;
+                    }
+                }
+            }
+            start = lineEnd;
+        }
+        if (start < end) {
+            return writeBlock(session, data, start, end - start);
+        }
+        return null;
+    }
+
+    /**
+     * Pass the collected header lines to the {@link DataLineFilter} chain
+     */
+    private Response flushHeaders(SMTPSession session, ContentState state) {
+        byte[] headers = state.headers;
+        int length = state.headersLength;
+        // the buffer is handed over to the chain, so don't reuse it
+        state.headers = null;
+        state.headersLength = 0;
+        state.lineStart = 0;
+        if (length == 0) {
+            return null;
+        }
+        return writeBlock(session, headers, 0, length);
+    }
+
+    /**
+     * Pass the end of the message to the {@link DataLineFilter} chain
+     */
+    private Response endContent(SMTPSession session, ContentState state) {
+        int handlers = session.getPushedLineHandlerCount();
+        Response response = flushHeaders(session, state);
+        if (response == null) {
+            response = lineHandler.onLine(session, ByteBuffer.wrap(END_OF_DATA));
+        }
+        
+        // the end of the message normally pops the handler already
+        if (session.getPushedLineHandlerCount() == handlers) {
+            session.popLineHandler();
+            session.resetState();
+        }
+        return response;
+    }
+
+    /**
+     * Pass a block of content to the {@link DataLineFilter} chain. A leading
+     * dot gets stuffed as it would be for DATA, so that the block can not be
+     * mistaken for the end of the message.
+     */
+    private Response writeBlock(SMTPSession session, byte[] data, int offset, int length) {
+        while (data[offset] == '.') {
+            Response response = lineHandler.onLine(session, ByteBuffer.wrap(DOT));
+            if (response != null || length == 1) {
+                return response;
+            }
+            offset++;
+            length--;
+        }
+        return lineHandler.onLine(session, ByteBuffer.wrap(data, offset, length).slice());
+    }
+
+    /**
+     * {@link BulkLineHandler} which receives the content of a DATA command. As
+     * many lines as available are processed at once, the dot-stuffing is
+     * removed without copying the lines.
+     */
+    private final class DataLineHandler implements BulkLineHandler<SMTPSession> {
+
+        private final ContentState state = new ContentState();
+        private Response failure;
+
+        /*
+         * (non-Javadoc)
+         * @see org.apache.james.protocols.api.handler.BulkLineHandler#getTerminatingLine()
+         */
+        public byte[] getTerminatingLine() {
+            return END_OF_DATA;
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see org.apache.james.protocols.api.handler.LineHandler#onLine(org.apache.james.protocols.api.ProtocolSession, java.nio.ByteBuffer)
+         */
+        public Response onLine(SMTPSession session, ByteBuffer lines) {
+            byte[] data;
+            int offset;
+            int end;
+            if (lines.hasArray()) {
+                data = lines.array();
+                offset = lines.arrayOffset() + lines.position();
+                end = offset + lines.remaining();
+            } else {
+                data = new byte[lines.remaining()];
+                lines.get(data);
+                offset = 0;
+                end = data.length;
+            }
+            
+            int segment = offset;
+            int lineStart = offset;
+            boolean complete = false;
+            while (lineStart < end) {
+                int lineEnd = lineStart;
+                while (lineEnd < end && data[lineEnd] != '\n') {
+                    lineEnd++;
+                }
+                if (data[lineStart] == '.' && lineStart + 1 < end) {
+                    if (lineEnd == lineStart + 2 && lineEnd < end && data[lineStart + 1] == '\r') {
+                        complete = true;
+                        break;
+                    }
+                    if (data[lineStart + 1] == '.') {
+                        // skip the stuffed dot
+                        write(session, data, segment, lineStart - segment);
+                        segment = lineStart + 1;
+                    }
+                }
+                lineStart = lineEnd + 1;
+            }
+            write(session, data, segment, Math.min(lineStart, end) - segment);
+            
+            if (!complete) {
+                return null;
+            }
+            if (failure != null) {
+                session.popLineHandler();
+                session.resetState();
+                return failure;
+            }
+            return endContent(session, state);
+        }
+
+        private void write(SMTPSession session, byte[] data, int offset, int length) {
+            if (failure != null || length == 0) {
+                return;
+            }
+            int handlers = session.getPushedLineHandlerCount();
+            Response response = writeContent(session, state, data, offset, length);
+            if (response != null) {
+                // the message was rejected while receiving it, discard the rest of it
+                failure = response;
+                if (session.getPushedLineHandlerCount() < handlers) {
+                    session.pushLineHandler(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * {@link LineHandler} which consumes exactly one chunk and passes it to the
+     * {@link DataLineFilter} chain. The response is written after the whole
+     * chunk was received
+     */
+    private final class BdatLineHandler implements ChunkLineHandler<SMTPSession> {
+
+        private final ContentState state;
+        private final boolean last;
+        private final long size;
+        private long remaining;
+        private Response failure;
+
+        public BdatLineHandler(ContentState state, long size, boolean last, Response failure) {
+            this.state = state;
+            this.size = size;
+            this.remaining = size;
+            this.last = last;
+            this.failure = failure;
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see org.apache.james.protocols.api.handler.LineHandler#onLine(org.apache.james.protocols.api.ProtocolSession, java.nio.ByteBuffer)
+         */
+        public Response onLine(SMTPSession session, ByteBuffer line) {
+            int length = line.remaining();
+            remaining -= length;
+            if (failure == null && length > 0) {
+                byte[] data;
+                int offset;
+                if (line.hasArray()) {
+                    data = line.array();
+                    offset = line.arrayOffset() + line.position();
+                } else {
+                    data = new byte[length];
+                    line.get(data);
+                    offset = 0;
+                }
+                
+                int handlers = session.getPushedLineHandlerCount();
+                Response response = writeContent(session, state, data, offset, length);
+                if (response != null) {
+                    // the message was rejected while receiving it, discard the rest of the chunk
+                    failure = response;
+                    if (session.getPushedLineHandlerCount() < handlers) {
+                        session.pushLineHandler(this);
+                    }
+                }
+            }
+            if (remaining > 0) {
+                return null;
+            }
+            return complete(session);
+        }
+
+        /**
+         * Called once the whole chunk was received
+         */
+        public Response complete(SMTPSession session) {
+            if (failure != null) {
+                session.popLineHandler();
+                session.resetState();
+                return failure;
+            }
+            if (!last) {
+                session.popLineHandler();
+                return new SMTPResponse(SMTPRetCode.MAIL_OK, DSNStatus.getStatus(DSNStatus.SUCCESS, DSNStatus.UNDEFINED_STATUS) + " " + size + " octets received");
+            }
+            return endContent(session, state);
+        }
+    }
 }
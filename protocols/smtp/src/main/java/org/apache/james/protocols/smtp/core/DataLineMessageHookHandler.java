@@ -79,15 +79,14 @@ public class DataLineMessageHookHandler implements DataLineFilter, ExtensibleHan
                 return response;
                 
             // DotStuffing.
-            } else if (c == 46 && line.get() == 46) {
-                byte[] bline = readBytes(line);
-                out.write(bline,1,bline.length-1);
+            } else if (c == 46 && line.hasRemaining() && line.get() == 46) {
+                write(out, line, 1);
             // Standard write
             } else {
                 // TODO: maybe we should handle the Header/Body recognition here
                 // and if needed let a filter to cache the headers to apply some
                 // transformation before writing them to output.
-                out.write(readBytes(line));
+                write(out, line, 0);
             }
             out.flush();
         } catch (IOException e) {
@@ -100,16 +99,20 @@ public class DataLineMessageHookHandler implements DataLineFilter, ExtensibleHan
         return null;
     }
 
-    private byte[] readBytes(ByteBuffer line) {
+    /**
+     * Write the content of the buffer to the stream, without the given count of bytes at its start
+     */
+    private void write(OutputStream out, ByteBuffer line, int skip) throws IOException {
         line.rewind();
-        byte[] bline;
+        int length = line.remaining() - skip;
         if (line.hasArray()) {
-            bline = line.array();
+            out.write(line.array(), line.arrayOffset() + skip, length);
         } else {
-            bline = new byte[line.remaining()];
+            byte[] bline = new byte[length];
+            line.position(skip);
             line.get(bline);
+            out.write(bline);
         }
-        return bline;
     }
 
     /**
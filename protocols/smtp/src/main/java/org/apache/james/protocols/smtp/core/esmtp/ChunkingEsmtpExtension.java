@@ -0,0 +1,79 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp.core.esmtp;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.james.protocols.api.ProtocolSession.State;
+import org.apache.james.protocols.smtp.SMTPRetCode;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.core.DataCmdHandler;
+import org.apache.james.protocols.smtp.dsn.DSNStatus;
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.apache.james.protocols.smtp.hook.MailParametersHook;
+
+/**
+ * Handle the ESMTP CHUNKING and BINARYMIME extensions (RFC 3030).
+ * 
+ * The BDAT command itself is handled by the {@link DataCmdHandler}. This
+ * handler advertises the extensions and handles the BODY parameter of the MAIL
+ * command. It should only be used if the transport delivers BDAT chunks as raw
+ * frames.
+ */
+public class ChunkingEsmtpExtension implements MailParametersHook, EhloExtension {
+
+    private final static String[] MAIL_PARAMS = { "BODY" };
+    private final static List<String> FEATURES = Collections.unmodifiableList(Arrays.asList("CHUNKING", "BINARYMIME"));
+    private final static List<String> BODY_TYPES = Arrays.asList("7BIT", "8BITMIME", "BINARYMIME");
+
+    private static final HookResult SYNTAX_ERROR = new HookResult(HookReturnCode.DENY, SMTPRetCode.SYNTAX_ERROR_ARGUMENTS, DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.DELIVERY_INVALID_ARG) + " Unsupported value for BODY parameter");
+
+    /**
+     * @see org.apache.james.protocols.smtp.hook.MailParametersHook#doMailParameter(org.apache.james.protocols.smtp.SMTPSession, java.lang.String, java.lang.String)
+     */
+    public HookResult doMailParameter(SMTPSession session, String paramName, String paramValue) {
+        String bodyType = paramValue.toUpperCase(Locale.US);
+        if (!BODY_TYPES.contains(bodyType)) {
+            session.getLogger().info("Rejected unsupported value " + paramValue + " for BODY parameter");
+            return SYNTAX_ERROR;
+        }
+        session.setAttachment(DataCmdHandler.BODY_TYPE, bodyType, State.Transaction);
+        return null;
+    }
+
+    /**
+     * @see org.apache.james.protocols.smtp.hook.MailParametersHook#getMailParamNames()
+     */
+    public String[] getMailParamNames() {
+        return MAIL_PARAMS;
+    }
+
+    /**
+     * @see org.apache.james.protocols.smtp.core.esmtp.EhloExtension#getImplementedEsmtpFeatures(org.apache.james.protocols.smtp.SMTPSession)
+     */
+    public List<String> getImplementedEsmtpFeatures(SMTPSession session) {
+        return FEATURES;
+    }
+
+}
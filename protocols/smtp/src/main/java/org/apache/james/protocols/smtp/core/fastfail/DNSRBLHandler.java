@@ -48,12 +48,22 @@ public class DNSRBLHandler implements  RcptHook{
     private String[] blacklist;
         
     private boolean getDetail = false;
+
+    private boolean tempfailOnTimeout = false;
     
     private String blocklistedDetail = null;
     
     public static final String RBL_BLOCKLISTED_MAIL_ATTRIBUTE_NAME = "org.apache.james.smtpserver.rbl.blocklisted";
     
     public static final String RBL_DETAIL_MAIL_ATTRIBUTE_NAME = "org.apache.james.smtpserver.rbl.detail";
+
+    public static final String RBL_TEMPORARY_FAILURE_ATTRIBUTE_NAME = "org.apache.james.smtpserver.rbl.temporaryfailure";
+
+    /**
+     * Returned by {@link #resolveFirst(String[])} if the lists could not be
+     * checked in time
+     */
+    protected static final int TEMPORARY_FAILURE = -2;
    
     
     /**
@@ -98,6 +108,17 @@ public class DNSRBLHandler implements  RcptHook{
         this.getDetail = getDetail;
     }
 
+    /**
+     * Set if recipients get rejected with a temporary error when the lists
+     * could not be checked in time. By default the ip is then handled as not
+     * listed, so one slow or dead list can not block all mail.
+     * 
+     * @param tempfailOnTimeout Set to true to reject temporarily
+     */
+    public void setTempfailOnTimeout(boolean tempfailOnTimeout) {
+        this.tempfailOnTimeout = tempfailOnTimeout;
+    }
+
     /**
      *
      * This checks DNSRBL whitelists and blacklists.  If the remote IP is whitelisted
@@ -125,57 +146,85 @@ public class DNSRBLHandler implements  RcptHook{
             }
             String reversedOctets = sb.toString();
 
-            if (whitelist != null) {
-                String[] rblList = whitelist;
-                for (int i = 0 ; i < rblList.length ; i++) {
-                    if (resolve(reversedOctets + rblList[i])) {
-                        if (session.getLogger().isInfoEnabled()) {
-                            session.getLogger().info("Connection from " + ipAddress + " whitelisted by " + rblList[i]);
-                        }
-                    
-                        return;
-                    } else {
-                        if (session.getLogger().isDebugEnabled()) {
-                            session.getLogger().debug("IpAddress " + session.getRemoteAddress().getAddress()  + " not listed on " + rblList[i]);
-                        }
-                    }
+            // check all lists at once, a whitelist entry wins over a blacklist entry
+            int whitelistCount = whitelist != null ? whitelist.length : 0;
+            int blacklistCount = blacklist != null ? blacklist.length : 0;
+            String[] rblList = new String[whitelistCount + blacklistCount];
+            String[] names = new String[rblList.length];
+            for (int i = 0; i < whitelistCount; i++) {
+                rblList[i] = whitelist[i];
+            }
+            for (int i = 0; i < blacklistCount; i++) {
+                rblList[whitelistCount + i] = blacklist[i];
+            }
+            for (int i = 0; i < rblList.length; i++) {
+                names[i] = reversedOctets + rblList[i];
+            }
+
+            int listed = resolveFirst(names);
+
+            if (listed == TEMPORARY_FAILURE) {
+                // unless configured otherwise the ip is handled as not listed,
+                // else the client should retry later
+                session.getLogger().warn("Unable to check " + ipAddress + " against the DNSRBL lists in time");
+                session.setAttachment(RBL_TEMPORARY_FAILURE_ATTRIBUTE_NAME, tempfailOnTimeout ? "true" : null, State.Transaction);
+                return;
+            }
+            session.setAttachment(RBL_TEMPORARY_FAILURE_ATTRIBUTE_NAME, null, State.Transaction);
+
+            if (session.getLogger().isDebugEnabled()) {
+                int checked = listed < 0 ? rblList.length : listed;
+                for (int i = 0; i < checked; i++) {
+                    session.getLogger().debug("IpAddress " + session.getRemoteAddress().getAddress()  + " not listed on " + rblList[i]);
                 }
             }
 
-            if (blacklist != null) {
-                String[] rblList = blacklist;
-                for (int i = 0 ; i < rblList.length ; i++) {
-                    if (resolve(reversedOctets + rblList[i])) {
-                        if (session.getLogger().isInfoEnabled()) {
-                            session.getLogger().info("Connection from " + ipAddress + " restricted by " + rblList[i] + " to SMTP AUTH/postmaster/abuse.");
-                        }
-                        
-                        // we should try to retrieve details
-                        if (getDetail) {
-                            Collection<String> txt = resolveTXTRecords(reversedOctets + rblList[i]);
-                            
-                            // Check if we found a txt record
-                            if (!txt.isEmpty()) {
-                                // Set the detail
-                                String blocklistedDetail = txt.iterator().next().toString();
-                                
-                                session.setAttachment(RBL_DETAIL_MAIL_ATTRIBUTE_NAME, blocklistedDetail, State.Connection);
-                            }
-                        }
-                        
-                        session.setAttachment(RBL_BLOCKLISTED_MAIL_ATTRIBUTE_NAME, "true", State.Connection);
-                        return;
-                    } else {
-                        // if it is unknown, it isn't blocked
-                        if (session.getLogger().isDebugEnabled()) {
-                            session.getLogger().debug("unknown host exception thrown:" + rblList[i]);
-                        }
+            if (listed >= 0 && listed < whitelistCount) {
+                if (session.getLogger().isInfoEnabled()) {
+                    session.getLogger().info("Connection from " + ipAddress + " whitelisted by " + rblList[listed]);
+                }
+            } else if (listed >= whitelistCount) {
+                if (session.getLogger().isInfoEnabled()) {
+                    session.getLogger().info("Connection from " + ipAddress + " restricted by " + rblList[listed] + " to SMTP AUTH/postmaster/abuse.");
+                }
+
+                // we should try to retrieve details
+                if (getDetail) {
+                    Collection<String> txt = resolveTXTRecords(names[listed]);
+
+                    // Check if we found a txt record
+                    if (!txt.isEmpty()) {
+                        // Set the detail
+                        String blocklistedDetail = txt.iterator().next().toString();
+
+                        session.setAttachment(RBL_DETAIL_MAIL_ATTRIBUTE_NAME, blocklistedDetail, State.Connection);
                     }
-                   
                 }
+
+                session.setAttachment(RBL_BLOCKLISTED_MAIL_ATTRIBUTE_NAME, "true", State.Connection);
             }
         }
     }
+
+    /**
+     * Return the index of the first of the given names which is resolvable,
+     * or -1 if none of them is. Sub-classes return {@link #TEMPORARY_FAILURE}
+     * if this could not be decided, for example because a lookup timed out.
+     * 
+     * This implementation calls {@link #resolve(String)} for one name after the other. Sub-classes may override this to
+     * do the lookups in parallel.
+     * 
+     * @param names
+     * @return index
+     */
+    protected int resolveFirst(String[] names) {
+        for (int i = 0; i < names.length; i++) {
+            if (resolve(names[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
     
     /**
      * Check if the given ipaddress is resolvable. 
@@ -225,6 +274,12 @@ public class DNSRBLHandler implements  RcptHook{
                 }
                
             }
+
+            if (session.getAttachment(RBL_TEMPORARY_FAILURE_ATTRIBUTE_NAME, State.Transaction) != null) {
+                return new HookResult(HookReturnCode.DENYSOFT, DSNStatus.getStatus(DSNStatus.TRANSIENT,
+                        DSNStatus.NETWORK_DIR_SERVER) + " Temporary problem checking " + session.getRemoteAddress().getAddress()
+                        + " against DNSRBL lists. Please try again later.");
+            }
         }
         return HookResult.declined();
     }
@@ -35,6 +35,7 @@ import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.smtp.MailAddress;
 import org.apache.james.protocols.smtp.MailAddressException;
 import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
 import org.apache.james.protocols.smtp.utils.BaseFakeSMTPSession;
 import org.junit.Before;
 import org.junit.Test;
@@ -257,6 +258,49 @@ public class DNSRBLHandlerTest {
         assertNull(mockedSMTPSession.getAttachment(RBL_DETAIL_MAIL_ATTRIBUTE_NAME, State.Connection));
         assertNull("Not blocked", mockedSMTPSession.getAttachment(RBL_BLOCKLISTED_MAIL_ATTRIBUTE_NAME, State.Connection));
     }
+
+    // lists which did not answer in time are a temporary failure if configured
+    @Test
+    public void testTemporaryFailure() throws MailAddressException {
+        DNSRBLHandler rbl = new DNSRBLHandler() {
+
+            @Override
+            protected int resolveFirst(String[] names) {
+                return TEMPORARY_FAILURE;
+            }
+
+        };
+
+        setRemoteIp("127.0.0.2");
+        setupMockedSMTPSession(new MailAddress("any@domain"));
+
+        rbl.setBlacklist(new String[] { "bl.spamcop.net." });
+        rbl.setTempfailOnTimeout(true);
+        int code = rbl.doRcpt(mockedSMTPSession, null, new MailAddress("test@localhost")).getResult();
+        assertEquals("Temporary failure", HookReturnCode.DENYSOFT, code);
+        assertNull("Not blocked", mockedSMTPSession.getAttachment(RBL_BLOCKLISTED_MAIL_ATTRIBUTE_NAME, State.Connection));
+    }
+
+    // by default lists which did not answer in time do not list the ip
+    @Test
+    public void testTemporaryFailureIsNotListedByDefault() throws MailAddressException {
+        DNSRBLHandler rbl = new DNSRBLHandler() {
+
+            @Override
+            protected int resolveFirst(String[] names) {
+                return TEMPORARY_FAILURE;
+            }
+
+        };
+
+        setRemoteIp("127.0.0.2");
+        setupMockedSMTPSession(new MailAddress("any@domain"));
+
+        rbl.setBlacklist(new String[] { "bl.spamcop.net." });
+        int code = rbl.doRcpt(mockedSMTPSession, null, new MailAddress("test@localhost")).getResult();
+        assertEquals("Not rejected", HookReturnCode.DECLINED, code);
+        assertNull("Not blocked", mockedSMTPSession.getAttachment(RBL_BLOCKLISTED_MAIL_ATTRIBUTE_NAME, State.Connection));
+    }
    
 
 }
@@ -0,0 +1,113 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.james.protocols.netty.AbstractChannelPipelineFactory;
+import org.apache.james.protocols.netty.ChunkingFrameDecoder;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.util.CharsetUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChunkingFrameDecoderTest {
+
+    private ChunkingFrameDecoder decoder;
+
+    private DecoderEmbedder<ChannelBuffer> embedder;
+
+    @Before
+    public void setUp() {
+        decoder = new ChunkingFrameDecoder(AbstractChannelPipelineFactory.MAX_LINE_LENGTH, "BDAT");
+        embedder = new DecoderEmbedder<ChannelBuffer>(decoder);
+    }
+
+    private void offer(String data) {
+        embedder.offer(ChannelBuffers.copiedBuffer(data, CharsetUtil.ISO_8859_1));
+    }
+
+    private String poll() {
+        ChannelBuffer frame = embedder.poll();
+        return frame == null ? null : frame.toString(CharsetUtil.ISO_8859_1);
+    }
+
+    @Test
+    public void testChunk() {
+        offer("BDAT 6\r\nab\r\ncdNOOP\r\n");
+        assertEquals("BDAT 6\r\n", poll());
+        assertEquals("ab\r\ncd", poll());
+        assertEquals("NOOP\r\n", poll());
+        assertNull(poll());
+    }
+
+    @Test
+    public void testNoChunkInBody() {
+        offer("DATA\r\n");
+        assertEquals("DATA\r\n", poll());
+
+        // a line handler consumes the message body
+        decoder.setCommandMode(false);
+        offer("BDAT 100000\r\nline\r\n.\r\n");
+        assertEquals("BDAT 100000\r\n", poll());
+        assertEquals("line\r\n", poll());
+        assertEquals(".\r\n", poll());
+
+        decoder.setCommandMode(true);
+        offer("BDAT 2 LAST\r\nab");
+        assertEquals("BDAT 2 LAST\r\n", poll());
+        assertEquals("ab", poll());
+        assertNull(poll());
+    }
+
+    @Test
+    public void testCommandsAfterChunk() {
+        // the client sends the next transaction without waiting for the
+        // handler of the first chunk to be removed
+        offer("BDAT 2 LAST\r\nabMAIL FROM:<a@b>\r\nRCPT TO:<c@d>\r\nBDAT 3 LAST\r\ncde");
+        assertEquals("BDAT 2 LAST\r\n", poll());
+        assertEquals("ab", poll());
+        assertEquals("MAIL FROM:<a@b>\r\n", poll());
+        assertEquals("RCPT TO:<c@d>\r\n", poll());
+        assertEquals("BDAT 3 LAST\r\n", poll());
+        assertEquals("cde", poll());
+        assertNull(poll());
+    }
+
+    @Test
+    public void testCommandsAfterBulk() {
+        offer("DATA\r\n");
+        assertEquals("DATA\r\n", poll());
+
+        decoder.setCommandMode(false);
+        decoder.startBulk(".\r\n".getBytes());
+        offer("BDAT 5\r\nline\r\n.\r\nBDAT 2 LAST\r\nab");
+        assertEquals("BDAT 5\r\nline\r\n.\r\n", poll());
+
+        // the terminating line ends the command mode before the handler is
+        // removed
+        assertEquals("BDAT 2 LAST\r\n", poll());
+        assertEquals("ab", poll());
+        assertNull(poll());
+    }
+}
@@ -0,0 +1,208 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp.netty;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import org.apache.james.protocols.api.Protocol;
+import org.apache.james.protocols.api.utils.MockLogger;
+import org.apache.james.protocols.api.utils.TestUtils;
+import org.apache.james.protocols.netty.AbstractChannelPipelineFactory;
+import org.apache.james.protocols.netty.ChunkingFrameDecoder;
+import org.apache.james.protocols.netty.NettyServer;
+import org.apache.james.protocols.smtp.MailEnvelope;
+import org.apache.james.protocols.smtp.SMTPConfigurationImpl;
+import org.apache.james.protocols.smtp.SMTPProtocol;
+import org.apache.james.protocols.smtp.SMTPProtocolHandlerChain;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.apache.james.protocols.smtp.hook.MessageHook;
+import org.jboss.netty.channel.ChannelHandler;
+
+/**
+ * Simple throughput benchmark for receiving messages via DATA. Every message
+ * size is sent to a server which passes the message line by line and to a
+ * server which uses a {@link ChunkingFrameDecoder} and so passes the message
+ * in bulk. Run it via its main method.
+ */
+public class DataIngestionBench {
+
+    private final static int[] SIZES = { 10 * 1024, 1024 * 1024, 50 * 1024 * 1024 };
+    private final static int[] MESSAGES = { 500, 20, 2 };
+
+    public static void main(String[] args) throws Exception {
+        for (boolean bulk : new boolean[] { false, true }) {
+            NettyServer server = createServer(bulk);
+            InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+            server.setListenAddresses(address);
+            server.bind();
+            try {
+                // warmup
+                run(address, SIZES[0], MESSAGES[0], false);
+                run(address, SIZES[1], MESSAGES[1], false);
+                Thread.sleep(100);
+
+                System.out.println(bulk ? "bulk lines" : "single lines");
+                for (int i = 0; i < SIZES.length; i++) {
+                    run(address, SIZES[i], MESSAGES[i], true);
+                }
+            } finally {
+                server.unbind();
+            }
+        }
+    }
+
+    private static NettyServer createServer(boolean bulk) throws Exception {
+        SMTPProtocolHandlerChain chain = new SMTPProtocolHandlerChain();
+        chain.add(0, new MessageHook() {
+            public HookResult onMessage(SMTPSession session, MailEnvelope mail) {
+                return new HookResult(HookReturnCode.OK);
+            }
+        });
+        chain.wireExtensibleHandlers();
+        Protocol protocol = new SMTPProtocol(chain, new SMTPConfigurationImpl(), new QuietLogger());
+        if (!bulk) {
+            return new NettyServer(protocol);
+        }
+        return new NettyServer(protocol) {
+            @Override
+            protected ChannelHandler createFrameHandler() {
+                return new ChunkingFrameDecoder(AbstractChannelPipelineFactory.MAX_LINE_LENGTH, "BDAT");
+            }
+        };
+    }
+
+    private static void run(InetSocketAddress address, int size, int messages, boolean print) throws Exception {
+        byte[] message = createMessage(size);
+
+        Socket socket = new Socket(address.getAddress(), address.getPort());
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 65536);
+        expect(in, "220");
+        send(out, "HELO localhost\r\n");
+        expect(in, "250");
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            send(out, "MAIL FROM:<sender@localhost>\r\n");
+            expect(in, "250");
+            send(out, "RCPT TO:<rcpt@localhost>\r\n");
+            expect(in, "250");
+            send(out, "DATA\r\n");
+            expect(in, "354");
+            out.write(message);
+            send(out, ".\r\n");
+            expect(in, "250");
+        }
+        long time = System.nanoTime() - t0;
+
+        send(out, "QUIT\r\n");
+        expect(in, "221");
+        socket.close();
+
+        if (print) {
+            double mb = (double) size * messages / (1024 * 1024);
+            System.out.println("  " + (size / 1024) + " KB x " + messages + ": " + (time / messages / 1000) + " us/message, "
+                    + Math.round(mb / (time / 1000000000.0)) + " MB/s");
+        }
+    }
+
+    /**
+     * Create a message of lines of 78 characters, every tenth line gets dot-stuffed
+     */
+    private static byte[] createMessage(int size) throws Exception {
+        StringBuilder sb = new StringBuilder(size + 100);
+        sb.append("Subject: Benchmark\r\nFrom: sender@localhost\r\nTo: rcpt@localhost\r\n\r\n");
+        int line = 0;
+        while (sb.length() < size) {
+            if (line++ % 10 == 0) {
+                sb.append("..");
+            }
+            for (int i = 0; i < 76; i++) {
+                sb.append((char) ('a' + (line + i) % 26));
+            }
+            sb.append("\r\n");
+        }
+        return sb.toString().getBytes("US-ASCII");
+    }
+
+    private static void send(OutputStream out, String line) throws Exception {
+        out.write(line.getBytes("US-ASCII"));
+        out.flush();
+    }
+
+    private static void expect(BufferedReader in, String code) throws Exception {
+        String line = in.readLine();
+        if (line == null || !line.startsWith(code)) {
+            throw new IllegalStateException("Expected " + code + " but got " + line);
+        }
+    }
+
+    /**
+     * Only log warnings and errors to not measure the logging
+     */
+    private final static class QuietLogger extends MockLogger {
+
+        @Override
+        public boolean isTraceEnabled() {
+            return false;
+        }
+
+        @Override
+        public void trace(String msg) {
+        }
+
+        @Override
+        public void trace(String msg, Throwable t) {
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return false;
+        }
+
+        @Override
+        public void debug(String msg) {
+        }
+
+        @Override
+        public void debug(String msg, Throwable t) {
+        }
+
+        @Override
+        public boolean isInfoEnabled() {
+            return false;
+        }
+
+        @Override
+        public void info(String msg) {
+        }
+
+        @Override
+        public void info(String msg, Throwable t) {
+        }
+    }
+}
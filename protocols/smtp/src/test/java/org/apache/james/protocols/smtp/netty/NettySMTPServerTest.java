@@ -18,12 +18,38 @@
  ****************************************************************/
 package org.apache.james.protocols.smtp.netty;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
 
 import org.apache.james.protocols.api.Protocol;
 import org.apache.james.protocols.api.ProtocolServer;
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.handler.LineHandler;
+import org.apache.james.protocols.api.utils.TestUtils;
+import org.apache.james.protocols.netty.AbstractChannelPipelineFactory;
+import org.apache.james.protocols.netty.ChunkingFrameDecoder;
 import org.apache.james.protocols.netty.NettyServer;
 import org.apache.james.protocols.smtp.AbstractSMTPServerTest;
+import org.apache.james.protocols.smtp.MailEnvelope;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.core.SeparatingDataLineFilter;
+import org.apache.james.protocols.smtp.core.esmtp.ChunkingEsmtpExtension;
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.utils.TestMessageHook;
+import org.jboss.netty.channel.ChannelHandler;
+import org.junit.Test;
 
 /**
  * Integration tests which use netty implementation
@@ -35,8 +61,380 @@ public class NettySMTPServerTest extends AbstractSMTPServerTest{
     
     @Override
     protected ProtocolServer createServer(Protocol protocol, InetSocketAddress address) {
-        NettyServer server =  new NettyServer(protocol);
+        NettyServer server =  new NettyServer(protocol) {
+
+            @Override
+            protected ChannelHandler createFrameHandler() {
+                return new ChunkingFrameDecoder(AbstractChannelPipelineFactory.MAX_LINE_LENGTH, "BDAT");
+            }
+            
+        };
         server.setListenAddresses(address);
         return server;
     }
+    
+    @Test
+    public void testChunkedDelivery() throws Exception {
+        TestMessageHook hook = new TestMessageHook();
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        ProtocolServer server = null;
+        try {
+            server = createServer(createProtocol(hook, new ChunkingEsmtpExtension()), address);  
+            server.bind();
+            
+            Socket socket = new Socket(address.getAddress(), address.getPort());
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            OutputStream out = socket.getOutputStream();
+            assertTrue(readResponse(in).startsWith("220"));
+            
+            write(out, "EHLO localhost\r\n");
+            String ehlo = readResponse(in);
+            assertTrue(ehlo, ehlo.contains("CHUNKING"));
+            assertTrue(ehlo, ehlo.contains("BINARYMIME"));
+            
+            write(out, "MAIL FROM:<" + SENDER + "> BODY=BINARYMIME\r\n");
+            assertTrue(readResponse(in).startsWith("250"));
+            write(out, "RCPT TO:<" + RCPT1 + ">\r\n");
+            assertTrue(readResponse(in).startsWith("250"));
+
+            // the chunks end in the middle of lines, contain a line which looks like the end of DATA
+            // and bare line feeds and the last chunk is followed by the next command in the same packet
+            byte[] msg = "Subject: Test\r\nX-Test: chunk\r\n\r\nfirst\r\n.\r\n.\nbin\u0000\nary\r\n.".getBytes("ISO-8859-1");
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            data.write(("BDAT 20\r\n").getBytes("US-ASCII"));
+            data.write(msg, 0, 20);
+            data.write(("BDAT " + (msg.length - 20) + " LAST\r\n").getBytes("US-ASCII"));
+            data.write(msg, 20, msg.length - 20);
+            data.write("NOOP\r\n".getBytes("US-ASCII"));
+            out.write(data.toByteArray());
+            out.flush();
+            
+            assertEquals("250 2.0.0 20 octets received", readResponse(in));
+            assertTrue(readResponse(in).startsWith("250"));
+            assertTrue(readResponse(in).startsWith("250"));
+            
+            write(out, "QUIT\r\n");
+            assertTrue(readResponse(in).startsWith("221"));
+            socket.close();
+            
+            Iterator<MailEnvelope> queued = hook.getQueued().iterator();
+            assertTrue(queued.hasNext());
+            
+            MailEnvelope env = queued.next();
+            assertEquals(SENDER, env.getSender().toString());
+            assertEquals(1, env.getRecipients().size());
+            
+            byte[] content = readContent(env.getMessageInputStream());
+            String received = new String(content, "ISO-8859-1");
+            assertTrue(received, received.startsWith("Received: "));
+            byte[] queuedMsg = new byte[msg.length];
+            System.arraycopy(content, received.indexOf("Subject: "), queuedMsg, 0, queuedMsg.length);
+            assertArrayEquals(msg, queuedMsg);
+            assertFalse(queued.hasNext());
+
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+    
+    @Test
+    public void testLongHeaderLineInChunks() throws Exception {
+        TestMessageHook hook = new TestMessageHook();
+        // marks where the chain sees the end of the headers
+        SeparatingDataLineFilter filter = new SeparatingDataLineFilter() {
+
+            @Override
+            protected Response onSeparatorLine(SMTPSession session, ByteBuffer line, LineHandler<SMTPSession> next) {
+                Response response = next.onLine(session, ByteBuffer.wrap("X-Separator: true\r\n".getBytes()));
+                if (response != null) {
+                    return response;
+                }
+                return super.onSeparatorLine(session, line, next);
+            }
+            
+        };
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        ProtocolServer server = null;
+        try {
+            server = createServer(createProtocol(hook, filter, new ChunkingEsmtpExtension()), address);  
+            server.bind();
+            
+            Socket socket = new Socket(address.getAddress(), address.getPort());
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            OutputStream out = socket.getOutputStream();
+            assertTrue(readResponse(in).startsWith("220"));
+            
+            write(out, "EHLO localhost\r\n");
+            readResponse(in);
+            
+            write(out, "MAIL FROM:<" + SENDER + ">\r\n");
+            assertTrue(readResponse(in).startsWith("250"));
+            write(out, "RCPT TO:<" + RCPT1 + ">\r\n");
+            assertTrue(readResponse(in).startsWith("250"));
+            
+            // the first chunk ends in a header line which is too long to be
+            // buffered, the second one starts with the end of that line
+            StringBuilder header = new StringBuilder("Subject: ");
+            while (header.length() < 10000) {
+                header.append("long ");
+            }
+            write(out, "BDAT " + header.length() + "\r\n" + header);
+            assertTrue(readResponse(in).startsWith("250"));
+            String rest = "\r\nX-Test: second\r\n\r\nbody\r\n";
+            write(out, "BDAT " + rest.length() + " LAST\r\n" + rest);
+            assertTrue(readResponse(in).startsWith("250"));
+            
+            write(out, "QUIT\r\n");
+            assertTrue(readResponse(in).startsWith("221"));
+            socket.close();
+            
+            Iterator<MailEnvelope> queued = hook.getQueued().iterator();
+            assertTrue(queued.hasNext());
+            String received = new String(readContent(queued.next().getMessageInputStream()), "US-ASCII");
+            assertTrue(received, received.endsWith(header + "\r\nX-Test: second\r\nX-Separator: true\r\n\r\nbody\r\n"));
+            assertFalse(queued.hasNext());
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+    
+    @Test
+    public void testChunkConsumedOnError() throws Exception {
+        TestMessageHook hook = new TestMessageHook();
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        ProtocolServer server = null;
+        try {
+            server = createServer(createProtocol(hook, new ChunkingEsmtpExtension()), address);  
+            server.bind();
+            
+            Socket socket = new Socket(address.getAddress(), address.getPort());
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            OutputStream out = socket.getOutputStream();
+            assertTrue(readResponse(in).startsWith("220"));
+            
+            write(out, "EHLO localhost\r\n");
+            readResponse(in);
+            
+            // no sender, the chunk must not be parsed as commands
+            write(out, "BDAT 12 LAST\r\nQUIT\r\nQUIT\r\nNOOP\r\n");
+            assertTrue(readResponse(in).startsWith("503"));
+            assertTrue(readResponse(in).startsWith("250"));
+            
+            write(out, "MAIL FROM:<" + SENDER + "> BODY=BINARYMIME\r\n");
+            assertTrue(readResponse(in).startsWith("250"));
+            write(out, "RCPT TO:<" + RCPT1 + ">\r\n");
+            assertTrue(readResponse(in).startsWith("250"));
+            write(out, "DATA\r\n");
+            assertTrue(readResponse(in).startsWith("503"));
+            
+            write(out, "QUIT\r\n");
+            assertTrue(readResponse(in).startsWith("221"));
+            socket.close();
+            
+            assertFalse(hook.getQueued().iterator().hasNext());
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+    
+    @Test
+    public void testChunkCommandInDataBody() throws Exception {
+        TestMessageHook hook = new TestMessageHook();
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        ProtocolServer server = null;
+        try {
+            server = createServer(createProtocol(hook, new ChunkingEsmtpExtension()), address);  
+            server.bind();
+            
+            Socket socket = new Socket(address.getAddress(), address.getPort());
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            OutputStream out = socket.getOutputStream();
+            assertTrue(readResponse(in).startsWith("220"));
+            
+            write(out, "EHLO localhost\r\n");
+            readResponse(in);
+            
+            write(out, "MAIL FROM:<" + SENDER + ">\r\n");
+            assertTrue(readResponse(in).startsWith("250"));
+            write(out, "RCPT TO:<" + RCPT1 + ">\r\n");
+            assertTrue(readResponse(in).startsWith("250"));
+            write(out, "DATA\r\n");
+            assertTrue(readResponse(in).startsWith("354"));
+            
+            // a body line which looks like a chunk command must not switch the framer to raw data
+            write(out, "Subject: Test\r\n\r\nBDAT 100000\r\n.\r\nNOOP\r\n");
+            assertTrue(readResponse(in).startsWith("250"));
+            assertTrue(readResponse(in).startsWith("250"));
+            
+            write(out, "QUIT\r\n");
+            assertTrue(readResponse(in).startsWith("221"));
+            socket.close();
+            
+            Iterator<MailEnvelope> queued = hook.getQueued().iterator();
+            assertTrue(queued.hasNext());
+            String received = new String(readContent(queued.next().getMessageInputStream()), "US-ASCII");
+            assertTrue(received, received.endsWith("\r\nBDAT 100000\r\n"));
+            assertFalse(queued.hasNext());
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+    
+    @Test
+    public void testPipelinedChunkedTransactions() throws Exception {
+        // the hook is slow, so the data of the next transaction is decoded
+        // while the handler of the last chunk is still pushed
+        TestMessageHook hook = new TestMessageHook() {
+
+            @Override
+            public HookResult onMessage(SMTPSession session, MailEnvelope mail) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.onMessage(session, mail);
+            }
+            
+        };
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        NettyServer server = null;
+        try {
+            server = (NettyServer) createServer(createProtocol(hook, new ChunkingEsmtpExtension()), address);
+            server.setUseExecutionHandler(true, 4);
+            server.bind();
+            
+            Socket socket = new Socket(address.getAddress(), address.getPort());
+            socket.setSoTimeout(10000);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            OutputStream out = socket.getOutputStream();
+            assertTrue(readResponse(in).startsWith("220"));
+            
+            write(out, "EHLO localhost\r\n");
+            readResponse(in);
+            
+            String msg1 = "Subject: First\r\n\r\nfirst\r\n";
+            String msg2 = "Subject: Second\r\n\r\nsecond";
+            write(out, "MAIL FROM:<" + SENDER + ">\r\nRCPT TO:<" + RCPT1 + ">\r\nBDAT " + msg1.length() + " LAST\r\n" + msg1);
+            
+            // give the server the time to push the handler of the chunk
+            Thread.sleep(200);
+            write(out, "MAIL FROM:<" + SENDER + ">\r\nRCPT TO:<" + RCPT1 + ">\r\nBDAT " + msg2.length() + " LAST\r\n" + msg2 + "NOOP\r\n");
+            
+            for (int i = 0; i < 7; i++) {
+                String response = readResponse(in);
+                assertTrue(response, response.startsWith("250"));
+            }
+            
+            write(out, "QUIT\r\n");
+            assertTrue(readResponse(in).startsWith("221"));
+            socket.close();
+            
+            Iterator<MailEnvelope> queued = hook.getQueued().iterator();
+            for (String msg: new String[] {msg1, msg2}) {
+                assertTrue(queued.hasNext());
+                String received = new String(readContent(queued.next().getMessageInputStream()), "US-ASCII");
+                assertTrue(received, received.startsWith("Received: "));
+                assertEquals(msg, received.substring(received.indexOf("Subject: ")));
+            }
+            assertFalse(queued.hasNext());
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+    
+    @Test
+    public void testBulkDataDelivery() throws Exception {
+        TestMessageHook hook = new TestMessageHook();
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        ProtocolServer server = null;
+        try {
+            server = createServer(createProtocol(hook), address);  
+            server.bind();
+            
+            Socket socket = new Socket(address.getAddress(), address.getPort());
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            OutputStream out = socket.getOutputStream();
+            assertTrue(readResponse(in).startsWith("220"));
+            
+            write(out, "HELO localhost\r\n");
+            assertTrue(readResponse(in).startsWith("250"));
+
+            String msg = "Subject: Test\r\n.X-Dot: stuffed\r\n\r\n.\r\n..\r\nline\r\n.a\r\n.\n";
+            for (int i = 0; i < 2; i++) {
+                write(out, "MAIL FROM:<" + SENDER + ">\r\n");
+                assertTrue(readResponse(in).startsWith("250"));
+                write(out, "RCPT TO:<" + RCPT1 + ">\r\n");
+                assertTrue(readResponse(in).startsWith("250"));
+                write(out, "DATA\r\n");
+                assertTrue(readResponse(in).startsWith("354"));
+                
+                // the whole message and the next command are sent in one packet
+                write(out, "Subject: Test\r\n..X-Dot: stuffed\r\n\r\n..\r\n...\r\nline\r\n..a\r\n.\n.\r\nNOOP\r\n");
+                assertTrue(readResponse(in).startsWith("250"));
+                assertTrue(readResponse(in).startsWith("250"));
+            }
+            
+            write(out, "QUIT\r\n");
+            assertTrue(readResponse(in).startsWith("221"));
+            socket.close();
+            
+            Iterator<MailEnvelope> queued = hook.getQueued().iterator();
+            for (int i = 0; i < 2; i++) {
+                assertTrue(queued.hasNext());
+                String received = new String(readContent(queued.next().getMessageInputStream()), "US-ASCII");
+                assertTrue(received, received.startsWith("Received: "));
+                assertEquals(msg, received.substring(received.indexOf("Subject: ")));
+            }
+            assertFalse(queued.hasNext());
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+    
+    private static void write(OutputStream out, String line) throws Exception {
+        out.write(line.getBytes("US-ASCII"));
+        out.flush();
+    }
+    
+    /**
+     * Read a possible multi-line response and return it without the line delimiters
+     */
+    private static String readResponse(BufferedReader in) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        String line;
+        do {
+            line = in.readLine();
+            sb.append(line);
+        } while (line != null && line.length() > 3 && line.charAt(3) == '-');
+        return sb.toString();
+    }
+    
+    private static byte[] readContent(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int i;
+        while ((i = in.read(buf)) != -1) {
+            out.write(buf, 0, i);
+        }
+        return out.toByteArray();
+    }
 }
@@ -38,10 +38,13 @@ import java.io.OptionalDataException;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -168,16 +171,12 @@ public class MailImpl implements Disposable, Mail {
         setRemoteAddr(mail.getRemoteAddr());
         setLastUpdated(mail.getLastUpdated());
         try {
-            if (mail instanceof MailImpl) {
-                setAttributesRaw((HashMap) cloneSerializableObject(((MailImpl) mail).getAttributesRaw()));
-            } else {
-                HashMap attribs = new HashMap();
-                for (Iterator i = mail.getAttributeNames(); i.hasNext();) {
-                    String hashKey = (String) i.next();
-                    attribs.put(hashKey, cloneSerializableObject(mail.getAttribute(hashKey)));
-                }
-                setAttributesRaw(attribs);
+            HashMap attribs = new HashMap();
+            for (Iterator i = mail.getAttributeNames(); i.hasNext();) {
+                String hashKey = (String) i.next();
+                attribs.put(hashKey, cloneAttribute(mail.getAttribute(hashKey)));
             }
+            setAttributesRaw(attribs);
         } catch (IOException e) {
             // should never happen for in memory streams
             setAttributesRaw(new HashMap());
@@ -647,6 +646,24 @@ public class MailImpl implements Disposable, Mail {
         return !attributes.isEmpty();
     }
 
+    /**
+     * Copy an attribute value for a new mail. Values of immutable types are
+     * shared, as serializing them is by far the most expensive part of
+     * duplicating a mail.
+     * 
+     * @param o
+     *            the value
+     * @return copy
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private static Object cloneAttribute(Object o) throws IOException, ClassNotFoundException {
+        if (o == null || IMMUTABLE_ATTRIBUTE_TYPES.contains(o.getClass())) {
+            return o;
+        }
+        return cloneSerializableObject(o);
+    }
+
     /**
      * This methods provide cloning for serializable objects. Mail Attributes
      * are Serializable but not Clonable so we need a deep copy
@@ -669,6 +686,9 @@ public class MailImpl implements Disposable, Mail {
         return no;
     }
 
+    /** Attribute types which do not need to be copied */
+    private static final Set<Class<?>> IMMUTABLE_ATTRIBUTE_TYPES = new HashSet<Class<?>>(Arrays.<Class<?>> asList(String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class));
+
     private static final java.util.Random random = new java.util.Random(); // Used
                                                                            // to
                                                                            // generate
@@ -0,0 +1,391 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.core;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.mail.internet.SharedInputStream;
+import javax.mail.util.SharedFileInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * {@link OutputStream} which stores the written data in the buffers of a
+ * {@link MessageBufferPool}. Once the pool is exhausted the rest of the data
+ * is written to a temporary file, which is read via a
+ * {@link SharedFileInputStream}.
+ * 
+ * The data can be read via {@link #getInputStream()} once the stream was
+ * closed. The buffers are given back to the pool by {@link #release()}, after
+ * that all streams of this buffer fail.
+ */
+final class MessageBuffer extends OutputStream {
+
+    private final MessageBufferPool pool;
+    private final String key;
+    private final File dir;
+
+    private final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+    private ByteBuffer current;
+    private File file;
+    private OutputStream fileOut;
+    private long size;
+    private boolean closed;
+    private volatile boolean released;
+
+    /**
+     * Read only views of the buffers and their offsets, created on close
+     */
+    private ByteBuffer[] regions;
+    private long[] offsets;
+
+    /**
+     * Count of bytes held in the buffers, the rest is in the temporary file
+     */
+    private long bufferedSize;
+    private SharedFileInputStream fileIn;
+
+    /**
+     * @param pool
+     *            the pool to take the buffers from
+     * @param key
+     *            the prefix for the name of the temporary file
+     * @param dir
+     *            the directory to create the temporary file in
+     */
+    MessageBuffer(MessageBufferPool pool, String key, File dir) {
+        this.pool = pool;
+        this.key = key;
+        this.dir = dir;
+    }
+
+    /**
+     * @see java.io.OutputStream#write(int)
+     */
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    /**
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        size += len;
+        while (len > 0 && fileOut == null) {
+            if (current == null || !current.hasRemaining()) {
+                nextBuffer();
+            } else {
+                int n = Math.min(len, current.remaining());
+                current.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+        if (len > 0) {
+            fileOut.write(b, off, len);
+        }
+    }
+
+    /**
+     * Take the next buffer from the pool or start to write to the temporary
+     * file if the pool is exhausted
+     */
+    private void nextBuffer() throws IOException {
+        current = pool.acquire();
+        if (current != null) {
+            buffers.add(current);
+        } else {
+            file = File.createTempFile(key, ".m64", dir);
+            fileOut = new BufferedOutputStream(new FileOutputStream(file));
+        }
+    }
+
+    /**
+     * @see java.io.OutputStream#flush()
+     */
+    public void flush() throws IOException {
+        if (fileOut != null) {
+            fileOut.flush();
+        }
+    }
+
+    /**
+     * @see java.io.OutputStream#close()
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        List<ByteBuffer> views = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < buffers.size(); i++) {
+            ByteBuffer view = buffers.get(i).duplicate();
+            view.flip();
+            views.add(view.asReadOnlyBuffer());
+        }
+        regions = views.toArray(new ByteBuffer[views.size()]);
+        offsets = new long[regions.length];
+        long offset = 0;
+        for (int i = 0; i < regions.length; i++) {
+            offsets[i] = offset;
+            offset += regions[i].limit();
+        }
+        bufferedSize = offset;
+
+        if (fileOut != null) {
+            fileOut.close();
+            fileIn = new SharedFileInputStream(file);
+        }
+    }
+
+    /**
+     * Return the count of bytes written to this stream
+     * 
+     * @return size
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Return a new stream which reads the data of this buffer. This closes the
+     * buffer for writing.
+     * 
+     * @return stream an {@link InputStream} which implements {@link SharedInputStream}
+     * @throws IOException
+     */
+    public InputStream getInputStream() throws IOException {
+        if (released) {
+            throw new IOException("Message buffer was released");
+        }
+        close();
+        return new RegionInputStream(0, size);
+    }
+
+    /**
+     * Give the buffers back to the pool and delete the temporary file
+     */
+    public void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        IOUtils.closeQuietly(fileOut);
+        IOUtils.closeQuietly(fileIn);
+
+        for (int i = 0; i < buffers.size(); i++) {
+            pool.release(buffers.get(i));
+        }
+        buffers.clear();
+        current = null;
+        regions = null;
+
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    /**
+     * {@link SharedInputStream} which reads a range of the buffers and the
+     * temporary file
+     */
+    private final class RegionInputStream extends InputStream implements SharedInputStream {
+
+        private final long start;
+        private final long end;
+        private long position;
+        private long mark;
+
+        /**
+         * The region which contains the position and its index
+         */
+        private ByteBuffer region;
+        private int index;
+
+        /**
+         * Stream of the temporary file and the position it is at
+         */
+        private InputStream fileStream;
+        private long filePosition;
+
+        public RegionInputStream(long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.position = start;
+            this.mark = start;
+        }
+
+        /**
+         * Move the current region to the position, return <code>false</code>
+         * if the end of the stream was reached or the position is in the
+         * temporary file
+         */
+        private boolean seek() throws IOException {
+            if (released) {
+                throw new IOException("Message buffer was released");
+            }
+            if (position >= end || position >= bufferedSize) {
+                return false;
+            }
+            if (region == null || position < offsets[index] || position >= offsets[index] + region.limit()) {
+                int i = Arrays.binarySearch(offsets, position);
+                index = i >= 0 ? i : -i - 2;
+                region = regions[index].duplicate();
+            }
+            region.position((int) (position - offsets[index]));
+            return true;
+        }
+
+        /**
+         * Return a stream of the temporary file which is at the position
+         */
+        private InputStream fileStream() throws IOException {
+            if (released) {
+                throw new IOException("Message buffer was released");
+            }
+            if (fileStream == null || filePosition != position) {
+                IOUtils.closeQuietly(fileStream);
+                fileStream = fileIn.newStream(position - bufferedSize, -1);
+                filePosition = position;
+            }
+            return fileStream;
+        }
+
+        /**
+         * @see java.io.InputStream#read()
+         */
+        public int read() throws IOException {
+            if (seek()) {
+                position++;
+                return region.get() & 0xff;
+            }
+            if (position >= end) {
+                return -1;
+            }
+            int b = fileStream().read();
+            if (b >= 0) {
+                position++;
+                filePosition++;
+            }
+            return b;
+        }
+
+        /**
+         * @see java.io.InputStream#read(byte[], int, int)
+         */
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int read = 0;
+            while (read < len && seek()) {
+                int n = (int) Math.min(Math.min(len - read, region.remaining()), end - position);
+                region.get(b, off + read, n);
+                position += n;
+                read += n;
+            }
+            if (read < len && position < end && position >= bufferedSize) {
+                int n = fileStream().read(b, off + read, (int) Math.min(len - read, end - position));
+                if (n > 0) {
+                    position += n;
+                    filePosition += n;
+                    read += n;
+                }
+            }
+            return read == 0 ? -1 : read;
+        }
+
+        /**
+         * @see java.io.InputStream#skip(long)
+         */
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        /**
+         * @see java.io.InputStream#available()
+         */
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+
+        /**
+         * @see java.io.InputStream#markSupported()
+         */
+        public boolean markSupported() {
+            return true;
+        }
+
+        /**
+         * @see java.io.InputStream#mark(int)
+         */
+        public synchronized void mark(int readlimit) {
+            mark = position;
+        }
+
+        /**
+         * @see java.io.InputStream#reset()
+         */
+        public synchronized void reset() {
+            position = mark;
+        }
+
+        /**
+         * @see javax.mail.internet.SharedInputStream#getPosition()
+         */
+        public long getPosition() {
+            return position - start;
+        }
+
+        /**
+         * @see javax.mail.internet.SharedInputStream#newStream(long, long)
+         */
+        public InputStream newStream(long start, long end) {
+            if (start < 0) {
+                throw new IllegalArgumentException("start < 0");
+            }
+            long newEnd = end == -1 ? this.end : Math.min(this.start + end, this.end);
+            return new RegionInputStream(this.start + start, newEnd);
+        }
+
+        /**
+         * @see java.io.InputStream#close()
+         */
+        public void close() {
+            IOUtils.closeQuietly(fileStream);
+            fileStream = null;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.core;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.james.lifecycle.api.Disposable;
+
+/**
+ * Pool of direct {@link ByteBuffer}s of a fixed size, which are used to hold
+ * the content of received messages outside of the heap.
+ * 
+ * The pool allocates buffers on demand until its budget is reached. After that
+ * {@link #acquire()} returns <code>null</code> until buffers are released
+ * again, and the caller has to store the data somewhere else. Released buffers
+ * are kept for reuse, as direct buffers are expensive to allocate.
+ */
+public class MessageBufferPool implements MessageBufferPoolMBean, Disposable {
+
+    /**
+     * 64kb per buffer
+     */
+    public final static int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final long budget;
+    private final int bufferSize;
+    private final LinkedList<ByteBuffer> free = new LinkedList<ByteBuffer>();
+    private long allocated;
+    private long used;
+    private long exhausted;
+
+    private MBeanServer mbeanServer;
+    private String mbeanName;
+
+    /**
+     * @param budget
+     *            the maximal count of bytes to allocate
+     * @param bufferSize
+     *            the size of a single buffer
+     * @param jmxName
+     *            the name to register the pool with in JMX or
+     *            <code>null</code> if it should not get registered
+     */
+    public MessageBufferPool(long budget, int bufferSize, String jmxName) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+        this.budget = budget;
+        this.bufferSize = bufferSize;
+        if (jmxName != null) {
+            registerMBean(jmxName);
+        }
+    }
+
+    public MessageBufferPool(long budget) {
+        this(budget, DEFAULT_BUFFER_SIZE, null);
+    }
+
+    private void registerMBean(String jmxName) {
+        mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        mbeanName = jmxName;
+        try {
+            mbeanServer.registerMBean(this, new ObjectName(mbeanName));
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to register mbean", e);
+        }
+    }
+
+    /**
+     * Return an empty buffer or <code>null</code> if the budget is exhausted
+     * 
+     * @return buffer
+     */
+    public synchronized ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            if (allocated + bufferSize > budget) {
+                exhausted++;
+                return null;
+            }
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+            allocated += bufferSize;
+        }
+        used += bufferSize;
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Give a buffer which was returned by {@link #acquire()} back to the pool.
+     * It must not be used by the caller anymore.
+     * 
+     * @param buffer
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        used -= bufferSize;
+        free.add(buffer);
+    }
+
+    /**
+     * @see org.apache.james.core.MessageBufferPoolMBean#getBudget()
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @see org.apache.james.core.MessageBufferPoolMBean#getBufferSize()
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @see org.apache.james.core.MessageBufferPoolMBean#getAllocatedBytes()
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocated;
+    }
+
+    /**
+     * @see org.apache.james.core.MessageBufferPoolMBean#getUsedBytes()
+     */
+    public synchronized long getUsedBytes() {
+        return used;
+    }
+
+    /**
+     * @see org.apache.james.core.MessageBufferPoolMBean#getExhaustedCount()
+     */
+    public synchronized long getExhaustedCount() {
+        return exhausted;
+    }
+
+    /**
+     * Unregister the pool from JMX. The buffers are freed by the garbage
+     * collector once they are not used anymore.
+     * 
+     * @see org.apache.james.lifecycle.api.Disposable#dispose()
+     */
+    public void dispose() {
+        if (mbeanName != null) {
+            try {
+                mbeanServer.unregisterMBean(new ObjectName(mbeanName));
+            } catch (Exception e) {
+                throw new RuntimeException("Unable to unregister mbean", e);
+            }
+            mbeanName = null;
+        }
+        synchronized (this) {
+            free.clear();
+        }
+    }
+}
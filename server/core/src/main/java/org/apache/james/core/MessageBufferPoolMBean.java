@@ -0,0 +1,62 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.core;
+
+/**
+ * Statistics of a {@link MessageBufferPool}
+ */
+public interface MessageBufferPoolMBean {
+
+    /**
+     * Return the maximal count of bytes which the pool allocates
+     * 
+     * @return budget
+     */
+    long getBudget();
+
+    /**
+     * Return the size of a single buffer in bytes
+     * 
+     * @return bufferSize
+     */
+    int getBufferSize();
+
+    /**
+     * Return the count of bytes which were allocated by the pool so far
+     * 
+     * @return allocated
+     */
+    long getAllocatedBytes();
+
+    /**
+     * Return the count of bytes which are currently used by messages
+     * 
+     * @return used
+     */
+    long getUsedBytes();
+
+    /**
+     * Return how often a message had to be written to a temporary file because
+     * the budget was exhausted
+     * 
+     * @return exhausted
+     */
+    long getExhaustedCount();
+}
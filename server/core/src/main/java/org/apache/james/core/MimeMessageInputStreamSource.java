@@ -41,6 +41,9 @@ import java.util.List;
  * MimeMessageWrapper. It does this by completely reading the input stream and
  * saving that to data to an {@link DeferredFileOutputStream} with its threshold set to 100kb
  * 
+ * If a {@link MessageBufferPool} is given the data is saved to the buffers of
+ * the pool instead, and only written to a temporary file if the pool is
+ * exhausted. The buffers are given back to the pool on {@link #dispose()}.
  **/
 public class MimeMessageInputStreamSource extends MimeMessageSource implements Disposable {
 
@@ -51,6 +54,11 @@ public class MimeMessageInputStreamSource extends MimeMessageSource implements D
      */
     private DeferredFileOutputStream out;
 
+    /**
+     * The pooled buffers used to hold the message stream instead
+     */
+    private MessageBuffer buffer;
+
     /**
      * The full path of the temporary file
      */
@@ -114,8 +122,26 @@ public class MimeMessageInputStreamSource extends MimeMessageSource implements D
     }
 
     public MimeMessageInputStreamSource(String key) throws MessagingException {
+        this(key, (MessageBufferPool) null);
+    }
+
+    /**
+     * Construct a new MimeMessageInputStreamSource which the content of a
+     * MimeMessage gets written to via {@link #getWritableOutputStream()}.
+     * 
+     * @param key
+     *            the prefix for the name of the temp file
+     * @param pool
+     *            the pool to hold the data in or <code>null</code> to use
+     *            the heap and a temp file
+     */
+    public MimeMessageInputStreamSource(String key, MessageBufferPool pool) throws MessagingException {
         super();
-        out = new DeferredFileOutputStream(THRESHOLD, key, ".m64", TMPDIR );
+        if (pool != null) {
+            buffer = new MessageBuffer(pool, key, TMPDIR);
+        } else {
+            out = new DeferredFileOutputStream(THRESHOLD, key, ".m64", TMPDIR );
+        }
         sourceId = key;
     }
 
@@ -135,7 +161,9 @@ public class MimeMessageInputStreamSource extends MimeMessageSource implements D
      */
     public synchronized InputStream getInputStream() throws IOException {
         InputStream in;
-        if (out.isInMemory()) {
+        if (buffer != null) {
+            in = buffer.getInputStream();
+        } else if (out.isInMemory()) {
             in = new SharedByteArrayInputStream(out.getData());
         } else {
             in = new SharedFileInputStream(out.getFile());
@@ -154,6 +182,9 @@ public class MimeMessageInputStreamSource extends MimeMessageSource implements D
      *             message
      */
     public long getMessageSize() throws IOException {
+        if (buffer != null) {
+            return buffer.getSize();
+        }
         return out.getByteCount();
     }
 
@@ -162,6 +193,9 @@ public class MimeMessageInputStreamSource extends MimeMessageSource implements D
      * @throws FileNotFoundException
      */
     public OutputStream getWritableOutputStream() throws FileNotFoundException {
+        if (buffer != null) {
+            return buffer;
+        }
         return out;
     }
 
@@ -183,6 +217,11 @@ public class MimeMessageInputStreamSource extends MimeMessageSource implements D
             }
             out = null;
         }
+
+        if (buffer != null) {
+            buffer.release();
+            buffer = null;
+        }
     }
 
 }
@@ -102,4 +102,20 @@ public class MailImplTest extends MailTestAllImplementations {
         helperTestInitialState(duplicate);
         helperTestMessageSize(duplicate, 0);
     }
+
+    @Test
+    public void testDuplicateAttributes() throws MessagingException {
+        MailImpl mail = new MailImpl();
+        String text = "value";
+        ArrayList list = new ArrayList();
+        list.add("element");
+        mail.setAttribute("text", text);
+        mail.setAttribute("list", list);
+
+        MailImpl duplicate = (MailImpl) mail.duplicate();
+        // immutable values are shared, others are copied
+        assertSame(text, duplicate.getAttribute("text"));
+        assertNotSame(list, duplicate.getAttribute("list"));
+        assertEquals(list, duplicate.getAttribute("list"));
+    }
 }
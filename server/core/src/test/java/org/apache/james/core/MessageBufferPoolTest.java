@@ -0,0 +1,166 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.SharedInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.james.lifecycle.api.LifecycleUtil;
+import org.junit.Test;
+
+public class MessageBufferPoolTest {
+
+    private final static String CONTENT = "Subject: test\r\nX-Test: pooled\r\n\r\n"
+            + "This is the body of a message which is long enough to fill more than one buffer\r\n"
+            + "and even more than the whole pool, so that the rest gets written to a file.\r\n";
+
+    @Test
+    public void testBudget() {
+        MessageBufferPool pool = new MessageBufferPool(32, 16, null);
+        assertNotNull(pool.acquire());
+        assertNotNull(pool.acquire());
+        assertNull(pool.acquire());
+        assertEquals(32, pool.getAllocatedBytes());
+        assertEquals(32, pool.getUsedBytes());
+        assertEquals(1, pool.getExhaustedCount());
+    }
+
+    @Test
+    public void testRecycle() {
+        MessageBufferPool pool = new MessageBufferPool(16, 16, null);
+        ByteBuffer buffer = pool.acquire();
+        buffer.put((byte) 1);
+        pool.release(buffer);
+        assertEquals(0, pool.getUsedBytes());
+
+        ByteBuffer recycled = pool.acquire();
+        assertEquals(0, recycled.position());
+        assertEquals(16, recycled.remaining());
+        assertEquals(16, pool.getAllocatedBytes());
+    }
+
+    @Test
+    public void testInMemory() throws Exception {
+        MessageBufferPool pool = new MessageBufferPool(1024, 16, null);
+        MimeMessageInputStreamSource source = write(pool, CONTENT);
+        assertEquals(CONTENT.length(), source.getMessageSize());
+        assertEquals(CONTENT, read(source.getInputStream()));
+        assertEquals(0, pool.getExhaustedCount());
+
+        source.dispose();
+        assertEquals(0, pool.getUsedBytes());
+    }
+
+    @Test
+    public void testSpillToFile() throws Exception {
+        MessageBufferPool pool = new MessageBufferPool(64, 16, null);
+        MimeMessageInputStreamSource source = write(pool, CONTENT);
+        assertEquals(1, pool.getExhaustedCount());
+        assertEquals(CONTENT.length(), source.getMessageSize());
+        assertEquals(CONTENT, read(source.getInputStream()));
+
+        source.dispose();
+        assertEquals(0, pool.getUsedBytes());
+    }
+
+    @Test
+    public void testSharedStreams() throws Exception {
+        MessageBufferPool pool = new MessageBufferPool(64, 16, null);
+        MimeMessageInputStreamSource source = write(pool, CONTENT);
+
+        InputStream in = source.getInputStream();
+        SharedInputStream shared = (SharedInputStream) in;
+        assertEquals(20, in.skip(20));
+        assertEquals(20, shared.getPosition());
+        assertEquals(CONTENT.substring(20, 100), read(shared.newStream(20, 100)));
+        assertEquals(CONTENT.substring(50), read(shared.newStream(50, -1)));
+
+        InputStream sub = shared.newStream(10, 90);
+        assertEquals(CONTENT.substring(30, 90), read(((SharedInputStream) sub).newStream(20, -1)));
+
+        // reset to a position in the temporary file
+        InputStream again = source.getInputStream();
+        assertEquals(100, again.skip(100));
+        again.mark(0);
+        assertEquals(CONTENT.charAt(100), again.read());
+        assertEquals(CONTENT.charAt(101), again.read());
+        again.reset();
+        assertEquals(CONTENT.substring(100), read(again));
+        source.dispose();
+    }
+
+    @Test
+    public void testParseMessage() throws Exception {
+        MessageBufferPool pool = new MessageBufferPool(64, 16, null);
+        MimeMessageInputStreamSource source = write(pool, CONTENT);
+
+        MimeMessage message = new MimeMessageCopyOnWriteProxy(source);
+        assertEquals("test", message.getSubject());
+        assertEquals("pooled", message.getHeader("X-Test")[0]);
+        assertEquals(CONTENT.substring(CONTENT.indexOf("\r\n\r\n") + 4), read(message.getRawInputStream()));
+        LifecycleUtil.dispose(message);
+        source.dispose();
+        assertEquals(0, pool.getUsedBytes());
+    }
+
+    @Test
+    public void testReadAfterDispose() throws Exception {
+        MessageBufferPool pool = new MessageBufferPool(1024, 16, null);
+        MimeMessageInputStreamSource source = write(pool, CONTENT);
+        InputStream in = source.getInputStream();
+        source.dispose();
+        try {
+            in.read();
+            fail("Stream must fail after the buffers were released");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private MimeMessageInputStreamSource write(MessageBufferPool pool, String content) throws Exception {
+        MimeMessageInputStreamSource source = new MimeMessageInputStreamSource("test", pool);
+        OutputStream out = source.getWritableOutputStream();
+        byte[] data = content.getBytes("US-ASCII");
+        // write in pieces which do not match the buffer size
+        for (int i = 0; i < data.length; i += 7) {
+            out.write(data, i, Math.min(7, data.length - i));
+        }
+        out.close();
+        return source;
+    }
+
+    private String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IOUtils.copy(in, out);
+        return new String(out.toByteArray(), "US-ASCII");
+    }
+}
@@ -0,0 +1,54 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.dnsservice.api;
+
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link DNSService} which is also able to issue lookups without blocking
+ * the caller. This allows to check many names (for example against several
+ * DNS blacklists) at the same time instead of one after the other.
+ */
+public interface AsyncDNSService extends DNSService {
+
+    /**
+     * Asynchronous variant of {@link DNSService#getByName(String)}. If the
+     * host can not be resolved, {@link Future#get()} throws an
+     * {@link java.util.concurrent.ExecutionException} caused by an
+     * {@link java.net.UnknownHostException}.
+     * 
+     * @param host
+     *            the hostname to resolve
+     * @return the future result of the lookup
+     */
+    Future<InetAddress> getByNameAsync(String host);
+
+    /**
+     * Asynchronous variant of {@link DNSService#findTXTRecords(String)}
+     * 
+     * @param hostname
+     *            The hostname to check
+     * @return the future collection of TXT record values
+     */
+    Future<Collection<String>> findTXTRecordsAsync(String hostname);
+
+}
@@ -49,4 +49,49 @@ public interface DNSServiceMBean {
      * Clear the cache of the service
      */
     void clearCache();
+
+    /**
+     * Return the number of lookups answered from the cache
+     * 
+     * @return hits
+     */
+    long getCacheHits();
+
+    /**
+     * Return the number of lookups which were not found in the cache
+     * 
+     * @return misses
+     */
+    long getCacheMisses();
+
+    /**
+     * Return the number of lookups which waited for an identical lookup
+     * already in progress instead of querying the DNS servers
+     * 
+     * @return coalesced
+     */
+    long getCoalescedLookups();
+
+    /**
+     * Return the number of cache entries which were refreshed before they
+     * expired
+     * 
+     * @return refreshed
+     */
+    long getRefreshedLookups();
+
+    /**
+     * Return the number of queries sent to the DNS servers
+     * 
+     * @return upstreamLookups
+     */
+    long getUpstreamLookups();
+
+    /**
+     * Return the average time in milliseconds a query to the DNS servers
+     * took
+     * 
+     * @return averageUpstreamLookupTime
+     */
+    double getAverageUpstreamLookupTime();
 }
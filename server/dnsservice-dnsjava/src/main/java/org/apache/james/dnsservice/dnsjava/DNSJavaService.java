@@ -27,11 +27,19 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.james.dnsservice.api.AsyncDNSService;
 import org.apache.james.dnsservice.api.DNSServiceMBean;
 import org.apache.james.dnsservice.api.DNSService;
 import org.apache.james.dnsservice.api.TemporaryResolutionException;
@@ -58,7 +66,7 @@ import org.xbill.DNS.Type;
 /**
  * Provides DNS client functionality to services running inside James
  */
-public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled, Configurable {
+public class DNSJavaService implements AsyncDNSService, DNSServiceMBean, LogEnabled, Configurable {
 
     /**
      * A resolver instance used to retrieve DNS records. This is a reference to
@@ -68,7 +76,8 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
 
     /**
      * A TTL cache of results received from the DNS server. This is a reference
-     * to a third party library object.
+     * to a third party library object. It is only used by the dnsjava default
+     * lookups, the lookups of this service are cached by the lookup cache.
      */
     protected Cache cache;
 
@@ -77,6 +86,40 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
      */
     private int maxCacheSize = 50000;
 
+    /**
+     * Floor and ceiling for the time positive answers are cached, in seconds
+     */
+    private long minTTL = 0;
+
+    private long maxTTL = 86400;
+
+    /**
+     * Time in seconds empty answers and temporary failures are cached
+     */
+    private long negativeTTL = 300;
+
+    private long failureTTL = 30;
+
+    /**
+     * Whether hot entries of the lookup cache get refreshed before they expire
+     */
+    private boolean refreshAhead = true;
+
+    /**
+     * Coalesces and caches the lookups done through {@link #lookup(String, int, String)}
+     */
+    private LookupCache lookupCache;
+
+    /**
+     * Number of threads used to run the asynchronous lookups
+     */
+    private int lookupThreads = 16;
+
+    /**
+     * Runs the asynchronous lookups
+     */
+    private ExecutorService lookupExecutor;
+
     /**
      * Whether the DNS response is required to be authoritative
      */
@@ -185,6 +228,20 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
         dnsCredibility = authoritative ? Credibility.AUTH_ANSWER : Credibility.NONAUTH_ANSWER;
 
         maxCacheSize = configuration.getInt("maxcachesize", maxCacheSize);
+
+        minTTL = configuration.getLong("minTTL", minTTL);
+        maxTTL = configuration.getLong("maxTTL", maxTTL);
+        negativeTTL = configuration.getLong("negativeTTL", negativeTTL);
+        failureTTL = configuration.getLong("failureTTL", failureTTL);
+        if (minTTL < 0 || maxTTL < minTTL || negativeTTL < 0 || failureTTL < 0) {
+            throw new ConfigurationException("The cache TTLs must not be negative and minTTL must not be bigger than maxTTL");
+        }
+        refreshAhead = configuration.getBoolean("refreshAhead", refreshAhead);
+
+        lookupThreads = configuration.getInt("lookupThreads", lookupThreads);
+        if (lookupThreads < 1) {
+            throw new ConfigurationException("lookupThreads must be at least 1");
+        }
     }
 
     @PostConstruct
@@ -235,9 +292,32 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
         localHostName = addr.getHostName();
         localAddress = addr.getHostAddress();
 
+        lookupExecutor = Executors.newFixedThreadPool(lookupThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "DNSService-lookup-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        lookupCache = new LookupCache(maxCacheSize, minTTL, maxTTL, negativeTTL, failureTTL, refreshAhead ? lookupExecutor : null) {
+            protected Record[] load(String name, int type) throws TemporaryResolutionException {
+                return lookupUncached(name, type);
+            }
+        };
+
         logger.debug("DNSService ...init end");
     }
 
+    @PreDestroy
+    public void destroy() {
+        if (lookupExecutor != null) {
+            lookupExecutor.shutdownNow();
+        }
+    }
+
     /**
      * Return the list of DNS servers in use by this service
      * 
@@ -367,12 +447,25 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
      *            the description of the record type, for debugging purpose
      */
     protected Record[] lookup(String namestr, int type, String typeDesc) throws TemporaryResolutionException {
+        return lookupCache.lookup(namestr, type);
+    }
+
+    /**
+     * Looks up DNS records of the specified type for the specified name
+     * without using the lookup cache.
+     * 
+     * @param namestr
+     *            the name of the host to be looked up
+     * @param type
+     *            the type of record desired
+     */
+    private Record[] lookupUncached(String namestr, int type) throws TemporaryResolutionException {
         // Name name = null;
         try {
             // name = Name.fromString(namestr, Name.root);
             Lookup l = new Lookup(namestr, type);
 
-            l.setCache(cache);
+            l.setCache(newLoadCache());
             l.setResolver(resolver);
             l.setCredibility(dnsCredibility);
             l.setSearchPath(searchPaths);
@@ -399,6 +492,18 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
         }
     }
 
+    /**
+     * Return the dnsjava cache used by a single lookup which bypasses the
+     * lookup cache. The results are cached by the lookup cache, so this is a
+     * new empty cache: every load queries the servers and the TTLs of the
+     * answers are not restarted by a second cache.
+     * 
+     * @return cache
+     */
+    protected Cache newLoadCache() {
+        return new Cache(DClass.IN);
+    }
+
     protected Record[] lookupNoException(String namestr, int type, String typeDesc) {
         try {
             return lookup(namestr, type, typeDesc);
@@ -518,6 +623,28 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
         return txtR;
     }
 
+    /**
+     * @see org.apache.james.dnsservice.api.AsyncDNSService#getByNameAsync(String)
+     */
+    public Future<InetAddress> getByNameAsync(final String host) {
+        return lookupExecutor.submit(new Callable<InetAddress>() {
+            public InetAddress call() throws UnknownHostException {
+                return getByName(host);
+            }
+        });
+    }
+
+    /**
+     * @see org.apache.james.dnsservice.api.AsyncDNSService#findTXTRecordsAsync(String)
+     */
+    public Future<Collection<String>> findTXTRecordsAsync(final String hostname) {
+        return lookupExecutor.submit(new Callable<Collection<String>>() {
+            public Collection<String> call() {
+                return findTXTRecords(hostname);
+            }
+        });
+    }
+
     /**
      * @see org.apache.james.dnsservice.api.DNSService#getHostName(java.net.InetAddress)
      */
@@ -555,7 +682,7 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
      * org.apache.james.dnsservice.api.DNSServiceMBean#getCurrentCacheSize()
      */
     public int getCurrentCacheSize() {
-        return cache.getSize();
+        return lookupCache.getSize();
     }
 
     /**
@@ -563,6 +690,49 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
      */
     public void clearCache() {
         cache.clearCache();
+        lookupCache.clear();
+    }
+
+    /**
+     * @see org.apache.james.dnsservice.api.DNSServiceMBean#getCacheHits()
+     */
+    public long getCacheHits() {
+        return lookupCache.getHits();
+    }
+
+    /**
+     * @see org.apache.james.dnsservice.api.DNSServiceMBean#getCacheMisses()
+     */
+    public long getCacheMisses() {
+        return lookupCache.getMisses();
+    }
+
+    /**
+     * @see org.apache.james.dnsservice.api.DNSServiceMBean#getCoalescedLookups()
+     */
+    public long getCoalescedLookups() {
+        return lookupCache.getCoalesced();
+    }
+
+    /**
+     * @see org.apache.james.dnsservice.api.DNSServiceMBean#getRefreshedLookups()
+     */
+    public long getRefreshedLookups() {
+        return lookupCache.getRefreshes();
+    }
+
+    /**
+     * @see org.apache.james.dnsservice.api.DNSServiceMBean#getUpstreamLookups()
+     */
+    public long getUpstreamLookups() {
+        return lookupCache.getUpstreamLookups();
+    }
+
+    /**
+     * @see org.apache.james.dnsservice.api.DNSServiceMBean#getAverageUpstreamLookupTime()
+     */
+    public double getAverageUpstreamLookupTime() {
+        return lookupCache.getAverageUpstreamTime();
     }
 
 }
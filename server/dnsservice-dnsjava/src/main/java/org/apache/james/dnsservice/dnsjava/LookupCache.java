@@ -0,0 +1,326 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.dnsservice.dnsjava;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.james.dnsservice.api.TemporaryResolutionException;
+import org.xbill.DNS.Record;
+
+/**
+ * Caches the results of DNS lookups. The loads are expected to query the
+ * servers directly, not through a dnsjava {@link org.xbill.DNS.Cache}.
+ * 
+ * <ul>
+ * <li>Concurrent lookups of the same name and type are coalesced into one
+ * upstream query</li>
+ * <li>The TTL of the answer is honored but kept between a configurable floor
+ * and ceiling</li>
+ * <li>Empty answers (NXDOMAIN, no such record) and temporary failures
+ * (SERVFAIL, timeouts) are cached for a configurable time</li>
+ * <li>An entry which is used during the last tenth of its lifetime is
+ * refreshed in the background, so hot names never expire. If the refresh
+ * fails the old answer is kept until it expires</li>
+ * </ul>
+ */
+public abstract class LookupCache {
+
+    private final int maxEntries;
+
+    private final long minTTL;
+
+    private final long maxTTL;
+
+    private final long negativeTTL;
+
+    private final long failureTTL;
+
+    private final Executor refreshExecutor;
+
+    private final Map<String, Entry> entries;
+
+    private final ConcurrentMap<String, FutureTask<Entry>> inFlight = new ConcurrentHashMap<String, FutureTask<Entry>>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private final AtomicLong refreshes = new AtomicLong();
+
+    private final AtomicLong upstreamLookups = new AtomicLong();
+
+    private final AtomicLong upstreamTime = new AtomicLong();
+
+    /**
+     * @param maxEntries
+     *            maximum number of cached results
+     * @param minTTL
+     *            floor for the TTL of positive answers in seconds
+     * @param maxTTL
+     *            ceiling for the TTL of positive answers in seconds, 0
+     *            disables caching (lookups are still coalesced)
+     * @param negativeTTL
+     *            time in seconds empty answers are cached
+     * @param failureTTL
+     *            time in seconds temporary failures are cached
+     * @param refreshExecutor
+     *            executor for refreshing hot entries, or null to disable
+     *            refresh-ahead
+     */
+    public LookupCache(final int maxEntries, long minTTL, long maxTTL, long negativeTTL, long failureTTL, Executor refreshExecutor) {
+        this.maxEntries = maxEntries;
+        this.minTTL = minTTL;
+        this.maxTTL = maxTTL;
+        this.negativeTTL = negativeTTL;
+        this.failureTTL = failureTTL;
+        this.refreshExecutor = refreshExecutor;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Query the DNS servers
+     * 
+     * @return the records or null if there is no answer
+     * @throws TemporaryResolutionException
+     *             if the servers could not give an answer
+     */
+    protected abstract Record[] load(String name, int type) throws TemporaryResolutionException;
+
+    /**
+     * Return the records for the given name and type, from the cache if
+     * possible
+     * 
+     * @return the records or null if there is no answer
+     * @throws TemporaryResolutionException
+     *             if the servers could not give an answer
+     */
+    public Record[] lookup(String name, int type) throws TemporaryResolutionException {
+        String key = name.toLowerCase(Locale.US) + "/" + type;
+        long now = currentTimeMillis();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null && entry.expires > now) {
+            hits.incrementAndGet();
+            if (entry.refreshAt <= now) {
+                refresh(key, name, type);
+            }
+            return entry.result();
+        }
+        misses.incrementAndGet();
+
+        FutureTask<Entry> task = newTask(key, name, type);
+        FutureTask<Entry> running = inFlight.putIfAbsent(key, task);
+        if (running == null) {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+            running = task;
+        } else {
+            coalesced.incrementAndGet();
+        }
+
+        try {
+            return running.get().result();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TemporaryResolutionException("Interrupted while waiting for the lookup of " + name);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * Reload the entry in the background unless this is already done
+     */
+    private void refresh(final String key, String name, int type) {
+        if (refreshExecutor == null) {
+            return;
+        }
+        final FutureTask<Entry> task = newTask(key, name, type);
+        if (inFlight.putIfAbsent(key, task) == null) {
+            refreshes.incrementAndGet();
+            try {
+                refreshExecutor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            task.run();
+                        } finally {
+                            inFlight.remove(key, task);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                inFlight.remove(key, task);
+            }
+        }
+    }
+
+    private FutureTask<Entry> newTask(final String key, final String name, final int type) {
+        return new FutureTask<Entry>(new Callable<Entry>() {
+            public Entry call() {
+                long start = currentTimeMillis();
+                Entry entry;
+                try {
+                    Record[] records = load(name, type);
+                    entry = new Entry(records, null, start, ttl(records));
+                } catch (TemporaryResolutionException e) {
+                    entry = new Entry(null, e.getMessage(), start, failureTTL);
+                }
+                long now = currentTimeMillis();
+                upstreamLookups.incrementAndGet();
+                upstreamTime.addAndGet(now - start);
+
+                if (maxEntries > 0) {
+                    synchronized (entries) {
+                        Entry current = entries.get(key);
+                        if (entry.failure != null && current != null && current.failure == null && current.expires > now) {
+                            // a failed refresh must not replace an answer which
+                            // is still valid. Retry the refresh later
+                            entry = current.retryRefreshAt(Math.min(current.expires, now + failureTTL * 1000));
+                            entries.put(key, entry);
+                        } else if (entry.expires > now) {
+                            entries.put(key, entry);
+                        }
+                    }
+                }
+                return entry;
+            }
+        });
+    }
+
+    /**
+     * Return the time in seconds to cache the given answer
+     */
+    private long ttl(Record[] records) {
+        if (records == null || records.length == 0) {
+            return negativeTTL;
+        }
+        long ttl = Long.MAX_VALUE;
+        for (int i = 0; i < records.length; i++) {
+            ttl = Math.min(ttl, records[i].getTTL());
+        }
+        return Math.min(maxTTL, Math.max(minTTL, ttl));
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public long getRefreshes() {
+        return refreshes.get();
+    }
+
+    public long getUpstreamLookups() {
+        return upstreamLookups.get();
+    }
+
+    /**
+     * Return the average time of an upstream query in milliseconds
+     */
+    public double getAverageUpstreamTime() {
+        long lookups = upstreamLookups.get();
+        return lookups == 0 ? 0 : (double) upstreamTime.get() / lookups;
+    }
+
+    private final static class Entry {
+        private final Record[] records;
+        private final String failure;
+        private final long expires;
+        private final long refreshAt;
+
+        public Entry(Record[] records, String failure, long created, long ttl) {
+            this.records = records;
+            this.failure = failure;
+            this.expires = created + ttl * 1000;
+            this.refreshAt = expires - ttl * 100;
+        }
+
+        private Entry(Entry entry, long refreshAt) {
+            this.records = entry.records;
+            this.failure = entry.failure;
+            this.expires = entry.expires;
+            this.refreshAt = refreshAt;
+        }
+
+        /**
+         * Return a copy of this entry which is refreshed at the given time
+         */
+        public Entry retryRefreshAt(long refreshAt) {
+            return new Entry(this, refreshAt);
+        }
+
+        public Record[] result() throws TemporaryResolutionException {
+            if (failure != null) {
+                throw new TemporaryResolutionException(failure);
+            }
+            return records == null ? null : (Record[]) records.clone();
+        }
+    }
+}
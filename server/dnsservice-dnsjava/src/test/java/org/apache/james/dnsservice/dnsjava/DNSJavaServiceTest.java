@@ -304,5 +304,11 @@ public class DNSJavaServiceTest {
         public void setCache(Cache c) {
             cache = c;
         }
+
+        @Override
+        protected Cache newLoadCache() {
+            // the zones of the tests are only available through the cache
+            return cache;
+        }
     }
 }
@@ -0,0 +1,238 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.dnsservice.dnsjava;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.james.dnsservice.api.TemporaryResolutionException;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Type;
+
+public class LookupCacheTest {
+
+    private AtomicInteger loads;
+
+    private long now;
+
+    private long ttl;
+
+    private boolean fail;
+
+    private CountDownLatch blockLoad;
+
+    private Runnable pendingRefresh;
+
+    @Before
+    public void setUp() {
+        loads = new AtomicInteger();
+        now = 1000000;
+        ttl = 60;
+        fail = false;
+        blockLoad = null;
+        pendingRefresh = null;
+    }
+
+    private LookupCache createCache(long minTTL, long maxTTL) {
+        Executor executor = new Executor() {
+            public void execute(Runnable command) {
+                pendingRefresh = command;
+            }
+        };
+        return new LookupCache(100, minTTL, maxTTL, 300, 30, executor) {
+            protected Record[] load(String name, int type) throws TemporaryResolutionException {
+                loads.incrementAndGet();
+                if (blockLoad != null) {
+                    try {
+                        blockLoad.await();
+                    } catch (InterruptedException e) {
+                        throw new TemporaryResolutionException("interrupted");
+                    }
+                }
+                if (fail) {
+                    throw new TemporaryResolutionException("SERVFAIL");
+                }
+                if (name.startsWith("nx")) {
+                    return null;
+                }
+                try {
+                    return new Record[] { new ARecord(Name.fromString(name + "."), DClass.IN, ttl, InetAddress.getByName("127.0.0.1")) };
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            protected long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void testHonorTTL() throws Exception {
+        LookupCache cache = createCache(0, 3600);
+        cache.lookup("a.example", Type.A);
+        cache.lookup("A.EXAMPLE", Type.A);
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // other type is another entry
+        cache.lookup("a.example", Type.MX);
+        assertEquals(2, loads.get());
+
+        now += 61 * 1000;
+        cache.lookup("a.example", Type.A);
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void testTTLFloorAndCeiling() throws Exception {
+        LookupCache cache = createCache(120, 600);
+        ttl = 10;
+        cache.lookup("a.example", Type.A);
+        now += 100 * 1000;
+        cache.lookup("a.example", Type.A);
+        assertEquals(1, loads.get());
+
+        ttl = 86400;
+        cache.lookup("b.example", Type.A);
+        now += 601 * 1000;
+        cache.lookup("b.example", Type.A);
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void testNegativeCaching() throws Exception {
+        LookupCache cache = createCache(0, 3600);
+        assertNull(cache.lookup("nx.example", Type.A));
+        assertNull(cache.lookup("nx.example", Type.A));
+        assertEquals(1, loads.get());
+
+        fail = true;
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.lookup("a.example", Type.A);
+                fail();
+            } catch (TemporaryResolutionException e) {
+                // expected
+            }
+        }
+        assertEquals(2, loads.get());
+
+        // failures are cached shorter
+        now += 31 * 1000;
+        fail = false;
+        cache.lookup("a.example", Type.A);
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void testRefreshAhead() throws Exception {
+        LookupCache cache = createCache(0, 3600);
+        cache.lookup("a.example", Type.A);
+
+        // not yet in the last tenth of the lifetime
+        now += 50 * 1000;
+        cache.lookup("a.example", Type.A);
+        assertNull(pendingRefresh);
+
+        now += 5 * 1000;
+        cache.lookup("a.example", Type.A);
+        cache.lookup("a.example", Type.A);
+        assertEquals(1, cache.getRefreshes());
+        pendingRefresh.run();
+        assertEquals(2, loads.get());
+
+        // the refreshed entry lives on
+        now += 30 * 1000;
+        cache.lookup("a.example", Type.A);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testFailedRefreshKeepsEntry() throws Exception {
+        LookupCache cache = createCache(0, 3600);
+        cache.lookup("a.example", Type.A);
+
+        now += 55 * 1000;
+        cache.lookup("a.example", Type.A);
+        fail = true;
+        pendingRefresh.run();
+        pendingRefresh = null;
+        assertEquals(2, loads.get());
+
+        // the old answer is still served and the refresh is not retried on
+        // every hit
+        assertEquals(1, cache.lookup("a.example", Type.A).length);
+        assertNull(pendingRefresh);
+
+        // it is gone once it expired
+        now += 6 * 1000;
+        try {
+            cache.lookup("a.example", Type.A);
+            fail();
+        } catch (TemporaryResolutionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        final LookupCache cache = createCache(0, 3600);
+        blockLoad = new CountDownLatch(1);
+
+        int threads = 10;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        cache.lookup("a.example", Type.A);
+                        done.countDown();
+                    } catch (TemporaryResolutionException e) {
+                        // fails the test by not counting down
+                    }
+                }
+            }.start();
+        }
+
+        while (cache.getCoalesced() < threads - 1) {
+            Thread.sleep(10);
+        }
+        blockLoad.countDown();
+        done.await();
+
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getUpstreamLookups());
+        assertEquals(threads - 1, cache.getCoalesced());
+    }
+}
@@ -0,0 +1,148 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.dnsservice.library;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.james.dnsservice.api.AsyncDNSService;
+import org.apache.james.dnsservice.api.DNSService;
+import org.apache.james.dnsservice.api.TemporaryResolutionException;
+
+/**
+ * Checks a list of names (for example an ip or a domain prepended to a number
+ * of DNS blacklists) for the first one which resolves.
+ * 
+ * If the {@link DNSService} is an {@link AsyncDNSService} up to
+ * <code>maxParallel</code> lookups are issued at once, so a short list takes
+ * about one round-trip. Otherwise the names are resolved one after the other.
+ * In both cases a check which could not be decided before the timeout fails
+ * with a {@link TemporaryResolutionException}.
+ */
+public class ParallelResolver {
+
+    /**
+     * Default maximum number of lookups of one check which run at the same
+     * time
+     */
+    public static final int DEFAULT_MAX_PARALLEL = 4;
+
+    private final DNSService dns;
+
+    private final long timeout;
+
+    private final int maxParallel;
+
+    /**
+     * @param dns
+     *            the service to use for the lookups
+     * @param timeout
+     *            the maximum time in milliseconds a check may take. 0 means
+     *            no limit
+     */
+    public ParallelResolver(DNSService dns, long timeout) {
+        this(dns, timeout, DEFAULT_MAX_PARALLEL);
+    }
+
+    /**
+     * @param dns
+     *            the service to use for the lookups
+     * @param timeout
+     *            the maximum time in milliseconds a check may take. 0 means
+     *            no limit
+     * @param maxParallel
+     *            the maximum number of lookups of one check which run at the
+     *            same time. This keeps a single check from filling the lookup
+     *            pool of the {@link AsyncDNSService}. 0 means no limit
+     */
+    public ParallelResolver(DNSService dns, long timeout, int maxParallel) {
+        this.dns = dns;
+        this.timeout = timeout;
+        this.maxParallel = maxParallel > 0 ? maxParallel : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Return the index of the first of the given names which is resolvable.
+     * The order of the names is respected: a name is only reported if all
+     * names before it are known to be not resolvable.
+     * 
+     * @param names
+     *            the names to resolve
+     * @return index or -1 if none of the names could be resolved
+     * @throws TemporaryResolutionException
+     *             if a name before the first resolvable one, or any name if
+     *             none is resolvable, was not answered before the timeout
+     */
+    public int firstResolvable(List<String> names) throws TemporaryResolutionException {
+        long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+
+        if (dns instanceof AsyncDNSService) {
+            AsyncDNSService asyncDns = (AsyncDNSService) dns;
+            List<Future<InetAddress>> lookups = new ArrayList<Future<InetAddress>>(names.size());
+            try {
+                for (int i = 0; i < names.size(); i++) {
+                    // keep at most maxParallel lookups running, starting with
+                    // the one we wait for
+                    while (lookups.size() < names.size() && lookups.size() - i < maxParallel) {
+                        lookups.add(asyncDns.getByNameAsync(names.get(lookups.size())));
+                    }
+                    long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                    try {
+                        lookups.get(i).get(remaining, TimeUnit.MILLISECONDS);
+                        return i;
+                    } catch (ExecutionException e) {
+                        // not resolvable, check the next one
+                    } catch (TimeoutException e) {
+                        throw new TemporaryResolutionException("Lookup of " + names.get(i) + " timed out");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TemporaryResolutionException("Interrupted while resolving " + names);
+            } finally {
+                // do not interrupt running lookups. Other callers may wait
+                // for the same load of the DNS cache, which would fail for
+                // all of them
+                for (int i = 0; i < lookups.size(); i++) {
+                    lookups.get(i).cancel(false);
+                }
+            }
+        } else {
+            for (int i = 0; i < names.size(); i++) {
+                if (System.currentTimeMillis() >= deadline) {
+                    throw new TemporaryResolutionException("Lookup of " + names.get(i) + " timed out");
+                }
+                try {
+                    dns.getByName(names.get(i));
+                    return i;
+                } catch (UnknownHostException e) {
+                    // not resolvable, check the next one
+                }
+            }
+        }
+        return -1;
+    }
+}
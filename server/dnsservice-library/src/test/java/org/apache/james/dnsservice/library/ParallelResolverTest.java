@@ -0,0 +1,223 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.dnsservice.library;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.james.dnsservice.api.AsyncDNSService;
+import org.apache.james.dnsservice.api.TemporaryResolutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelResolverTest {
+
+    private ExecutorService executor;
+
+    private final AtomicInteger running = new AtomicInteger();
+
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    private final ConcurrentMap<String, FutureTask<InetAddress>> loads = new ConcurrentHashMap<String, FutureTask<InetAddress>>();
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Every name is resolvable if it starts with "listed", names starting
+     * with "slow" take 500ms to fail. Names starting with "shared" take 300ms
+     * to resolve and all lookups of such a name share one load
+     */
+    private AsyncDNSService createDNSService(final long delay) {
+        return new AsyncDNSService() {
+
+            public InetAddress getByName(String host) throws UnknownHostException {
+                if (host.startsWith("shared")) {
+                    return sharedLoad(host);
+                }
+                int now = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), now));
+                }
+                try {
+                    Thread.sleep(host.startsWith("slow") ? 500 : delay);
+                } catch (InterruptedException e) {
+                    throw new UnknownHostException(host);
+                } finally {
+                    running.decrementAndGet();
+                }
+                if (host.startsWith("listed")) {
+                    return InetAddress.getByName("127.0.0.2");
+                }
+                throw new UnknownHostException(host);
+            }
+
+            public Future<InetAddress> getByNameAsync(final String host) {
+                return executor.submit(new Callable<InetAddress>() {
+                    public InetAddress call() throws Exception {
+                        return getByName(host);
+                    }
+                });
+            }
+
+            public Future<Collection<String>> findTXTRecordsAsync(String hostname) {
+                throw new UnsupportedOperationException();
+            }
+
+            public Collection<String> findMXRecords(String hostname) throws TemporaryResolutionException {
+                throw new UnsupportedOperationException();
+            }
+
+            public Collection<String> findTXTRecords(String hostname) {
+                return Collections.emptyList();
+            }
+
+            public InetAddress[] getAllByName(String host) throws UnknownHostException {
+                throw new UnsupportedOperationException();
+            }
+
+            public InetAddress getLocalHost() throws UnknownHostException {
+                throw new UnsupportedOperationException();
+            }
+
+            public String getHostName(InetAddress addr) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Coalesce the lookups of the given name into one load, like the cache of
+     * the dnsjava service does. The load fails for all callers if the thread
+     * which runs it gets interrupted
+     */
+    private InetAddress sharedLoad(final String host) throws UnknownHostException {
+        FutureTask<InetAddress> task = new FutureTask<InetAddress>(new Callable<InetAddress>() {
+            public InetAddress call() throws Exception {
+                Thread.sleep(300);
+                return InetAddress.getByName("127.0.0.2");
+            }
+        });
+        FutureTask<InetAddress> running = loads.putIfAbsent(host, task);
+        if (running == null) {
+            task.run();
+            running = task;
+        }
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            throw new UnknownHostException(host);
+        } catch (InterruptedException e) {
+            throw new UnknownHostException(host);
+        }
+    }
+
+    @Test
+    public void testFirstResolvableInOrder() throws TemporaryResolutionException {
+        ParallelResolver resolver = new ParallelResolver(createDNSService(10), 0);
+        List<String> names = Arrays.asList("a.example", "listed1.example", "b.example", "listed2.example");
+        assertEquals(1, resolver.firstResolvable(names));
+        assertEquals(-1, resolver.firstResolvable(Arrays.asList("a.example", "b.example")));
+    }
+
+    @Test
+    public void testLookupsRunInParallel() throws TemporaryResolutionException {
+        ParallelResolver resolver = new ParallelResolver(createDNSService(200), 0);
+        List<String> names = Arrays.asList("a.example", "b.example", "c.example", "d.example", "e.example", "listed.example");
+
+        long start = System.currentTimeMillis();
+        assertEquals(5, resolver.firstResolvable(names));
+        assertTrue(System.currentTimeMillis() - start < 6 * 200);
+    }
+
+    @Test
+    public void testMaxParallel() throws TemporaryResolutionException {
+        ParallelResolver resolver = new ParallelResolver(createDNSService(50), 0, 2);
+        List<String> names = Arrays.asList("a.example", "b.example", "c.example", "d.example", "e.example", "listed.example");
+
+        assertEquals(5, resolver.firstResolvable(names));
+        assertTrue(maxRunning.get() <= 2);
+    }
+
+    @Test
+    public void testTimeout() throws TemporaryResolutionException {
+        ParallelResolver resolver = new ParallelResolver(createDNSService(10), 200);
+
+        // a name which did not answer in time makes the check fail
+        // temporarily, it is not handled as not resolvable
+        long start = System.currentTimeMillis();
+        try {
+            resolver.firstResolvable(Arrays.asList("slow.example", "listed.example"));
+            fail("Timeout should be reported");
+        } catch (TemporaryResolutionException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start < 500);
+
+        try {
+            resolver.firstResolvable(Arrays.asList("a.example", "slow.example"));
+            fail("Timeout should be reported");
+        } catch (TemporaryResolutionException e) {
+            // expected
+        }
+
+        // names after the first resolvable one do not matter
+        assertEquals(0, resolver.firstResolvable(Arrays.asList("listed.example", "slow.example")));
+    }
+
+    @Test
+    public void testCancelledLookupShouldNotFailSharedLoad() throws Exception {
+        AsyncDNSService dns = createDNSService(10);
+        ParallelResolver resolver = new ParallelResolver(dns, 0);
+
+        // the lookup of shared.example is still running when listed.example
+        // resolves, so it gets cancelled
+        assertEquals(0, resolver.firstResolvable(Arrays.asList("listed.example", "shared.example")));
+        assertTrue(loads.containsKey("shared.example"));
+
+        // another caller which waits for the same load must get the answer
+        assertEquals(InetAddress.getByName("127.0.0.2"), dns.getByName("shared.example"));
+    }
+}
@@ -67,4 +67,18 @@ public interface MailProcessorManagementMBean {
      */
     long getLastProcessing();
 
+    /**
+     * Return the total time in ms spent in processing
+     * 
+     * @return total
+     */
+    long getTotalProcessing();
+
+    /**
+     * Return the average time in ms of a processing
+     * 
+     * @return average
+     */
+    double getAverageProcessing();
+
 }
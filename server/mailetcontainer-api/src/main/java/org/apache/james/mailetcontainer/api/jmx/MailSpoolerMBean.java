@@ -36,4 +36,41 @@ public interface MailSpoolerMBean {
      */
     int getCurrentSpoolCount();
 
+    /**
+     * Return the number of mails which may be processed at the same time. This
+     * is the thread count unless the spooler adapts it to the processing time.
+     * 
+     * @return limit
+     */
+    int getConcurrencyLimit();
+
+    /**
+     * Return the total size in bytes of the mails which are in process
+     * 
+     * @return size
+     */
+    long getInFlightSize();
+
+    /**
+     * Return the number of mails per second which were processed in the last
+     * measuring window
+     * 
+     * @return throughput
+     */
+    double getThroughput();
+
+    /**
+     * Return the moving average of the time in ms mails waited in the spool
+     * 
+     * @return queueWait
+     */
+    double getAverageQueueWaitTime();
+
+    /**
+     * Return the moving average of the processing time in ms of a mail
+     * 
+     * @return processingTime
+     */
+    double getAverageProcessingTime();
+
 }
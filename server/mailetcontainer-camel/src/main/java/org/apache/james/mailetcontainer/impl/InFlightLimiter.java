@@ -0,0 +1,200 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailetcontainer.impl;
+
+/**
+ * Bounds the mails the {@link JamesMailSpooler} processes at the same time, by
+ * count and by total message size.
+ * <p>
+ * If adaptive, the count limit follows the observed processing time with an
+ * AIMD controller: after every window of completed mails the limit grows by
+ * one if the average processing time of the window stayed within
+ * <code>TOLERANCE</code> times the baseline and the limit was reached during
+ * the window, and it shrinks by a quarter if not. The baseline is the lowest
+ * window average seen so far and slowly follows higher averages, so it adapts
+ * to a changed load.
+ * </p>
+ */
+public class InFlightLimiter {
+
+    /** A window average above baseline * TOLERANCE counts as congestion */
+    private final static double TOLERANCE = 2.0;
+
+    /** Min. number of mails per window */
+    private final static int MIN_WINDOW = 10;
+
+    /** Weight of a new value in the moving averages */
+    private final static double ALPHA = 0.1;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long maxBytes;
+    private final boolean adaptive;
+
+    private int limit;
+    private int inFlight;
+    private long inFlightBytes;
+
+    private int windowCount;
+    private long windowTime;
+    private boolean windowSaturated;
+    private double baseline = -1;
+
+    private double averageProcessingTime;
+
+    /**
+     * @param minLimit
+     *            the min. number of mails in flight if adaptive
+     * @param maxLimit
+     *            the max. number of mails in flight
+     * @param maxBytes
+     *            the max. total size of the mails in flight, 0 for no limit.
+     *            A single mail is always let through.
+     * @param adaptive
+     *            true to adapt the limit to the processing time
+     */
+    public InFlightLimiter(int minLimit, int maxLimit, long maxBytes, boolean adaptive) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.minLimit = Math.max(1, Math.min(minLimit, this.maxLimit));
+        this.maxBytes = maxBytes;
+        this.adaptive = adaptive;
+        this.limit = this.maxLimit;
+    }
+
+    /**
+     * Wait until another mail may be taken
+     * 
+     * @throws InterruptedException
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= limit || (maxBytes > 0 && inFlight > 0 && inFlightBytes >= maxBytes)) {
+            wait();
+        }
+        inFlight++;
+        if (inFlight >= limit) {
+            windowSaturated = true;
+        }
+    }
+
+    /**
+     * Add the size of a taken mail, which is only known once it was dequeued
+     * 
+     * @param size
+     */
+    public synchronized void addBytes(long size) {
+        inFlightBytes += size;
+    }
+
+    /**
+     * Give back a mail which was not processed
+     * 
+     * @param size
+     *            the size given to {@link #addBytes(long)}
+     */
+    public synchronized void cancel(long size) {
+        inFlight--;
+        inFlightBytes -= size;
+        notifyAll();
+    }
+
+    /**
+     * Give back a processed mail
+     * 
+     * @param size
+     *            the size given to {@link #addBytes(long)}
+     * @param processingTime
+     *            the time in ms it took to process the mail
+     */
+    public synchronized void release(long size, long processingTime) {
+        inFlight--;
+        inFlightBytes -= size;
+
+        if (averageProcessingTime == 0) {
+            averageProcessingTime = processingTime;
+        } else {
+            averageProcessingTime += (processingTime - averageProcessingTime) * ALPHA;
+        }
+
+        if (adaptive) {
+            windowCount++;
+            windowTime += processingTime;
+            if (windowCount >= Math.max(MIN_WINDOW, limit)) {
+                adapt((double) windowTime / windowCount);
+                windowCount = 0;
+                windowTime = 0;
+                windowSaturated = inFlight >= limit;
+            }
+        }
+        notifyAll();
+    }
+
+    private void adapt(double average) {
+        if (baseline < 0 || average < baseline) {
+            baseline = average;
+        } else {
+            baseline += (average - baseline) * ALPHA / 10;
+        }
+
+        if (average <= Math.max(baseline * TOLERANCE, 1)) {
+            // only grow if the current limit was actually used
+            if (windowSaturated && limit < maxLimit) {
+                limit++;
+            }
+        } else {
+            limit = Math.max(minLimit, limit * 3 / 4);
+        }
+    }
+
+    /**
+     * Return the current limit of mails in flight
+     * 
+     * @return limit
+     */
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Return the number of mails in flight
+     * 
+     * @return inFlight
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Return the total size of the mails in flight
+     * 
+     * @return bytes
+     */
+    public synchronized long getInFlightBytes() {
+        return inFlightBytes;
+    }
+
+    /**
+     * Return the moving average of the processing time in ms
+     * 
+     * @return average
+     */
+    public synchronized double getAverageProcessingTime() {
+        return averageProcessingTime;
+    }
+}
@@ -20,12 +20,14 @@
 package org.apache.james.mailetcontainer.impl;
 
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import javax.mail.MessagingException;
 
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.HierarchicalConfiguration;
@@ -47,6 +49,9 @@ import org.slf4j.Logger;
  * from the spool, directing messages to the appropriate processor, and removing
  * them from the spool when processing is complete.
  * 
+ * A mail is only taken from the spool if the number and the total size of the
+ * mails in process are below their limits, so mails do not pile up when the
+ * processing slows down. See {@link InFlightLimiter}.
  */
 public class JamesMailSpooler implements Runnable, Configurable, LogEnabled, MailSpoolerMBean {
 
@@ -77,6 +82,26 @@ public class JamesMailSpooler implements Runnable, Configurable, LogEnabled, Mai
 
     private int numDequeueThreads;
 
+    /** Min. number of mails processed at the same time if adaptive */
+    private int minThreads;
+
+    /** Max. total size in bytes of the mails in process, 0 for no limit */
+    private long maxInFlightBytes;
+
+    /** Adapt the number of mails processed at the same time to the processing time */
+    private boolean adaptive;
+
+    private InFlightLimiter limiter;
+
+    /** Length of the window the throughput is measured for */
+    private final static long THROUGHPUT_WINDOW = 10000;
+
+    private long throughputWindowStart = System.currentTimeMillis();
+    private long throughputWindowCount;
+    private double throughput;
+
+    private double averageQueueWaitTime;
+
     @Resource(name = "mailqueuefactory")
     public void setMailQueueFactory(MailQueueFactory queueFactory) {
         this.queueFactory = queueFactory;
@@ -95,6 +120,11 @@ public class JamesMailSpooler implements Runnable, Configurable, LogEnabled, Mai
         numDequeueThreads = config.getInt("dequeueThreads", 2);
 
         numThreads = config.getInt("threads", 100);
+
+        adaptive = config.getBoolean("adaptive", false);
+        minThreads = config.getInt("minThreads", 1);
+        // configured in KB like the max. message size of the SMTP server
+        maxInFlightBytes = config.getLong("maxInFlightSize", 0) * 1024;
     }
 
     /**
@@ -111,6 +141,8 @@ public class JamesMailSpooler implements Runnable, Configurable, LogEnabled, Mai
             logger.info(infoBuffer.toString());
         }
 
+        limiter = new InFlightLimiter(minThreads, numThreads, maxInFlightBytes, adaptive);
+
         active.set(true);
         workerService = JMXEnabledThreadPoolExecutor.newFixedThreadPool("org.apache.james:type=component,component=mailetcontainer,name=mailspooler,sub-type=threadpool", "spooler", numThreads);
         dequeueService = JMXEnabledThreadPoolExecutor.newFixedThreadPool("org.apache.james:type=component,component=mailetcontainer,name=mailspooler,sub-type=threadpool", "dequeuer", numDequeueThreads);
@@ -134,20 +166,35 @@ public class JamesMailSpooler implements Runnable, Configurable, LogEnabled, Mai
 
         while (active.get()) {
 
-            final MailQueueItem queueItem;
             try {
-                queueItem = queue.deQueue();
+                limiter.acquire();
+            } catch (InterruptedException e) {
+                continue;
+            }
+
+            long size = 0;
+            boolean handedOver = false;
+            MailQueueItem dequeued = null;
+            try {
+                final MailQueueItem queueItem = queue.deQueue();
+                dequeued = queueItem;
+                final Mail mail = queueItem.getMail();
+                size = getMessageSize(mail);
+                limiter.addBytes(size);
+                updateQueueWaitTime(mail);
+
+                final long mailSize = size;
                 workerService.execute(new Runnable() {
 
                     @Override
                     public void run() {
+                        long start = System.currentTimeMillis();
                         try {
                             numActive.incrementAndGet();
 
                             // increase count
                             processingActive.incrementAndGet();
 
-                            Mail mail = queueItem.getMail();
                             if (logger.isDebugEnabled()) {
                                 StringBuffer debugBuffer = new StringBuffer(64).append("==== Begin processing mail ").append(mail.getName()).append("====");
                                 logger.debug(debugBuffer.toString());
@@ -164,7 +211,6 @@ public class JamesMailSpooler implements Runnable, Configurable, LogEnabled, Mai
 
                             } finally {
                                 LifecycleUtil.dispose(mail);
-                                mail = null;
                             }
                         } catch (Throwable e) {
                             if (active.get() && logger.isErrorEnabled()) {
@@ -174,19 +220,35 @@ public class JamesMailSpooler implements Runnable, Configurable, LogEnabled, Mai
                         } finally {
                             processingActive.decrementAndGet();
                             numActive.decrementAndGet();
+                            limiter.release(mailSize, System.currentTimeMillis() - start);
+                            updateThroughput();
                         }
 
                     }
                 });
-                  
-               
+                handedOver = true;
+
             } catch (MailQueueException e1) {
                 if (active.get() && logger.isErrorEnabled()) {
                     logger.error("Exception dequeue mail", e1);
 
                 }
+            } catch (RejectedExecutionException e) {
+                // we are shutting down. The mail was already dequeued, so roll
+                // it back to keep it in the queue
+                try {
+                    dequeued.done(false);
+                } catch (MailQueueException e1) {
+                    if (logger.isErrorEnabled()) {
+                        logger.error("Unable to roll back mail while shutting down", e1);
+                    }
+                }
+                LifecycleUtil.dispose(dequeued.getMail());
+            } finally {
+                if (!handedOver) {
+                    limiter.cancel(size);
+                }
             }
-          
 
         }
         if (logger.isInfoEnabled()) {
@@ -194,6 +256,45 @@ public class JamesMailSpooler implements Runnable, Configurable, LogEnabled, Mai
         }
     }
 
+    /**
+     * Return the size of the message of the given mail, or 0 if it can not be
+     * determined
+     */
+    private long getMessageSize(Mail mail) {
+        try {
+            return Math.max(0, mail.getMessageSize());
+        } catch (MessagingException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Update the moving average of the time mails waited in the queue. This is
+     * the time since the mail was last updated, which for a new mail is the
+     * time it was queued.
+     */
+    private synchronized void updateQueueWaitTime(Mail mail) {
+        if (mail.getLastUpdated() == null) {
+            return;
+        }
+        long wait = Math.max(0, System.currentTimeMillis() - mail.getLastUpdated().getTime());
+        if (averageQueueWaitTime == 0) {
+            averageQueueWaitTime = wait;
+        } else {
+            averageQueueWaitTime += (wait - averageQueueWaitTime) * 0.1;
+        }
+    }
+
+    private synchronized void updateThroughput() {
+        long now = System.currentTimeMillis();
+        throughputWindowCount++;
+        if (now - throughputWindowStart >= THROUGHPUT_WINDOW) {
+            throughput = throughputWindowCount * 1000d / (now - throughputWindowStart);
+            throughputWindowStart = now;
+            throughputWindowCount = 0;
+        }
+    }
+
     /**
      * The dispose operation is called at the end of a components lifecycle.
      * Instances of this class use this method to release and destroy any
@@ -245,4 +346,44 @@ public class JamesMailSpooler implements Runnable, Configurable, LogEnabled, Mai
     public int getCurrentSpoolCount() {
         return processingActive.get();
     }
+
+    /**
+     * @see
+     * org.apache.james.mailetcontainer.api.jmx.MailSpoolerMBean#getConcurrencyLimit()
+     */
+    public int getConcurrencyLimit() {
+        return limiter.getLimit();
+    }
+
+    /**
+     * @see
+     * org.apache.james.mailetcontainer.api.jmx.MailSpoolerMBean#getInFlightSize()
+     */
+    public long getInFlightSize() {
+        return limiter.getInFlightBytes();
+    }
+
+    /**
+     * @see
+     * org.apache.james.mailetcontainer.api.jmx.MailSpoolerMBean#getThroughput()
+     */
+    public synchronized double getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * @see
+     * org.apache.james.mailetcontainer.api.jmx.MailSpoolerMBean#getAverageQueueWaitTime()
+     */
+    public synchronized double getAverageQueueWaitTime() {
+        return averageQueueWaitTime;
+    }
+
+    /**
+     * @see
+     * org.apache.james.mailetcontainer.api.jmx.MailSpoolerMBean#getAverageProcessingTime()
+     */
+    public double getAverageProcessingTime() {
+        return limiter.getAverageProcessingTime();
+    }
 }
@@ -21,9 +21,10 @@ package org.apache.james.mailetcontainer.impl.camel;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import javax.mail.MessagingException;
 
@@ -115,15 +116,29 @@ public class MatcherSplitter {
             }
 
             // check if the matcher matched
-            if (matchedRcpts != null && matchedRcpts.isEmpty() == false) {
-                List<MailAddress> rcpts = new ArrayList<MailAddress>(mail.getRecipients());
-
-                Iterator<MailAddress> rcptsIterator = matchedRcpts.iterator();
-
-                while (rcptsIterator.hasNext()) {
-                    // loop through the recipients and remove the recipients
-                    // that matched
-                    rcpts.remove(rcptsIterator.next());
+            if (matchedRcpts != null && matchedRcpts == mail.getRecipients() && matchedRcpts.isEmpty() == false) {
+                // the matcher returned the recipients of the mail itself, no
+                // need to compare them
+                fullMatch = true;
+            } else if (matchedRcpts != null && matchedRcpts.isEmpty() == false) {
+                // loop through the recipients and remove one occurrence of
+                // every recipient that matched. Count them in a map so this
+                // stays linear for mails with many recipients
+                Map<MailAddress, Integer> matchCounts = new HashMap<MailAddress, Integer>();
+                for (MailAddress matched : matchedRcpts) {
+                    Integer count = matchCounts.get(matched);
+                    matchCounts.put(matched, count == null ? 1 : count + 1);
+                }
+                List<MailAddress> rcpts = new ArrayList<MailAddress>();
+                for (MailAddress rcpt : new ArrayList<MailAddress>(mail.getRecipients())) {
+                    Integer count = matchCounts.get(rcpt);
+                    if (count == null) {
+                        rcpts.add(rcpt);
+                    } else if (count == 1) {
+                        matchCounts.remove(rcpt);
+                    } else {
+                        matchCounts.put(rcpt, count - 1);
+                    }
                 }
 
                 if (rcpts.isEmpty()) {
@@ -38,6 +38,7 @@ public class MailProcessorManagement extends StandardMBean implements MailProces
     private AtomicLong fastestProcessing = new AtomicLong(-1);
     private AtomicLong slowestProcessing = new AtomicLong(-1);
     private AtomicLong lastProcessing = new AtomicLong(-1);
+    private AtomicLong totalProcessing = new AtomicLong(0);
 
     public MailProcessorManagement(String processorName) throws NotCompliantMBeanException {
         super(MailProcessorManagementMBean.class);
@@ -67,6 +68,7 @@ public class MailProcessorManagement extends StandardMBean implements MailProces
         }
 
         lastProcessing.set(processTime);
+        totalProcessing.addAndGet(processTime);
 
     }
 
@@ -125,4 +127,22 @@ public class MailProcessorManagement extends StandardMBean implements MailProces
         return lastProcessing.get();
     }
 
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getTotalProcessing()
+     */
+    public long getTotalProcessing() {
+        return totalProcessing.get();
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getAverageProcessing()
+     */
+    public double getAverageProcessing() {
+        long count = getHandledMailCount();
+        if (count == 0) {
+            return 0;
+        }
+        return (double) totalProcessing.get() / count;
+    }
+
 }
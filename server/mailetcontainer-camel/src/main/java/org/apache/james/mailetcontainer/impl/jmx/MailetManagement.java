@@ -36,6 +36,7 @@ public final class MailetManagement extends StandardMBean implements MailetManag
     private AtomicLong fastestProcessing = new AtomicLong(-1);
     private AtomicLong slowestProcessing = new AtomicLong(-1);
     private AtomicLong lastProcessing = new AtomicLong(-1);
+    private AtomicLong totalProcessing = new AtomicLong(0);
 
     private final MailetConfig config;
 
@@ -61,6 +62,7 @@ public final class MailetManagement extends StandardMBean implements MailetManag
             errorCount.incrementAndGet();
         }
         lastProcessing.set(processTime);
+        totalProcessing.addAndGet(processTime);
     }
 
     /**
@@ -131,4 +133,22 @@ public final class MailetManagement extends StandardMBean implements MailetManag
         return lastProcessing.get();
     }
 
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getTotalProcessing()
+     */
+    public long getTotalProcessing() {
+        return totalProcessing.get();
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getAverageProcessing()
+     */
+    public double getAverageProcessing() {
+        long count = getHandledMailCount();
+        if (count == 0) {
+            return 0;
+        }
+        return (double) totalProcessing.get() / count;
+    }
+
 }
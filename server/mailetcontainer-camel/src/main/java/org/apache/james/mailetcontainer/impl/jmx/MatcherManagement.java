@@ -35,6 +35,7 @@ public final class MatcherManagement extends StandardMBean implements MatcherMan
     private AtomicLong matchedCount = new AtomicLong(0);
     private AtomicLong notMatchedCount = new AtomicLong(0);
     private AtomicLong lastProcessing = new AtomicLong(-1);
+    private AtomicLong totalProcessing = new AtomicLong(0);
 
     public MatcherManagement(MatcherConfig matcherConfig) throws NotCompliantMBeanException {
         super(MatcherManagementMBean.class);
@@ -64,6 +65,7 @@ public final class MatcherManagement extends StandardMBean implements MatcherMan
         }
 
         lastProcessing.set(processTime);
+        totalProcessing.addAndGet(processTime);
 
     }
 
@@ -143,4 +145,22 @@ public final class MatcherManagement extends StandardMBean implements MatcherMan
     public long getLastProcessing() {
         return lastProcessing.get();
     }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getTotalProcessing()
+     */
+    public long getTotalProcessing() {
+        return totalProcessing.get();
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getAverageProcessing()
+     */
+    public double getAverageProcessing() {
+        long count = getHandledMailCount();
+        if (count == 0) {
+            return 0;
+        }
+        return (double) totalProcessing.get() / count;
+    }
 }
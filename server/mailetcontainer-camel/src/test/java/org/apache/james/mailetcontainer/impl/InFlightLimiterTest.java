@@ -0,0 +1,144 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailetcontainer.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class InFlightLimiterTest {
+
+    private CountDownLatch acquireAsync(final InFlightLimiter limiter) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Thread() {
+            public void run() {
+                try {
+                    limiter.acquire();
+                    latch.countDown();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        }.start();
+        return latch;
+    }
+
+    @Test
+    public void testCountLimit() throws Exception {
+        InFlightLimiter limiter = new InFlightLimiter(1, 2, 0, false);
+        limiter.acquire();
+        limiter.acquire();
+        assertEquals(2, limiter.getInFlight());
+
+        CountDownLatch latch = acquireAsync(limiter);
+        assertFalse(latch.await(200, TimeUnit.MILLISECONDS));
+
+        limiter.release(0, 10);
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    public void testSizeLimit() throws Exception {
+        InFlightLimiter limiter = new InFlightLimiter(1, 10, 1000, false);
+
+        // a single mail is let through even if it is bigger than the limit
+        limiter.acquire();
+        limiter.addBytes(5000);
+        assertEquals(5000, limiter.getInFlightBytes());
+
+        CountDownLatch latch = acquireAsync(limiter);
+        assertFalse(latch.await(200, TimeUnit.MILLISECONDS));
+
+        limiter.release(5000, 10);
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertEquals(0, limiter.getInFlightBytes());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        InFlightLimiter limiter = new InFlightLimiter(1, 1, 0, false);
+        limiter.acquire();
+        limiter.addBytes(100);
+        limiter.cancel(100);
+
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(0, limiter.getInFlightBytes());
+        assertEquals(0, limiter.getAverageProcessingTime(), 0);
+    }
+
+    @Test
+    public void testFixedLimit() throws Exception {
+        InFlightLimiter limiter = new InFlightLimiter(1, 8, 0, false);
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.release(0, i * 100);
+        }
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void testAdaptiveDecreaseAndIncrease() throws Exception {
+        InFlightLimiter limiter = new InFlightLimiter(2, 16, 0, true);
+        assertEquals(16, limiter.getLimit());
+
+        // establish the baseline
+        process(limiter, 10);
+        assertEquals(16, limiter.getLimit());
+
+        // processing slows down a lot
+        process(limiter, 100);
+        assertTrue(limiter.getLimit() < 16);
+
+        for (int i = 0; i < 10; i++) {
+            process(limiter, 100);
+        }
+        assertEquals(2, limiter.getLimit());
+
+        // and recovers
+        process(limiter, 10);
+        process(limiter, 10);
+        assertTrue(limiter.getLimit() > 2);
+    }
+
+    /**
+     * Process at least one window of mails, always with the current limit
+     * reached
+     */
+    private void process(InFlightLimiter limiter, long time) throws InterruptedException {
+        int done = 0;
+        int window = Math.max(10, limiter.getLimit());
+        while (done < window) {
+            int n = limiter.getLimit();
+            for (int i = 0; i < n; i++) {
+                limiter.acquire();
+            }
+            for (int i = 0; i < n; i++) {
+                limiter.release(0, time);
+            }
+            done += n;
+        }
+    }
+}
@@ -32,6 +32,7 @@ import org.apache.james.queue.api.MailQueue.MailQueueException;
 import org.apache.james.queue.api.MailQueue.MailQueueItem;
 import org.apache.james.transport.util.MailetContextLog;
 import org.apache.james.util.TimeConverter;
+import org.apache.james.util.concurrent.NamedThreadFactory;
 import org.apache.mailet.base.GenericMailet;
 import org.apache.mailet.HostAddress;
 import org.apache.mailet.Mail;
@@ -50,9 +51,14 @@ import javax.mail.internet.MimeMultipart;
 import javax.mail.internet.MimePart;
 import javax.mail.internet.ParseException;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Serializable;
 import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.ConnectException;
@@ -62,13 +68,19 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
-import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -90,7 +102,34 @@ import java.util.regex.PatternSyntaxException;
  * <p>These are the parameters that control the operation of the RemoteDelivery mailet:
  * 
  * <ul>
- * <li><b>deliveryThreads</b> (required) - an Integer for the number of threads this mailet will use to deliver mail.</li> 
+ * <li><b>deliveryThreads</b> (required) - an Integer for the number of threads this mailet will use to deliver mail. This is the
+ * maximum number of SMTP conversations that are in progress at the same time.</li> 
+ * <li><b>dequeueThreads</b> (optional) - an Integer for the number of threads which take mails from the outgoing queue and hand them over
+ * to the delivery threads. A mail is only taken from the queue once a delivery thread is free. Default is 1.</li>
+ * <li><b>maxDeliveriesPerDomain</b> (optional) - an Integer for the maximum number of concurrent deliveries to the same recipient domain,
+ * so a slow remote server can not occupy all delivery threads. A mail for a domain which has reached the limit is put back into the queue
+ * and tried again after <code>&lt;domainThrottleDelay/&gt</code>; this does not count as a delivery attempt. Ignored if
+ * <code>&lt;gateway/&gt</code> is set. Default is 0, which means no limit.</li>
+ * <li><b>domainThrottleDelay</b> (optional) - a String of the form <code>delay [unit]</code>, as used by <code>&lt;delayTime/&gt</code>,
+ * for the delay after which a mail which was put back because of <code>&lt;maxDeliveriesPerDomain/&gt</code> is tried again.
+ * It doubles every time the same mail is put back again. Default is 10 sec.</li>
+ * <li><b>domainMaxThrottleDelay</b> (optional) - a String of the form <code>delay [unit]</code> for the max. delay after which a
+ * mail which was put back because of <code>&lt;maxDeliveriesPerDomain/&gt</code> is tried again. Default is 5 minute.</li>
+ * <li><b>maxMessagesPerConnection</b> (optional) - an Integer for the number of mails which are sent over one SMTP connection before it
+ * is closed. Connections are kept open after a mail was sent and used for the next mails to the same server, with a RSET between them.
+ * Default is 1, which means a connection is closed after each mail.</li>
+ * <li><b>maxIdleConnectionsPerServer</b> (optional) - an Integer for the number of open connections which are kept per server while
+ * they are not used. Default is 2.</li>
+ * <li><b>connectionIdleTimeout</b> (optional) - a String of the form <code>delay [unit]</code>, as used by <code>&lt;delayTime/&gt</code>,
+ * for the time after which an unused connection is closed. Default is 30 sec.</li>
+ * <li><b>domainFailureThreshold</b> (optional) - an Integer for the number of consecutive temporary failures after which a recipient domain
+ * is parked. Mails to a parked domain are put back into the queue until the backoff is over, without counting as a delivery attempt, instead
+ * of each of them being retried on its own schedule. A successful delivery to the domain resets it. Ignored if <code>&lt;gateway/&gt</code>
+ * is set. Default is 0, which means domains are never parked.</li>
+ * <li><b>domainBackoffDelay</b> (optional) - a String of the form <code>delay [unit]</code>, as used by <code>&lt;delayTime/&gt</code>,
+ * for the time a domain is parked the first time. It doubles for every failure after the backoff. Default is 5 minute.</li>
+ * <li><b>domainMaxBackoffDelay</b> (optional) - a String of the form <code>delay [unit]</code> for the max. time a domain is parked.
+ * Default is 1 hour.</li>
  * <li><b>outgoing</b> (required) - a String containing the URL for the repository that will hold messages being processed by this mailet.</li>
  * <li><b>bind</b> (optional) - a String describing the local IP address to which the mailet should be bound while delivering
  * emails. This tag is useful for multihomed machines. Default is to bind to the default local address of the machine.<br>
@@ -149,6 +188,24 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
     /** Default Delay Time (Default is 6*60*60*1000 Milliseconds (6 hours)). */
     private static final long DEFAULT_DELAY_TIME = 21600000;
 
+    /** Default delay before a throttled mail is tried again (10 seconds). */
+    private static final long DEFAULT_DOMAIN_THROTTLE_DELAY = 10000;
+
+    /** Default max. delay before a throttled mail is tried again (5 minutes). */
+    private static final long DEFAULT_DOMAIN_MAX_THROTTLE_DELAY = 300000;
+
+    /** Mail attribute which holds how often a mail was throttled in a row. */
+    private static final String THROTTLE_COUNT_ATTRIBUTE = "org.apache.james.transport.mailets.RemoteDelivery.throttleCount";
+
+    /** Default time after which an unused connection is closed (30 seconds). */
+    private static final long DEFAULT_CONNECTION_IDLE_TIMEOUT = 30000;
+
+    /** Default time a domain is parked the first time (5 minutes). */
+    private static final long DEFAULT_DOMAIN_BACKOFF_DELAY = 300000;
+
+    /** Default max. time a domain is parked (1 hour). */
+    private static final long DEFAULT_DOMAIN_MAX_BACKOFF_DELAY = 3600000;
+
     /** Pattern to match [attempts*]delay[units]. */
     private static final String PATTERN_STRING = "\\s*([0-9]*\\s*[\\*])?\\s*([0-9]+)\\s*([a-z,A-Z]*)\\s*";
 
@@ -196,6 +253,21 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
     /** No. of threads used to process messages that should be retried. */
     private int workersThreadCount = 1;
 
+    /** No. of threads which take messages from the queue. */
+    private int dequeueThreadCount = 1;
+
+    /** Max. no. of concurrent deliveries per recipient domain, 0 for no limit. */
+    private int maxDeliveriesPerDomain = 0;
+
+    /** Delay before a mail which was throttled by maxDeliveriesPerDomain is tried again. */
+    private long domainThrottleDelay = DEFAULT_DOMAIN_THROTTLE_DELAY;
+
+    /** Max. delay before a throttled mail is tried again. */
+    private long domainMaxThrottleDelay = DEFAULT_DOMAIN_MAX_THROTTLE_DELAY;
+
+    /** No. of deliveries in progress per recipient domain. */
+    private final Map<String, Integer> activeDeliveries = new HashMap<String, Integer>();
+
     /** The server(s) to send all email to */
     private Collection<String> gatewayServer = null;
 
@@ -217,8 +289,35 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
      */
     private boolean isBindUsed = false;
 
-    /** Collection that stores all worker threads. */
-    private Collection<Thread> workersThreads = new Vector<Thread>();
+    /** Threads which take mails from the queue. */
+    private ExecutorService dequeueService;
+
+    /** Threads which deliver the mails. */
+    private ExecutorService workerService;
+
+    /** Free delivery threads. A mail is only dequeued once one is available. */
+    private Semaphore deliverySlots;
+
+    /** Max. no. of mails sent over one connection. */
+    private int maxMessagesPerConnection = 1;
+
+    /** Max. no. of unused connections kept per server. */
+    private int maxIdleConnectionsPerServer = 2;
+
+    /** Time after which an unused connection is closed. */
+    private long connectionIdleTimeout = DEFAULT_CONNECTION_IDLE_TIMEOUT;
+
+    /** The open SMTP connections */
+    private RemoteDeliveryConnectionPool connectionPool;
+
+    /** Closes connections which were not used for connectionIdleTimeout. */
+    private ScheduledExecutorService connectionReaper;
+
+    /** Keeps track of failing domains, null if domains are never parked. */
+    private RemoteDeliveryCircuitBreaker circuitBreaker;
+
+    /** The JMX names registered by this mailet */
+    private final List<ObjectName> mbeanNames = new ArrayList<ObjectName>();
 
     /** Flag used by 'run' method to end itself. */
     private volatile boolean destroyed = false;
@@ -428,17 +527,107 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
         	usePriority = Boolean.valueOf(prio);
         }
 
+        String perDomain = getInitParameter("maxDeliveriesPerDomain");
+        if (perDomain != null && !perDomain.equals("")) {
+            maxDeliveriesPerDomain = Integer.parseInt(perDomain);
+        }
+
+        String throttleDelay = getInitParameter("domainThrottleDelay");
+        if (throttleDelay != null && !throttleDelay.equals("")) {
+            domainThrottleDelay = new Delay(throttleDelay).getDelayTime();
+        }
+
+        String maxThrottleDelay = getInitParameter("domainMaxThrottleDelay");
+        if (maxThrottleDelay != null && !maxThrottleDelay.equals("")) {
+            domainMaxThrottleDelay = new Delay(maxThrottleDelay).getDelayTime();
+        }
+
+        String messagesPerConnection = getInitParameter("maxMessagesPerConnection");
+        if (messagesPerConnection != null && !messagesPerConnection.equals("")) {
+            maxMessagesPerConnection = Integer.parseInt(messagesPerConnection);
+        }
+
+        String idleConnections = getInitParameter("maxIdleConnectionsPerServer");
+        if (idleConnections != null && !idleConnections.equals("")) {
+            maxIdleConnectionsPerServer = Integer.parseInt(idleConnections);
+        }
+
+        String idleTimeout = getInitParameter("connectionIdleTimeout");
+        if (idleTimeout != null && !idleTimeout.equals("")) {
+            connectionIdleTimeout = new Delay(idleTimeout).getDelayTime();
+        }
+
+        initConnectionPool();
+
+        String failureThreshold = getInitParameter("domainFailureThreshold");
+        if (failureThreshold != null && !failureThreshold.equals("") && Integer.parseInt(failureThreshold) > 0) {
+            long backoff = DEFAULT_DOMAIN_BACKOFF_DELAY;
+            String backoffParm = getInitParameter("domainBackoffDelay");
+            if (backoffParm != null && !backoffParm.equals("")) {
+                backoff = new Delay(backoffParm).getDelayTime();
+            }
+            long maxBackoff = DEFAULT_DOMAIN_MAX_BACKOFF_DELAY;
+            String maxBackoffParm = getInitParameter("domainMaxBackoffDelay");
+            if (maxBackoffParm != null && !maxBackoffParm.equals("")) {
+                maxBackoff = new Delay(maxBackoffParm).getDelayTime();
+            }
+            circuitBreaker = new RemoteDeliveryCircuitBreaker(Integer.parseInt(failureThreshold), backoff, maxBackoff);
+            registerMBean(circuitBreaker, "domains");
+        }
+
         // Start Workers Threads.
         workersThreadCount = Integer.parseInt(getInitParameter("deliveryThreads"));
+        String dequeueThreads = getInitParameter("dequeueThreads");
+        if (dequeueThreads != null && !dequeueThreads.equals("")) {
+            dequeueThreadCount = Integer.parseInt(dequeueThreads);
+        }
         initDeliveryThreads();
     }
 
+    private void initConnectionPool() {
+        connectionPool = new RemoteDeliveryConnectionPool(maxMessagesPerConnection, maxIdleConnectionsPerServer, connectionIdleTimeout);
+        if (isConnectionReuse()) {
+            connectionReaper = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Remote delivery connection reaper"));
+            long period = Math.max(connectionIdleTimeout / 2, 1000);
+            connectionReaper.scheduleWithFixedDelay(new Runnable() {
+
+                public void run() {
+                    connectionPool.evictIdle();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        registerMBean(connectionPool, "connections");
+    }
+
+    /**
+     * Registers the given MBean of this mailet. A failure is only logged, as
+     * the mailet works without it.
+     */
+    private void registerMBean(Object mbean, String subType) {
+        try {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("org.apache.james:type=component,component=mailetcontainer,name=remotedelivery,mailet=" + ObjectName.quote(getMailetName()) + ",sub-type=" + subType);
+            mbeanServer.registerMBean(mbean, name);
+            mbeanNames.add(name);
+        } catch (Exception e) {
+            log("Unable to register " + subType + " MBean: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return true if connections are kept open for more than one mail
+     */
+    private boolean isConnectionReuse() {
+        return maxMessagesPerConnection > 1;
+    }
+
     private void initDeliveryThreads() {
-        for (int a = 0; a < workersThreadCount; a++) {
-            String threadName = "Remote delivery thread (" + a + ")";
-            Thread t = new Thread(this, threadName);
-            t.start();
-            workersThreads.add(t);
+        deliverySlots = new Semaphore(workersThreadCount);
+        workerService = Executors.newFixedThreadPool(workersThreadCount, new NamedThreadFactory("Remote delivery thread"));
+        dequeueService = Executors.newFixedThreadPool(dequeueThreadCount, new NamedThreadFactory("Remote delivery dequeue thread"));
+        for (int a = 0; a < dequeueThreadCount; a++) {
+            dequeueService.execute(this);
         }
     }
 
@@ -698,20 +887,35 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
         destroyed = true;
 
         // Wake up all threads from waiting for an accept
-        for (Iterator<Thread> i = workersThreads.iterator(); i.hasNext();) {
-            Thread t = i.next();
-            t.interrupt();
+        if (dequeueService != null) {
+            dequeueService.shutdownNow();
+        }
+        if (workerService != null) {
+            workerService.shutdownNow();
+        }
+        if (connectionReaper != null) {
+            connectionReaper.shutdownNow();
         }
+        if (connectionPool != null) {
+            connectionPool.close();
+        }
+        for (ObjectName name : mbeanNames) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+        mbeanNames.clear();
         notifyAll();
     }
 
     /**
-     * Handles checking the outgoing spool for new mail and delivering them if
-     * there are any
+     * Builds the properties of the JavaMail Session used for deliveries
+     * 
+     * @return the session properties
      */
-    public void run() {
-
-        // Checks the pool and delivers a mail message
+    private Properties createSessionProperties() {
         Properties props = new Properties();
         // Not needed for production environment
         props.put("mail.debug", "false");
@@ -754,90 +958,36 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
             props.put("mail.smtp.auth", "true");
         }
 
+        if (isConnectionReuse()) {
+            // Check a reused connection with RSET, which also resets a
+            // previous mail transaction
+            props.put("mail.smtp.userset", "true");
+        }
+
         props.putAll(defprops);
+        return props;
+    }
 
-        final Session session = obtainSession(props);
+    /**
+     * Handles checking the outgoing spool for new mail and handing them over
+     * to the delivery threads if there are any
+     */
+    public void run() {
         try {
             while (!Thread.interrupted() && !destroyed) {
                 try {
-                    // Get the 'mail' object that is ready for deliverying. If
-                    // no
-                    // message is
-                    // ready, the 'accept' will block until message is ready.
-                    // The amount
-                    // of time to block is determined by the 'getWaitTime'
-                    // method of the
-                    // MultipleDelayFilter.
-                    MailQueueItem queueItem = queue.deQueue();
-                    Mail mail = queueItem.getMail();
-
-                    String key = mail.getName();
-
+                    // Only take a mail from the queue once a delivery thread is
+                    // free to handle it, so dequeued mails do not pile up.
+                    deliverySlots.acquire();
+                    boolean dispatched = false;
                     try {
-                        if (isDebug) {
-                            String message = Thread.currentThread().getName() + " will process mail " + key;
-                            log(message);
-                        }
-
-                        // Deliver message
-                        if (deliver(mail, session)) {
-                            // Message was successfully delivered/fully
-                            // failed...
-                            // delete it
-                            LifecycleUtil.dispose(mail);
-                            // workRepository.remove(key);
-                        } else {
-                            // Something happened that will delay delivery.
-                            // Store it back in the retry repository.
-                            // workRepository.store(mail);
-                            int retries = 0;
-                            try {
-                                retries = Integer.parseInt(mail.getErrorMessage());
-                            } catch (NumberFormatException e) {
-                                // Something strange was happen with the
-                                // errorMessage..
-                            }
-
-                            long delay = getNextDelay(retries);
-                            
-                            if (usePriority) {
-                                // Use lowest priority for retries. See JAMES-1311
-                                mail.setAttribute(MailPrioritySupport.MAIL_PRIORITY, MailPrioritySupport.LOW_PRIORITY);
-                            }
-                            queue.enQueue(mail, delay, TimeUnit.MILLISECONDS);
-                            LifecycleUtil.dispose(mail);
-
-                            // This is an update, so we have to unlock and
-                            // notify or this mail is kept locked by this
-                            // thread.
-                            // workRepository.unlock(key);
-
-                            // Note: We do not notify because we updated an
-                            // already existing mail and we are now free to
-                            // handle
-                            // more mails.
-                            // Furthermore this mail should not be processed now
-                            // because we have a retry time scheduling.
+                        MailQueueItem queueItem = queue.deQueue();
+                        dispatched = dispatch(queueItem);
+                    } finally {
+                        if (!dispatched) {
+                            deliverySlots.release();
                         }
-
-                        // Clear the object handle to make sure it recycles
-                        // this object.
-                        mail = null;
-                        queueItem.done(true);
-                    } catch (Exception e) {
-                        // Prevent unexpected exceptions from causing looping by
-                        // removing message from outgoing.
-                        // DO NOT CHANGE THIS to catch Error! For example, if
-                        // there were an OutOfMemory condition caused because
-                        // something else in the server was abusing memory, we
-                        // would
-                        // not want to start purging the retrying spool!
-                        LifecycleUtil.dispose(mail);
-                        // workRepository.remove(key);
-                        queueItem.done(false);
-                        throw new MailQueueException("Unable to perform dequeue", e);
                     }
-
                 } catch (Throwable e) {
                     if (!destroyed) {
                         log("Exception caught in RemoteDelivery.run()", e);
@@ -850,6 +1000,234 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
         }
     }
 
+    /**
+     * Hands the dequeued mail over to a delivery thread. If the maximum number
+     * of concurrent deliveries to its domain is reached the mail is put back
+     * into the queue instead, without counting this as a delivery attempt.
+     * The delay doubles every time the same mail is put back, so a backlog to
+     * a slow domain is not rewritten to the queue every few seconds.
+     * 
+     * @param queueItem
+     *            the dequeued item
+     * @return true if a delivery thread took over the mail
+     * @throws MailQueueException
+     */
+    private boolean dispatch(final MailQueueItem queueItem) throws MailQueueException {
+        final Mail mail = queueItem.getMail();
+        final String domain = getDestinationDomain(mail);
+
+        if (circuitBreaker != null && domain != null) {
+            long parkedUntil = circuitBreaker.getParkedUntil(domain);
+            if (parkedUntil > 0) {
+                if (isDebug) {
+                    log("Delivery to " + domain + " is parked until " + new Date(parkedUntil) + ", delaying mail " + mail.getName());
+                }
+                postpone(queueItem, mail, parkedUntil - System.currentTimeMillis());
+                return false;
+            }
+        }
+
+        if (!acquireDomain(domain)) {
+            long delay = getThrottleDelay(mail);
+            if (isDebug) {
+                log("Too many deliveries to " + domain + " in progress, delaying mail " + mail.getName() + " for " + delay + " ms");
+            }
+            postpone(queueItem, mail, delay);
+            return false;
+        }
+        mail.removeAttribute(THROTTLE_COUNT_ATTRIBUTE);
+
+        try {
+            workerService.execute(new Runnable() {
+
+                public void run() {
+                    try {
+                        process(queueItem, mail);
+                    } catch (Throwable e) {
+                        if (!destroyed) {
+                            log("Exception caught in RemoteDelivery.run()", e);
+                        }
+                    } finally {
+                        releaseDomain(domain);
+                        deliverySlots.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // We are shutting down
+            releaseDomain(domain);
+            LifecycleUtil.dispose(mail);
+            queueItem.done(false);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the delay after which the throttled mail is tried again and
+     * increments its throttle count
+     */
+    private long getThrottleDelay(Mail mail) {
+        int count = 0;
+        Serializable attribute = mail.getAttribute(THROTTLE_COUNT_ATTRIBUTE);
+        if (attribute instanceof Integer) {
+            count = (Integer) attribute;
+        }
+        mail.setAttribute(THROTTLE_COUNT_ATTRIBUTE, count + 1);
+
+        long delay = domainThrottleDelay;
+        for (int i = 0; i < count && delay < domainMaxThrottleDelay; i++) {
+            delay *= 2;
+        }
+        return Math.min(delay, domainMaxThrottleDelay);
+    }
+
+    /**
+     * Puts the dequeued mail back into the queue without counting this as a
+     * delivery attempt
+     */
+    private void postpone(MailQueueItem queueItem, Mail mail, long delay) throws MailQueueException {
+        try {
+            queue.enQueue(mail, delay, TimeUnit.MILLISECONDS);
+            queueItem.done(true);
+        } catch (MailQueueException e) {
+            queueItem.done(false);
+            throw e;
+        } finally {
+            LifecycleUtil.dispose(mail);
+        }
+    }
+
+    /**
+     * Delivers the mail and either removes it from the queue or schedules the
+     * next delivery attempt
+     * 
+     * @param queueItem
+     *            the dequeued item
+     * @param mail
+     *            the mail of the item
+     * @throws MailQueueException
+     */
+    private void process(MailQueueItem queueItem, Mail mail) throws MailQueueException {
+        String key = mail.getName();
+
+        try {
+            if (isDebug) {
+                String message = Thread.currentThread().getName() + " will process mail " + key;
+                log(message);
+            }
+
+            // Deliver message
+            if (deliver(mail)) {
+                // Message was successfully delivered/fully
+                // failed...
+                // delete it
+                LifecycleUtil.dispose(mail);
+                // workRepository.remove(key);
+            } else {
+                // Something happened that will delay delivery.
+                // Store it back in the retry repository.
+                // workRepository.store(mail);
+                int retries = 0;
+                try {
+                    retries = Integer.parseInt(mail.getErrorMessage());
+                } catch (NumberFormatException e) {
+                    // Something strange was happen with the
+                    // errorMessage..
+                }
+
+                long delay = getNextDelay(retries);
+                
+                if (usePriority) {
+                    // Use lowest priority for retries. See JAMES-1311
+                    mail.setAttribute(MailPrioritySupport.MAIL_PRIORITY, MailPrioritySupport.LOW_PRIORITY);
+                }
+                queue.enQueue(mail, delay, TimeUnit.MILLISECONDS);
+                LifecycleUtil.dispose(mail);
+
+                // This is an update, so we have to unlock and
+                // notify or this mail is kept locked by this
+                // thread.
+                // workRepository.unlock(key);
+
+                // Note: We do not notify because we updated an
+                // already existing mail and we are now free to
+                // handle
+                // more mails.
+                // Furthermore this mail should not be processed now
+                // because we have a retry time scheduling.
+            }
+
+            // Clear the object handle to make sure it recycles
+            // this object.
+            mail = null;
+            queueItem.done(true);
+        } catch (Exception e) {
+            // Prevent unexpected exceptions from causing looping by
+            // removing message from outgoing.
+            // DO NOT CHANGE THIS to catch Error! For example, if
+            // there were an OutOfMemory condition caused because
+            // something else in the server was abusing memory, we
+            // would
+            // not want to start purging the retrying spool!
+            LifecycleUtil.dispose(mail);
+            // workRepository.remove(key);
+            queueItem.done(false);
+            throw new MailQueueException("Unable to perform dequeue", e);
+        }
+    }
+
+    /**
+     * Returns the recipient domain of the given mail, or null if the mail is
+     * sent to a gateway.
+     */
+    private String getDestinationDomain(Mail mail) {
+        if (gatewayServer != null || mail.getRecipients().isEmpty()) {
+            return null;
+        }
+        // service() splits the recipients by domain, so the first one is
+        // representative
+        MailAddress rcpt = (MailAddress) mail.getRecipients().iterator().next();
+        return rcpt.getDomain().toLowerCase(Locale.US);
+    }
+
+    /**
+     * Reserves a delivery to the given domain if the limit is not reached yet
+     * 
+     * @return true if the delivery may start
+     */
+    private boolean acquireDomain(String domain) {
+        if (domain == null || maxDeliveriesPerDomain <= 0) {
+            return true;
+        }
+        synchronized (activeDeliveries) {
+            Integer active = activeDeliveries.get(domain);
+            int count = active == null ? 0 : active;
+            if (count >= maxDeliveriesPerDomain) {
+                return false;
+            }
+            activeDeliveries.put(domain, count + 1);
+            return true;
+        }
+    }
+
+    /**
+     * Releases a delivery reserved by {@link #acquireDomain(String)}
+     */
+    private void releaseDomain(String domain) {
+        if (domain == null || maxDeliveriesPerDomain <= 0) {
+            return;
+        }
+        synchronized (activeDeliveries) {
+            Integer active = activeDeliveries.get(domain);
+            if (active == null || active <= 1) {
+                activeDeliveries.remove(domain);
+            } else {
+                activeDeliveries.put(domain, active - 1);
+            }
+        }
+    }
+
     /**
      * We can assume that the recipients of this message are all going to the
      * same mail server. We will now rely on the DNS server to do DNS MX record
@@ -858,12 +1236,10 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
      * 
      * @param mail
      *            org.apache.james.core.MailImpl
-     * @param session
-     *            javax.mail.Session
      * @return boolean Whether the delivery was successful and the message can
      *         be deleted
      */
-    private boolean deliver(Mail mail, Session session) {
+    private boolean deliver(Mail mail) {
         try {
             if (isDebug) {
                 log("Attempting to deliver " + mail.getName());
@@ -925,19 +1301,18 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
 
             MessagingException lastError = null;
 
+            String sender;
+            if (mail.getSender() == null) {
+                sender = "<>";
+            } else {
+                sender = mail.getSender().toString();
+            }
+
             while (targetServers.hasNext()) {
                 try {
 
-                    Properties props = session.getProperties();
-                    if (mail.getSender() == null) {
-                        props.put("mail.smtp.from", "<>");
-                    } else {
-                        String sender = mail.getSender().toString();
-                        props.put("mail.smtp.from", sender);
-                    }
-
                     HostAddress outgoingMailServer = targetServers.next();
-                    StringBuilder logMessageBuffer = new StringBuilder(256).append("Attempting delivery of ").append(mail.getName()).append(" to host ").append(outgoingMailServer.getHostName()).append(" at ").append(outgoingMailServer.getHost()).append(" from ").append(props.get("mail.smtp.from"))
+                    StringBuilder logMessageBuffer = new StringBuilder(256).append("Attempting delivery of ").append(mail.getName()).append(" to host ").append(outgoingMailServer.getHostName()).append(" at ").append(outgoingMailServer.getHost()).append(" from ").append(sender)
                             .append(" for addresses ").append(Arrays.asList(addr));
                     log(logMessageBuffer.toString());
 
@@ -950,32 +1325,43 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
                     // "mail.smtp.dsn.notify" //default to nothing...appended as
                     // NOTIFY= after RCPT TO line.
 
-                    Transport transport = null;
+                    String connectionKey = outgoingMailServer.getHostName() + "@" + outgoingMailServer;
+                    RemoteDeliveryConnectionPool.Connection connection = connectionPool.borrow(connectionKey);
                     try {
-                        transport = session.getTransport(outgoingMailServer);
-                        try {
-                            if (authUser != null) {
-                                transport.connect(outgoingMailServer.getHostName(), authUser, authPass);
-                            } else {
-                                transport.connect();
-                            }
-                        } catch (MessagingException me) {
-                            // Any error on connect should cause the mailet to
-                            // attempt
-                            // to connect to the next SMTP server associated
-                            // with this
-                            // MX record. Just log the exception. We'll worry
-                            // about
-                            // failing the message at the end of the loop.
+                        if (connection == null) {
+                            Session session = obtainSession(createSessionProperties());
+                            Transport transport = session.getTransport(outgoingMailServer);
+                            long start = System.currentTimeMillis();
+                            try {
+                                if (authUser != null) {
+                                    transport.connect(outgoingMailServer.getHostName(), authUser, authPass);
+                                } else {
+                                    transport.connect();
+                                }
+                            } catch (MessagingException me) {
+                                // Any error on connect should cause the mailet to
+                                // attempt
+                                // to connect to the next SMTP server associated
+                                // with this
+                                // MX record. Just log the exception. We'll worry
+                                // about
+                                // failing the message at the end of the loop.
                             
-                            // Also include the stacktrace if debug is enabled. See JAMES-1257
-                            if (isDebug) {
-                                log(me.getMessage(), me.getCause());
-                            } else {
-                                log(me.getMessage());
+                                // Also include the stacktrace if debug is enabled. See JAMES-1257
+                                if (isDebug) {
+                                    log(me.getMessage(), me.getCause());
+                                } else {
+                                    log(me.getMessage());
+                                }
+                                continue;
                             }
-                            continue;
+                            connection = connectionPool.connected(connectionKey, session, transport, System.currentTimeMillis() - start);
+                        } else if (isDebug) {
+                            log("Reusing connection to " + outgoingMailServer.getHostName() + " at " + outgoingMailServer.getHost());
                         }
+                        connection.getSession().getProperties().put("mail.smtp.from", sender);
+                        Transport transport = connection.getTransport();
+
                         // if the transport is a SMTPTransport (from sun) some
                         // performance enhancement can be done.
                         if (transport.getClass().getName().endsWith(".SMTPTransport")) {
@@ -1024,27 +1410,21 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
                             }
                         }
                         transport.sendMessage(message, addr);
+                        connectionPool.release(connection);
+                        connection = null;
                     } finally {
-                        if (transport != null) {
-                            try {
-                                // James-899: transport.close() sends QUIT to
-                                // the server; if that fails
-                                // (e.g. because the server has already closed
-                                // the connection) the message
-                                // should be considered to be delivered because
-                                // the error happened outside
-                                // of the mail transaction (MAIL, RCPT, DATA).
-                                transport.close();
-                            } catch (MessagingException e) {
-                                log("Warning: could not close the SMTP transport after sending mail (" + mail.getName() + ") to " + outgoingMailServer.getHostName() + " at " + outgoingMailServer.getHost() + " for " + mail.getRecipients() + "; probably the server has already closed the "
-                                        + "connection. Message is considered to be delivered. Exception: " + e.getMessage());
-                            }
-                            transport = null;
+                        if (connection != null) {
+                            // The state of the connection is unknown after an
+                            // error, so do not reuse it
+                            connectionPool.discard(connection);
                         }
                     }
-                    logMessageBuffer = new StringBuilder(256).append("Mail (").append(mail.getName()).append(") sent successfully to ").append(outgoingMailServer.getHostName()).append(" at ").append(outgoingMailServer.getHost()).append(" from ").append(props.get("mail.smtp.from")).append(" for ")
+                    logMessageBuffer = new StringBuilder(256).append("Mail (").append(mail.getName()).append(") sent successfully to ").append(outgoingMailServer.getHostName()).append(" at ").append(outgoingMailServer.getHost()).append(" from ").append(sender).append(" for ")
                             .append(mail.getRecipients());
                     log(logMessageBuffer.toString());
+                    if (circuitBreaker != null && getDestinationDomain(mail) != null) {
+                        circuitBreaker.success(getDestinationDomain(mail));
+                    }
                     return true;
                 } catch (SendFailedException sfe) {
                     logSendFailedException(sfe);
@@ -1463,6 +1843,11 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
             ex.printStackTrace(out);
         log(sout.toString());
         if (!permanent) {
+            String domain = getDestinationDomain(mail);
+            if (circuitBreaker != null && domain != null && circuitBreaker.failure(domain)) {
+                log("Parking delivery to " + domain + " until " + new Date(circuitBreaker.getParkedUntil(domain)) + " after repeated temporary failures");
+            }
+
             if (!mail.getState().equals(Mail.ERROR)) {
                 mail.setState(Mail.ERROR);
                 mail.setErrorMessage("0");
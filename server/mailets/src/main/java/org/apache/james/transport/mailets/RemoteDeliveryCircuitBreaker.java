@@ -0,0 +1,188 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.transport.mailets;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps track of temporary delivery failures per recipient domain for
+ * {@link RemoteDelivery}.
+ * <p>
+ * After <code>threshold</code> consecutive temporary failures a domain is
+ * parked: its mails are not tried until the backoff is over, instead of each
+ * of them being retried on its own schedule. The backoff starts at
+ * <code>initialBackoff</code> and doubles, up to <code>maxBackoff</code>, for
+ * every failure after the domain was parked. A successful delivery resets the
+ * domain.
+ * </p>
+ */
+public class RemoteDeliveryCircuitBreaker implements RemoteDeliveryCircuitBreakerMBean {
+
+    private static final class State {
+        private int failures;
+        private long backoff;
+        private long parkedUntil;
+        private long lastFailure;
+    }
+
+    private final Map<String, State> states = new HashMap<String, State>();
+    private final int threshold;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private long lastPurge;
+
+    /**
+     * @param threshold
+     *            the number of consecutive temporary failures after which a
+     *            domain is parked
+     * @param initialBackoff
+     *            the time in ms a domain is parked the first time
+     * @param maxBackoff
+     *            the max. time in ms a domain is parked
+     */
+    public RemoteDeliveryCircuitBreaker(int threshold, long initialBackoff, long maxBackoff) {
+        this.threshold = threshold;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = Math.max(initialBackoff, maxBackoff);
+    }
+
+    /**
+     * Return the time until the given domain is parked, or 0 if mails to it
+     * may be delivered
+     * 
+     * @param domain
+     * @return parkedUntil
+     */
+    public synchronized long getParkedUntil(String domain) {
+        State state = states.get(domain);
+        if (state == null || state.parkedUntil <= System.currentTimeMillis()) {
+            return 0;
+        }
+        return state.parkedUntil;
+    }
+
+    /**
+     * Record a temporary failure to deliver to the given domain
+     * 
+     * @param domain
+     * @return true if the domain was parked because of this failure
+     */
+    public synchronized boolean failure(String domain) {
+        long now = System.currentTimeMillis();
+        purge(now);
+
+        State state = states.get(domain);
+        if (state == null) {
+            state = new State();
+            states.put(domain, state);
+        }
+        state.failures++;
+        state.lastFailure = now;
+
+        // Failures of mails which were already in progress when the domain
+        // got parked do not extend the backoff
+        if (state.failures >= threshold && state.parkedUntil <= now) {
+            if (state.backoff == 0) {
+                state.backoff = initialBackoff;
+            } else {
+                state.backoff = Math.min(state.backoff * 2, maxBackoff);
+            }
+            state.parkedUntil = now + state.backoff;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record a successful delivery to the given domain
+     * 
+     * @param domain
+     */
+    public synchronized void success(String domain) {
+        states.remove(domain);
+    }
+
+    /**
+     * Forget domains which had no failure and were not parked for the max.
+     * backoff, so domains which fail only once in a while do not pile up
+     */
+    private void purge(long now) {
+        if (now - lastPurge < maxBackoff) {
+            return;
+        }
+        lastPurge = now;
+        Iterator<State> it = states.values().iterator();
+        while (it.hasNext()) {
+            State state = it.next();
+            if (now - Math.max(state.lastFailure, state.parkedUntil) >= maxBackoff) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @see org.apache.james.transport.mailets.RemoteDeliveryCircuitBreakerMBean#getFailureThreshold()
+     */
+    public int getFailureThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @see org.apache.james.transport.mailets.RemoteDeliveryCircuitBreakerMBean#getParkedDomainCount()
+     */
+    public synchronized int getParkedDomainCount() {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (State state : states.values()) {
+            if (state.parkedUntil > now) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @see org.apache.james.transport.mailets.RemoteDeliveryCircuitBreakerMBean#listParkedDomains()
+     */
+    public synchronized String[] listParkedDomains() {
+        long now = System.currentTimeMillis();
+        List<String> domains = new ArrayList<String>();
+        for (Map.Entry<String, State> entry : states.entrySet()) {
+            State state = entry.getValue();
+            if (state.parkedUntil > now) {
+                domains.add(entry.getKey() + " (" + state.failures + " failures, parked until " + new Date(state.parkedUntil) + ")");
+            }
+        }
+        return domains.toArray(new String[domains.size()]);
+    }
+
+    /**
+     * @see org.apache.james.transport.mailets.RemoteDeliveryCircuitBreakerMBean#resumeDomain(java.lang.String)
+     */
+    public synchronized void resumeDomain(String domain) {
+        states.remove(domain.toLowerCase(Locale.US));
+    }
+}
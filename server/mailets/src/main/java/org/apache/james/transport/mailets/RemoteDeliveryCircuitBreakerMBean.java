@@ -0,0 +1,58 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.transport.mailets;
+
+/**
+ * JMX view of the recipient domains a {@link RemoteDelivery} mailet stopped
+ * delivering to because of temporary failures
+ */
+public interface RemoteDeliveryCircuitBreakerMBean {
+
+    /**
+     * Return the number of consecutive temporary failures after which a domain
+     * is parked
+     * 
+     * @return threshold
+     */
+    int getFailureThreshold();
+
+    /**
+     * Return the number of domains which are parked at the moment
+     * 
+     * @return parked
+     */
+    int getParkedDomainCount();
+
+    /**
+     * Return the domains which are parked at the moment, with the number of
+     * failures and the time until they are parked
+     * 
+     * @return domains
+     */
+    String[] listParkedDomains();
+
+    /**
+     * Resume the delivery to the given domain right away and forget its
+     * failures
+     * 
+     * @param domain
+     */
+    void resumeDomain(String domain);
+}
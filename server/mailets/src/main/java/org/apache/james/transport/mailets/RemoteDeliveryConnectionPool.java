@@ -0,0 +1,293 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.transport.mailets;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+/**
+ * Keeps connected SMTP {@link Transport}s of {@link RemoteDelivery} so more
+ * than one mail can be sent over a connection.
+ * <p>
+ * Every connection has its own {@link Session}, so the sender of a mail can be
+ * set on the session properties while the connection is borrowed. An idle
+ * connection is checked with {@link Transport#isConnected()} before it is
+ * handed out again, which issues a RSET if <code>mail.smtp.userset</code> is
+ * enabled. A connection is closed once it sent <code>maxMessages</code> mails
+ * or was idle longer than <code>idleTimeout</code>.
+ * </p>
+ */
+public class RemoteDeliveryConnectionPool implements RemoteDeliveryConnectionPoolMBean {
+
+    /**
+     * A connected {@link Transport} and the {@link Session} it belongs to
+     */
+    public static final class Connection {
+        private final String key;
+        private final Session session;
+        private final Transport transport;
+        private int messages;
+        private long lastUsed;
+
+        private Connection(String key, Session session, Transport transport) {
+            this.key = key;
+            this.session = session;
+            this.transport = transport;
+        }
+
+        public Session getSession() {
+            return session;
+        }
+
+        public Transport getTransport() {
+            return transport;
+        }
+    }
+
+    private final Map<String, LinkedList<Connection>> idle = new HashMap<String, LinkedList<Connection>>();
+    private final int maxMessages;
+    private final int maxIdlePerServer;
+    private final long idleTimeout;
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong handshakeTime = new AtomicLong();
+    private int idleCount;
+    private boolean closed;
+
+    /**
+     * @param maxMessages
+     *            the number of mails after which a connection is closed, 1 to
+     *            not reuse connections
+     * @param maxIdlePerServer
+     *            the max. number of idle connections per server
+     * @param idleTimeout
+     *            the time in ms after which an idle connection is closed
+     */
+    public RemoteDeliveryConnectionPool(int maxMessages, int maxIdlePerServer, long idleTimeout) {
+        this.maxMessages = maxMessages;
+        this.maxIdlePerServer = maxIdlePerServer;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Return an idle connection to the given server or null if there is none.
+     * The connection must be given back with {@link #release(Connection)} or
+     * {@link #discard(Connection)}.
+     * 
+     * @param key
+     *            the key of the server
+     * @return connection or null
+     */
+    public Connection borrow(String key) {
+        while (true) {
+            Connection connection;
+            synchronized (idle) {
+                LinkedList<Connection> connections = idle.get(key);
+                if (connections == null) {
+                    return null;
+                }
+                // Use the most recently used connection, so the others can
+                // expire if there is not enough traffic for them
+                connection = connections.removeLast();
+                if (connections.isEmpty()) {
+                    idle.remove(key);
+                }
+                idleCount--;
+            }
+            if (System.currentTimeMillis() - connection.lastUsed < idleTimeout && connection.transport.isConnected()) {
+                reused.incrementAndGet();
+                return connection;
+            }
+            close(connection);
+        }
+    }
+
+    /**
+     * Wrap a newly connected {@link Transport}
+     * 
+     * @param key
+     *            the key of the server
+     * @param session
+     *            the session of the transport
+     * @param transport
+     *            the connected transport
+     * @param handshake
+     *            the time in ms it took to connect
+     * @return connection
+     */
+    public Connection connected(String key, Session session, Transport transport, long handshake) {
+        opened.incrementAndGet();
+        handshakeTime.addAndGet(handshake);
+        return new Connection(key, session, transport);
+    }
+
+    /**
+     * Give back a connection after a mail was sent successfully. It is closed
+     * if it reached the max. number of mails or there are enough idle
+     * connections to its server.
+     * 
+     * @param connection
+     */
+    public void release(Connection connection) {
+        connection.messages++;
+        if (connection.messages < maxMessages) {
+            connection.lastUsed = System.currentTimeMillis();
+            synchronized (idle) {
+                LinkedList<Connection> connections = idle.get(connection.key);
+                if (connections == null) {
+                    connections = new LinkedList<Connection>();
+                    idle.put(connection.key, connections);
+                }
+                if (!closed && connections.size() < maxIdlePerServer) {
+                    connections.add(connection);
+                    idleCount++;
+                    return;
+                }
+                if (connections.isEmpty()) {
+                    idle.remove(connection.key);
+                }
+            }
+        }
+        close(connection);
+    }
+
+    /**
+     * Close a connection which must not be used anymore, for example because
+     * of an error during the mail transaction
+     * 
+     * @param connection
+     */
+    public void discard(Connection connection) {
+        close(connection);
+    }
+
+    /**
+     * Close the connections which were idle longer than the idle timeout
+     */
+    public void evictIdle() {
+        List<Connection> expired = new ArrayList<Connection>();
+        long now = System.currentTimeMillis();
+        synchronized (idle) {
+            Iterator<LinkedList<Connection>> servers = idle.values().iterator();
+            while (servers.hasNext()) {
+                LinkedList<Connection> connections = servers.next();
+                Iterator<Connection> it = connections.iterator();
+                while (it.hasNext()) {
+                    Connection connection = it.next();
+                    if (now - connection.lastUsed >= idleTimeout) {
+                        it.remove();
+                        idleCount--;
+                        expired.add(connection);
+                    }
+                }
+                if (connections.isEmpty()) {
+                    servers.remove();
+                }
+            }
+        }
+        for (Connection connection : expired) {
+            close(connection);
+        }
+    }
+
+    /**
+     * Close all idle connections. Connections which are given back later are
+     * closed too.
+     */
+    public void close() {
+        List<Connection> all = new ArrayList<Connection>();
+        synchronized (idle) {
+            closed = true;
+            for (LinkedList<Connection> connections : idle.values()) {
+                all.addAll(connections);
+            }
+            idle.clear();
+            idleCount = 0;
+        }
+        for (Connection connection : all) {
+            close(connection);
+        }
+    }
+
+    private void close(Connection connection) {
+        try {
+            // Sends QUIT. The mail transactions on this connection are
+            // complete, so a failure does not matter. See JAMES-899
+            connection.transport.close();
+        } catch (MessagingException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * @see org.apache.james.transport.mailets.RemoteDeliveryConnectionPoolMBean#getOpenedConnections()
+     */
+    public long getOpenedConnections() {
+        return opened.get();
+    }
+
+    /**
+     * @see org.apache.james.transport.mailets.RemoteDeliveryConnectionPoolMBean#getReusedConnections()
+     */
+    public long getReusedConnections() {
+        return reused.get();
+    }
+
+    /**
+     * @see org.apache.james.transport.mailets.RemoteDeliveryConnectionPoolMBean#getReuseRate()
+     */
+    public double getReuseRate() {
+        long reuses = reused.get();
+        long total = opened.get() + reuses;
+        if (total == 0) {
+            return 0;
+        }
+        return (double) reuses / total;
+    }
+
+    /**
+     * @see org.apache.james.transport.mailets.RemoteDeliveryConnectionPoolMBean#getAverageHandshakeTime()
+     */
+    public double getAverageHandshakeTime() {
+        long count = opened.get();
+        if (count == 0) {
+            return 0;
+        }
+        return (double) handshakeTime.get() / count;
+    }
+
+    /**
+     * @see org.apache.james.transport.mailets.RemoteDeliveryConnectionPoolMBean#getIdleConnections()
+     */
+    public int getIdleConnections() {
+        synchronized (idle) {
+            return idleCount;
+        }
+    }
+}
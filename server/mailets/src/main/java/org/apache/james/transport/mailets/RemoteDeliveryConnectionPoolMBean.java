@@ -0,0 +1,62 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.transport.mailets;
+
+/**
+ * JMX view of the SMTP connections of a {@link RemoteDelivery} mailet
+ */
+public interface RemoteDeliveryConnectionPoolMBean {
+
+    /**
+     * Return the number of SMTP connections which were opened
+     * 
+     * @return opened
+     */
+    long getOpenedConnections();
+
+    /**
+     * Return the number of times an idle connection was used for another mail
+     * 
+     * @return reused
+     */
+    long getReusedConnections();
+
+    /**
+     * Return the ratio of mails which were sent over a reused connection
+     * 
+     * @return reuseRate
+     */
+    double getReuseRate();
+
+    /**
+     * Return the average time (in ms) to open a connection, including the TLS
+     * and EHLO/AUTH handshake
+     * 
+     * @return aTime
+     */
+    double getAverageHandshakeTime();
+
+    /**
+     * Return the number of idle connections
+     * 
+     * @return idle
+     */
+    int getIdleConnections();
+}
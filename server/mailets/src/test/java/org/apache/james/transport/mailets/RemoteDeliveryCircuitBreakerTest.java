@@ -0,0 +1,98 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.transport.mailets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RemoteDeliveryCircuitBreakerTest {
+
+    private final static String DOMAIN = "example.com";
+
+    @Test
+    public void testParkAfterThreshold() throws Exception {
+        RemoteDeliveryCircuitBreaker breaker = new RemoteDeliveryCircuitBreaker(3, 60000, 600000);
+
+        assertFalse(breaker.failure(DOMAIN));
+        assertFalse(breaker.failure(DOMAIN));
+        assertEquals(0, breaker.getParkedUntil(DOMAIN));
+
+        long before = System.currentTimeMillis();
+        assertTrue(breaker.failure(DOMAIN));
+        long parkedUntil = breaker.getParkedUntil(DOMAIN);
+        assertTrue(parkedUntil >= before + 60000);
+        assertEquals(1, breaker.getParkedDomainCount());
+        assertEquals(1, breaker.listParkedDomains().length);
+        assertTrue(breaker.listParkedDomains()[0].startsWith(DOMAIN));
+
+        // failures while parked do not extend the backoff
+        assertFalse(breaker.failure(DOMAIN));
+        assertEquals(parkedUntil, breaker.getParkedUntil(DOMAIN));
+
+        assertEquals(0, breaker.getParkedUntil("other.com"));
+    }
+
+    @Test
+    public void testSuccessResets() throws Exception {
+        RemoteDeliveryCircuitBreaker breaker = new RemoteDeliveryCircuitBreaker(2, 60000, 600000);
+        breaker.failure(DOMAIN);
+        breaker.success(DOMAIN);
+
+        assertFalse(breaker.failure(DOMAIN));
+        assertEquals(0, breaker.getParkedUntil(DOMAIN));
+    }
+
+    @Test
+    public void testBackoffDoubles() throws Exception {
+        RemoteDeliveryCircuitBreaker breaker = new RemoteDeliveryCircuitBreaker(1, 50, 150);
+
+        assertTrue(breaker.failure(DOMAIN));
+        Thread.sleep(100);
+        assertEquals(0, breaker.getParkedUntil(DOMAIN));
+
+        // the first failure after the backoff parks the domain again, for
+        // twice as long
+        long before = System.currentTimeMillis();
+        assertTrue(breaker.failure(DOMAIN));
+        assertTrue(breaker.getParkedUntil(DOMAIN) >= before + 100);
+        Thread.sleep(150);
+
+        // limited by the max. backoff
+        before = System.currentTimeMillis();
+        assertTrue(breaker.failure(DOMAIN));
+        long parkedUntil = breaker.getParkedUntil(DOMAIN);
+        assertTrue(parkedUntil >= before + 150);
+        assertTrue(parkedUntil < before + 200);
+    }
+
+    @Test
+    public void testResumeDomain() throws Exception {
+        RemoteDeliveryCircuitBreaker breaker = new RemoteDeliveryCircuitBreaker(1, 60000, 600000);
+        breaker.failure(DOMAIN);
+        assertEquals(1, breaker.getParkedDomainCount());
+
+        breaker.resumeDomain("Example.COM");
+        assertEquals(0, breaker.getParkedUntil(DOMAIN));
+        assertEquals(0, breaker.getParkedDomainCount());
+    }
+}
@@ -0,0 +1,171 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.transport.mailets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Properties;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+import org.apache.james.transport.mailets.RemoteDeliveryConnectionPool.Connection;
+import org.junit.Test;
+
+public class RemoteDeliveryConnectionPoolTest {
+
+    private final static String SERVER = "mx.example.com@smtp://192.0.2.1:25";
+
+    private final static Session SESSION = Session.getInstance(new Properties());
+
+    private static class MockTransport extends Transport {
+        private int closed;
+
+        public MockTransport() {
+            super(SESSION, null);
+            setConnected(true);
+        }
+
+        @Override
+        public void sendMessage(Message msg, Address[] addresses) throws MessagingException {
+        }
+
+        @Override
+        public synchronized void close() throws MessagingException {
+            closed++;
+            setConnected(false);
+        }
+    }
+
+    private Connection connect(RemoteDeliveryConnectionPool pool, MockTransport transport) {
+        return pool.connected(SERVER, SESSION, transport, 10);
+    }
+
+    @Test
+    public void testNoReuse() throws Exception {
+        RemoteDeliveryConnectionPool pool = new RemoteDeliveryConnectionPool(1, 2, 30000);
+        MockTransport transport = new MockTransport();
+        pool.release(connect(pool, transport));
+
+        assertEquals(1, transport.closed);
+        assertNull(pool.borrow(SERVER));
+        assertEquals(0, pool.getIdleConnections());
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        RemoteDeliveryConnectionPool pool = new RemoteDeliveryConnectionPool(3, 2, 30000);
+        MockTransport transport = new MockTransport();
+        Connection connection = connect(pool, transport);
+
+        pool.release(connection);
+        assertEquals(1, pool.getIdleConnections());
+        assertNull(pool.borrow("other"));
+
+        assertSame(connection, pool.borrow(SERVER));
+        pool.release(connection);
+        assertSame(connection, pool.borrow(SERVER));
+
+        // the third mail is the last one for this connection
+        pool.release(connection);
+        assertEquals(1, transport.closed);
+        assertNull(pool.borrow(SERVER));
+
+        assertEquals(1, pool.getOpenedConnections());
+        assertEquals(2, pool.getReusedConnections());
+        assertEquals(10, pool.getAverageHandshakeTime(), 0);
+        assertEquals(2d / 3, pool.getReuseRate(), 0.001);
+    }
+
+    @Test
+    public void testMaxIdlePerServer() throws Exception {
+        RemoteDeliveryConnectionPool pool = new RemoteDeliveryConnectionPool(10, 1, 30000);
+        MockTransport transport1 = new MockTransport();
+        MockTransport transport2 = new MockTransport();
+        pool.release(connect(pool, transport1));
+        pool.release(connect(pool, transport2));
+
+        assertEquals(1, pool.getIdleConnections());
+        assertEquals(0, transport1.closed);
+        assertEquals(1, transport2.closed);
+    }
+
+    @Test
+    public void testDisconnectedIsNotReused() throws Exception {
+        RemoteDeliveryConnectionPool pool = new RemoteDeliveryConnectionPool(10, 2, 30000);
+        MockTransport transport = new MockTransport();
+        pool.release(connect(pool, transport));
+
+        // the server closed the connection in the meantime
+        transport.close();
+        assertNull(pool.borrow(SERVER));
+        assertEquals(0, pool.getIdleConnections());
+    }
+
+    @Test
+    public void testEvictIdle() throws Exception {
+        RemoteDeliveryConnectionPool pool = new RemoteDeliveryConnectionPool(10, 2, 50);
+        MockTransport transport = new MockTransport();
+        pool.release(connect(pool, transport));
+
+        pool.evictIdle();
+        assertEquals(1, pool.getIdleConnections());
+
+        Thread.sleep(100);
+        pool.evictIdle();
+        assertEquals(0, pool.getIdleConnections());
+        assertEquals(1, transport.closed);
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        RemoteDeliveryConnectionPool pool = new RemoteDeliveryConnectionPool(10, 2, 30000);
+        MockTransport transport1 = new MockTransport();
+        MockTransport transport2 = new MockTransport();
+        pool.release(connect(pool, transport1));
+        Connection connection = connect(pool, transport2);
+
+        pool.close();
+        assertEquals(1, transport1.closed);
+
+        // connections which are given back after close are closed as well
+        pool.release(connection);
+        assertEquals(1, transport2.closed);
+        assertNull(pool.borrow(SERVER));
+    }
+
+    @Test
+    public void testDiscard() throws Exception {
+        RemoteDeliveryConnectionPool pool = new RemoteDeliveryConnectionPool(10, 2, 30000);
+        MockTransport transport = new MockTransport();
+        Connection connection = connect(pool, transport);
+        assertNotNull(connection);
+
+        pool.discard(connection);
+        assertEquals(1, transport.closed);
+        assertEquals(0, pool.getIdleConnections());
+    }
+}
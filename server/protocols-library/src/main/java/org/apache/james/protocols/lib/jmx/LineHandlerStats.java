@@ -56,11 +56,11 @@ public class LineHandlerStats extends StandardMBean implements HandlerStatsMBean
     /**
      * Increment the stats
      * 
-     * @param response
+     * @param response the response or <code>null</code> if none was written
      */
     public void increment(Response response) {
         all.incrementAndGet();
-        if (response.isEndSession()) {
+        if (response != null && response.isEndSession()) {
             disconnect.incrementAndGet();
         }
     }
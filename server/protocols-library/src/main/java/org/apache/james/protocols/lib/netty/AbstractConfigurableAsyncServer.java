@@ -48,6 +48,7 @@ import org.apache.james.protocols.netty.AbstractAsyncServer;
 import org.apache.james.protocols.lib.jmx.ServerMBean;
 import org.apache.james.util.concurrent.JMXEnabledThreadPoolExecutor;
 import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.ChannelUpstreamHandler;
 import org.jboss.netty.channel.group.ChannelGroup;
@@ -575,6 +576,17 @@ public abstract class AbstractConfigurableAsyncServer extends AbstractAsyncServe
     
 
     protected abstract ChannelUpstreamHandler createCoreHandler();
+
+    /**
+     * Create the {@link ChannelHandler} which splits the received data in frames. This is called for every new connection.
+     * 
+     * This implementation returns <code>null</code>, which means that the default line based framer is used
+     * 
+     * @return framer
+     */
+    protected ChannelHandler createFrameHandler() {
+        return null;
+    }
     
     @Override
     protected ChannelPipelineFactory createPipelineFactory(ChannelGroup group) {
@@ -600,6 +612,15 @@ public abstract class AbstractConfigurableAsyncServer extends AbstractAsyncServe
 
             }
 
+            @Override
+            protected ChannelHandler createFrameHandler() {
+                ChannelHandler framer = AbstractConfigurableAsyncServer.this.createFrameHandler();
+                if (framer == null) {
+                    return super.createFrameHandler();
+                }
+                return framer;
+            }
+
             @Override
             protected ConnectionCountHandler getConnectionCountHandler() {
                 return AbstractConfigurableAsyncServer.this.getConnectionCountHandler();
@@ -35,6 +35,7 @@ import org.apache.james.protocols.smtp.core.QuitCmdHandler;
 import org.apache.james.protocols.smtp.core.ReceivedDataLineFilter;
 import org.apache.james.protocols.smtp.core.RsetCmdHandler;
 import org.apache.james.protocols.smtp.core.VrfyCmdHandler;
+import org.apache.james.protocols.smtp.core.esmtp.ChunkingEsmtpExtension;
 import org.apache.james.protocols.smtp.core.esmtp.MailSizeEsmtpExtension;
 import org.apache.james.protocols.smtp.core.log.HookResultLogger;
 import org.apache.james.smtpserver.AuthRequiredToRelayRcptHook;
@@ -61,6 +62,7 @@ public class CoreCmdHandlerLoader implements HandlersPackage {
     private final String RSETCMDHANDLER = RsetCmdHandler.class.getName();
     private final String VRFYCMDHANDLER = VrfyCmdHandler.class.getName();
     private final String MAILSIZEHOOK = MailSizeEsmtpExtension.class.getName();
+    private final String CHUNKINGHOOK = ChunkingEsmtpExtension.class.getName();
     private final String WELCOMEMESSAGEHANDLER = WelcomeMessageHandler.class.getName();
     private final String POSTMASTERABUSEHOOK = PostmasterAbuseRcptHook.class.getName();
     private final String AUTHREQUIREDTORELAY = AuthRequiredToRelayRcptHook.class.getName();
@@ -89,6 +91,7 @@ public class CoreCmdHandlerLoader implements HandlersPackage {
         commands.add(RSETCMDHANDLER);
         commands.add(VRFYCMDHANDLER);
         commands.add(MAILSIZEHOOK);
+        commands.add(CHUNKINGHOOK);
         commands.add(AUTHREQUIREDTORELAY);
         commands.add(POSTMASTERABUSEHOOK);
         commands.add(RECEIVEDDATALINEFILTER);
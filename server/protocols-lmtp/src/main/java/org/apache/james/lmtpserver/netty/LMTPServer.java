@@ -21,14 +21,22 @@ package org.apache.james.lmtpserver.netty;
 
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.james.core.MessageBufferPool;
 import org.apache.james.lmtpserver.CoreCmdHandlerLoader;
 import org.apache.james.lmtpserver.jmx.JMXHandlersLoader;
+import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.ProtocolTransport;
 import org.apache.james.protocols.api.logger.ProtocolLoggerAdapter;
 import org.apache.james.protocols.lib.handler.HandlersPackage;
 import org.apache.james.protocols.lib.netty.AbstractProtocolAsyncServer;
+import org.apache.james.protocols.netty.AbstractChannelPipelineFactory;
+import org.apache.james.protocols.netty.ChunkingFrameDecoder;
 import org.apache.james.protocols.lmtp.LMTPConfiguration;
 import org.apache.james.protocols.smtp.SMTPProtocol;
+import org.apache.james.smtpserver.ExtendedSMTPSession;
+import org.apache.james.smtpserver.MessageBufferPoolConfiguration;
 import org.apache.james.smtpserver.netty.SMTPChannelUpstreamHandler;
+import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelUpstreamHandler;
 
 public class LMTPServer extends AbstractProtocolAsyncServer implements LMTPServerMBean {
@@ -38,6 +46,14 @@ public class LMTPServer extends AbstractProtocolAsyncServer implements LMTPServe
      * 0, means no limit.
      */
     private long maxMessageSize = 0;
+
+    /**
+     * The memory used to hold the received messages outside of the heap. The
+     * default value, 0, means that no pool is used.
+     */
+    private long messageBufferPoolSize = 0;
+
+    private MessageBufferPool messageBufferPool;
     private LMTPConfigurationImpl lmtpConfig = new LMTPConfigurationImpl();
     private String lmtpGreeting;
 
@@ -70,6 +86,12 @@ public class LMTPServer extends AbstractProtocolAsyncServer implements LMTPServe
                 getLogger().info("No maximum message size is enforced for this server.");
             }
 
+            // get the size of the message buffer pool in kilobytes
+            messageBufferPoolSize = configuration.getLong("messageBufferPoolSize", 0) * 1024;
+            if (messageBufferPoolSize > 0) {
+                getLogger().info("Received messages are held in a message buffer pool of " + messageBufferPoolSize + " bytes.");
+            }
+
             // get the lmtpGreeting
             lmtpGreeting = configuration.getString("lmtpGreeting", null);
 
@@ -79,7 +101,7 @@ public class LMTPServer extends AbstractProtocolAsyncServer implements LMTPServe
     /**
      * A class to provide SMTP handler configuration to the handlers
      */
-    public class LMTPConfigurationImpl extends LMTPConfiguration {
+    public class LMTPConfigurationImpl extends LMTPConfiguration implements MessageBufferPoolConfiguration {
 
         /**
          * @see org.apache.james.protocols.smtp.SMTPConfiguration#getHelloName()
@@ -103,6 +125,13 @@ public class LMTPServer extends AbstractProtocolAsyncServer implements LMTPServe
         public String getSMTPGreeting() {
             return LMTPServer.this.lmtpGreeting;
         }
+
+        /**
+         * @see org.apache.james.smtpserver.MessageBufferPoolConfiguration#getMessageBufferPool()
+         */
+        public MessageBufferPool getMessageBufferPool() {
+            return LMTPServer.this.messageBufferPool;
+        }
        
     }
 
@@ -136,12 +165,45 @@ public class LMTPServer extends AbstractProtocolAsyncServer implements LMTPServe
         return lmtpConfig.getHelloName();
     }
 
+    @Override
+    protected void preInit() throws Exception {
+        super.preInit();
+        if (messageBufferPoolSize > 0) {
+            messageBufferPool = new MessageBufferPool(messageBufferPoolSize, MessageBufferPool.DEFAULT_BUFFER_SIZE, "org.apache.james:type=server,name=" + jmxName + ",sub-type=messagebuffer");
+        }
+    }
+
+    @Override
+    protected void postDestroy() {
+        super.postDestroy();
+        if (messageBufferPool != null) {
+            messageBufferPool.dispose();
+            messageBufferPool = null;
+        }
+    }
+
     @Override
     protected ChannelUpstreamHandler createCoreHandler() {
-        SMTPProtocol protocol = new SMTPProtocol(getProtocolHandlerChain(), lmtpConfig, new ProtocolLoggerAdapter(getLogger()));
+        SMTPProtocol protocol = new SMTPProtocol(getProtocolHandlerChain(), lmtpConfig, new ProtocolLoggerAdapter(getLogger())) {
+
+            @Override
+            public ProtocolSession newSession(ProtocolTransport transport) {
+                return new ExtendedSMTPSession(lmtpConfig, getLogger(), transport);
+            }
+
+        };
         return new SMTPChannelUpstreamHandler(protocol, getLogger());
     }
 
+    /**
+     * Use a framer which passes the chunks of the BDAT command as they are
+     * received
+     */
+    @Override
+    protected ChannelHandler createFrameHandler() {
+        return new ChunkingFrameDecoder(AbstractChannelPipelineFactory.MAX_LINE_LENGTH, "BDAT");
+    }
+
     @Override
     protected Class<? extends HandlersPackage> getCoreHandlersPackage() {
         return CoreCmdHandlerLoader.class;
@@ -36,6 +36,7 @@ import org.apache.james.protocols.smtp.core.RsetCmdHandler;
 import org.apache.james.protocols.smtp.core.VrfyCmdHandler;
 import org.apache.james.protocols.smtp.core.esmtp.AuthCmdHandler;
 import org.apache.james.protocols.smtp.core.esmtp.EhloCmdHandler;
+import org.apache.james.protocols.smtp.core.esmtp.ChunkingEsmtpExtension;
 import org.apache.james.protocols.smtp.core.esmtp.MailSizeEsmtpExtension;
 import org.apache.james.protocols.smtp.core.esmtp.StartTlsCmdHandler;
 import org.apache.james.protocols.smtp.core.log.HookResultLogger;
@@ -59,6 +60,7 @@ public class CoreCmdHandlerLoader implements HandlersPackage {
     private final String RSETCMDHANDLER = RsetCmdHandler.class.getName();
     private final String VRFYCMDHANDLER = VrfyCmdHandler.class.getName();
     private final String MAILSIZEHOOK = MailSizeEsmtpExtension.class.getName();
+    private final String CHUNKINGHOOK = ChunkingEsmtpExtension.class.getName();
     private final String WELCOMEMESSAGEHANDLER = JamesWelcomeMessageHandler.class.getName();
     private final String USERSREPOSITORYAUTHHANDLER = UsersRepositoryAuthHook.class.getName();
     private final String POSTMASTERABUSEHOOK = PostmasterAbuseRcptHook.class.getName();
@@ -95,6 +97,7 @@ public class CoreCmdHandlerLoader implements HandlersPackage {
         commands.add(RSETCMDHANDLER);
         commands.add(VRFYCMDHANDLER);
         commands.add(MAILSIZEHOOK);
+        commands.add(CHUNKINGHOOK);
         commands.add(USERSREPOSITORYAUTHHANDLER);
         commands.add(AUTHREQUIREDTORELAY);
         commands.add(SENDERAUTHIDENTITYVERIFICATION);
@@ -18,6 +18,7 @@
  ****************************************************************/
 package org.apache.james.smtpserver;
 
+import org.apache.james.lifecycle.api.LifecycleUtil;
 import org.apache.james.protocols.api.ProtocolTransport;
 import org.apache.james.protocols.api.logger.ProtocolLoggerAdapter;
 import org.apache.james.protocols.smtp.SMTPConfiguration;
@@ -37,6 +38,17 @@ public class ExtendedSMTPSession extends org.apache.james.protocols.smtp.SMTPSes
         this.smtpConfiguration = smtpConfiguration;
     }
 
+    /**
+     * Dispose the source of a partly received message before the transaction
+     * state is cleared, so the buffers it holds are given back to the pool
+     * 
+     * @see org.apache.james.protocols.smtp.SMTPSessionImpl#resetState()
+     */
+    public void resetState() {
+        LifecycleUtil.dispose(getAttachment(SMTPConstants.DATA_MIMEMESSAGE_STREAMSOURCE, State.Transaction));
+        super.resetState();
+    }
+
 	public boolean verifyIdentity() {
         if (smtpConfiguration instanceof SMTPHandlerConfigurationDataImpl) {
             return ((SMTPHandlerConfigurationDataImpl) smtpConfiguration).verifyIdentity();
@@ -21,40 +21,41 @@ package org.apache.james.smtpserver;
 import javax.mail.MessagingException;
 
 import org.apache.james.core.MailImpl;
+import org.apache.james.core.MessageBufferPool;
 import org.apache.james.core.MimeMessageInputStreamSource;
 import org.apache.james.protocols.api.ProtocolSession.State;
+import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.smtp.SMTPResponse;
 import org.apache.james.protocols.smtp.SMTPRetCode;
 import org.apache.james.protocols.smtp.SMTPSession;
 import org.apache.james.protocols.smtp.core.DataCmdHandler;
 
 /**
- * handles DATA command
+ * handles DATA and BDAT command
  */
 public class JamesDataCmdHandler extends DataCmdHandler {
 
     /**
-     * Handler method called upon receipt of a DATA command. Reads in message
-     * data, creates header, and delivers to mail server service for delivery.
+     * Create the {@link MimeMessageInputStreamSource} which the message
+     * content is written to. It uses the {@link MessageBufferPool} of the
+     * server if one is configured.
      * 
      * @param session
      *            SMTP session object
-     * @param argument
-     *            the argument passed in with the command by the SMTP client
      */
-    protected SMTPResponse doDATA(SMTPSession session, String argument) {
+    protected Response prepareMessage(SMTPSession session) {
         try {
-            MimeMessageInputStreamSource mmiss = new MimeMessageInputStreamSource(MailImpl.getId());
+            MessageBufferPool pool = null;
+            if (session.getConfiguration() instanceof MessageBufferPoolConfiguration) {
+                pool = ((MessageBufferPoolConfiguration) session.getConfiguration()).getMessageBufferPool();
+            }
+            MimeMessageInputStreamSource mmiss = new MimeMessageInputStreamSource(MailImpl.getId(), pool);
             session.setAttachment(SMTPConstants.DATA_MIMEMESSAGE_STREAMSOURCE, mmiss, State.Transaction);
         } catch (MessagingException e) {
             session.getLogger().warn("Error creating mimemessagesource for incoming data", e);
             return new SMTPResponse(SMTPRetCode.LOCAL_ERROR, "Unexpected error preparing to receive DATA.");
         }
-
-        // out = new PipedOutputStream(messageIn);
-        session.pushLineHandler(getLineHandler());
-
-        return new SMTPResponse(SMTPRetCode.DATA_READY, "Ok Send data ending with <CRLF>.<CRLF>");
+        return null;
     }
 
 }
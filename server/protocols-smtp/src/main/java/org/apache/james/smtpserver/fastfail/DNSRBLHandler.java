@@ -21,6 +21,7 @@ package org.apache.james.smtpserver.fastfail;
 
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
@@ -30,13 +31,28 @@ import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.james.dnsservice.api.DNSService;
+import org.apache.james.dnsservice.api.TemporaryResolutionException;
+import org.apache.james.dnsservice.library.ParallelResolver;
 import org.apache.james.protocols.lib.lifecycle.InitializingLifecycleAwareProtocolHandler;
 
+/**
+ * Checks the remote ip against the configured DNS white- and blacklists. If
+ * the configured {@link DNSService} supports asynchronous lookups the lists are
+ * queried in parallel, at most <code>maxParallelLookups</code> (default 4) at
+ * once. The optional <code>lookupTimeout</code> (milliseconds, default 5000)
+ * limits the time spent on the whole check. If lists did not answer in time the
+ * ip is handled as not listed, or, if <code>tempfailOnTimeout</code> is true,
+ * the recipient is rejected with a temporary error.
+ */
 public class DNSRBLHandler extends org.apache.james.protocols.smtp.core.fastfail.DNSRBLHandler implements InitializingLifecycleAwareProtocolHandler {
 
 
     private DNSService dns;
 
+    private long lookupTimeout = 5000;
+
+    private int maxParallelLookups = ParallelResolver.DEFAULT_MAX_PARALLEL;
+
     @Resource(name = "dnsservice")
     public void setDNSService(DNSService dns) {
         this.dns = dns;
@@ -81,6 +97,29 @@ public class DNSRBLHandler extends org.apache.james.protocols.smtp.core.fastfail
         }
 
         setGetDetail(handlerConfiguration.getBoolean("getDetail", false));        
+        setLookupTimeout(handlerConfiguration.getLong("lookupTimeout", lookupTimeout));
+        setMaxParallelLookups(handlerConfiguration.getInt("maxParallelLookups", maxParallelLookups));
+        setTempfailOnTimeout(handlerConfiguration.getBoolean("tempfailOnTimeout", false));
+    }
+
+    /**
+     * Set the maximum time in milliseconds the lookups of all lists may take.
+     * 0 means no limit.
+     * 
+     * @param lookupTimeout
+     */
+    public void setLookupTimeout(long lookupTimeout) {
+        this.lookupTimeout = lookupTimeout;
+    }
+
+    /**
+     * Set the maximum number of lookups of one check which run at the same
+     * time. 0 means no limit.
+     * 
+     * @param maxParallelLookups
+     */
+    public void setMaxParallelLookups(int maxParallelLookups) {
+        this.maxParallelLookups = maxParallelLookups;
     }
 
     @Override
@@ -97,6 +136,14 @@ public class DNSRBLHandler extends org.apache.james.protocols.smtp.core.fastfail
         }
     }
     @Override
+    protected int resolveFirst(String[] names) {
+        try {
+            return new ParallelResolver(dns, lookupTimeout, maxParallelLookups).firstResolvable(Arrays.asList(names));
+        } catch (TemporaryResolutionException e) {
+            return TEMPORARY_FAILURE;
+        }
+    }
+    @Override
     protected Collection<String> resolveTXTRecords(String ip) {
         return dns.findTXTRecords(ip);
     }
@@ -20,11 +20,11 @@
 package org.apache.james.smtpserver.fastfail;
 
 import java.io.IOException;
-import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 
 import javax.annotation.Resource;
 import javax.mail.MessagingException;
@@ -36,6 +36,8 @@ import javax.mail.internet.MimePart;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.james.dnsservice.api.DNSService;
+import org.apache.james.dnsservice.api.TemporaryResolutionException;
+import org.apache.james.dnsservice.library.ParallelResolver;
 import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.lib.lifecycle.InitializingLifecycleAwareProtocolHandler;
 import org.apache.james.protocols.smtp.SMTPSession;
@@ -50,6 +52,14 @@ import org.slf4j.LoggerFactory;
 /**
  * Extract domains from message and check against URIRBLServer. For more
  * informations see <a href="http://www.surbl.org">www.surbl.org</a>
+ * 
+ * The domains are checked against the servers in parallel if the configured
+ * {@link DNSService} supports asynchronous lookups, at most
+ * <code>maxParallelLookups</code> (default 4) at once. The optional
+ * <code>lookupTimeout</code> (milliseconds, default 5000) limits the time
+ * spent on the whole check. If lookups did not complete in time the domains are
+ * handled as not listed, or, if <code>tempfailOnTimeout</code> is true, the
+ * message is rejected with a temporary error.
  */
 public class URIRBLHandler implements JamesMessageHook, InitializingLifecycleAwareProtocolHandler {
 
@@ -66,12 +76,19 @@ public class URIRBLHandler implements JamesMessageHook, InitializingLifecycleAwa
 
     private final static String URBLSERVER = "URBL_SERVER";
 
+    private final static String TEMPORARY_FAILURE = "URBL_TEMPORARY_FAILURE";
+
     private DNSService dnsService;
 
     private Collection<String> uriRbl;
 
     private boolean getDetail = false;
 
+    private long lookupTimeout = 5000;
+
+    private int maxParallelLookups = ParallelResolver.DEFAULT_MAX_PARALLEL;
+
+    private boolean tempfailOnTimeout = false;
 
     /**
      * Gets the DNS service.
@@ -114,6 +131,37 @@ public class URIRBLHandler implements JamesMessageHook, InitializingLifecycleAwa
         this.getDetail = getDetail;
     }
 
+    /**
+     * Set the maximum time in milliseconds the lookups of all domains may
+     * take. 0 means no limit.
+     * 
+     * @param lookupTimeout
+     */
+    public void setLookupTimeout(long lookupTimeout) {
+        this.lookupTimeout = lookupTimeout;
+    }
+
+    /**
+     * Set the maximum number of lookups of one check which run at the same
+     * time. 0 means no limit.
+     * 
+     * @param maxParallelLookups
+     */
+    public void setMaxParallelLookups(int maxParallelLookups) {
+        this.maxParallelLookups = maxParallelLookups;
+    }
+
+    /**
+     * Set if the message gets rejected with a temporary error when the
+     * servers could not be checked in time. By default the domains are then
+     * handled as not listed.
+     * 
+     * @param tempfailOnTimeout
+     */
+    public void setTempfailOnTimeout(boolean tempfailOnTimeout) {
+        this.tempfailOnTimeout = tempfailOnTimeout;
+    }
+
     /**
      * @see org.apache.james.smtpserver.JamesMessageHook#onMessage(org.apache.james.protocols.smtp.SMTPSession,
      *      org.apache.mailet.Mail)
@@ -142,6 +190,8 @@ public class URIRBLHandler implements JamesMessageHook, InitializingLifecycleAwa
                 return new HookResult(HookReturnCode.DENY, DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.SECURITY_OTHER) + " Rejected: message contains domain " + target + " listed by " + uRblServer);
             }
 
+        } else if (session.getAttachment(TEMPORARY_FAILURE, State.Transaction) != null) {
+            return new HookResult(HookReturnCode.DENYSOFT, DSNStatus.getStatus(DSNStatus.TRANSIENT, DSNStatus.NETWORK_DIR_SERVER) + " Temporary problem checking the domains of the message against URIRBL servers. Please try again later.");
         } else {
             return new HookResult(HookReturnCode.DECLINED);
         }
@@ -200,6 +250,9 @@ public class URIRBLHandler implements JamesMessageHook, InitializingLifecycleAwa
 
             HashSet<String> domains = scanMailForDomains(message, session);
 
+            List<String> targets = new ArrayList<String>();
+            List<String> servers = new ArrayList<String>();
+            List<String> addresses = new ArrayList<String>();
             Iterator<String> fDomains = domains.iterator();
 
             while (fDomains.hasNext()) {
@@ -207,26 +260,36 @@ public class URIRBLHandler implements JamesMessageHook, InitializingLifecycleAwa
                 String target = fDomains.next().toString();
 
                 while (uRbl.hasNext()) {
-                    try {
-                        String uRblServer = uRbl.next().toString();
-                        String address = target + "." + uRblServer;
-
-                        if (session.getLogger().isDebugEnabled()) {
-                            session.getLogger().debug("Lookup " + address);
-                        }
-
-                        dnsService.getByName(address);
-
-                        // store server name for later use
-                        session.setAttachment(URBLSERVER, uRblServer, State.Transaction);
-                        session.setAttachment(LISTED_DOMAIN, target, State.Transaction);
+                    String uRblServer = uRbl.next().toString();
+                    String address = target + "." + uRblServer;
 
-                        return true;
-
-                    } catch (UnknownHostException uhe) {
-                        // domain not found. keep processing
+                    if (session.getLogger().isDebugEnabled()) {
+                        session.getLogger().debug("Lookup " + address);
                     }
+                    targets.add(target);
+                    servers.add(uRblServer);
+                    addresses.add(address);
+                }
+            }
+
+            int listed;
+            try {
+                listed = new ParallelResolver(dnsService, lookupTimeout, maxParallelLookups).firstResolvable(addresses);
+            } catch (TemporaryResolutionException e) {
+                // unless configured otherwise the domains are handled as not
+                // listed
+                session.getLogger().warn("Unable to check the domains of the message against the URIRBL servers: " + e.getMessage());
+                if (tempfailOnTimeout) {
+                    session.setAttachment(TEMPORARY_FAILURE, "true", State.Transaction);
                 }
+                return false;
+            }
+            if (listed >= 0) {
+                // store server name for later use
+                session.setAttachment(URBLSERVER, servers.get(listed), State.Transaction);
+                session.setAttachment(LISTED_DOMAIN, targets.get(listed), State.Transaction);
+
+                return true;
             }
         } catch (MessagingException e) {
             session.getLogger().error(e.getMessage());
@@ -254,6 +317,9 @@ public class URIRBLHandler implements JamesMessageHook, InitializingLifecycleAwa
         }
 
         setGetDetail(config.getBoolean("getDetail", false));        
+        setLookupTimeout(config.getLong("lookupTimeout", lookupTimeout));
+        setMaxParallelLookups(config.getInt("maxParallelLookups", maxParallelLookups));
+        setTempfailOnTimeout(config.getBoolean("tempfailOnTimeout", false));
     }
 
     @Override
@@ -24,6 +24,7 @@ import javax.annotation.Resource;
 
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.james.core.MessageBufferPool;
 import org.apache.james.dnsservice.api.DNSService;
 import org.apache.james.dnsservice.library.netmatcher.NetMatcher;
 import org.apache.james.protocols.api.ProtocolSession;
@@ -31,11 +32,15 @@ import org.apache.james.protocols.api.ProtocolTransport;
 import org.apache.james.protocols.api.logger.ProtocolLoggerAdapter;
 import org.apache.james.protocols.lib.handler.HandlersPackage;
 import org.apache.james.protocols.lib.netty.AbstractProtocolAsyncServer;
+import org.apache.james.protocols.netty.AbstractChannelPipelineFactory;
+import org.apache.james.protocols.netty.ChunkingFrameDecoder;
 import org.apache.james.protocols.smtp.SMTPConfiguration;
 import org.apache.james.protocols.smtp.SMTPProtocol;
 import org.apache.james.smtpserver.CoreCmdHandlerLoader;
 import org.apache.james.smtpserver.ExtendedSMTPSession;
+import org.apache.james.smtpserver.MessageBufferPoolConfiguration;
 import org.apache.james.smtpserver.jmx.JMXHandlersLoader;
+import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelUpstreamHandler;
 
 /**
@@ -74,6 +79,14 @@ public class SMTPServer extends AbstractProtocolAsyncServer implements SMTPServe
      */
     private long maxMessageSize = 0;
 
+    /**
+     * The memory used to hold the received messages outside of the heap. The
+     * default value, 0, means that no pool is used.
+     */
+    private long messageBufferPoolSize = 0;
+
+    private MessageBufferPool messageBufferPool;
+
     /**
      * The configuration data to be passed to the handler
      */
@@ -117,6 +130,18 @@ public class SMTPServer extends AbstractProtocolAsyncServer implements SMTPServe
         };
         coreHandler = new SMTPChannelUpstreamHandler(transport, getLogger(), getEncryption());
         
+        if (messageBufferPoolSize > 0) {
+            messageBufferPool = new MessageBufferPool(messageBufferPoolSize, MessageBufferPool.DEFAULT_BUFFER_SIZE, "org.apache.james:type=server,name=" + jmxName + ",sub-type=messagebuffer");
+        }
+    }
+
+    @Override
+    protected void postDestroy() {
+        super.postDestroy();
+        if (messageBufferPool != null) {
+            messageBufferPool.dispose();
+            messageBufferPool = null;
+        }
     }
 
     @Override
@@ -168,6 +193,12 @@ public class SMTPServer extends AbstractProtocolAsyncServer implements SMTPServe
                 getLogger().info("No maximum message size is enforced for this server.");
             }
 
+            // get the size of the message buffer pool in kilobytes
+            messageBufferPoolSize = configuration.getLong("messageBufferPoolSize", 0) * 1024;
+            if (messageBufferPoolSize > 0) {
+                getLogger().info("Received messages are held in a message buffer pool of " + messageBufferPoolSize + " bytes.");
+            }
+
             heloEhloEnforcement = configuration.getBoolean("heloEhloEnforcement", true);
 
             if (authRequiredString.equals("true"))
@@ -203,7 +234,7 @@ public class SMTPServer extends AbstractProtocolAsyncServer implements SMTPServe
     /**
      * A class to provide SMTP handler configuration to the handlers
      */
-    public class SMTPHandlerConfigurationDataImpl implements SMTPConfiguration {
+    public class SMTPHandlerConfigurationDataImpl implements SMTPConfiguration, MessageBufferPoolConfiguration {
 
         /**
          * @see org.apache.james.protocols.smtp.SMTPConfiguration#getHelloName()
@@ -284,6 +315,13 @@ public class SMTPServer extends AbstractProtocolAsyncServer implements SMTPServe
             return "JAMES SMTP Server ";
         }
 
+        /**
+         * @see org.apache.james.smtpserver.MessageBufferPoolConfiguration#getMessageBufferPool()
+         */
+        public MessageBufferPool getMessageBufferPool() {
+            return SMTPServer.this.messageBufferPool;
+        }
+
     }
 
     /**
@@ -351,6 +389,15 @@ public class SMTPServer extends AbstractProtocolAsyncServer implements SMTPServe
         return coreHandler;
     }
 
+    /**
+     * Use a framer which passes the chunks of the BDAT command as they are
+     * received
+     */
+    @Override
+    protected ChannelHandler createFrameHandler() {
+        return new ChunkingFrameDecoder(AbstractChannelPipelineFactory.MAX_LINE_LENGTH, "BDAT");
+    }
+
     @Override
     protected Class<? extends HandlersPackage> getCoreHandlersPackage() {
         return CoreCmdHandlerLoader.class;
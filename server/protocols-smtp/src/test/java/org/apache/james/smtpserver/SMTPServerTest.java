@@ -19,10 +19,13 @@
 package org.apache.james.smtpserver;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.*;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 import org.apache.commons.net.smtp.SMTPClient;
@@ -406,10 +409,12 @@ public class SMTPServerTest {
             capabilitieslist.add(capabilityRes[i].substring(4));
         }
 
-        assertEquals("capabilities", 3, capabilitieslist.size());
+        assertEquals("capabilities", 5, capabilitieslist.size());
         assertTrue("capabilities present PIPELINING", capabilitieslist.contains("PIPELINING"));
         assertTrue("capabilities present ENHANCEDSTATUSCODES", capabilitieslist.contains("ENHANCEDSTATUSCODES"));
         assertTrue("capabilities present 8BITMIME", capabilitieslist.contains("8BITMIME"));
+        assertTrue("capabilities present CHUNKING", capabilitieslist.contains("CHUNKING"));
+        assertTrue("capabilities present BINARYMIME", capabilitieslist.contains("BINARYMIME"));
 
         smtpProtocol.setSender("mail@localhost");
         smtpProtocol.addRecipient("mail@localhost");
@@ -441,7 +446,7 @@ public class SMTPServerTest {
             capabilitieslist.add(capabilityRes[i].substring(4));
         }
 
-        assertEquals("capabilities", 4, capabilitieslist.size());
+        assertEquals("capabilities", 6, capabilitieslist.size());
         assertTrue("capabilities present PIPELINING", capabilitieslist.contains("PIPELINING"));
         assertTrue("capabilities present ENHANCEDSTATUSCODES", capabilitieslist.contains("ENHANCEDSTATUSCODES"));
         assertTrue("capabilities present 8BITMIME", capabilitieslist.contains("8BITMIME"));
@@ -588,6 +593,68 @@ public class SMTPServerTest {
         smtpProtocol1.disconnect();
     }
 
+    @Test
+    public void testMessageBufferPool() throws Exception {
+        m_testConfiguration.setMessageBufferPoolSize(128);
+        finishSetUp(m_testConfiguration);
+
+        SMTPClient smtpProtocol = new SMTPClient();
+        smtpProtocol.connect("127.0.0.1", m_smtpListenerPort);
+        smtpProtocol.helo(InetAddress.getLocalHost().toString());
+
+        for (int i = 0; i < 2; i++) {
+            String sender = "mail_sender" + i + "@localhost";
+            smtpProtocol.setSender(sender);
+            smtpProtocol.addRecipient("mail_recipient@localhost");
+            smtpProtocol.sendShortMessageData("Subject: test\r\n\r\nTest body testMessageBufferPool\r\n");
+            verifyLastMail(sender, "mail_recipient@localhost", null);
+        }
+
+        smtpProtocol.quit();
+        smtpProtocol.disconnect();
+
+        // the buffer was given back and reused for the second mail
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.apache.james:type=server,name=smtpserver,sub-type=messagebuffer");
+        assertEquals(131072L, mbeanServer.getAttribute(name, "Budget"));
+        assertEquals(65536L, mbeanServer.getAttribute(name, "AllocatedBytes"));
+        assertEquals(0L, mbeanServer.getAttribute(name, "UsedBytes"));
+    }
+
+    @Test
+    public void testMessageBufferReleasedOnRset() throws Exception {
+        m_testConfiguration.setMessageBufferPoolSize(128);
+        finishSetUp(m_testConfiguration);
+
+        Socket client = new Socket("127.0.0.1", m_smtpListenerPort);
+        OutputStream out = client.getOutputStream();
+        BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+        assertEquals("Connection made", 220, Integer.parseInt(in.readLine().split(" ")[0]));
+
+        out.write("HELO TEST\r\nMAIL FROM: <test@localhost>\r\nRCPT TO: <test2@localhost>\r\n".getBytes());
+        out.flush();
+        assertEquals("HELO accepted", 250, Integer.parseInt(in.readLine().split(" ")[0]));
+        assertEquals("MAIL FROM accepted", 250, Integer.parseInt(in.readLine().split(" ")[0]));
+        assertEquals("RCPT TO accepted", 250, Integer.parseInt(in.readLine().split(" ")[0]));
+
+        // the transaction is reset after the first chunk
+        out.write("BDAT 23\r\nSubject: test\r\n\r\nbody\r\n".getBytes());
+        out.flush();
+        assertEquals("Chunk accepted", 250, Integer.parseInt(in.readLine().split(" ")[0]));
+        out.write("RSET\r\n".getBytes());
+        out.flush();
+        assertEquals("RSET accepted", 250, Integer.parseInt(in.readLine().split(" ")[0]));
+
+        // the buffer of the partly received message was given back
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.apache.james:type=server,name=smtpserver,sub-type=messagebuffer");
+        assertEquals(0L, mbeanServer.getAttribute(name, "UsedBytes"));
+
+        in.close();
+        out.close();
+        client.close();
+    }
+
     @Test
     public void testHeloResolv() throws Exception {
         m_testConfiguration.setHeloResolv();
@@ -1399,6 +1466,56 @@ public class SMTPServerTest {
         client.close();
     }
 
+    // See http://www.ietf.org/rfc/rfc3030.txt 4.2: Examples
+    @Test
+    public void testChunking() throws Exception {
+        finishSetUp(m_testConfiguration);
+        Socket client = new Socket("127.0.0.1", m_smtpListenerPort);
+
+        String chunk1 = "Subject: test\r\n\r\nfirst line\r\n.";
+        String chunk2 = "\r\nsecond line\r\n";
+
+        StringBuilder buf = new StringBuilder();
+        buf.append("EHLO TEST");
+        buf.append("\r\n");
+        buf.append("MAIL FROM: <test@localhost> BODY=BINARYMIME");
+        buf.append("\r\n");
+        buf.append("RCPT TO: <test2@localhost>");
+        buf.append("\r\n");
+        buf.append("BDAT ").append(chunk1.length());
+        buf.append("\r\n");
+        buf.append(chunk1);
+        buf.append("BDAT ").append(chunk2.length()).append(" LAST");
+        buf.append("\r\n");
+        buf.append(chunk2);
+        buf.append("quit");
+        buf.append("\r\n");
+
+        OutputStream out = client.getOutputStream();
+
+        out.write(buf.toString().getBytes());
+        out.flush();
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+
+        assertEquals("Connection made", 220, Integer.parseInt(in.readLine().split(" ")[0]));
+        String line;
+        while ((line = in.readLine()).startsWith("250-")) {
+            // skip EHLO capabilities
+        }
+        assertEquals("EHLO accepted", 250, Integer.parseInt(line.split(" ")[0]));
+        assertEquals("MAIL FROM accepted", 250, Integer.parseInt(in.readLine().split(" ")[0]));
+        assertEquals("RCPT TO accepted", 250, Integer.parseInt(in.readLine().split(" ")[0]));
+        assertEquals("First chunk accepted", 250, Integer.parseInt(in.readLine().split(" ")[0]));
+        assertEquals("Message accepted", 250, Integer.parseInt(in.readLine().split(" ")[0]));
+        in.close();
+        out.close();
+        client.close();
+
+        // mail was propagated by SMTPServer
+        assertNotNull("mail received by mail server", queue.getLastMail());
+    }
+
     // See http://www.ietf.org/rfc/rfc2920.txt 4: Examples
     @Test
     public void testRejectAllRCPTPipelining() throws Exception {
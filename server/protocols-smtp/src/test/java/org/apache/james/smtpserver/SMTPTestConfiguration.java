@@ -28,6 +28,7 @@ public class SMTPTestConfiguration extends DefaultConfigurationBuilder {
 
     private int m_smtpListenerPort;
     private int m_maxMessageSizeKB = 0;
+    private int m_messageBufferPoolSizeKB = 0;
     private String m_authorizedAddresses = "127.0.0.0/8";
     private String m_authorizingMode = "false";
     private boolean m_verifyIdentity = false;
@@ -61,6 +62,10 @@ public class SMTPTestConfiguration extends DefaultConfigurationBuilder {
         return m_maxMessageSizeKB;
     }
 
+    public void setMessageBufferPoolSize(int kilobytes) {
+        m_messageBufferPoolSizeKB = kilobytes;
+    }
+
     public String getAuthorizedAddresses() {
         return m_authorizedAddresses;
     }
@@ -146,6 +151,7 @@ public class SMTPTestConfiguration extends DefaultConfigurationBuilder {
         addProperty("connectiontimeout", 360000);
         addProperty("authorizedAddresses", m_authorizedAddresses);
         addProperty("maxmessagesize", m_maxMessageSizeKB);
+        addProperty("messageBufferPoolSize", m_messageBufferPoolSizeKB);
         addProperty("authRequired", m_authorizingMode);
         addProperty("heloEhloEnforcement", m_heloEhloEnforcement);
         addProperty("addressBracketsEnforcement", m_addressBracketsEnforcement);
@@ -25,12 +25,18 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.mail.BodyPart;
 import javax.mail.MessagingException;
 import javax.mail.Multipart;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
+import org.apache.james.dnsservice.api.AsyncDNSService;
 import org.apache.james.dnsservice.api.DNSService;
 import org.apache.james.dnsservice.api.mock.MockDNSService;
 import org.apache.james.protocols.smtp.SMTPSession;
@@ -42,6 +48,7 @@ import org.apache.james.smtpserver.mock.MockMimeMessage;
 import org.apache.james.smtpserver.mock.mailet.MockMail;
 import org.apache.mailet.Mail;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
 public class URIRBLHandlerTest {
@@ -233,6 +240,116 @@ public class URIRBLHandlerTest {
         assertEquals("Email was rejected", response.getResult(), HookReturnCode.DENY);
     }
 
+    @Test
+    public void testBlockedAsync() throws IOException, MessagingException {
+
+        ArrayList servers = new ArrayList();
+        servers.add(URISERVER);
+
+        SMTPSession session = setupMockedSMTPSession(setupMockedMail(setupMockedMimeMessageMP(
+                "http://" + BAD_DOMAIN1 + "/" + " " + "http://" + GOOD_DOMAIN + "/")));
+
+        final DNSService dns = setupMockedDnsServer();
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final AtomicInteger asyncLookups = new AtomicInteger();
+        AsyncDNSService asyncDns = new MockAsyncDNSService(dns) {
+
+            public Future<InetAddress> getByNameAsync(final String host) {
+                asyncLookups.incrementAndGet();
+                return executor.submit(new Callable<InetAddress>() {
+                    public InetAddress call() throws Exception {
+                        return dns.getByName(host);
+                    }
+                });
+            }
+        };
+
+        try {
+            URIRBLHandler handler = new URIRBLHandler();
+
+            handler.setDNSService(asyncDns);
+            handler.setUriRblServer(servers);
+            HookResult response = handler.onMessage(session, mockedMail);
+
+            assertEquals("Email was rejected", response.getResult(), HookReturnCode.DENY);
+            assertTrue("Lookups were done asynchronously", asyncLookups.get() > 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTimeoutIsTemporaryFailure() throws IOException, MessagingException {
+        assertEquals("Email was rejected temporarily", HookReturnCode.DENYSOFT, checkWithTimeout(true).getResult());
+    }
+
+    @Test
+    public void testTimeoutIsNotListedByDefault() throws IOException, MessagingException {
+        assertEquals("Email was not rejected", HookReturnCode.DECLINED, checkWithTimeout(false).getResult());
+    }
+
+    /**
+     * Check a message with a DNS service which never answers in time
+     */
+    private HookResult checkWithTimeout(boolean tempfailOnTimeout) throws IOException, MessagingException {
+
+        ArrayList servers = new ArrayList();
+        servers.add(URISERVER);
+
+        SMTPSession session = setupMockedSMTPSession(setupMockedMail(setupMockedMimeMessageMP(
+                "http://" + BAD_DOMAIN1 + "/" + " " + "http://" + GOOD_DOMAIN + "/")));
+
+        final DNSService dns = setupMockedDnsServer();
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        AsyncDNSService asyncDns = new MockAsyncDNSService(dns) {
+
+            public Future<InetAddress> getByNameAsync(final String host) {
+                return executor.submit(new Callable<InetAddress>() {
+                    public InetAddress call() throws Exception {
+                        // never answers in time
+                        Thread.sleep(10000);
+                        return dns.getByName(host);
+                    }
+                });
+            }
+        };
+
+        try {
+            URIRBLHandler handler = new URIRBLHandler();
+
+            handler.setDNSService(asyncDns);
+            handler.setUriRblServer(servers);
+            handler.setLookupTimeout(100);
+            handler.setTempfailOnTimeout(tempfailOnTimeout);
+            return handler.onMessage(session, mockedMail);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private abstract static class MockAsyncDNSService extends MockDNSService implements AsyncDNSService {
+
+        private final DNSService dns;
+
+        public MockAsyncDNSService(DNSService dns) {
+            this.dns = dns;
+        }
+
+        @Override
+        public InetAddress getByName(String host) throws UnknownHostException {
+            return dns.getByName(host);
+        }
+
+        @Override
+        public Collection findTXTRecords(String hostname) {
+            return dns.findTXTRecords(hostname);
+        }
+
+        public Future<Collection<String>> findTXTRecordsAsync(String hostname) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     /*
      * public void testAddJunkScore() throws IOException, MessagingException {
      * 
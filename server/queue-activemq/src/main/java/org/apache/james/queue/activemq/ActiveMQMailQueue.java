@@ -23,6 +23,7 @@ import java.net.MalformedURLException;
 import java.util.List;
 import java.util.Map;
 
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.JMSException;
@@ -30,16 +31,20 @@ import javax.jms.MapMessage;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
 import javax.jms.MessageProducer;
-import javax.jms.ObjectMessage;
 import javax.jms.Queue;
 import javax.jms.Session;
 import javax.jms.TemporaryQueue;
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 
+import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.activemq.ActiveMQSession;
 import org.apache.activemq.BlobMessage;
+import org.apache.activemq.broker.BrokerRegistry;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.Destination;
 import org.apache.activemq.command.ActiveMQBlobMessage;
+import org.apache.activemq.command.ActiveMQQueue;
 import org.apache.activemq.util.JMSExceptionSupport;
 import org.apache.james.core.MimeMessageCopyOnWriteProxy;
 import org.apache.james.core.MimeMessageInputStream;
@@ -49,6 +54,7 @@ import org.apache.james.queue.jms.JMSMailQueue;
 import org.apache.mailet.Mail;
 import org.slf4j.Logger;
 import org.springframework.jms.connection.SessionProxy;
+import org.springframework.jms.connection.SingleConnectionFactory;
 
 /**
  * <p>
@@ -63,7 +69,7 @@ import org.springframework.jms.connection.SessionProxy;
  * convert it
  * <p>
  * </p>
- * The implementation use {@link BlobMessage} or {@link ObjectMessage},
+ * The implementation use {@link BlobMessage} or {@link BytesMessage},
  * depending on the constructor which was used
  * <p>
  * </p>
@@ -87,6 +93,9 @@ import org.springframework.jms.connection.SessionProxy;
 public class ActiveMQMailQueue extends JMSMailQueue implements ActiveMQSupport {
 
     private boolean useBlob;
+    private int consumerPrefetch = -1;
+
+    private final static String VM_URL_PREFIX = "vm://";
 
     /**
      * Construct a {@link ActiveMQMailQueue} which only use {@link BlobMessage}
@@ -113,6 +122,18 @@ public class ActiveMQMailQueue extends JMSMailQueue implements ActiveMQSupport {
         this.useBlob = useBlob;
     }
 
+    /**
+     * Set the count of messages which ActiveMQ prefetches for a dequeue
+     * consumer. Use -1 to use the prefetch policy of the connection, which is
+     * the default. This is most useful together with
+     * {@link #setKeepConsumers(boolean)}.
+     * 
+     * @param consumerPrefetch
+     */
+    public void setConsumerPrefetch(int consumerPrefetch) {
+        this.consumerPrefetch = consumerPrefetch;
+    }
+
     /**
      * @see
      * org.apache.james.queue.jms.JMSMailQueue#populateMailMimeMessage(javax.jms.Message, org.apache.mailet.Mail)
@@ -246,9 +267,23 @@ public class ActiveMQMailQueue extends JMSMailQueue implements ActiveMQSupport {
     }
 
     @Override
-    protected MailQueueItem createMailQueueItem(Connection connection, Session session, MessageConsumer consumer, Message message) throws JMSException, MessagingException {
+    protected MailQueueItem createMailQueueItem(DequeueSession dequeueSession, Message message) throws JMSException, MessagingException {
         Mail mail = createMail(message);
-        return new ActiveMQMailQueueItem(mail, connection, session, consumer, message, logger);
+        return new ActiveMQMailQueueItem(mail, dequeueSession, message, logger);
+    }
+
+    /**
+     * Use the configured prefetch size for the dequeue consumers if one was
+     * set
+     * 
+     * @see org.apache.james.queue.jms.JMSMailQueue#createDequeueQueue(javax.jms.Session)
+     */
+    @Override
+    protected Queue createDequeueQueue(Session session) throws JMSException {
+        if (consumerPrefetch < 0) {
+            return super.createDequeueQueue(session);
+        }
+        return session.createQueue(queuename + "?consumer.prefetchSize=" + consumerPrefetch);
     }
 
     @Override
@@ -288,11 +323,58 @@ public class ActiveMQMailQueue extends JMSMailQueue implements ActiveMQSupport {
     }
 
     /**
-     * Try to use ActiveMQ StatisticsPlugin to get size and if that fails
-     * fallback to {@link JMSMailQueue#getSize()}
+     * Read the size from the statistics of the destination if the broker is
+     * embedded, which is cheap. Otherwise fallback to
+     * {@link JMSMailQueue#getSize()}
      */
     @Override
     public long getSize() throws MailQueueException {
+        BrokerService broker = getEmbeddedBroker();
+        if (broker != null) {
+            try {
+                Destination destination = broker.getDestination(new ActiveMQQueue(queuename));
+                if (destination != null) {
+                    return destination.getDestinationStatistics().getMessages().getCount();
+                }
+            } catch (Exception e) {
+                logger.debug("Unable to get size of queue " + queuename + " from the embedded broker", e);
+            }
+        }
+        return super.getSize();
+    }
+
+    /**
+     * Return the {@link BrokerService} if the {@link ConnectionFactory}
+     * connects to a broker which runs in the same JVM, otherwise null
+     * 
+     * @return broker
+     */
+    protected BrokerService getEmbeddedBroker() {
+        ConnectionFactory factory = connectionFactory;
+        if (factory instanceof SingleConnectionFactory) {
+            // handle Springs CachingConnectionFactory
+            factory = ((SingleConnectionFactory) factory).getTargetConnectionFactory();
+        }
+        if (factory instanceof ActiveMQConnectionFactory) {
+            String url = ((ActiveMQConnectionFactory) factory).getBrokerURL();
+            if (url != null && url.startsWith(VM_URL_PREFIX)) {
+                String name = url.substring(VM_URL_PREFIX.length());
+                int index = name.indexOf('?');
+                if (index > -1) {
+                    name = name.substring(0, index);
+                }
+                return BrokerRegistry.getInstance().lookup(name);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Try to use ActiveMQ StatisticsPlugin to count the messages and if that
+     * fails fallback to {@link JMSMailQueue#countMessages()}
+     */
+    @Override
+    protected long countMessages() throws MailQueueException {
 
         Connection connection = null;
         Session session = null;
@@ -380,7 +462,7 @@ public class ActiveMQMailQueue extends JMSMailQueue implements ActiveMQSupport {
         }
 
         // if we came to this point we should just fallback to super method
-        return super.getSize();
+        return super.countMessages();
     }
 
 }
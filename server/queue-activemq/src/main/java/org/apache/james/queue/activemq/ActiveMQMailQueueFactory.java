@@ -29,13 +29,23 @@ import org.apache.james.queue.jms.JMSMailQueueFactory;
 public class ActiveMQMailQueueFactory extends JMSMailQueueFactory {
 
     private boolean useBlob = true;
+    private int consumerPrefetch = -1;
 
     public void setUseBlobMessages(boolean useBlob) {
         this.useBlob = useBlob;
     }
 
+    /**
+     * @see ActiveMQMailQueue#setConsumerPrefetch(int)
+     */
+    public void setConsumerPrefetch(int consumerPrefetch) {
+        this.consumerPrefetch = consumerPrefetch;
+    }
+
     @Override
     protected MailQueue createMailQueue(String name) {
-        return new ActiveMQMailQueue(connectionFactory, name, useBlob, log);
+        ActiveMQMailQueue queue = new ActiveMQMailQueue(connectionFactory, name, useBlob, log);
+        queue.setConsumerPrefetch(consumerPrefetch);
+        return configure(queue);
     }
 }
@@ -30,6 +30,7 @@ import javax.jms.Session;
 import org.apache.activemq.command.ActiveMQBlobMessage;
 import org.apache.james.queue.api.MailQueue.MailQueueException;
 import org.apache.james.queue.api.MailQueue.MailQueueItem;
+import org.apache.james.queue.jms.JMSMailQueue;
 import org.apache.james.queue.jms.JMSMailQueueItem;
 import org.apache.mailet.Mail;
 import org.slf4j.Logger;
@@ -49,6 +50,12 @@ public class ActiveMQMailQueueItem extends JMSMailQueueItem implements ActiveMQS
         this.logger = logger;
     }
 
+    public ActiveMQMailQueueItem(Mail mail, JMSMailQueue.DequeueSession dequeueSession, Message message, Logger logger) {
+        super(mail, dequeueSession);
+        this.message = message;
+        this.logger = logger;
+    }
+
     /**
      * @see org.apache.james.queue.jms.JMSMailQueueItem#done(boolean)
      */
@@ -52,4 +52,9 @@ public class ActiveMQMailQueueTest extends JMSMailQueueTest {
         return false;
     }
 
+    @Override
+    protected boolean useSpoolFiles() {
+        return !useBlobMessages();
+    }
+
 }
@@ -19,6 +19,7 @@
 package org.apache.james.queue.api;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.management.openmbean.CompositeData;
 
@@ -79,4 +80,27 @@ public interface MailQueueManagementMBean {
      */
     List<CompositeData> browse() throws Exception;
 
+    /**
+     * Browse a page of the queue without loading the message content. Every
+     * entry holds the name, sender, recipients, size and next delivery time
+     * of a mail.
+     * 
+     * @param offset
+     *            count of mails to skip
+     * @param limit
+     *            max count of mails to return
+     * @return content
+     */
+    List<CompositeData> browseHeaders(long offset, int limit) throws Exception;
+
+    /**
+     * Return the count of mails grouped by the time of their next delivery.
+     * The key is the start of a bucket of the given size, mails which are
+     * ready are counted with the key 0.
+     * 
+     * @param bucketSizeInMillis
+     * @return counts
+     */
+    Map<Long, Long> getNextDeliveryCounts(long bucketSizeInMillis) throws Exception;
+
 }
@@ -19,6 +19,8 @@
 package org.apache.james.queue.api;
 
 import java.util.Iterator;
+import java.util.List;
+import java.util.SortedMap;
 
 import org.apache.mailet.Mail;
 
@@ -73,6 +75,35 @@ public interface ManageableMailQueue extends MailQueue {
      */
     MailQueueIterator browse() throws MailQueueException;
 
+    /**
+     * Browse a page of the queues content. Only the meta-data of the mails is
+     * loaded, so the {@link Mail}'s of the returned views have no
+     * {@link javax.mail.internet.MimeMessage} set. The size of the message is
+     * available via {@link MailQueueItemHeaderView#getMessageSize()}.
+     * 
+     * @param offset
+     *            count of mails to skip
+     * @param limit
+     *            max count of mails to return
+     * @return views
+     * @throws MailQueueException
+     */
+    List<MailQueueItemHeaderView> browseHeaders(long offset, int limit) throws MailQueueException;
+
+    /**
+     * Return the count of mails grouped by the time of their next delivery.
+     * The key is the start of a bucket of <code>bucketSize</code> ms. Mails
+     * which are ready for dequeuing are counted with the key 0.
+     * 
+     * @param bucketSize
+     *            size of a bucket in ms, must be at least 1
+     * @return counts
+     * @throws MailQueueException
+     * @throws IllegalArgumentException
+     *             if the bucket size is less than 1
+     */
+    SortedMap<Long, Long> getNextDeliveryCounts(long bucketSize) throws MailQueueException;
+
     /**
      * {@link Iterator} subclass which allows to browse the content of a queue.
      * The content is not meant to be modifiable, everything is just READ-ONLY!
@@ -107,4 +138,18 @@ public interface ManageableMailQueue extends MailQueue {
         long getNextDelivery();
     }
 
+    /**
+     * {@link MailQueueItemView} of a {@link Mail} which was loaded without its
+     * message content
+     */
+    public interface MailQueueItemHeaderView extends MailQueueItemView {
+
+        /**
+         * Return the size of the message in bytes or -1 if it is not known
+         * 
+         * @return size
+         */
+        long getMessageSize();
+    }
+
 }
@@ -0,0 +1,301 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.queue.file;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.james.queue.file.MailQueueJournal.Entry;
+
+/**
+ * <p>
+ * Puts the keys of delayed {@link MailQueueJournal.Entry}'s in the ready queue
+ * once their next delivery time is reached.
+ * </p>
+ * <p>
+ * Keys which are due within the horizon are kept in memory, grouped in buckets
+ * of one tick. A single thread moves a bucket to the ready queue once its end
+ * is reached, so a mail is never delivered early and at most one tick late.
+ * Keys which are due after the horizon are not held at all. They are picked
+ * up from the {@link MailQueueJournal} by a scan which runs every half
+ * horizon, so the memory used does not depend on how many mails are deferred
+ * for a long time.
+ * </p>
+ */
+public class DeliveryScheduler {
+
+    public final static long DEFAULT_TICK = 1000;
+    public final static long DEFAULT_HORIZON = 15 * 60 * 1000;
+
+    private final MailQueueJournal journal;
+    private final BlockingQueue<String> ready;
+    private final long tick;
+    private final long horizon;
+
+    // guarded by lock
+    private final Object lock = new Object();
+    private final TreeMap<Long, Set<String>> buckets = new TreeMap<Long, Set<String>>();
+    private long watermark = Long.MIN_VALUE;
+    private long nextScan;
+    private long generation;
+    private boolean closed = true;
+
+    private Thread thread;
+
+    public DeliveryScheduler(MailQueueJournal journal, BlockingQueue<String> ready) {
+        this(journal, ready, DEFAULT_TICK, DEFAULT_HORIZON);
+    }
+
+    public DeliveryScheduler(MailQueueJournal journal, BlockingQueue<String> ready, long tick, long horizon) {
+        this.journal = journal;
+        this.ready = ready;
+        this.tick = tick;
+        this.horizon = horizon;
+    }
+
+    /**
+     * Schedule all {@link Entry}'s of the journal and start the scheduler
+     * thread
+     */
+    public void start() {
+        synchronized (lock) {
+            closed = false;
+        }
+        scan(System.currentTimeMillis());
+
+        thread = new Thread("Scheduler of " + journal) {
+            public void run() {
+                runLoop();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the scheduler thread
+     */
+    public void stop() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Schedule the given key for delivery at the given time
+     * 
+     * @param key
+     * @param nextDelivery
+     *            time in ms, or 0 if the mail is ready now
+     */
+    public void schedule(String key, long nextDelivery) {
+        if (nextDelivery <= System.currentTimeMillis()) {
+            ready.add(key);
+            return;
+        }
+        synchronized (lock) {
+            // keys after the watermark will be picked up by a later scan
+            if (nextDelivery <= watermark) {
+                add(key, nextDelivery);
+            }
+        }
+    }
+
+    /**
+     * Make all {@link Entry}'s of the journal ready for delivery
+     * 
+     * @return count of keys which were added to the ready queue
+     */
+    public long flush() {
+        synchronized (lock) {
+            // make sure a running scan does not add the flushed keys again
+            generation++;
+            buckets.clear();
+
+            Set<String> queued = new HashSet<String>(ready);
+            long count = 0;
+            long max = watermark;
+            Iterator<Entry> entries = journal.getEntries().iterator();
+            while (entries.hasNext()) {
+                Entry entry = entries.next();
+                if (entry.getNextDelivery() > max) {
+                    max = entry.getNextDelivery();
+                }
+                if (queued.contains(entry.getKey()) == false) {
+                    ready.add(entry.getKey());
+                    count++;
+                }
+            }
+            watermark = max;
+            return count;
+        }
+    }
+
+    /**
+     * Return the count of {@link Entry}'s grouped by their next delivery
+     * time. The key is the start of a bucket of the given size in ms, mails
+     * which are ready for delivery are counted with the key 0.
+     * 
+     * @param bucketSize
+     *            size of a bucket in ms, must be at least 1
+     * @return counts
+     * @throws IllegalArgumentException
+     *             if the bucket size is less than 1
+     */
+    public SortedMap<Long, Long> getNextDeliveryCounts(long bucketSize) {
+        if (bucketSize < 1) {
+            throw new IllegalArgumentException("bucketSize must be > 0");
+        }
+        long now = System.currentTimeMillis();
+        TreeMap<Long, Long> counts = new TreeMap<Long, Long>();
+        Iterator<Entry> entries = journal.getEntries().iterator();
+        while (entries.hasNext()) {
+            long next = entries.next().getNextDelivery();
+            long bucket = next <= now ? 0 : next - next % bucketSize;
+            Long count = counts.get(bucket);
+            counts.put(bucket, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+
+    /**
+     * Return the count of keys which are held in memory
+     * 
+     * @return count
+     */
+    public int getScheduledCount() {
+        synchronized (lock) {
+            int count = 0;
+            Iterator<Set<String>> it = buckets.values().iterator();
+            while (it.hasNext()) {
+                count += it.next().size();
+            }
+            return count;
+        }
+    }
+
+    private void add(String key, long nextDelivery) {
+        // round up so the mail is never delivered before its time
+        long bucket = (nextDelivery / tick + 1) * tick;
+        Set<String> keys = buckets.get(bucket);
+        if (keys == null) {
+            keys = new LinkedHashSet<String>();
+            buckets.put(bucket, keys);
+            if (bucket == buckets.firstKey()) {
+                lock.notifyAll();
+            }
+        }
+        keys.add(key);
+    }
+
+    /**
+     * Load the keys which are due before the new watermark from the journal
+     */
+    private void scan(long now) {
+        long from;
+        long to = now + horizon;
+        long gen;
+        synchronized (lock) {
+            from = watermark;
+            // from now on new keys up to the new watermark are added by
+            // schedule(..)
+            watermark = Math.max(watermark, to);
+            nextScan = now + horizon / 2;
+            gen = generation;
+        }
+
+        List<Entry> due = new ArrayList<Entry>();
+        Iterator<Entry> entries = journal.getEntries().iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            long next = entry.getNextDelivery();
+            if (next > from && next <= to) {
+                due.add(entry);
+            }
+        }
+
+        synchronized (lock) {
+            if (gen != generation) {
+                return;
+            }
+            for (int i = 0; i < due.size(); i++) {
+                Entry entry = due.get(i);
+                if (entry.getNextDelivery() <= now) {
+                    ready.add(entry.getKey());
+                } else {
+                    add(entry.getKey(), entry.getNextDelivery());
+                }
+            }
+        }
+    }
+
+    private void runLoop() {
+        while (true) {
+            long now = System.currentTimeMillis();
+            boolean scan;
+            List<String> due = new ArrayList<String>();
+            synchronized (lock) {
+                if (closed) {
+                    return;
+                }
+                SortedMap<Long, Set<String>> head = buckets.headMap(now + 1);
+                Iterator<Set<String>> it = head.values().iterator();
+                while (it.hasNext()) {
+                    due.addAll(it.next());
+                }
+                head.clear();
+                scan = now >= nextScan;
+
+                if (due.isEmpty() && !scan) {
+                    long wakeup = nextScan;
+                    if (!buckets.isEmpty() && buckets.firstKey() < wakeup) {
+                        wakeup = buckets.firstKey();
+                    }
+                    try {
+                        lock.wait(Math.max(1, wakeup - now));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+            for (int i = 0; i < due.size(); i++) {
+                ready.add(due.get(i));
+            }
+            if (scan) {
+                scan(now);
+            }
+        }
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "DeliveryScheduler of " + journal;
+    }
+}
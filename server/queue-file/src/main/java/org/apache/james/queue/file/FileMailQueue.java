@@ -20,51 +20,48 @@ package org.apache.james.queue.file;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.Map.Entry;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.mail.MessagingException;
-import javax.mail.util.SharedFileInputStream;
 
 import org.apache.james.core.MimeMessageCopyOnWriteProxy;
-import org.apache.james.core.MimeMessageSource;
 import org.apache.james.lifecycle.api.Disposable;
 import org.apache.james.lifecycle.api.LifecycleUtil;
 import org.apache.james.queue.api.ManageableMailQueue;
+import org.apache.james.queue.file.MailQueueJournal.Entry;
 import org.apache.mailet.Mail;
 import org.slf4j.Logger;
 
 /**
  * {@link ManageableMailQueue} implementation which use the fs to store {@link Mail}'s
  * 
- * On create of the {@link FileMailQueue} the {@link #init()} will get called. This takes care of load the needed meta-data into memory for fast access.
+ * The {@link Mail}'s are stored in a {@link MailQueueJournal}. On create of the {@link FileMailQueue} the {@link #init()} will get called. This opens the
+ * journal, which loads the needed meta-data into memory for fast access, and schedules the queued {@link Mail}'s. Delayed {@link Mail}'s are
+ * handled by a {@link DeliveryScheduler}, which only keeps the near-term ones in memory.
  * 
  * 
  * 
  */
-public class FileMailQueue implements ManageableMailQueue {
+public class FileMailQueue implements ManageableMailQueue, Disposable {
 
-    private final ConcurrentHashMap<String, FileItem> keyMappings = new ConcurrentHashMap<String, FileMailQueue.FileItem>();
     private final BlockingQueue<String> inmemoryQueue = new LinkedBlockingQueue<String>();
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-    private final static AtomicLong COUNTER = new AtomicLong();
-    private final String queueDirName;
+    private final static AtomicLong COUNTER = new AtomicLong(System.currentTimeMillis());
     private final File queueDir;
+    private final MailQueueJournal journal;
+    private final DeliveryScheduler scheduler;
     private final Logger log;
     
     private final boolean sync;
@@ -77,78 +74,63 @@ public class FileMailQueue implements ManageableMailQueue {
         this.log = log;
         this.sync = sync;
         this.queueDir = new File(parentDir, queuename);
-        this.queueDirName = queueDir.getAbsolutePath();
+        this.journal = new MailQueueJournal(queueDir, log);
+        this.scheduler = new DeliveryScheduler(journal, inmemoryQueue);
 
         init();
     }
     
     private void init() throws IOException {
-        
+        journal.open();
+        scheduler.start();
+
+        importLegacyFiles();
+    }
+
+    /**
+     * Move the {@link Mail}'s which were stored as <code>.obj</code> and <code>.msg</code> files by older versions to the journal
+     */
+    private void importLegacyFiles() throws IOException {
         for (int i = 1; i <= SPLITCOUNT; i++) {
             File qDir = new File(queueDir, Integer.toString(i));
-            if (!qDir.exists() && !qDir.mkdirs()) {
-                throw new IOException("Unable to create queue directory " +  qDir);
+            if (!qDir.isDirectory()) {
+                continue;
             }
-            String[] files = queueDir.list(new FilenameFilter() {
+            File[] files = qDir.listFiles(new FilenameFilter() {
                 
                 @Override
                 public boolean accept(File dir, String name) {
-                    if (name.endsWith(OBJECT_EXTENSION)) {
-                        return true;
-                    }
-                    return false;
+                    return name.endsWith(OBJECT_EXTENSION);
                 }
             });
             for (int a = 0; a < files.length; a++) {
-                final String name = files[a];
+                File objectFile = files[a];
+                String name = objectFile.getName();
+                String key = name.substring(0, name.length() - OBJECT_EXTENSION.length());
+                File msgFile = new File(qDir, key + MSG_EXTENSION);
                 ObjectInputStream oin = null;
-                
-
+                Mail mail = null;
                 try {
-                    final String msgFileName = name.substring(0, name.length() - OBJECT_EXTENSION.length()) + MSG_EXTENSION;
+                    oin = new ObjectInputStream(new FileInputStream(objectFile));
+                    mail = (Mail) oin.readObject();
+                    mail.setMessage(new MimeMessageCopyOnWriteProxy(new MailQueueJournal.FileRangeMimeMessageSource(msgFile, 0, msgFile.length())));
 
-                    FileItem item = new FileItem(queueDirName + "/" + name, queueDirName + "/" + msgFileName);
-
-                    oin = new ObjectInputStream(new FileInputStream(item.getObjectFile()));
-                    Mail mail = (Mail) oin.readObject();
                     Long next = (Long) mail.getAttribute(NEXT_DELIVERY);
                     if (next == null) {
                         next = 0L;
                     }
-
-
-                    final String key = mail.getName();
-                    keyMappings.put(key, item);
-                    if (next <= System.currentTimeMillis()) {
-
-                        try {
-                            inmemoryQueue.put(key);
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            throw new RuntimeException("Unable to init", e);
-                        }
-                    } else {
-
-                        // Schedule a task which will put the mail in the queue
-                        // for processing after a given delay
-                        scheduler.schedule(new Runnable() {
-
-                            @Override
-                            public void run() {
-                                try {
-                                    inmemoryQueue.put(key);
-                                } catch (InterruptedException e) {
-                                    Thread.currentThread().interrupt();
-                                    throw new RuntimeException("Unable to init", e);
-                                }
-                            }
-                        }, next - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
-                    }
-
-                } catch (ClassNotFoundException e1) {
-                    log.error("Unable to load Mail", e1);
+                    mail.removeAttribute(NEXT_DELIVERY);
+                    journal.add(key, mail, next, true);
+                    scheduler.schedule(key, next);
+                } catch (ClassNotFoundException e) {
+                    log.error("Unable to load Mail", e);
+                    continue;
                 } catch (IOException e) {
                     log.error("Unable to load Mail", e);
+                    continue;
+                } catch (MessagingException e) {
+                    log.error("Unable to load Mail", e);
+                    continue;
                 } finally {
                     if (oin != null) {
                         try {
@@ -157,99 +139,67 @@ public class FileMailQueue implements ManageableMailQueue {
                             // ignore on close
                         }
                     }
+                    LifecycleUtil.dispose(mail);
+                }
+                if (!objectFile.delete() || (msgFile.exists() && !msgFile.delete())) {
+                    log.debug("Unable to delete imported files of mail " + key);
                 }
-
             }
+            qDir.delete();
         }
     }
-    
-    
-    
+
+    /**
+     * Set the size in bytes after which the journal starts a new segment file
+     * 
+     * @see MailQueueJournal#setSegmentSize(long)
+     */
+    public void setSegmentSize(long segmentSize) {
+        journal.setSegmentSize(segmentSize);
+    }
+
+    /**
+     * Set the interval in ms in which the journal is synced to disk. All enqueue calls within the interval share one <code>fsync</code>
+     * 
+     * @see MailQueueJournal#setSyncInterval(long)
+     */
+    public void setSyncInterval(long syncInterval) {
+        journal.setSyncInterval(syncInterval);
+    }
+
+    /**
+     * Set the interval in ms in which the journal writes a checkpoint
+     * 
+     * @see MailQueueJournal#setCheckpointInterval(long)
+     */
+    public void setCheckpointInterval(long checkpointInterval) {
+        journal.setCheckpointInterval(checkpointInterval);
+    }
+
+    /**
+     * Set the percentage of live bytes below which a segment of the journal gets compacted
+     * 
+     * @see MailQueueJournal#setCompactionThreshold(int)
+     */
+    public void setCompactionThreshold(int compactionThreshold) {
+        journal.setCompactionThreshold(compactionThreshold);
+    }
     
     @Override
     public void enQueue(final Mail mail, long delay, TimeUnit unit) throws MailQueueException {
         final String key = mail.getName() + "-" + COUNTER.incrementAndGet();
-        FileOutputStream out = null;
-        FileOutputStream foout = null;
-        ObjectOutputStream oout = null;
+        long nextDelivery = 0;
+        if (delay > 0) {
+            nextDelivery = System.currentTimeMillis() + unit.toMillis(delay);
+        }
         try {
-            int i = (int) (Math.random() * SPLITCOUNT + 1);
-
-            
-            String name = queueDirName + "/" + i + "/" + key;
-            
-            final FileItem item = new FileItem(name + OBJECT_EXTENSION, name + MSG_EXTENSION);
-
-            foout = new FileOutputStream(item.getObjectFile());
-            oout = new ObjectOutputStream(foout);
-            oout.writeObject(mail);
-            oout.flush();
-            if (sync) foout.getFD().sync();
-            out = new FileOutputStream(item.getMessageFile());
-           
-            mail.getMessage().writeTo(out);
-            out.flush();
-            if (sync) out.getFD().sync();
-            
-            keyMappings.put(key, item);
-        
-
-            if (delay > 0) {
-                mail.setAttribute(NEXT_DELIVERY, System.currentTimeMillis() + unit.toMillis(delay));
-                // The message should get delayed so schedule it for later 
-                scheduler.schedule(new Runnable() {
-                    
-                    @Override
-                    public void run() {
-                        try {                           
-                            inmemoryQueue.put(key);
-
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            throw new RuntimeException("Unable to init", e);
-                        }                                
-                    }
-                }, delay, unit);
-            
-            } else {
-                inmemoryQueue.put(key);
-            }
-            
-            //TODO: Think about exception handling in detail
-        } catch (FileNotFoundException e) {
-            throw new MailQueueException("Unable to enqueue mail", e);
+            journal.add(key, mail, nextDelivery, sync);
         } catch (IOException e) {
             throw new MailQueueException("Unable to enqueue mail", e);
-
         } catch (MessagingException e) {
             throw new MailQueueException("Unable to enqueue mail", e);
-        } catch (InterruptedException e) {
-            throw new MailQueueException("Unable to enqueue mail", e);
-
-        } finally {
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException e) {
-                    // ignore on close
-                }
-            }
-            if (oout != null) {
-                try {
-                    oout.close();
-                } catch (IOException e) {
-                    // ignore on close
-                }
-            }
-            if (foout != null) {
-                try {
-                    foout.close();
-                } catch (IOException e) {
-                    // ignore on close
-                }
-            }
         }
-
+        scheduler.schedule(key, nextDelivery);
     }
 
     
@@ -262,191 +212,78 @@ public class FileMailQueue implements ManageableMailQueue {
     @Override
     public MailQueueItem deQueue() throws MailQueueException {
         try {
-            FileItem item = null;
+            Mail m = null;
             String k = null;
-            while (item == null) {
+            while (m == null) {
                 k = inmemoryQueue.take();
                 
-                item = keyMappings.get(k);
+                // the mail may have been removed in the meantime
+                m = journal.read(k, true);
 
             }
             final String key = k;
-            final FileItem fitem = item;
-            ObjectInputStream oin = null;
-            try {
-                final File objectFile = new File(fitem.getObjectFile());
-                final File msgFile = new File(fitem.getMessageFile());
-                oin = new ObjectInputStream(new FileInputStream(objectFile));
-                final Mail mail = (Mail) oin.readObject();
-                mail.setMessage(new MimeMessageCopyOnWriteProxy(new FileMimeMessageSource(msgFile)));
-                return new MailQueueItem() {
+            final Mail mail = m;
+            return new MailQueueItem() {
 
-                    @Override
-                    public Mail getMail() {
-                        return mail;
-                    }
+                @Override
+                public Mail getMail() {
+                    return mail;
+                }
 
-                    @Override
-                    public void done(boolean success) throws MailQueueException {
+                @Override
+                public void done(boolean success) throws MailQueueException {
+                    try {
                         if (!success) {
-                            try {
-                                inmemoryQueue.put(key);
-                            } catch (InterruptedException e) {
-                                Thread.currentThread().interrupt();
-                                throw new MailQueueException("Unable to rollback", e);
-                            }
+                            inmemoryQueue.add(key);
                         } else {
-                            fitem.delete();
+                            journal.remove(key);
                         }
-
-                        LifecycleUtil.dispose(mail);
-                    }
-                };
-                
-                // TODO: Think about exception handling in detail
-            } catch (FileNotFoundException e) {
-                throw new MailQueueException("Unable to dequeue", e);
-            } catch (IOException e) {
-                throw new MailQueueException("Unable to dequeue", e);
-            } catch (ClassNotFoundException e) {
-                throw new MailQueueException("Unable to dequeue", e);
-            } catch (MessagingException e) {
-                throw new MailQueueException("Unable to dequeue", e);
-                
-            } finally {
-                if (oin != null) {
-                    try {
-                        oin.close();
                     } catch (IOException e) {
-                        // ignore on close
+                        throw new MailQueueException("Unable to remove mail " + key, e);
+                    } finally {
+                        LifecycleUtil.dispose(mail);
                     }
                 }
-            }
-
+            };
+        } catch (IOException e) {
+            throw new MailQueueException("Unable to dequeue", e);
+        } catch (MessagingException e) {
+            throw new MailQueueException("Unable to dequeue", e);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new MailQueueException("Unable to dequeue", e);
         }
     }
 
-    private final class FileMimeMessageSource extends MimeMessageSource implements Disposable{
-
-        private File file;
-        private SharedFileInputStream in;
-
-        public FileMimeMessageSource(File file) throws IOException {
-            this.file = file;
-            this.in = new SharedFileInputStream(file);
-        }
-        
-        @Override
-        public String getSourceId() {
-            return file.getAbsolutePath();
-        }
-
-        /**
-         * Get an input stream to retrieve the data stored in the temporary file
-         * 
-         * @return a <code>BufferedInputStream</code> containing the data
-         */
-        public InputStream getInputStream() throws IOException {
-            return in.newStream(0, -1);
-        }
-
-
-        @Override
-        public long getMessageSize() throws IOException {
-            return file.length();
-        }
-        
-
-        /**
-         * @see org.apache.james.core.MimeMessageSource#disposeSource()
-         */
-        public void dispose() {
-            try {
-                in.close();
-            } catch (IOException e) {
-            }
-            
-            file = null;
-        }
-        
-    }
-    
-    /**
-     * Helper class which is used to reference the path to the object and msg file
-     * 
-     *
-     */
-    private final class FileItem {
-        private String objectfile;
-        private String messagefile;
-
-        public FileItem(String objectfile, String messagefile) {
-            this.objectfile = objectfile;
-            this.messagefile = messagefile;
-        }
-        
-        
-        public String getObjectFile() {
-            return objectfile;
-        }
-        
-        public String getMessageFile() {
-            return messagefile;
-        }
-        
-        public void delete() throws MailQueueException {
-            File msgFile = new File(getMessageFile());
-            File objectFile = new File(getObjectFile());
-            
-            if (objectFile.exists()) {
-                if (!objectFile.delete()) {
-                    throw new MailQueueException("Unable to delete mail");
-                } 
-            }
-            if (msgFile.exists()) {
-                if (!msgFile.delete()) {
-                    log.debug("Remove of msg file for mail failed");
-                }
-                
-            }
-        }
-        
-    }
     @Override
     public long getSize() throws MailQueueException {
-        return keyMappings.size();
+        return journal.size();
     }
 
     @Override
     public long flush() throws MailQueueException {
-        Iterator<String> keys = keyMappings.keySet().iterator();
-        long i = 0;
-        while(keys.hasNext()) {
-            String key = keys.next();
-            if (inmemoryQueue.contains(key) == false) {
-                inmemoryQueue.add(key);
-                i++;
-            }
-        }
-        return i;
+        return scheduler.flush();
+    }
+
+    /**
+     * @see org.apache.james.queue.api.ManageableMailQueue#getNextDeliveryCounts(long)
+     */
+    public SortedMap<Long, Long> getNextDeliveryCounts(long bucketSize) throws MailQueueException {
+        return scheduler.getNextDeliveryCounts(bucketSize);
     }
 
     @Override
     public long clear() throws MailQueueException {
-        final Iterator<Entry<String, FileItem>> items = keyMappings.entrySet().iterator();
+        final Iterator<Entry> entries = journal.getEntries().iterator();
         long count = 0;
-        while(items.hasNext()) {
-            Entry<String, FileItem> entry = items.next();
-            FileItem item = entry.getValue();
-            String key = entry.getKey();
-           
-            item.delete();
-            keyMappings.remove(key);
-            count++;
-
+        try {
+            while(entries.hasNext()) {
+                if (journal.remove(entries.next().getKey())) {
+                    count++;
+                }
+            }
+        } catch (IOException e) {
+            throw new MailQueueException("Unable to clear queue", e);
         }
         return count;
     }
@@ -460,13 +297,25 @@ public class FileMailQueue implements ManageableMailQueue {
     public long remove(Type type, String value) throws MailQueueException {
         switch (type) {
         case Name:
-            FileItem item = keyMappings.remove(value);
-            if (item != null) {
-                item.delete();
-                return 1;
-            } else {
-                return 0;
+            List<String> keys = new ArrayList<String>();
+            Iterator<Entry> entries = journal.getEntries().iterator();
+            while (entries.hasNext()) {
+                Entry entry = entries.next();
+                if (entry.getName().equals(value) || entry.getKey().equals(value)) {
+                    keys.add(entry.getKey());
+                }
+            }
+            long count = 0;
+            try {
+                for (int i = 0; i < keys.size(); i++) {
+                    if (journal.remove(keys.get(i))) {
+                        count++;
+                    }
+                }
+            } catch (IOException e) {
+                throw new MailQueueException("Unable to remove mail " + value, e);
             }
+            return count;
             
         default:
             break;
@@ -477,7 +326,7 @@ public class FileMailQueue implements ManageableMailQueue {
 
     @Override
     public MailQueueIterator browse() throws MailQueueException {
-        final Iterator<FileItem> items = keyMappings.values().iterator();
+        final Iterator<Entry> entries = journal.getEntries().iterator();
         return new MailQueueIterator() {
             private MailQueueItemView item = null;
 
@@ -501,16 +350,18 @@ public class FileMailQueue implements ManageableMailQueue {
             @Override
             public boolean hasNext() {
                 if (item == null) {
-                    while (items.hasNext()) {
-                        ObjectInputStream in = null;
+                    while (entries.hasNext()) {
+                        final Entry entry = entries.next();
                         try {
-                            in = new ObjectInputStream(new FileInputStream(items.next().getObjectFile()));
-                            final Mail mail = (Mail) in.readObject();
+                            final Mail mail = journal.read(entry.getKey(), false);
+                            if (mail == null) {
+                                continue;
+                            }
                             item = new MailQueueItemView() {
 
                                 @Override
                                 public long getNextDelivery() {
-                                    return (Long) mail.getAttribute(NEXT_DELIVERY);
+                                    return entry.getNextDelivery();
                                 }
 
                                 @Override
@@ -519,21 +370,10 @@ public class FileMailQueue implements ManageableMailQueue {
                                 }
                             };
                             return true;
-                        } catch (FileNotFoundException e) {
-                            log.info("Unable to load mail", e);
                         } catch (IOException e) {
                             log.info("Unable to load mail", e);
-
-                        } catch (ClassNotFoundException e) {
+                        } catch (MessagingException e) {
                             log.info("Unable to load mail", e);
-                        } finally {
-                            if (in != null) {
-                                try {
-                                    in.close();
-                                } catch (IOException e) {
-                                    // ignore on close
-                                }
-                            }
                         }
                     }
                     return false;
@@ -548,5 +388,80 @@ public class FileMailQueue implements ManageableMailQueue {
             }
         };
     }
+
+    /**
+     * The mails are returned in the order in which they were enqueued. Only the {@link Entry}'s of the requested page are kept while
+     * walking the index.
+     * 
+     * @see org.apache.james.queue.api.ManageableMailQueue#browseHeaders(long, int)
+     */
+    public List<MailQueueItemHeaderView> browseHeaders(long offset, int limit) throws MailQueueException {
+        List<MailQueueItemHeaderView> views = new ArrayList<MailQueueItemHeaderView>();
+        long max = offset + limit;
+        if (limit <= 0 || max > Integer.MAX_VALUE) {
+            return views;
+        }
+
+        // keep the first offset + limit entries, the head is the last one of them
+        PriorityQueue<Entry> page = new PriorityQueue<Entry>((int) Math.min(max, 1024) + 1, Collections.reverseOrder());
+        Iterator<Entry> entries = journal.getEntries().iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (page.size() < max) {
+                page.add(entry);
+            } else if (entry.compareTo(page.peek()) < 0) {
+                page.poll();
+                page.add(entry);
+            }
+        }
+        List<Entry> sorted = new ArrayList<Entry>(page);
+        Collections.sort(sorted);
+
+        for (int i = (int) offset; i < sorted.size(); i++) {
+            final Entry entry = sorted.get(i);
+            try {
+                final Mail mail = journal.read(entry.getKey(), false);
+                if (mail == null) {
+                    continue;
+                }
+                views.add(new MailQueueItemHeaderView() {
+
+                    @Override
+                    public long getNextDelivery() {
+                        return entry.getNextDelivery();
+                    }
+
+                    @Override
+                    public Mail getMail() {
+                        return mail;
+                    }
+
+                    @Override
+                    public long getMessageSize() {
+                        return entry.getMessageSize();
+                    }
+                });
+            } catch (IOException e) {
+                log.info("Unable to load mail", e);
+            } catch (MessagingException e) {
+                log.info("Unable to load mail", e);
+            }
+        }
+        return views;
+    }
+
+    /**
+     * Stop the scheduler and close the journal, which writes a checkpoint for a fast restart
+     * 
+     * @see org.apache.james.lifecycle.api.Disposable#dispose()
+     */
+    public void dispose() {
+        scheduler.stop();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.error("Unable to close journal of queue " + queueDir, e);
+        }
+    }
     
 }
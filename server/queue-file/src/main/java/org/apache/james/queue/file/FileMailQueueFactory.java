@@ -20,11 +20,14 @@ package org.apache.james.queue.file;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
 import org.apache.james.filesystem.api.FileSystem;
+import org.apache.james.lifecycle.api.LifecycleUtil;
 import org.apache.james.lifecycle.api.LogEnabled;
 import org.apache.james.queue.api.MailQueue;
 import org.apache.james.queue.api.MailQueueFactory;
@@ -41,6 +44,8 @@ public class FileMailQueueFactory implements MailQueueFactory, LogEnabled{
     private FileSystem fs;
     private Logger log;
     private boolean sync = true;
+    private long syncInterval = MailQueueJournal.DEFAULT_SYNC_INTERVAL;
+    private long segmentSize = MailQueueJournal.DEFAULT_SEGMENT_SIZE;
     
     @Resource(name = "filesystem")
     public void setFileSystem(FileSystem fs) {
@@ -58,23 +63,64 @@ public class FileMailQueueFactory implements MailQueueFactory, LogEnabled{
     public void setSync(boolean sync) {
         this.sync = sync;
     }
+
+    /**
+     * Set the interval in ms in which the journal of the later created {@link FileMailQueue} is synced to disk. All enqueue calls which happen
+     * within the interval share one <code>fsync</code>. Use 0 to sync on every enqueue call.
+     * 
+     * The default is {@link MailQueueJournal#DEFAULT_SYNC_INTERVAL}
+     * 
+     * @param syncInterval
+     */
+    public void setSyncInterval(long syncInterval) {
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * Set the size in bytes of the segment files of the journal
+     * 
+     * The default is {@link MailQueueJournal#DEFAULT_SEGMENT_SIZE}
+     * 
+     * @param segmentSize
+     */
+    public void setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
     
     /**
      * @see org.apache.james.queue.api.MailQueueFactory#getQueue(java.lang.String)
      */
     public MailQueue getQueue(String name) {
-        MailQueue queue = queues.get(name);
-        if (queue == null) {
-            synchronized (queues) {
+        synchronized (queues) {
+            MailQueue queue = queues.get(name);
+            if (queue == null) {
+                // only one queue instance may use the journal
                 try {
-                    queue = new FileMailQueue(fs.getFile("file://var/store/queue"), name, sync, log);
+                    FileMailQueue fqueue = new FileMailQueue(fs.getFile("file://var/store/queue"), name, sync, log);
+                    fqueue.setSyncInterval(syncInterval);
+                    fqueue.setSegmentSize(segmentSize);
+                    queue = fqueue;
                     queues.put(name, queue);
                 } catch (IOException e) {
                     throw new RuntimeException("Unable to access queue " + name, e);
                 }
             }
+            return queue;
+        }
+    }
+
+    /**
+     * Dispose all created queues, so their journals get closed
+     */
+    @PreDestroy
+    public void destroy() {
+        synchronized (queues) {
+            Iterator<MailQueue> it = queues.values().iterator();
+            while (it.hasNext()) {
+                LifecycleUtil.dispose(it.next());
+            }
+            queues.clear();
         }
-        return queue;
     }
 
     /**
@@ -0,0 +1,1048 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.queue.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import javax.mail.MessagingException;
+import javax.mail.util.SharedFileInputStream;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.james.core.MimeMessageCopyOnWriteProxy;
+import org.apache.james.core.MimeMessageSource;
+import org.apache.james.lifecycle.api.Disposable;
+import org.apache.mailet.Mail;
+import org.slf4j.Logger;
+
+/**
+ * <p>
+ * Append-only journal which stores the {@link Mail}'s of a {@link FileMailQueue}.
+ * </p>
+ * <p>
+ * Every enqueued {@link Mail} is appended as one record, holding the
+ * serialized meta-data and the message content, to the current segment file.
+ * A dequeued {@link Mail} is marked as removed by appending a small record.
+ * Once a segment reached the configured size a new one is started.
+ * </p>
+ * <p>
+ * The index of all queued {@link Mail}'s is kept in memory and written to a
+ * checkpoint file from time to time. On startup the checkpoint is loaded and
+ * only the records which were appended after it are replayed, so the startup
+ * time does not depend on the size of the queue. Segments which do not hold
+ * a queued {@link Mail} anymore are deleted after a checkpoint, segments with
+ * only a few queued {@link Mail}'s left get compacted by copying these to the
+ * current segment.
+ * </p>
+ * <p>
+ * Appended records are flushed to disk by a background thread every
+ * {@link #setSyncInterval(long)} ms, so concurrent enqueue operations share
+ * one <code>fsync</code> call.
+ * </p>
+ */
+public class MailQueueJournal {
+
+    public final static long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public final static long DEFAULT_SYNC_INTERVAL = 10;
+    public final static long DEFAULT_CHECKPOINT_INTERVAL = 60 * 1000;
+    public final static int DEFAULT_COMPACTION_THRESHOLD = 25;
+
+    private final static String SEGMENT_PREFIX = "segment-";
+    private final static String SEGMENT_SUFFIX = ".log";
+    private final static String CHECKPOINT_FILE = "checkpoint";
+    private final static int CHECKPOINT_MAGIC = 0x4a514331;
+    private final static byte ADD = 1;
+    private final static byte REMOVE = 2;
+    private final static int BUFFER_SIZE = 8192;
+
+    private final File directory;
+    private final Logger log;
+
+    private volatile long segmentSize = DEFAULT_SEGMENT_SIZE;
+    private volatile long syncInterval = DEFAULT_SYNC_INTERVAL;
+    private volatile long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    private volatile int compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    // guarded by writeLock
+    private final Object writeLock = new Object();
+    private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+    private Segment active;
+    private FileChannel channel;
+    private long appended;
+    private long checkpointed = -1;
+
+    // guarded by syncLock
+    private final Object syncLock = new Object();
+    private long synced;
+    private IOException syncFailure;
+
+    private final Object checkpointLock = new Object();
+
+    private volatile boolean closed = true;
+    private Thread flusher;
+    private Thread maintenance;
+
+    public MailQueueJournal(File directory, Logger log) {
+        this.directory = directory;
+        this.log = log;
+    }
+
+    /**
+     * Set the size in bytes after which a new segment file is started. The
+     * default is {@link #DEFAULT_SEGMENT_SIZE}
+     * 
+     * @param segmentSize
+     */
+    public void setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Set the interval in ms in which appended records are flushed to disk.
+     * Use 0 to flush on every {@link #add(String, Mail, long, boolean)} call
+     * which waits for the sync. The default is {@link #DEFAULT_SYNC_INTERVAL}
+     * 
+     * @param syncInterval
+     */
+    public void setSyncInterval(long syncInterval) {
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * Set the interval in ms in which a checkpoint is written and old segments
+     * are compacted. The default is {@link #DEFAULT_CHECKPOINT_INTERVAL}
+     * 
+     * @param checkpointInterval
+     */
+    public void setCheckpointInterval(long checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Set the percentage of live bytes below which a segment gets compacted.
+     * The default is {@link #DEFAULT_COMPACTION_THRESHOLD}
+     * 
+     * @param compactionThreshold
+     */
+    public void setCompactionThreshold(int compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Load the checkpoint, replay the records which were appended after it
+     * and start the background threads
+     * 
+     * @throws IOException
+     */
+    public void open() throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create queue directory " + directory);
+        }
+        synchronized (writeLock) {
+            String[] names = directory.list(new FilenameFilter() {
+
+                public boolean accept(File dir, String name) {
+                    return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                }
+            });
+            for (int i = 0; i < names.length; i++) {
+                try {
+                    long id = Long.parseLong(names[i].substring(SEGMENT_PREFIX.length(), names[i].length() - SEGMENT_SUFFIX.length()));
+                    segments.put(id, new Segment(id, new File(directory, names[i])));
+                } catch (NumberFormatException e) {
+                    log.info("Ignore unknown file " + names[i] + " in queue directory " + directory);
+                }
+            }
+
+            long segment = -1;
+            long position = 0;
+            File checkpoint = new File(directory, CHECKPOINT_FILE);
+            if (checkpoint.exists()) {
+                try {
+                    long[] start = readCheckpoint(checkpoint);
+                    segment = start[0];
+                    position = start[1];
+                } catch (IOException e) {
+                    log.error("Unable to read checkpoint of queue " + directory + ", replay all segments", e);
+                    entries.clear();
+                    for (Iterator<Segment> it = segments.values().iterator(); it.hasNext();) {
+                        Segment s = it.next();
+                        s.live = 0;
+                        s.liveBytes = 0;
+                    }
+                    segment = -1;
+                    position = 0;
+                }
+            }
+
+            for (Iterator<Segment> it = segments.values().iterator(); it.hasNext();) {
+                Segment s = it.next();
+                if (s.id < segment) {
+                    continue;
+                }
+                long start = s.id == segment ? position : 0;
+                long end = replay(s, start);
+                long length = s.file.length();
+                if (end < length) {
+                    log.warn("Truncate incomplete records at the end of " + s.file + " from " + end + " to " + length);
+                    RandomAccessFile raf = new RandomAccessFile(s.file, "rw");
+                    try {
+                        raf.setLength(end);
+                    } finally {
+                        raf.close();
+                    }
+                }
+            }
+
+            long id = segments.isEmpty() ? 1 : segments.lastKey();
+            openSegment(id);
+            closed = false;
+        }
+
+        flusher = new Thread("Flusher of " + directory) {
+            public void run() {
+                flush();
+            }
+        };
+        flusher.setDaemon(true);
+        flusher.start();
+
+        maintenance = new Thread("Maintenance of " + directory) {
+            public void run() {
+                maintain();
+            }
+        };
+        maintenance.setDaemon(true);
+        maintenance.start();
+    }
+
+    /**
+     * Sync all records, write a checkpoint and close the journal
+     * 
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        synchronized (syncLock) {
+            syncLock.notifyAll();
+        }
+        flusher.interrupt();
+        maintenance.interrupt();
+        try {
+            checkpoint();
+        } finally {
+            synchronized (writeLock) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Append the given {@link Mail} to the journal
+     * 
+     * @param key
+     *            the unique key under which the {@link Mail} is stored
+     * @param mail
+     * @param nextDelivery
+     *            the time in ms after which the {@link Mail} should get
+     *            delivered, or 0
+     * @param sync
+     *            true if the call should block until the {@link Mail} was
+     *            flushed to disk
+     * @return entry
+     * @throws IOException
+     * @throws MessagingException
+     */
+    public Entry add(String key, Mail mail, long nextDelivery, boolean sync) throws IOException, MessagingException {
+        ByteArrayOutputStream metaOut = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(metaOut);
+        oout.writeObject(mail);
+        oout.close();
+        byte[] meta = metaOut.toByteArray();
+
+        Entry entry;
+        long end;
+        synchronized (writeLock) {
+            ensureOpen();
+            long start = channel.position();
+            boolean done = false;
+            try {
+                CRC32 crc = new CRC32();
+                CountingOutputStream counting = new CountingOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+                DataOutputStream checked = new DataOutputStream(new CheckedOutputStream(counting, crc));
+                DataOutputStream raw = new DataOutputStream(counting);
+
+                checked.writeByte(ADD);
+                checked.writeUTF(key);
+                checked.writeUTF(mail.getName());
+                checked.writeLong(nextDelivery);
+                checked.writeInt(meta.length);
+
+                // the length of the content is not known yet, so write a
+                // placeholder and fix it once the content was written. It is
+                // not part of the checksum but repeated after the content
+                long lengthOffset = start + counting.getByteCount();
+                raw.writeLong(-1);
+
+                long metaOffset = start + counting.getByteCount();
+                checked.write(meta);
+
+                long bodyOffset = start + counting.getByteCount();
+                mail.getMessage().writeTo(checked);
+                long bodyLength = start + counting.getByteCount() - bodyOffset;
+
+                checked.writeLong(bodyLength);
+                raw.writeInt((int) crc.getValue());
+                raw.flush();
+
+                ByteBuffer length = ByteBuffer.allocate(8);
+                length.putLong(0, bodyLength);
+                while (length.hasRemaining()) {
+                    channel.write(length, lengthOffset + length.position());
+                }
+
+                end = channel.position();
+                entry = new Entry(key, mail.getName(), nextDelivery, active, start, end - start, metaOffset, meta.length, bodyOffset, bodyLength);
+                index(entry);
+                appended += end - start;
+                end = appended;
+                done = true;
+            } finally {
+                if (!done) {
+                    // drop the incomplete record
+                    channel.truncate(start);
+                    channel.position(start);
+                }
+            }
+            rollIfNeeded();
+        }
+
+        if (sync) {
+            awaitSync(end);
+        }
+        return entry;
+    }
+
+    /**
+     * Mark the {@link Mail} stored under the given key as removed. This does
+     * not wait until the record was flushed to disk, as a lost remove only
+     * leads to a redelivery of the {@link Mail}
+     * 
+     * @param key
+     * @return true if a {@link Mail} was removed
+     * @throws IOException
+     */
+    public boolean remove(String key) throws IOException {
+        synchronized (writeLock) {
+            ensureOpen();
+            if (entries.containsKey(key) == false) {
+                return false;
+            }
+            long start = channel.position();
+            boolean done = false;
+            try {
+                CRC32 crc = new CRC32();
+                BufferedOutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 256);
+                DataOutputStream checked = new DataOutputStream(new CheckedOutputStream(out, crc));
+                DataOutputStream raw = new DataOutputStream(out);
+                checked.writeByte(REMOVE);
+                checked.writeUTF(key);
+                raw.writeInt((int) crc.getValue());
+                raw.flush();
+
+                appended += channel.position() - start;
+                unindex(key);
+                done = true;
+            } finally {
+                if (!done) {
+                    channel.truncate(start);
+                    channel.position(start);
+                }
+            }
+            rollIfNeeded();
+            return true;
+        }
+    }
+
+    /**
+     * Return the {@link Entry} for the given key or null if no {@link Mail}
+     * is stored under it
+     * 
+     * @param key
+     * @return entry
+     */
+    public Entry get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Return all queued {@link Entry}'s
+     * 
+     * @return entries
+     */
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    /**
+     * Return the count of queued {@link Mail}'s
+     * 
+     * @return size
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Read the {@link Mail} which is stored under the given key. If
+     * <code>withMessage</code> is true the message content is attached to
+     * the returned {@link Mail}. In this case the {@link Mail} must get
+     * disposed after usage.
+     * 
+     * @param key
+     * @param withMessage
+     * @return mail or null if no {@link Mail} is stored under the key
+     * @throws IOException
+     * @throws MessagingException
+     */
+    public Mail read(String key, boolean withMessage) throws IOException, MessagingException {
+        while (true) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            try {
+                Mail mail = readMetaData(entry);
+                if (withMessage) {
+                    mail.setMessage(new MimeMessageCopyOnWriteProxy(new FileRangeMimeMessageSource(entry.segment.file, entry.bodyOffset, entry.bodyLength)));
+                }
+                return mail;
+            } catch (FileNotFoundException e) {
+                // the record may have been moved by a compaction
+                if (entries.get(key) == entry) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private Mail readMetaData(Entry entry) throws IOException {
+        FileInputStream in = new FileInputStream(entry.segment.file);
+        try {
+            in.getChannel().position(entry.metaOffset);
+            ObjectInputStream oin = new ObjectInputStream(new BufferedInputStream(in, Math.min(BUFFER_SIZE, Math.max(entry.metaLength, 1))));
+            return (Mail) oin.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unable to read mail " + entry.key, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Flush all appended records to disk
+     * 
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        FileChannel c;
+        long target;
+        synchronized (writeLock) {
+            c = channel;
+            target = appended;
+        }
+        synchronized (syncLock) {
+            if (target <= synced) {
+                return;
+            }
+        }
+        try {
+            c.force(false);
+        } catch (ClosedChannelException e) {
+            // the segment was rolled, which syncs it
+            return;
+        }
+        markSynced(target, null);
+    }
+
+    /**
+     * Write the in-memory index to the checkpoint file and delete segments
+     * which are no longer needed
+     * 
+     * @throws IOException
+     */
+    public void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            writeCheckpoint();
+        }
+    }
+
+    private void writeCheckpoint() throws IOException {
+        List<Entry> snapshot;
+        long segment;
+        long position;
+        long mark;
+        synchronized (writeLock) {
+            if (appended == checkpointed) {
+                return;
+            }
+            segment = active.id;
+            position = channel.position();
+            mark = appended;
+            snapshot = new ArrayList<Entry>(entries.values());
+        }
+        // make sure everything which is referenced by the checkpoint is on
+        // disk
+        sync();
+
+        File tmp = new File(directory, CHECKPOINT_FILE + ".tmp");
+        FileOutputStream fout = new FileOutputStream(tmp);
+        try {
+            CRC32 crc = new CRC32();
+            BufferedOutputStream bout = new BufferedOutputStream(fout, BUFFER_SIZE);
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(bout, crc));
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeLong(segment);
+            out.writeLong(position);
+            out.writeInt(snapshot.size());
+            for (int i = 0; i < snapshot.size(); i++) {
+                Entry e = snapshot.get(i);
+                out.writeUTF(e.key);
+                out.writeUTF(e.name);
+                out.writeLong(e.nextDelivery);
+                out.writeLong(e.segment.id);
+                out.writeLong(e.position);
+                out.writeLong(e.length);
+                out.writeLong(e.metaOffset);
+                out.writeInt(e.metaLength);
+                out.writeLong(e.bodyOffset);
+                out.writeLong(e.bodyLength);
+            }
+            new DataOutputStream(bout).writeInt((int) crc.getValue());
+            bout.flush();
+            fout.getFD().sync();
+        } finally {
+            fout.close();
+        }
+        File checkpoint = new File(directory, CHECKPOINT_FILE);
+        if (!tmp.renameTo(checkpoint)) {
+            // needed on windows
+            if (!checkpoint.delete() || !tmp.renameTo(checkpoint)) {
+                throw new IOException("Unable to write checkpoint " + checkpoint);
+            }
+        }
+
+        synchronized (writeLock) {
+            checkpointed = mark;
+
+            // segments which were completely replaced by the checkpoint are
+            // not needed anymore if they do not hold a queued mail
+            for (Iterator<Segment> it = segments.headMap(segment).values().iterator(); it.hasNext();) {
+                Segment s = it.next();
+                if (s.live == 0) {
+                    if (s.file.delete() || !s.file.exists()) {
+                        it.remove();
+                    } else {
+                        log.debug("Unable to delete segment " + s.file + ", try again later");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy the queued {@link Mail}'s of segments with less live bytes then
+     * the compaction threshold to the current segment, so the old segments
+     * can get deleted on the next checkpoint
+     * 
+     * @throws IOException
+     */
+    public void compact() throws IOException {
+        List<Segment> candidates = new ArrayList<Segment>();
+        synchronized (writeLock) {
+            for (Iterator<Segment> it = segments.values().iterator(); it.hasNext();) {
+                Segment s = it.next();
+                if (s != active && s.live > 0 && s.liveBytes * 100 < compactionThreshold * s.file.length()) {
+                    candidates.add(s);
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            return;
+        }
+
+        List<Entry> live = new ArrayList<Entry>();
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+            Entry e = it.next();
+            if (candidates.contains(e.segment)) {
+                live.add(e);
+            }
+        }
+
+        for (int i = 0; i < candidates.size(); i++) {
+            Segment s = candidates.get(i);
+            FileInputStream in = new FileInputStream(s.file);
+            try {
+                FileChannel source = in.getChannel();
+                for (int a = 0; a < live.size(); a++) {
+                    Entry e = live.get(a);
+                    if (e.segment != s) {
+                        continue;
+                    }
+                    synchronized (writeLock) {
+                        ensureOpen();
+                        if (entries.get(e.key) != e) {
+                            // removed in the meantime
+                            continue;
+                        }
+                        // records do not hold absolute positions, so they can
+                        // just get copied
+                        long start = channel.position();
+                        long copied = 0;
+                        while (copied < e.length) {
+                            copied += source.transferTo(e.position + copied, e.length - copied, channel);
+                        }
+                        index(e.moveTo(active, start));
+                        appended += e.length;
+                        rollIfNeeded();
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "MailQueueJournal " + directory;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Journal " + directory + " is closed");
+        }
+    }
+
+    private void rollIfNeeded() throws IOException {
+        if (channel.position() >= segmentSize) {
+            channel.force(false);
+            channel.close();
+            markSynced(appended, null);
+            openSegment(active.id + 1);
+        }
+    }
+
+    private void openSegment(long id) throws IOException {
+        Segment segment = segments.get(id);
+        if (segment == null) {
+            segment = new Segment(id, new File(directory, SEGMENT_PREFIX + id + SEGMENT_SUFFIX));
+            segments.put(id, segment);
+        }
+        channel = new RandomAccessFile(segment.file, "rw").getChannel();
+        channel.position(channel.size());
+        active = segment;
+    }
+
+    private void index(Entry entry) {
+        Entry old = entries.put(entry.key, entry);
+        if (old != null) {
+            old.segment.live--;
+            old.segment.liveBytes -= old.length;
+        }
+        entry.segment.live++;
+        entry.segment.liveBytes += entry.length;
+    }
+
+    private void unindex(String key) {
+        Entry old = entries.remove(key);
+        if (old != null) {
+            old.segment.live--;
+            old.segment.liveBytes -= old.length;
+        }
+    }
+
+    private void markSynced(long position, IOException failure) {
+        synchronized (syncLock) {
+            if (position > synced) {
+                synced = position;
+            }
+            syncFailure = failure;
+            syncLock.notifyAll();
+        }
+    }
+
+    private void awaitSync(long position) throws IOException {
+        if (syncInterval <= 0) {
+            sync();
+            return;
+        }
+        synchronized (syncLock) {
+            while (synced < position) {
+                if (syncFailure != null) {
+                    throw new IOException("Unable to sync journal " + directory, syncFailure);
+                }
+                if (closed) {
+                    throw new IOException("Journal " + directory + " is closed");
+                }
+                try {
+                    syncLock.wait(syncInterval);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for sync of journal " + directory);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loop of the flusher thread which syncs the appended records
+     */
+    private void flush() {
+        while (!closed) {
+            try {
+                long interval = syncInterval;
+                synchronized (syncLock) {
+                    syncLock.wait(interval > 0 ? interval : 1000);
+                }
+            } catch (InterruptedException e) {
+                // closed
+            }
+            try {
+                sync();
+            } catch (IOException e) {
+                if (!closed) {
+                    log.error("Unable to sync journal " + directory, e);
+                    markSynced(0, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loop of the maintenance thread which compacts segments and writes the
+     * checkpoints
+     */
+    private void maintain() {
+        while (!closed) {
+            try {
+                Thread.sleep(checkpointInterval);
+            } catch (InterruptedException e) {
+                // closed
+            }
+            if (closed) {
+                break;
+            }
+            try {
+                compact();
+                checkpoint();
+            } catch (IOException e) {
+                log.error("Unable to write checkpoint of journal " + directory, e);
+            }
+        }
+    }
+
+    private long[] readCheckpoint(File checkpoint) throws IOException {
+        CRC32 crc = new CRC32();
+        BufferedInputStream bin = new BufferedInputStream(new FileInputStream(checkpoint), BUFFER_SIZE);
+        try {
+            DataInputStream in = new DataInputStream(new CheckedInputStream(bin, crc));
+            if (in.readInt() != CHECKPOINT_MAGIC) {
+                throw new IOException("Unknown checkpoint format in " + checkpoint);
+            }
+            long segment = in.readLong();
+            long position = in.readLong();
+            int count = in.readInt();
+            List<Entry> loaded = new ArrayList<Entry>(count);
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                String name = in.readUTF();
+                long nextDelivery = in.readLong();
+                long id = in.readLong();
+                long pos = in.readLong();
+                long length = in.readLong();
+                long metaOffset = in.readLong();
+                int metaLength = in.readInt();
+                long bodyOffset = in.readLong();
+                long bodyLength = in.readLong();
+                Segment s = segments.get(id);
+                if (s == null) {
+                    log.error("Segment " + id + " of mail " + key + " is missing in queue directory " + directory);
+                } else {
+                    loaded.add(new Entry(key, name, nextDelivery, s, pos, length, metaOffset, metaLength, bodyOffset, bodyLength));
+                }
+            }
+            int sum = (int) crc.getValue();
+            if (new DataInputStream(bin).readInt() != sum) {
+                throw new IOException("Checksum mismatch in checkpoint " + checkpoint);
+            }
+            for (int i = 0; i < loaded.size(); i++) {
+                index(loaded.get(i));
+            }
+            return new long[] { segment, position };
+        } finally {
+            bin.close();
+        }
+    }
+
+    /**
+     * Replay the records of the given segment starting at the given position
+     * and return the position after the last complete record
+     */
+    private long replay(Segment segment, long position) throws IOException {
+        FileInputStream fin = new FileInputStream(segment.file);
+        long pos = position;
+        try {
+            fin.getChannel().position(position);
+            CRC32 crc = new CRC32();
+            CountingInputStream counting = new CountingInputStream(new BufferedInputStream(fin, BUFFER_SIZE));
+            DataInputStream checked = new DataInputStream(new CheckedInputStream(counting, crc));
+            DataInputStream raw = new DataInputStream(counting);
+
+            while (true) {
+                crc.reset();
+                int type = checked.read();
+                if (type == ADD) {
+                    String key = checked.readUTF();
+                    String name = checked.readUTF();
+                    long nextDelivery = checked.readLong();
+                    int metaLength = checked.readInt();
+                    long bodyLength = raw.readLong();
+                    if (bodyLength < 0 || metaLength < 0) {
+                        break;
+                    }
+                    long metaOffset = position + counting.getByteCount();
+                    skipFully(checked, metaLength + bodyLength);
+                    if (checked.readLong() != bodyLength) {
+                        break;
+                    }
+                    int sum = (int) crc.getValue();
+                    if (raw.readInt() != sum) {
+                        break;
+                    }
+                    long end = position + counting.getByteCount();
+                    index(new Entry(key, name, nextDelivery, segment, pos, end - pos, metaOffset, metaLength, metaOffset + metaLength, bodyLength));
+                    pos = end;
+                } else if (type == REMOVE) {
+                    String key = checked.readUTF();
+                    int sum = (int) crc.getValue();
+                    if (raw.readInt() != sum) {
+                        break;
+                    }
+                    unindex(key);
+                    pos = position + counting.getByteCount();
+                } else {
+                    // end of segment or garbage
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            // incomplete record at the end of the segment
+        } finally {
+            fin.close();
+        }
+        return pos;
+    }
+
+    private static void skipFully(InputStream in, long length) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (length > 0) {
+            int c = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (c == -1) {
+                throw new EOFException();
+            }
+            length -= c;
+        }
+    }
+
+    /**
+     * Location of a queued {@link Mail} in the journal. {@link Entry}'s are
+     * ordered by the position of their record, which is the order in which
+     * they were appended, unless they were moved by a compaction.
+     */
+    public final static class Entry implements Comparable<Entry> {
+        private final String key;
+        private final String name;
+        private final long nextDelivery;
+        private final Segment segment;
+        private final long position;
+        private final long length;
+        private final long metaOffset;
+        private final int metaLength;
+        private final long bodyOffset;
+        private final long bodyLength;
+
+        private Entry(String key, String name, long nextDelivery, Segment segment, long position, long length, long metaOffset, int metaLength, long bodyOffset, long bodyLength) {
+            this.key = key;
+            this.name = name;
+            this.nextDelivery = nextDelivery;
+            this.segment = segment;
+            this.position = position;
+            this.length = length;
+            this.metaOffset = metaOffset;
+            this.metaLength = metaLength;
+            this.bodyOffset = bodyOffset;
+            this.bodyLength = bodyLength;
+        }
+
+        private Entry moveTo(Segment target, long targetPosition) {
+            long delta = targetPosition - position;
+            return new Entry(key, name, nextDelivery, target, targetPosition, length, metaOffset + delta, metaLength, bodyOffset + delta, bodyLength);
+        }
+
+        /**
+         * Return the key under which the {@link Mail} is stored
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Return the name of the {@link Mail}
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Return the time in ms after which the {@link Mail} should get
+         * delivered, or 0
+         */
+        public long getNextDelivery() {
+            return nextDelivery;
+        }
+
+        /**
+         * Return the size of the message content
+         */
+        public long getMessageSize() {
+            return bodyLength;
+        }
+
+        /**
+         * @see java.lang.Comparable#compareTo(java.lang.Object)
+         */
+        public int compareTo(Entry o) {
+            if (segment.id != o.segment.id) {
+                return segment.id < o.segment.id ? -1 : 1;
+            }
+            if (position != o.position) {
+                return position < o.position ? -1 : 1;
+            }
+            return 0;
+        }
+    }
+
+    private final static class Segment {
+        private final long id;
+        private final File file;
+        private int live;
+        private long liveBytes;
+
+        private Segment(long id, File file) {
+            this.id = id;
+            this.file = file;
+        }
+    }
+
+    /**
+     * {@link MimeMessageSource} which reads the message content from a range
+     * of a file
+     */
+    final static class FileRangeMimeMessageSource extends MimeMessageSource implements Disposable {
+
+        private final String sourceId;
+        private final long offset;
+        private final long length;
+        private SharedFileInputStream in;
+
+        public FileRangeMimeMessageSource(File file, long offset, long length) throws IOException {
+            this.sourceId = file.getAbsolutePath() + "#" + offset;
+            this.offset = offset;
+            this.length = length;
+            this.in = new SharedFileInputStream(file);
+        }
+
+        @Override
+        public String getSourceId() {
+            return sourceId;
+        }
+
+        /**
+         * @see org.apache.james.core.MimeMessageSource#getInputStream()
+         */
+        public InputStream getInputStream() throws IOException {
+            return in.newStream(offset, offset + length);
+        }
+
+        @Override
+        public long getMessageSize() throws IOException {
+            return length;
+        }
+
+        /**
+         * @see org.apache.james.lifecycle.api.Disposable#dispose()
+         */
+        public void dispose() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore on dispose
+            }
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.queue.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.james.core.MailImpl;
+import org.apache.james.queue.api.MailQueue.MailQueueItem;
+import org.apache.james.queue.api.ManageableMailQueue.MailQueueItemHeaderView;
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class FileMailQueueTest {
+
+    private final static Logger LOG = LoggerFactory.getLogger(FileMailQueueTest.class);
+    private File parentDir;
+    private FileMailQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        parentDir = new File("target/queue-" + System.currentTimeMillis());
+        queue = new FileMailQueue(parentDir, "test", true, LOG);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (queue != null) {
+            queue.dispose();
+        }
+        FileUtils.deleteDirectory(parentDir);
+    }
+
+    private Mail createMail(String name, String body) throws Exception {
+        MimeMessage message = new MimeMessage(Session.getDefaultInstance(new Properties()));
+        message.setSubject(name);
+        message.setText(body);
+        message.saveChanges();
+        return new MailImpl(name, new MailAddress("sender@localhost"), Arrays.asList(new MailAddress("rcpt@localhost")), message);
+    }
+
+    private void checkMail(String name, String body, Mail mail) throws Exception {
+        assertEquals(name, mail.getName());
+        assertEquals(name, mail.getMessage().getSubject());
+        assertEquals(body, mail.getMessage().getContent());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mail.getMessage().writeTo(out);
+        assertEquals(out.size(), mail.getMessageSize());
+    }
+
+    @Test
+    public void testEnqueueDequeue() throws Exception {
+        queue.enQueue(createMail("mail1", "body1"));
+        queue.enQueue(createMail("mail2", "body2"));
+        assertEquals(2, queue.getSize());
+
+        MailQueueItem item = queue.deQueue();
+        checkMail("mail1", "body1", item.getMail());
+        item.done(false);
+        assertEquals(2, queue.getSize());
+
+        item = queue.deQueue();
+        checkMail("mail2", "body2", item.getMail());
+        item.done(true);
+
+        item = queue.deQueue();
+        checkMail("mail1", "body1", item.getMail());
+        item.done(true);
+        assertEquals(0, queue.getSize());
+    }
+
+    @Test
+    public void testRecoveryFromCheckpoint() throws Exception {
+        queue.enQueue(createMail("mail1", "body1"));
+        queue.enQueue(createMail("mail2", "body2"));
+        queue.enQueue(createMail("mail3", "body3"), 1, TimeUnit.HOURS);
+        MailQueueItem item = queue.deQueue();
+        item.done(true);
+        queue.dispose();
+
+        queue = new FileMailQueue(parentDir, "test", true, LOG);
+        assertEquals(2, queue.getSize());
+        item = queue.deQueue();
+        checkMail("mail2", "body2", item.getMail());
+        item.done(true);
+        assertEquals(1, queue.getSize());
+        assertEquals(1, queue.remove(FileMailQueue.Type.Name, "mail3"));
+        assertEquals(0, queue.getSize());
+    }
+
+    @Test
+    public void testReplayWithoutCheckpoint() throws Exception {
+        File dir = new File(parentDir, "journal");
+        MailQueueJournal journal = new MailQueueJournal(dir, LOG);
+        journal.open();
+        journal.add("key1", createMail("mail1", "body1"), 0, true);
+        journal.add("key2", createMail("mail2", "body2"), 0, true);
+        journal.remove("key1");
+        journal.sync();
+
+        // simulate a crash in the middle of an append
+        File segment = dir.listFiles()[0];
+        FileOutputStream out = new FileOutputStream(segment, true);
+        out.write(new byte[] { 1, 0, 4, 'k', 'e' });
+        out.close();
+        long length = segment.length();
+
+        MailQueueJournal recovered = new MailQueueJournal(dir, LOG);
+        recovered.open();
+        assertEquals(1, recovered.size());
+        assertNull(recovered.read("key1", false));
+        checkMail("mail2", "body2", recovered.read("key2", true));
+        assertEquals(length - 5, segment.length());
+
+        recovered.add("key3", createMail("mail3", "body3"), 0, true);
+        recovered.close();
+
+        MailQueueJournal reopened = new MailQueueJournal(dir, LOG);
+        reopened.open();
+        assertEquals(2, reopened.size());
+        checkMail("mail3", "body3", reopened.read("key3", true));
+        reopened.close();
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        File dir = new File(parentDir, "journal");
+        MailQueueJournal journal = new MailQueueJournal(dir, LOG);
+        journal.setSegmentSize(2048);
+        journal.open();
+        for (int i = 0; i < 20; i++) {
+            journal.add("key" + i, createMail("mail" + i, "body" + i), 0, false);
+        }
+        for (int i = 0; i < 20; i++) {
+            if (i % 10 != 0) {
+                journal.remove("key" + i);
+            }
+        }
+        int segments = countSegments(dir);
+
+        journal.compact();
+        journal.checkpoint();
+        assertEquals(2, journal.size());
+        assertNotNull(journal.read("key0", false));
+        checkMail("mail10", "body10", journal.read("key10", true));
+        assertEquals(true, countSegments(dir) < segments);
+        journal.close();
+
+        journal = new MailQueueJournal(dir, LOG);
+        journal.open();
+        assertEquals(2, journal.size());
+        checkMail("mail0", "body0", journal.read("key0", true));
+        journal.close();
+    }
+
+    private int countSegments(File dir) {
+        return dir.list(new FilenameFilter() {
+
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".log");
+            }
+        }).length;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNextDeliveryCountsWithInvalidBucketSize() throws Exception {
+        queue.getNextDeliveryCounts(-1);
+    }
+
+    @Test
+    public void testDelayedDelivery() throws Exception {
+        long start = System.currentTimeMillis();
+        queue.enQueue(createMail("mail1", "body1"), 500, TimeUnit.MILLISECONDS);
+        queue.enQueue(createMail("mail2", "body2"), 1, TimeUnit.HOURS);
+        queue.enQueue(createMail("mail3", "body3"));
+
+        SortedMap<Long, Long> counts = queue.getNextDeliveryCounts(60 * 60 * 1000);
+        assertEquals(Long.valueOf(1), counts.get(0L));
+        assertEquals(3, counts.size());
+
+        MailQueueItem item = queue.deQueue();
+        checkMail("mail3", "body3", item.getMail());
+        item.done(true);
+
+        item = queue.deQueue();
+        checkMail("mail1", "body1", item.getMail());
+        assertEquals(true, System.currentTimeMillis() - start >= 500);
+        item.done(true);
+
+        assertEquals(1, queue.flush());
+        item = queue.deQueue();
+        checkMail("mail2", "body2", item.getMail());
+        item.done(true);
+    }
+
+    @Test
+    public void testSchedulerOnlyHoldsNearTermKeys() throws Exception {
+        File dir = new File(parentDir, "journal");
+        MailQueueJournal journal = new MailQueueJournal(dir, LOG);
+        journal.open();
+        LinkedBlockingQueue<String> ready = new LinkedBlockingQueue<String>();
+        DeliveryScheduler scheduler = new DeliveryScheduler(journal, ready, 10, 400);
+        scheduler.start();
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            journal.add("far" + i, createMail("far" + i, "body"), now + 60 * 60 * 1000, false);
+            scheduler.schedule("far" + i, now + 60 * 60 * 1000);
+        }
+        journal.add("near", createMail("near", "body"), now + 100, false);
+        scheduler.schedule("near", now + 100);
+        journal.add("later", createMail("later", "body"), now + 600, false);
+        scheduler.schedule("later", now + 600);
+
+        // only the near mail is held in memory
+        assertEquals(1, scheduler.getScheduledCount());
+
+        assertEquals("near", ready.poll(2000, TimeUnit.MILLISECONDS));
+        assertEquals(true, System.currentTimeMillis() >= now + 100);
+
+        // the later mail is picked up by the next scan
+        assertEquals("later", ready.poll(2000, TimeUnit.MILLISECONDS));
+        assertEquals(true, System.currentTimeMillis() >= now + 600);
+        assertEquals(0, scheduler.getScheduledCount());
+        assertNull(ready.poll());
+
+        scheduler.stop();
+        journal.close();
+    }
+
+    @Test
+    public void testBrowseHeaders() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            queue.enQueue(createMail("mail" + i, "body" + i));
+        }
+        List<MailQueueItemHeaderView> views = queue.browseHeaders(3, 4);
+        assertEquals(4, views.size());
+        for (int i = 0; i < 4; i++) {
+            Mail mail = views.get(i).getMail();
+            assertEquals("mail" + (i + 3), mail.getName());
+            assertEquals(new MailAddress("sender@localhost"), mail.getSender());
+            assertNull(mail.getMessage());
+            assertEquals(true, views.get(i).getMessageSize() > 0);
+        }
+        assertEquals(1, queue.browseHeaders(9, 5).size());
+        assertEquals(0, queue.browseHeaders(10, 5).size());
+    }
+}
@@ -18,23 +18,33 @@
  ****************************************************************/
 package org.apache.james.queue.jms;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.SortedMap;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
+import javax.jms.ExceptionListener;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
@@ -49,6 +59,7 @@ import javax.mail.internet.MimeMessage;
 
 import org.apache.james.core.MailImpl;
 import org.apache.james.core.MimeMessageCopyOnWriteProxy;
+import org.apache.james.lifecycle.api.Disposable;
 import org.apache.james.queue.api.MailPrioritySupport;
 import org.apache.james.queue.api.MailQueue;
 import org.apache.james.queue.api.ManageableMailQueue;
@@ -63,23 +74,123 @@ import org.slf4j.Logger;
  * implementation
  * </p>
  * <p>
- * It use {@link ObjectMessage} with a byte array as payload to store the
- * {@link Mail} objects.
+ * It use a {@link BytesMessage} to store the {@link Mail} objects. The
+ * content is written in chunks, so it is not copied in memory before it is
+ * handed to the JMS provider. {@link ObjectMessage}'s with a byte array as
+ * payload, which were used before, can still be dequeued.
+ * </p>
+ * <p>
+ * If a spool directory is set via {@link #setSpoolDirectory(File)} the
+ * content is streamed to a file in there and the JMS Message only holds the
+ * name of the file. This keeps the heap used per mail bounded, no matter how
+ * big the message is. The file is deleted once the mail was dequeued
+ * successfully or removed from the queue.
+ * </p>
+ * <p>
+ * The dequeue operations share one long-lived {@link Connection} and reuse
+ * their transacted {@link Session}'s, which are kept in a pool after the
+ * {@link MailQueueItem} was done.
  * </p>
  */
-public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPrioritySupport {
+public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPrioritySupport, JMSMailQueueMBean, Disposable {
 
     protected final String queuename;
     protected final ConnectionFactory connectionFactory;
     protected final Logger logger;
     public final static String FORCE_DELIVERY = "FORCE_DELIVERY";
 
+    public final static long DEFAULT_RECEIVE_TIMEOUT = 10000;
+    public final static int DEFAULT_MAX_IDLE_SESSIONS = 10;
+    public final static long DEFAULT_SIZE_REFRESH_INTERVAL = 60000;
+
+    private final static int BUFFER_SIZE = 8192;
+
+    private long receiveTimeout = DEFAULT_RECEIVE_TIMEOUT;
+    private int maxIdleSessions = DEFAULT_MAX_IDLE_SESSIONS;
+    private boolean keepConsumers = false;
+    private File spoolDirectory;
+    private volatile long sizeRefreshInterval = DEFAULT_SIZE_REFRESH_INTERVAL;
+
+    private final Object dequeueLock = new Object();
+    private Connection dequeueConnection;
+    private final LinkedList<DequeueSession> idleSessions = new LinkedList<DequeueSession>();
+    private boolean disposed = false;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong dequeued = new AtomicLong();
+    private final AtomicLong sessionsCreated = new AtomicLong();
+    private final AtomicLong consumersCreated = new AtomicLong();
+
+    private final Object sizeLock = new Object();
+    private final AtomicLong size = new AtomicLong();
+    private volatile long sizeRefreshed = -1;
+
     public JMSMailQueue(final ConnectionFactory connectionFactory, final String queuename, final Logger logger) {
         this.connectionFactory = connectionFactory;
         this.queuename = queuename;
         this.logger = logger;
     }
 
+    /**
+     * Set the max time (in ms) to wait for a mail in one receive call. As the
+     * message selector which filters out delayed mails is only evaluated when
+     * the consumer gets created, this is also the max time after which a
+     * delayed mail gets dequeued once it is ready. The default is
+     * {@link #DEFAULT_RECEIVE_TIMEOUT}
+     * 
+     * @param receiveTimeout
+     */
+    public void setReceiveTimeout(long receiveTimeout) {
+        this.receiveTimeout = receiveTimeout;
+    }
+
+    /**
+     * Set the max count of idle dequeue {@link Session}'s which are kept for
+     * reuse. The default is {@link #DEFAULT_MAX_IDLE_SESSIONS}
+     * 
+     * @param maxIdleSessions
+     */
+    public void setMaxIdleSessions(int maxIdleSessions) {
+        this.maxIdleSessions = maxIdleSessions;
+    }
+
+    /**
+     * Set to true to also keep the {@link MessageConsumer} of a pooled
+     * {@link Session} open, until it is older then the receive timeout. This
+     * allows the JMS provider to prefetch messages for the consumer, but these
+     * are not visible to {@link #browse()}, {@link #getSize()} or the remove
+     * operations until the consumer gets closed. The default is false, which
+     * means that a consumer is only used for one dequeue.
+     * 
+     * @param keepConsumers
+     */
+    public void setKeepConsumers(boolean keepConsumers) {
+        this.keepConsumers = keepConsumers;
+    }
+
+    /**
+     * Set the interval in ms after which {@link #getSize()} counts the
+     * messages of the queue again. In between the size is maintained by
+     * counting the enqueue, dequeue and remove operations of this instance.
+     * The default is {@link #DEFAULT_SIZE_REFRESH_INTERVAL}
+     * 
+     * @param sizeRefreshInterval
+     */
+    public void setSizeRefreshInterval(long sizeRefreshInterval) {
+        this.sizeRefreshInterval = sizeRefreshInterval;
+    }
+
+    /**
+     * Set the directory to which the message content gets streamed on
+     * enqueue. If not set, which is the default, the content is stored in the
+     * JMS Message itself.
+     * 
+     * @param spoolDirectory
+     */
+    public void setSpoolDirectory(File spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+    }
+
     /**
      * <p>
      * Dequeues a mail when it is ready to process. As JMS does not support delay scheduling out-of-the box,
@@ -93,84 +204,209 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
      * </p>
      */
     public MailQueueItem deQueue() throws MailQueueException {
-        Connection connection = null;
-        Session session = null;
-        Message message = null;
-        MessageConsumer consumer = null;
-
         while (true) {
+            DequeueSession dequeueSession = null;
             try {
-                connection = connectionFactory.createConnection();
-                connection.start();
-
-                session = connection.createSession(true, Session.SESSION_TRANSACTED);
-                Queue queue = session.createQueue(queuename);
-                consumer = session.createConsumer(queue, getMessageSelector());
-
-                message = consumer.receive(10000);
+                dequeueSession = borrowSession();
+                Message message = dequeueSession.getConsumer().receive(receiveTimeout);
 
                 if (message != null) {
-                    return createMailQueueItem(connection, session, consumer, message);
+                    dequeueSession.message = message;
+                    MailQueueItem item = createMailQueueItem(dequeueSession, message);
+                    inFlight.incrementAndGet();
+                    dequeued.incrementAndGet();
+                    return item;
                 } else {
-                    session.commit();
-
-                    if (consumer != null) {
-
-                        try {
-                            consumer.close();
-                        } catch (JMSException e1) {
-                            // ignore on rollback
-                        }
-                    }
-                    try {
-                        if (session != null)
-                            session.close();
-                    } catch (JMSException e1) {
-                        // ignore here
-                    }
-
-                    try {
-                        if (connection != null)
-                            connection.close();
-                    } catch (JMSException e1) {
-                        // ignore here
-                    }
+                    dequeueSession.getSession().commit();
+                    releaseSession(dequeueSession, true);
                 }
 
             } catch (Exception e) {
-                if (session != null) {
+                if (dequeueSession != null) {
                     try {
-                        session.rollback();
+                        dequeueSession.getSession().rollback();
                     } catch (JMSException e1) {
                         // ignore on rollback
                     }
+                    releaseSession(dequeueSession, false);
                 }
+                throw new MailQueueException("Unable to dequeue next message", e);
+            }
+        }
 
-                if (consumer != null) {
+    }
 
-                    try {
-                        consumer.close();
-                    } catch (JMSException e1) {
-                        // ignore on rollback
-                    }
-                }
-                try {
-                    if (session != null)
-                        session.close();
-                } catch (JMSException e1) {
-                    // ignore here
-                }
+    /**
+     * Return a pooled {@link DequeueSession} or create a new one. The
+     * {@link MessageConsumer} is created again if it is too old, so the
+     * message selector picks up delayed mails which are ready now.
+     */
+    private DequeueSession borrowSession() throws JMSException {
+        DequeueSession dequeueSession;
+        Connection connection;
+        synchronized (dequeueLock) {
+            if (disposed) {
+                throw new JMSException("MailQueue " + queuename + " was disposed");
+            }
+            dequeueSession = idleSessions.poll();
+            connection = getDequeueConnection();
+        }
+        if (dequeueSession == null) {
+            Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+            sessionsCreated.incrementAndGet();
+            dequeueSession = new DequeueSession(connection, session);
+        }
+        MessageConsumer consumer = dequeueSession.consumer;
+        if (consumer != null && System.currentTimeMillis() - dequeueSession.consumerCreated >= receiveTimeout) {
+            closeQuietly(consumer);
+            dequeueSession.consumer = null;
+        }
+        if (dequeueSession.consumer == null) {
+            Session session = dequeueSession.getSession();
+            dequeueSession.consumer = session.createConsumer(createDequeueQueue(session), getMessageSelector());
+            dequeueSession.consumerCreated = System.currentTimeMillis();
+            consumersCreated.incrementAndGet();
+        }
+        return dequeueSession;
+    }
 
-                try {
-                    if (connection != null)
-                        connection.close();
-                } catch (JMSException e1) {
-                    // ignore here
+    /**
+     * Put the {@link DequeueSession} back in the pool if it can be reused,
+     * otherwise close it
+     */
+    private void releaseSession(DequeueSession dequeueSession, boolean reusable) {
+        if (reusable && !keepConsumers) {
+            // close the consumer so messages which may have been prefetched
+            // are returned to the queue
+            closeQuietly(dequeueSession.consumer);
+            dequeueSession.consumer = null;
+        }
+        synchronized (dequeueLock) {
+            if (reusable && !disposed && dequeueSession.connection == dequeueConnection && idleSessions.size() < maxIdleSessions) {
+                idleSessions.addFirst(dequeueSession);
+                return;
+            }
+        }
+        dequeueSession.close();
+    }
+
+    /**
+     * Return the {@link Connection} which is shared by all dequeue
+     * operations. Needs to be called while holding the dequeue lock.
+     */
+    private Connection getDequeueConnection() throws JMSException {
+        if (dequeueConnection == null) {
+            final Connection connection = connectionFactory.createConnection();
+            connection.setExceptionListener(new ExceptionListener() {
+
+                public void onException(JMSException e) {
+                    logger.info("Connection of MailQueue " + queuename + " failed, creating a new one", e);
+                    resetDequeueConnection(connection);
                 }
-                throw new MailQueueException("Unable to dequeue next message", e);
+            });
+            connection.start();
+            dequeueConnection = connection;
+        }
+        return dequeueConnection;
+    }
+
+    /**
+     * Close the given dequeue {@link Connection} and all pooled
+     * {@link Session}'s, so a new one is created on the next dequeue
+     */
+    private void resetDequeueConnection(Connection connection) {
+        List<DequeueSession> sessions;
+        synchronized (dequeueLock) {
+            if (dequeueConnection != connection) {
+                return;
+            }
+            dequeueConnection = null;
+            sessions = new ArrayList<DequeueSession>(idleSessions);
+            idleSessions.clear();
+        }
+        for (int i = 0; i < sessions.size(); i++) {
+            sessions.get(i).close();
+        }
+        try {
+            connection.close();
+        } catch (JMSException e) {
+            // ignore here
+        }
+    }
+
+    /**
+     * Close all pooled {@link Session}'s and the {@link Connection} which is
+     * used for dequeue
+     * 
+     * @see org.apache.james.lifecycle.api.Disposable#dispose()
+     */
+    public void dispose() {
+        Connection connection;
+        synchronized (dequeueLock) {
+            disposed = true;
+            connection = dequeueConnection;
+        }
+        if (connection != null) {
+            resetDequeueConnection(connection);
+        }
+    }
+
+    /**
+     * Create the {@link Queue} from which the mails get dequeued
+     * 
+     * @param session
+     * @return queue
+     * @throws JMSException
+     */
+    protected Queue createDequeueQueue(Session session) throws JMSException {
+        return session.createQueue(queuename);
+    }
+
+    private static void closeQuietly(MessageConsumer consumer) {
+        if (consumer != null) {
+            try {
+                consumer.close();
+            } catch (JMSException e) {
+                // ignore here
             }
         }
+    }
+
+    /**
+     * @see org.apache.james.queue.jms.JMSMailQueueMBean#getInFlight()
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @see org.apache.james.queue.jms.JMSMailQueueMBean#getIdleSessions()
+     */
+    public int getIdleSessions() {
+        synchronized (dequeueLock) {
+            return idleSessions.size();
+        }
+    }
+
+    /**
+     * @see org.apache.james.queue.jms.JMSMailQueueMBean#getDequeued()
+     */
+    public long getDequeued() {
+        return dequeued.get();
+    }
+
+    /**
+     * @see org.apache.james.queue.jms.JMSMailQueueMBean#getSessionsCreated()
+     */
+    public long getSessionsCreated() {
+        return sessionsCreated.get();
+    }
 
+    /**
+     * @see org.apache.james.queue.jms.JMSMailQueueMBean#getConsumersCreated()
+     */
+    public long getConsumersCreated() {
+        return consumersCreated.get();
     }
 
     /**
@@ -202,6 +438,7 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
             Map<String, Object> props = getJMSProperties(mail, mydelay);
 
             produceMail(session, props, msgPrio, mail);
+            size.incrementAndGet();
 
         } catch (Exception e) {
             if (session != null) {
@@ -242,34 +479,39 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
      */
     protected void produceMail(Session session, Map<String, Object> props, int msgPrio, Mail mail) throws JMSException, MessagingException, IOException {
         MessageProducer producer = null;
+        File spoolFile = null;
+        boolean sent = false;
 
         try {
             Queue queue = session.createQueue(queuename);
 
             producer = session.createProducer(queue);
-            ObjectMessage message = session.createObjectMessage();
+            Message message;
+            if (spoolDirectory != null) {
+                spoolFile = writeSpoolFile(mail.getMessage());
+                message = session.createMessage();
+                message.setStringProperty(JAMES_MAIL_SPOOL_FILE, spoolFile.getName());
+            } else {
+                BytesMessage bytesMessage = session.createBytesMessage();
+
+                // write the content in chunks to the message so we don't need
+                // to buffer it first
+                OutputStream out = new BufferedOutputStream(new BytesMessageOutputStream(bytesMessage), BUFFER_SIZE);
+                mail.getMessage().writeTo(out);
+                out.flush();
+                message = bytesMessage;
+            }
 
             for (Map.Entry<String, Object> entry : props.entrySet()) {
                 message.setObjectProperty(entry.getKey(), entry.getValue());
             }
 
-            long size = mail.getMessageSize();
-            ByteArrayOutputStream out;
-            if (size > -1) {
-                out = new ByteArrayOutputStream((int) size);
-            } else {
-                out = new ByteArrayOutputStream();
-            }
-            mail.getMessage().writeTo(out);
-
-            // store the byte array in a ObjectMessage so we can use a
-            // SharedByteArrayInputStream later
-            // without the need of copy the day
-            message.setObject(out.toByteArray());
-
             producer.send(message, Message.DEFAULT_DELIVERY_MODE, msgPrio, Message.DEFAULT_TIME_TO_LIVE);
-
+            sent = true;
         } finally {
+            if (!sent && spoolFile != null && !spoolFile.delete()) {
+                logger.info("Unable to delete spool file " + spoolFile);
+            }
 
             try {
                 if (producer != null)
@@ -281,6 +523,75 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
 
     }
 
+    /**
+     * Write the given {@link MimeMessage} to a new file in the spool directory
+     * 
+     * @param message
+     * @return file
+     * @throws IOException
+     * @throws MessagingException
+     */
+    private File writeSpoolFile(MimeMessage message) throws IOException, MessagingException {
+        if (!spoolDirectory.exists() && !spoolDirectory.mkdirs() && !spoolDirectory.isDirectory()) {
+            throw new IOException("Unable to create spool directory " + spoolDirectory.getAbsolutePath());
+        }
+        File file = new File(spoolDirectory, UUID.randomUUID().toString());
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+        boolean written = false;
+        try {
+            message.writeTo(out);
+            out.flush();
+            written = true;
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // ignore on close
+            }
+            if (!written) {
+                file.delete();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Return the spool file which holds the content of the given
+     * {@link Message} or null if the content is stored in the {@link Message}
+     * itself
+     * 
+     * @param message
+     * @return file
+     * @throws JMSException
+     */
+    protected File getSpoolFile(Message message) throws JMSException {
+        String name = message.getStringProperty(JAMES_MAIL_SPOOL_FILE);
+        if (name == null) {
+            return null;
+        }
+        if (spoolDirectory == null) {
+            throw new JMSException("Message " + message.getJMSMessageID() + " references spool file " + name + " but no spool directory is configured");
+        }
+        return new File(spoolDirectory, name);
+    }
+
+    /**
+     * Delete the spool file of the given {@link Message} if it has one. This
+     * is called once the {@link Message} was removed from the queue.
+     * 
+     * @param message
+     */
+    protected void deleteSpoolFile(Message message) {
+        try {
+            File file = getSpoolFile(message);
+            if (file != null && file.exists() && !file.delete()) {
+                logger.error("Unable to delete spool file " + file);
+            }
+        } catch (JMSException e) {
+            logger.error("Unable to delete spool file for message " + message, e);
+        }
+    }
+
     /**
      * Get JMS Message properties with values
      * 
@@ -363,15 +674,20 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
 
     /**
      * Populat the given {@link Mail} instance with a {@link MimeMessage}. The
-     * {@link MimeMessage} is read from the JMS Message. This implementation use
-     * a {@link BytesMessage}
+     * {@link MimeMessage} is read from the spool file or the JMS Message. This
+     * implementation supports {@link BytesMessage} and {@link ObjectMessage}
      * 
      * @param message
      * @param mail
      * @throws MessagingException
      */
     protected void populateMailMimeMessage(Message message, Mail mail) throws MessagingException, JMSException {
-        if (message instanceof ObjectMessage) {
+        File spoolFile = getSpoolFile(message);
+        if (spoolFile != null) {
+            mail.setMessage(new MimeMessageCopyOnWriteProxy(new MimeMessageSpoolFileSource(message.getJMSMessageID(), spoolFile)));
+        } else if (message instanceof BytesMessage) {
+            mail.setMessage(new MimeMessageCopyOnWriteProxy(new MimeMessageBytesMessageSource((BytesMessage) message)));
+        } else if (message instanceof ObjectMessage) {
             mail.setMessage(new MimeMessageCopyOnWriteProxy(new MimeMessageObjectMessageSource((ObjectMessage) message)));
         } else {
             throw new MailQueueException("Not supported JMS Message received " + message);
@@ -468,17 +784,71 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
     /**
      * Create a {@link org.apache.james.queue.api.MailQueue.MailQueueItem} for the given parameters
      * 
-     * @param connection
-     * @param session
-     * @param consumer
+     * @param dequeueSession
      * @param message
      * @return item
      * @throws JMSException
      * @throws MessagingException
      */
-    protected MailQueueItem createMailQueueItem(Connection connection, Session session, MessageConsumer consumer, Message message) throws JMSException, MessagingException {
+    protected MailQueueItem createMailQueueItem(DequeueSession dequeueSession, Message message) throws JMSException, MessagingException {
         final Mail mail = createMail(message);
-        return new JMSMailQueueItem(mail, connection, session, consumer);
+        return new JMSMailQueueItem(mail, dequeueSession);
+    }
+
+    /**
+     * A transacted {@link Session} and its {@link MessageConsumer} which are
+     * used to dequeue a mail. It must be released via
+     * {@link #release(boolean)} once the transaction was committed or rolled
+     * back.
+     */
+    public final class DequeueSession {
+        private final Connection connection;
+        private final Session session;
+        private MessageConsumer consumer;
+        private long consumerCreated;
+        private Message message;
+
+        private DequeueSession(Connection connection, Session session) {
+            this.connection = connection;
+            this.session = session;
+        }
+
+        public Session getSession() {
+            return session;
+        }
+
+        public MessageConsumer getConsumer() {
+            return consumer;
+        }
+
+        /**
+         * Release the {@link Session} after the dequeued mail was handled
+         * 
+         * @param reusable
+         *            true if the transaction was committed and the session
+         *            can be used for the next dequeue
+         */
+        public void release(boolean reusable) {
+            Message m = message;
+            message = null;
+            if (reusable && m != null) {
+                // the mail is gone from the queue so its content is not
+                // needed anymore
+                deleteSpoolFile(m);
+                size.decrementAndGet();
+            }
+            inFlight.decrementAndGet();
+            releaseSession(this, reusable);
+        }
+
+        private void close() {
+            closeQuietly(consumer);
+            try {
+                session.close();
+            } catch (JMSException e) {
+                // ignore here
+            }
+        }
     }
 
     protected String getMessageSelector() {
@@ -486,10 +856,33 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
     }
 
     /**
+     * Return the size which is maintained by this instance. The messages of
+     * the queue are only counted on the first call and once the size refresh
+     * interval is over, so this is cheap enough to get polled.
+     * 
      * @see org.apache.james.queue.api.ManageableMailQueue#getSize()
      */
-    @SuppressWarnings("unchecked")
     public long getSize() throws MailQueueException {
+        long now = System.currentTimeMillis();
+        if (sizeRefreshed < 0 || now - sizeRefreshed >= sizeRefreshInterval) {
+            synchronized (sizeLock) {
+                if (sizeRefreshed < 0 || now - sizeRefreshed >= sizeRefreshInterval) {
+                    size.set(countMessages());
+                    sizeRefreshed = now;
+                }
+            }
+        }
+        return Math.max(0, size.get());
+    }
+
+    /**
+     * Count the messages of the queue by browsing it
+     * 
+     * @return count
+     * @throws MailQueueException
+     */
+    @SuppressWarnings("unchecked")
+    protected long countMessages() throws MailQueueException {
         Connection connection = null;
         Session session = null;
         QueueBrowser browser = null;
@@ -536,6 +929,66 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
         }
     }
 
+    /**
+     * Browse the queue and count the mails by the {@link #JAMES_NEXT_DELIVERY}
+     * property. The message content is not read.
+     * 
+     * @see org.apache.james.queue.api.ManageableMailQueue#getNextDeliveryCounts(long)
+     */
+    @SuppressWarnings("unchecked")
+    public SortedMap<Long, Long> getNextDeliveryCounts(long bucketSize) throws MailQueueException {
+        if (bucketSize < 1) {
+            throw new IllegalArgumentException("bucketSize must be > 0");
+        }
+        Connection connection = null;
+        Session session = null;
+        QueueBrowser browser = null;
+        TreeMap<Long, Long> counts = new TreeMap<Long, Long>();
+        try {
+            connection = connectionFactory.createConnection();
+            connection.start();
+            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            Queue queue = session.createQueue(queuename);
+
+            browser = session.createBrowser(queue);
+
+            long now = System.currentTimeMillis();
+            Enumeration<Message> messages = browser.getEnumeration();
+            while (messages.hasMoreElements()) {
+                Message m = messages.nextElement();
+                long next = m.getLongProperty(JAMES_NEXT_DELIVERY);
+                long bucket = next <= now || m.propertyExists(FORCE_DELIVERY) ? 0 : next - next % bucketSize;
+                Long count = counts.get(bucket);
+                counts.put(bucket, count == null ? 1 : count + 1);
+            }
+            return counts;
+        } catch (Exception e) {
+            logger.error("Unable to count mails of queue " + queuename, e);
+            throw new MailQueueException("Unable to count mails of queue " + queuename, e);
+        } finally {
+            try {
+                if (browser != null)
+                    browser.close();
+            } catch (JMSException e1) {
+                // ignore here
+            }
+
+            try {
+                if (session != null)
+                    session.close();
+            } catch (JMSException e1) {
+                // ignore here
+            }
+
+            try {
+                if (connection != null)
+                    connection.close();
+            } catch (JMSException e1) {
+                // ignore here
+            }
+        }
+    }
+
     /**
      * @see org.apache.james.queue.api.ManageableMailQueue#flush()
      */
@@ -665,6 +1118,10 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
                 }
             }
             session.commit();
+            size.addAndGet(-messages.size());
+            for (int i = 0; i < messages.size(); i++) {
+                deleteSpoolFile(messages.get(i));
+            }
             return messages;
         } catch (Exception e) {
             try {
@@ -711,13 +1168,28 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
      */
     @SuppressWarnings("unchecked")
     protected Message copy(Session session, Message m) throws JMSException {
-        ObjectMessage message = (ObjectMessage) m;
-        ObjectMessage copy = session.createObjectMessage(message.getObject());
+        Message copy;
+        if (m instanceof BytesMessage) {
+            BytesMessage message = (BytesMessage) m;
+            BytesMessage bytesCopy = session.createBytesMessage();
+            message.reset();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int c = message.readBytes(buffer); c != -1; c = message.readBytes(buffer)) {
+                bytesCopy.writeBytes(buffer, 0, c);
+            }
+            copy = bytesCopy;
+        } else if (m instanceof ObjectMessage) {
+            copy = session.createObjectMessage(((ObjectMessage) m).getObject());
+        } else {
+            // the content is stored in a spool file, which is referenced by
+            // a property
+            copy = session.createMessage();
+        }
 
-        Enumeration<String> properties = message.getPropertyNames();
+        Enumeration<String> properties = m.getPropertyNames();
         while (properties.hasMoreElements()) {
             String name = properties.nextElement();
-            copy.setObjectProperty(name, message.getObjectProperty(name));
+            copy.setObjectProperty(name, m.getObjectProperty(name));
         }
 
         return copy;
@@ -742,6 +1214,78 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
         return -1;
     }
 
+    /**
+     * Only the JMS properties of the browsed messages are read
+     * 
+     * @see org.apache.james.queue.api.ManageableMailQueue#browseHeaders(long, int)
+     */
+    @SuppressWarnings("unchecked")
+    public List<MailQueueItemHeaderView> browseHeaders(long offset, int limit) throws MailQueueException {
+        Connection connection = null;
+        Session session = null;
+        QueueBrowser browser = null;
+        List<MailQueueItemHeaderView> views = new ArrayList<MailQueueItemHeaderView>();
+        try {
+            connection = connectionFactory.createConnection();
+            connection.start();
+            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            Queue queue = session.createQueue(queuename);
+
+            browser = session.createBrowser(queue);
+
+            Enumeration<Message> messages = browser.getEnumeration();
+            for (long i = 0; i < offset && messages.hasMoreElements(); i++) {
+                messages.nextElement();
+            }
+            while (views.size() < limit && messages.hasMoreElements()) {
+                Message m = messages.nextElement();
+                final MailImpl mail = new MailImpl();
+                populateMail(m, mail);
+                final long nextDelivery = m.getLongProperty(JAMES_NEXT_DELIVERY);
+                final long messageSize = m.propertyExists(JAMES_MAIL_MESSAGE_SIZE) ? m.getLongProperty(JAMES_MAIL_MESSAGE_SIZE) : -1;
+                views.add(new MailQueueItemHeaderView() {
+
+                    public long getNextDelivery() {
+                        return nextDelivery;
+                    }
+
+                    public Mail getMail() {
+                        return mail;
+                    }
+
+                    public long getMessageSize() {
+                        return messageSize;
+                    }
+                });
+            }
+            return views;
+        } catch (Exception e) {
+            logger.error("Unable to browse queue " + queuename, e);
+            throw new MailQueueException("Unable to browse queue " + queuename, e);
+        } finally {
+            try {
+                if (browser != null)
+                    browser.close();
+            } catch (JMSException e1) {
+                // ignore here
+            }
+
+            try {
+                if (session != null)
+                    session.close();
+            } catch (JMSException e1) {
+                // ignore here
+            }
+
+            try {
+                if (connection != null)
+                    connection.close();
+            } catch (JMSException e1) {
+                // ignore here
+            }
+        }
+    }
+
     /**
      * @see org.apache.james.queue.api.ManageableMailQueue#browse()
      */
@@ -874,4 +1418,32 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
         }
     }
 
+    /**
+     * {@link OutputStream} which writes to the body of a {@link BytesMessage}
+     */
+    private final static class BytesMessageOutputStream extends OutputStream {
+        private final BytesMessage message;
+
+        public BytesMessageOutputStream(BytesMessage message) {
+            this.message = message;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                message.writeByte((byte) b);
+            } catch (JMSException e) {
+                throw new IOException("Unable to write to message", e);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                message.writeBytes(b, off, len);
+            } catch (JMSException e) {
+                throw new IOException("Unable to write to message", e);
+            }
+        }
+    }
 }
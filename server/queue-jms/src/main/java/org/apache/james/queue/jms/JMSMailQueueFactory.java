@@ -18,8 +18,12 @@
  ****************************************************************/
 package org.apache.james.queue.jms;
 
+import java.io.File;
+
 import javax.annotation.Resource;
 import javax.jms.ConnectionFactory;
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
 
 import org.apache.james.queue.api.MailQueue;
 import org.apache.james.queue.api.MailQueueFactory;
@@ -31,18 +35,87 @@ import org.apache.james.queue.library.AbstractMailQueueFactory;
 public class JMSMailQueueFactory extends AbstractMailQueueFactory {
 
     protected ConnectionFactory connectionFactory;
+    private long receiveTimeout = JMSMailQueue.DEFAULT_RECEIVE_TIMEOUT;
+    private int maxIdleSessions = JMSMailQueue.DEFAULT_MAX_IDLE_SESSIONS;
+    private boolean keepConsumers = false;
+    private File spoolDirectory;
 
     @Resource(name = "jmsConnectionFactory")
     public void setConnectionFactory(ConnectionFactory connectionFactory) {
         this.connectionFactory = connectionFactory;
     }
 
+    /**
+     * @see JMSMailQueue#setReceiveTimeout(long)
+     */
+    public void setReceiveTimeout(long receiveTimeout) {
+        this.receiveTimeout = receiveTimeout;
+    }
+
+    /**
+     * @see JMSMailQueue#setMaxIdleSessions(int)
+     */
+    public void setMaxIdleSessions(int maxIdleSessions) {
+        this.maxIdleSessions = maxIdleSessions;
+    }
+
+    /**
+     * @see JMSMailQueue#setKeepConsumers(boolean)
+     */
+    public void setKeepConsumers(boolean keepConsumers) {
+        this.keepConsumers = keepConsumers;
+    }
+
+    /**
+     * Set the directory in which the queues spool the message content. Every
+     * queue uses a sub-directory named like the queue.
+     * 
+     * @see JMSMailQueue#setSpoolDirectory(File)
+     */
+    public void setSpoolDirectory(File spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+    }
+
     /**
      * @see
      * org.apache.james.queue.library.AbstractMailQueueFactory#createMailQueue
      * (java.lang.String)
      */
     protected MailQueue createMailQueue(String name) {
-        return new JMSMailQueue(connectionFactory, name, log);
+        return configure(new JMSMailQueue(connectionFactory, name, log));
+    }
+
+    /**
+     * Apply the configuration of the dequeue session pool to the given
+     * {@link JMSMailQueue}
+     * 
+     * @param queue
+     * @return queue
+     */
+    protected JMSMailQueue configure(JMSMailQueue queue) {
+        queue.setReceiveTimeout(receiveTimeout);
+        queue.setMaxIdleSessions(maxIdleSessions);
+        queue.setKeepConsumers(keepConsumers);
+        if (spoolDirectory != null) {
+            queue.setSpoolDirectory(new File(spoolDirectory, queue.queuename));
+        }
+        return queue;
+    }
+
+    /**
+     * Also register the statistics of the dequeue session pool
+     * 
+     * @see org.apache.james.queue.library.AbstractMailQueueFactory#registerMBean(java.lang.String, org.apache.james.queue.api.MailQueue)
+     */
+    @Override
+    protected synchronized void registerMBean(String queuename, MailQueue queue) {
+        super.registerMBean(queuename, queue);
+        if (queue instanceof JMSMailQueueMBean) {
+            try {
+                registerMBeanObject("org.apache.james:type=component,name=queue,queue=" + queuename + ",sub-type=dequeue", new StandardMBean((JMSMailQueueMBean) queue, JMSMailQueueMBean.class));
+            } catch (NotCompliantMBeanException e) {
+                throw new RuntimeException("Unable to register mbean", e);
+            }
+        }
     }
 }
\ No newline at end of file
@@ -37,18 +37,40 @@ public class JMSMailQueueItem implements MailQueueItem {
     protected final Connection connection;
     protected final Session session;
     protected final MessageConsumer consumer;
+    private final JMSMailQueue.DequeueSession dequeueSession;
 
     public JMSMailQueueItem(Mail mail, Connection connection, Session session, MessageConsumer consumer) {
         this.mail = mail;
         this.connection = connection;
         this.session = session;
         this.consumer = consumer;
+        this.dequeueSession = null;
+    }
+
+    /**
+     * Create a item for a mail which was dequeued via a pooled
+     * {@link JMSMailQueue.DequeueSession}. The session is released to the
+     * pool once the item is done.
+     * 
+     * @param mail
+     * @param dequeueSession
+     */
+    public JMSMailQueueItem(Mail mail, JMSMailQueue.DequeueSession dequeueSession) {
+        this.mail = mail;
+        this.connection = null;
+        this.session = dequeueSession.getSession();
+        this.consumer = dequeueSession.getConsumer();
+        this.dequeueSession = dequeueSession;
     }
 
     /**
      * @see org.apache.james.queue.api.MailQueue.MailQueueItem#done(boolean)
      */
     public void done(boolean success) throws MailQueueException {
+        if (dequeueSession != null) {
+            donePooled(success);
+            return;
+        }
         try {
             if (success) {
                 session.commit();
@@ -86,6 +108,35 @@ public class JMSMailQueueItem implements MailQueueItem {
         }
     }
 
+    /**
+     * Commit or rollback the mail and release the pooled
+     * {@link JMSMailQueue.DequeueSession}. The session is only reused if the
+     * mail was removed from the queue, a rolled back mail needs to get back to
+     * the broker.
+     * 
+     * @param success
+     * @throws MailQueueException
+     */
+    private void donePooled(boolean success) throws MailQueueException {
+        boolean committed = false;
+        try {
+            if (success) {
+                session.commit();
+                committed = true;
+            } else {
+                try {
+                    session.rollback();
+                } catch (JMSException e1) {
+                    // ignore on rollback
+                }
+            }
+        } catch (JMSException ex) {
+            throw new MailQueueException("Unable to commit dequeue operation for mail " + mail.getName(), ex);
+        } finally {
+            dequeueSession.release(committed);
+        }
+    }
+
     /**
      * @see org.apache.james.queue.api.MailQueue.MailQueueItem#getMail()
      */
@@ -0,0 +1,64 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.queue.jms;
+
+/**
+ * JMX MBean which exposes the statistics of the pooled dequeue sessions of a
+ * {@link JMSMailQueue}
+ */
+public interface JMSMailQueueMBean {
+
+    /**
+     * Return the count of mails which were dequeued but not marked as done
+     * yet
+     * 
+     * @return inFlight
+     */
+    int getInFlight();
+
+    /**
+     * Return the count of sessions which are pooled and ready to get used for
+     * the next dequeue
+     * 
+     * @return idleSessions
+     */
+    int getIdleSessions();
+
+    /**
+     * Return the count of mails which were dequeued since the start
+     * 
+     * @return dequeued
+     */
+    long getDequeued();
+
+    /**
+     * Return the count of sessions which were created since the start
+     * 
+     * @return sessionsCreated
+     */
+    long getSessionsCreated();
+
+    /**
+     * Return the count of consumers which were created since the start
+     * 
+     * @return consumersCreated
+     */
+    long getConsumersCreated();
+}
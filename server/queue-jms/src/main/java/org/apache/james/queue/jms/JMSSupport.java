@@ -62,4 +62,10 @@ public interface JMSSupport {
     /** JMS Property which holds next delivery time as long (ms) */
     final static String JAMES_NEXT_DELIVERY = "JAMES_NEXT_DELIVERY";
 
+    /**
+     * JMS Property which holds the name of the spool file with the message
+     * content as String
+     */
+    final static String JAMES_MAIL_SPOOL_FILE = "JAMES_MAIL_SPOOL_FILE";
+
 }
@@ -0,0 +1,114 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.queue.jms;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.mail.util.SharedByteArrayInputStream;
+
+import org.apache.james.core.MimeMessageSource;
+import org.apache.james.lifecycle.api.Disposable;
+import org.apache.james.lifecycle.api.LifecycleUtil;
+
+/**
+ * {@link MimeMessageSource} implementation which reads the data from the body
+ * of a {@link BytesMessage}. The body is read once into a byte array which is
+ * shared by all returned streams.
+ */
+public class MimeMessageBytesMessageSource extends MimeMessageSource implements Disposable {
+
+    private final BytesMessage message;
+    private final SharedByteArrayInputStream in;
+    private final String id;
+    private byte[] content;
+
+    public MimeMessageBytesMessageSource(BytesMessage message) throws JMSException {
+        this.message = message;
+        this.id = message.getJMSMessageID();
+        message.reset();
+        long length = message.getBodyLength();
+        if (length > Integer.MAX_VALUE) {
+            throw new JMSException("Message " + id + " is too big to be read into memory");
+        }
+        this.content = new byte[(int) length];
+        int off = message.readBytes(content);
+        if (off < content.length) {
+            // the provider returned only a part of the body, so read the
+            // rest in chunks
+            byte[] buffer = new byte[Math.min(8192, content.length - Math.max(off, 0))];
+            off = Math.max(off, 0);
+            while (off < content.length) {
+                int c = message.readBytes(buffer, Math.min(buffer.length, content.length - off));
+                if (c == -1) {
+                    throw new JMSException("Unexpected end of body in message " + id);
+                }
+                System.arraycopy(buffer, 0, content, off, c);
+                off += c;
+            }
+        }
+        in = new SharedByteArrayInputStream(content);
+    }
+
+    @Override
+    public long getMessageSize() throws IOException {
+        return content.length;
+    }
+
+    /**
+     * @see org.apache.james.core.MimeMessageSource#getInputStream()
+     */
+    public InputStream getInputStream() throws IOException {
+        return in.newStream(0, -1);
+    }
+
+    /**
+     * @see org.apache.james.core.MimeMessageSource#getSourceId()
+     */
+    public String getSourceId() {
+        return id;
+    }
+
+    /**
+     * @see org.apache.james.lifecycle.api.Disposable#dispose()
+     */
+    public void dispose() {
+        try {
+            in.close();
+        } catch (IOException e1) {
+            // ignore on dispose
+        }
+        LifecycleUtil.dispose(in);
+
+        try {
+            message.clearBody();
+        } catch (JMSException e) {
+            // ignore on dispose
+        }
+        try {
+            message.clearProperties();
+        } catch (JMSException e) {
+            // ignore on dispose
+        }
+        content = null;
+    }
+
+}
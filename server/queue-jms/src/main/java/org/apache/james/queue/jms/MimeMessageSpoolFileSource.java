@@ -0,0 +1,84 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.queue.jms;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.mail.util.SharedFileInputStream;
+
+import org.apache.james.core.MimeMessageSource;
+import org.apache.james.lifecycle.api.Disposable;
+
+/**
+ * {@link MimeMessageSource} implementation which reads the data from a spool
+ * file of the {@link JMSMailQueue}. The file itself is not deleted on
+ * dispose, this is done by the {@link JMSMailQueue} once the mail was removed
+ * from the queue.
+ */
+public class MimeMessageSpoolFileSource extends MimeMessageSource implements Disposable {
+
+    private final List<InputStream> streams = new ArrayList<InputStream>();
+    private final String id;
+    private final File file;
+
+    public MimeMessageSpoolFileSource(String id, File file) {
+        this.id = id;
+        this.file = file;
+    }
+
+    @Override
+    public long getMessageSize() throws IOException {
+        return file.length();
+    }
+
+    /**
+     * @see org.apache.james.core.MimeMessageSource#getInputStream()
+     */
+    public synchronized InputStream getInputStream() throws IOException {
+        InputStream in = new SharedFileInputStream(file);
+        streams.add(in);
+        return in;
+    }
+
+    /**
+     * @see org.apache.james.core.MimeMessageSource#getSourceId()
+     */
+    public String getSourceId() {
+        return id;
+    }
+
+    /**
+     * @see org.apache.james.lifecycle.api.Disposable#dispose()
+     */
+    public synchronized void dispose() {
+        for (int i = 0; i < streams.size(); i++) {
+            try {
+                streams.get(i).close();
+            } catch (IOException e) {
+                // ignore on dispose
+            }
+        }
+        streams.clear();
+    }
+
+}
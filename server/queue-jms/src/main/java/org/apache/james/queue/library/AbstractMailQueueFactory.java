@@ -62,8 +62,11 @@ public abstract class AbstractMailQueueFactory implements MailQueueFactory, LogE
 
     @PreDestroy
     public void destroy() {
-        for (int i = 0; i < mbeans.size(); i++) {
-            unregisterMBean(mbeans.get(i));
+        // unregisterMBean removes the name from the list, so iterate over a
+        // copy
+        List<String> names = new ArrayList<String>(mbeans);
+        for (int i = 0; i < names.size(); i++) {
+            unregisterMBean(names.get(i));
         }
 
         Iterator<MailQueue> it = queues.values().iterator();
@@ -119,6 +122,22 @@ public abstract class AbstractMailQueueFactory implements MailQueueFactory, LogE
 
     }
 
+    /**
+     * Register an additional MBean for a {@link MailQueue}. It gets
+     * unregistered on {@link #destroy()}
+     * 
+     * @param mbeanName
+     * @param mbean
+     */
+    protected synchronized void registerMBeanObject(String mbeanName, Object mbean) {
+        try {
+            mbeanServer.registerMBean(mbean, new ObjectName(mbeanName));
+            mbeans.add(mbeanName);
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to register mbean", e);
+        }
+    }
+
     protected synchronized void unregisterMBean(String mbeanName) {
         try {
             mbeanServer.unregisterMBean(new ObjectName(mbeanName));
@@ -25,6 +25,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import javax.management.NotCompliantMBeanException;
 import javax.management.StandardMBean;
@@ -37,6 +38,7 @@ import javax.management.openmbean.SimpleType;
 import org.apache.james.queue.api.MailQueueManagementMBean;
 import org.apache.james.queue.api.ManageableMailQueue;
 import org.apache.james.queue.api.MailQueue.MailQueueException;
+import org.apache.james.queue.api.ManageableMailQueue.MailQueueItemHeaderView;
 import org.apache.james.queue.api.ManageableMailQueue.MailQueueItemView;
 import org.apache.james.queue.api.ManageableMailQueue.MailQueueIterator;
 import org.apache.james.queue.api.ManageableMailQueue.Type;
@@ -126,6 +128,67 @@ public class MailQueueManagement extends StandardMBean implements MailQueueManag
         }
     }
 
+    /**
+     * @see org.apache.james.queue.api.MailQueueManagementMBean#getNextDeliveryCounts(long)
+     */
+    public Map<Long, Long> getNextDeliveryCounts(long bucketSizeInMillis) throws Exception {
+        try {
+            return new TreeMap<Long, Long>(queue.getNextDeliveryCounts(bucketSizeInMillis));
+        } catch (MailQueueException e) {
+            throw new Exception(e.getMessage());
+        }
+    }
+
+    /**
+     * @see org.apache.james.queue.api.MailQueueManagementMBean#browseHeaders(long, int)
+     */
+    @SuppressWarnings("unchecked")
+    public List<CompositeData> browseHeaders(long offset, int limit) throws Exception {
+        List<MailQueueItemHeaderView> views;
+        try {
+            views = queue.browseHeaders(offset, limit);
+        } catch (MailQueueException e) {
+            throw new Exception(e.getMessage());
+        }
+        String[] names = new String[] { "name", "sender", "recipients", "size", "nextDelivery" };
+        String[] descs = new String[] { "Unique name", "Sender", "Recipients", "Size in bytes", "Timestamp of when the next delivery attempt will be make" };
+        OpenType[] types = new OpenType[] { SimpleType.STRING, SimpleType.STRING, SimpleType.STRING, SimpleType.LONG, SimpleType.LONG };
+        CompositeType type = new CompositeType(Mail.class.getName(), "Queue Mail header", names, descs, types);
+
+        List<CompositeData> data = new ArrayList<CompositeData>();
+        for (int i = 0; i < views.size(); i++) {
+            MailQueueItemHeaderView view = views.get(i);
+            Mail m = view.getMail();
+            Map<String, Object> map = new HashMap<String, Object>();
+            map.put(names[0], m.getName());
+            String sender = null;
+            MailAddress senderAddress = m.getSender();
+            if (senderAddress != null) {
+                sender = senderAddress.toString();
+            }
+            map.put(names[1], sender);
+            map.put(names[2], toString(m.getRecipients()));
+            map.put(names[3], view.getMessageSize());
+            map.put(names[4], view.getNextDelivery());
+            data.add(new CompositeDataSupport(type, map));
+        }
+        return data;
+    }
+
+    private String toString(Collection<MailAddress> rcpts) {
+        StringBuilder rcptsBuilder = new StringBuilder();
+        if (rcpts != null) {
+            Iterator<MailAddress> rcptsIt = rcpts.iterator();
+            while (rcptsIt.hasNext()) {
+                rcptsBuilder.append(rcptsIt.next().toString());
+                if (rcptsIt.hasNext()) {
+                    rcptsBuilder.append(",");
+                }
+            }
+        }
+        return rcptsBuilder.toString();
+    }
+
     /**
      * @see org.apache.james.queue.api.MailQueueManagementMBean#browse()
      */
@@ -152,18 +215,7 @@ public class MailQueueManagement extends StandardMBean implements MailQueueManag
             map.put(names[1], sender);
             map.put(names[2], m.getState());
 
-            StringBuilder rcptsBuilder = new StringBuilder();
-            Collection<MailAddress> rcpts = m.getRecipients();
-            if (rcpts != null) {
-                Iterator<MailAddress> rcptsIt = rcpts.iterator();
-                while (rcptsIt.hasNext()) {
-                    rcptsBuilder.append(rcptsIt.next().toString());
-                    if (rcptsIt.hasNext()) {
-                        rcptsBuilder.append(",");
-                    }
-                }
-            }
-            map.put(names[3], rcptsBuilder.toString());
+            map.put(names[3], toString(m.getRecipients()));
             map.put(names[4], m.getMessageSize());
             map.put(names[5], m.getLastUpdated().getTime());
             map.put(names[6], m.getRemoteAddr());
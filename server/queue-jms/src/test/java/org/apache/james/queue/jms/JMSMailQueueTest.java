@@ -18,10 +18,14 @@
  ****************************************************************/
 package org.apache.james.queue.jms;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 import javax.jms.ConnectionFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.mail.MessagingException;
 import javax.mail.Session;
 import javax.mail.internet.MimeMessage;
@@ -88,6 +92,14 @@ public class JMSMailQueueTest {
         return aQueue;
     }
 
+    /**
+     * Return true if the queue writes the message content to the spool
+     * directory once it is set
+     */
+    protected boolean useSpoolFiles() {
+        return true;
+    }
+
     @After
     public void tearDown() throws Exception {
         if (broker != null) {
@@ -409,4 +421,115 @@ public class JMSMailQueueTest {
         assertFalse(it.hasNext());
         it.close();
     }
+
+    @Test
+    public void testDequeueSessionsAreReused() throws MessagingException, InterruptedException, IOException, MailAddressException {
+        for (int i = 0; i < 3; i++) {
+            queue.enQueue(createMail());
+        }
+
+        Thread.sleep(200);
+
+        for (int i = 0; i < 3; i++) {
+            MailQueueItem item = queue.deQueue();
+            assertEquals(1, queue.getInFlight());
+            item.done(true);
+            assertEquals(0, queue.getInFlight());
+        }
+
+        assertEquals(3, queue.getDequeued());
+        assertEquals(1, queue.getSessionsCreated());
+        assertEquals(1, queue.getIdleSessions());
+        assertEquals(0, queue.getSize());
+    }
+
+    @Test
+    public void testSpoolDirectory() throws MessagingException, InterruptedException, IOException, MailAddressException {
+        File spool = new File("target/spool-" + System.currentTimeMillis());
+        queue.setSpoolDirectory(spool);
+
+        Mail mail = createMail();
+        Mail mail2 = createMail();
+        queue.enQueue(mail);
+        queue.enQueue(mail2);
+
+        Thread.sleep(200);
+
+        assertEquals(useSpoolFiles() ? 2 : 0, spool.exists() ? spool.list().length : 0);
+
+        MailQueueItem item = queue.deQueue();
+        checkMail(mail, item.getMail());
+        item.done(false);
+
+        item = queue.deQueue();
+        checkMail(mail, item.getMail());
+        item.done(true);
+
+        assertEquals(1, queue.remove(ManageableMailQueue.Type.Name, mail2.getName()));
+
+        // every spool file is gone once the mails left the queue
+        assertEquals(0, spool.exists() ? spool.list().length : 0);
+        assertEquals(0, queue.getSize());
+    }
+
+    @Test
+    public void testNextDeliveryCounts() throws MessagingException, InterruptedException, MailAddressException {
+        queue.enQueue(createMail());
+        queue.enQueue(createMail(), 1, TimeUnit.HOURS);
+        queue.enQueue(createMail(), 1, TimeUnit.HOURS);
+
+        Thread.sleep(200);
+
+        SortedMap<Long, Long> counts = queue.getNextDeliveryCounts(24 * 60 * 60 * 1000);
+        assertEquals(Long.valueOf(1), counts.get(0L));
+        long delayed = 0;
+        for (Long count : counts.tailMap(1L).values()) {
+            delayed += count;
+        }
+        assertEquals(2, delayed);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNextDeliveryCountsWithInvalidBucketSize() throws MessagingException {
+        queue.getNextDeliveryCounts(0);
+    }
+
+    @Test
+    public void testBrowseHeaders() throws MessagingException, InterruptedException, MailAddressException {
+        Mail mail = createMail();
+        Mail mail2 = createMail();
+        Mail mail3 = createMail();
+        queue.enQueue(mail);
+        queue.enQueue(mail2);
+        queue.enQueue(mail3, 1, TimeUnit.HOURS);
+
+        Thread.sleep(200);
+
+        List<ManageableMailQueue.MailQueueItemHeaderView> views = queue.browseHeaders(1, 5);
+        assertEquals(2, views.size());
+        assertEquals(mail2.getName(), views.get(0).getMail().getName());
+        assertEquals(mail2.getSender(), views.get(0).getMail().getSender());
+        assertEquals(mail2.getMessageSize(), views.get(0).getMessageSize());
+        assertEquals(mail3.getName(), views.get(1).getMail().getName());
+        assertTrue(views.get(1).getNextDelivery() > System.currentTimeMillis());
+
+        assertEquals(1, queue.browseHeaders(0, 1).size());
+        assertEquals(3, queue.getSize());
+    }
+
+    @Test
+    public void testFactoryDestroyShouldUnregisterAllMBeans() throws Exception {
+        JMSMailQueueFactory factory = new JMSMailQueueFactory();
+        factory.setConnectionFactory(createConnectionFactory());
+        factory.setLog(LoggerFactory.getLogger("MockLog"));
+        factory.init();
+        factory.getQueue("mbeans");
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName names = new ObjectName("org.apache.james:type=component,name=queue,queue=mbeans,*");
+        assertEquals(2, server.queryNames(names, null).size());
+
+        factory.destroy();
+        assertEquals(0, server.queryNames(names, null).size());
+    }
 }